@@ -0,0 +1,901 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.generator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Generates LFXProtocolSchema from the protocol schema, see 
+ * src/main/protocol/lx-protocol.schema for the format. Only the payload 
+ * codec tables and the field accessors are generated, the LxProtocol.Type
+ * enum and the payload classes the tables refer to are hand written. Run by
+ * the build in the generate-sources phase:
+ * 
+ * <pre>
+ * LxProtocolGenerator &lt;schema file&gt; &lt;output directory&gt;
+ * </pre>
+ * 
+ * The file is only written if it has changed, so the sources are not 
+ * recompiled on every build.
+ */
+public class LxProtocolGenerator {
+    private static final String PACKAGE = "com.github.besherman.lifx.impl.entities.internal";
+    private static final String STRUCTLE_PACKAGE = PACKAGE + ".structle";
+    private static final String CLASS_NAME = "LFXProtocolSchema";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final Map<String, Struct> structs = new HashMap<>();
+    private final List<Message> messages = new ArrayList<>();
+    private final StringBuilder out = new StringBuilder();
+    
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("usage: LxProtocolGenerator <schema file> <output directory>");
+            System.exit(1);
+        }
+        
+        File schema = new File(args[0]);
+        File file = new File(args[1], PACKAGE.replace('.', File.separatorChar) 
+                + File.separator + CLASS_NAME + ".java");
+        
+        LxProtocolGenerator generator = new LxProtocolGenerator();
+        generator.parse(schema);
+        String source = generator.generate(schema.getName());
+        
+        if(file.exists() && source.equals(read(file))) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8)) {
+            writer.write(source);
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    // Parsing
+    ////////////////////////////////////////////////////////////////////////////
+    
+    void parse(File schema) throws IOException {
+        Struct current = null;
+        int lineNumber = 0;
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(schema), UTF8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if(comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                
+                String[] tokens = line.trim().split("\\s+");
+                try {
+                    if(Character.isWhitespace(line.charAt(0))) {
+                        if(current == null) {
+                            throw new IllegalArgumentException("field outside of a struct or message");
+                        }
+                        current.add(parseField(tokens));
+                    } else if(tokens[0].equals("struct")) {
+                        current = parseStruct(tokens);
+                    } else if(tokens[0].equals("message")) {
+                        current = parseMessage(tokens);
+                    } else {
+                        throw new IllegalArgumentException("unknown declaration " + tokens[0]);
+                    }
+                } catch(IllegalArgumentException ex) {
+                    throw new IllegalArgumentException(schema + ":" + lineNumber + ": " + ex.getMessage(), ex);
+                }
+            }
+        }
+        validate();
+    }
+    
+    private Struct parseStruct(String[] tokens) {
+        if(tokens.length < 2 || tokens.length > 3) {
+            throw new IllegalArgumentException("expected struct <Group>.<Class> [padded]");
+        }
+        Struct struct = new Struct(tokens[1]);
+        if(tokens.length == 3) {
+            if(!tokens[2].equals("padded")) {
+                throw new IllegalArgumentException("unknown option " + tokens[2]);
+            }
+            struct.padded = true;
+        }
+        if(structs.put(struct.className, struct) != null) {
+            throw new IllegalArgumentException(struct.className + " is declared twice");
+        }
+        return struct;
+    }
+    
+    private Message parseMessage(String[] tokens) {
+        if(tokens.length < 4) {
+            throw new IllegalArgumentException("expected message <Type> <value> <Group>.<Class> [options]");
+        }
+        Message message = new Message(tokens[1], Integer.parseInt(tokens[2]), tokens[3]);
+        for(int i = 4; i < tokens.length; i++) {
+            switch(tokens[i]) {
+                case "padded":
+                    message.padded = true;
+                    break;
+                case "response":
+                    message.response = true;
+                    break;
+                case "expects":
+                    message.expects = argument(tokens, ++i);
+                    break;
+                case "opaque":
+                    message.opaqueSize = Integer.parseInt(argument(tokens, ++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + tokens[i]);
+            }
+        }
+        messages.add(message);
+        return message;
+    }
+    
+    private Field parseField(String[] tokens) {
+        if(tokens.length != 2) {
+            throw new IllegalArgumentException("expected <type> <name>");
+        }
+        String type = tokens[0];
+        String name = tokens[1];
+        
+        int bracket = type.indexOf('[');
+        if(bracket >= 0) {
+            if(!type.endsWith("]")) {
+                throw new IllegalArgumentException("bad field type " + type);
+            }
+            int size = Integer.parseInt(type.substring(bracket + 1, type.length() - 1));
+            Kind kind = Kind.forName(type.substring(0, bracket));
+            if(kind != Kind.BYTES && kind != Kind.STRING) {
+                throw new IllegalArgumentException(type + " can not have a size");
+            }
+            return new Field(kind, size, name, null);
+        }
+        
+        if(type.indexOf('.') >= 0) {
+            Struct struct = structs.get(type);
+            if(struct == null) {
+                throw new IllegalArgumentException("unknown struct " + type + ", structs must be declared before they are used");
+            }
+            return new Field(Kind.STRUCT, struct.getSize(), name, struct);
+        }
+        
+        Kind kind = Kind.forName(type);
+        if(kind == Kind.BYTES || kind == Kind.STRING) {
+            throw new IllegalArgumentException(type + " must have a size");
+        }
+        return new Field(kind, kind.size, name, null);
+    }
+    
+    private static String argument(String[] tokens, int index) {
+        if(index >= tokens.length) {
+            throw new IllegalArgumentException(tokens[index - 1] + " needs an argument");
+        }
+        return tokens[index];
+    }
+    
+    private void validate() {
+        Map<Integer, Message> byValue = new HashMap<>();
+        Map<String, Message> byType = new HashMap<>();
+        for(Message message: messages) {
+            Message other = byValue.put(message.value, message);
+            if(other != null) {
+                throw new IllegalArgumentException("type value " + message.value + " is used by both " 
+                        + other.type + " and " + message.type);
+            }
+            if(byType.put(message.type, message) != null) {
+                throw new IllegalArgumentException(message.type + " is declared twice");
+            }
+            if(message.opaqueSize >= 0 && !message.fields.isEmpty()) {
+                throw new IllegalArgumentException(message.type + " is opaque but has fields");
+            }
+        }
+        for(Message message: messages) {
+            if(message.expects != null) {
+                Message response = byType.get(message.expects);
+                if(response == null || !response.response) {
+                    throw new IllegalArgumentException(message.type + " expects " + message.expects 
+                            + " which is not a response");
+                }
+            }
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    // Generation
+    ////////////////////////////////////////////////////////////////////////////
+    
+    String generate(String schemaName) {
+        TreeSet<String> groups = new TreeSet<>();
+        List<String> families = new ArrayList<>();
+        for(Message message: messages) {
+            groups.add(message.group);
+            if(!families.contains(message.group)) {
+                families.add(message.group);
+            }
+        }
+        
+        line("/*");
+        line(" * Generated by LxProtocolGenerator from %s, do not edit.", schemaName);
+        line(" */");
+        line("package %s;", PACKAGE);
+        line("");
+        // the types and the payload classes are hand written, the tables 
+        // only refer to them
+        line("import %s.LxProtocol.Type;", STRUCTLE_PACKAGE);
+        for(String group: groups) {
+            line("import %s.LxProtocol%s;", STRUCTLE_PACKAGE, group);
+        }
+        for(String type: Arrays.asList("Bool8", "Float32", "Int16", "Int32", "LxProtocolTypeBase", 
+                "UInt16", "UInt32", "UInt64", "UInt8")) {
+            line("import %s.StructleTypes.%s;", STRUCTLE_PACKAGE, type);
+        }
+        line("import java.nio.ByteBuffer;");
+        line("import java.nio.charset.Charset;");
+        line("");
+        line("/**");
+        line(" * The payload layouts of the protocol. Each message with fields has a");
+        line(" * nested class with the offsets of the fields and accessors that read and");
+        line(" * write them straight from a buffer without creating any objects, and");
+        line(" * every message has a number, its index in the tables below, that decode");
+        line(" * and encode switch on.");
+        line(" * ");
+        line(" * The switches are split into a nested class per message family. Loading a");
+        line(" * class with a switch loads every payload class it mentions, so this way");
+        line(" * only the families that are actually used are loaded, and this class is");
+        line(" * small enough to load quickly when the client starts.");
+        line(" * ");
+        line(" * Offsets are relative to the start of the payload, struct fields are");
+        line(" * flattened into the message. Indexes passed to the accessors are the");
+        line(" * index of the payload in the buffer. The byte order of the buffer is");
+        line(" * ignored, everything is little endian.");
+        line(" */");
+        line("final class %s {", CLASS_NAME);
+        line("    static final int MESSAGE_COUNT = %d;", messages.size());
+        line("    ");
+        line("    static final Type[] TYPES = {");
+        for(Message message: messages) {
+            line("        Type.%s,", message.type);
+        }
+        line("    };");
+        line("    ");
+        StringBuilder values = new StringBuilder();
+        StringBuilder sizes = new StringBuilder();
+        StringBuilder responses = new StringBuilder();
+        for(Message message: messages) {
+            values.append(values.length() > 0 ? ", " : "").append(message.value);
+            sizes.append(sizes.length() > 0 ? ", " : "").append(message.getSize());
+            responses.append(responses.length() > 0 ? ", " : "").append(message.response);
+        }
+        line("    static final int[] TYPE_VALUES = {%s};", values);
+        line("    ");
+        line("    static final int[] PAYLOAD_SIZES = {%s};", sizes);
+        line("    ");
+        line("    static final boolean[] RESPONSES = {%s};", responses);
+        line("    ");
+        line("    static final Type[] EXPECTED_RESPONSES = {");
+        for(Message message: messages) {
+            line("        %s,", message.expects != null ? "Type." + message.expects : "null");
+        }
+        line("    };");
+        line("    ");
+        StringBuilder messageFamilies = new StringBuilder();
+        for(Message message: messages) {
+            messageFamilies.append(messageFamilies.length() > 0 ? ", " : "").append(families.indexOf(message.group));
+        }
+        line("    // the index of the nested class that decodes and encodes the message");
+        line("    private static final int[] FAMILIES = {%s};", messageFamilies);
+        line("    ");
+        line("    private static final Charset UTF8 = Charset.forName(\"UTF-8\");");
+        line("    ");
+        line("    private %s() {", CLASS_NAME);
+        line("    }");
+        line("    ");
+        
+        generateDecode(families);
+        generateEncode(families);
+        for(String family: families) {
+            generateFamilyClass(family);
+        }
+        for(Message message: messages) {
+            if(!message.fields.isEmpty()) {
+                generateMessageClass(message);
+            }
+        }
+        generateHelpers();
+        
+        line("}");
+        return out.toString();
+    }
+    
+    private void generateDecode(List<String> families) {
+        line("    /**");
+        line("     * Creates the payload of the message from the buffer.");
+        line("     * ");
+        line("     * @param message the number of the message");
+        line("     * @param index the index of the payload in buf, which must be preceded");
+        line("     *              by the header of the message");
+        line("     */");
+        line("    static LxProtocolTypeBase decode(int message, ByteBuffer buf, int index) {");
+        line("        switch(FAMILIES[message]) {");
+        for(int i = 0; i < families.size(); i++) {
+            line("            case %d: return %sMessages.decode(message, buf, index);", i, families.get(i));
+        }
+        line("            default: throw new IllegalArgumentException(\"unknown message \" + message);");
+        line("        }");
+        line("    }");
+        line("    ");
+    }
+    
+    private void generateEncode(List<String> families) {
+        line("    /**");
+        line("     * Writes the payload of the message into the buffer at the index.");
+        line("     * ");
+        line("     * @param message the number of the message");
+        line("     */");
+        line("    static void encode(int message, LxProtocolTypeBase payload, ByteBuffer buf, int index) {");
+        line("        boolean encoded;");
+        line("        switch(FAMILIES[message]) {");
+        for(int i = 0; i < families.size(); i++) {
+            line("            case %d:", i);
+            line("                encoded = %sMessages.encode(message, payload, buf, index);", families.get(i));
+            line("                break;");
+        }
+        line("            default:");
+        line("                throw new IllegalArgumentException(\"unknown message \" + message);");
+        line("        }");
+        line("        if(!encoded) {");
+        line("            // opaque payloads, and payloads that are not of the class in the");
+        line("            // schema, like the raw payloads of the simulator, are written as is");
+        line("            writeBytes(buf, index, PAYLOAD_SIZES[message], payload.getBytes());");
+        line("        }");
+        line("    }");
+        line("    ");
+    }
+    
+    private void generateFamilyClass(String family) {
+        line("    /**");
+        line("     * Decodes and encodes the %s messages.", family);
+        line("     */");
+        line("    static final class %sMessages {", family);
+        line("        private %sMessages() {", family);
+        line("        }");
+        line("        ");
+        line("        static LxProtocolTypeBase decode(int message, ByteBuffer buf, int index) {");
+        line("            switch(message) {");
+        for(int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if(!message.group.equals(family)) {
+                continue;
+            }
+            if(message.opaqueSize >= 0) {
+                line("                case %d: return new %s(readMessage(buf, index, %d), LFXMessageEncoder.HEADER_SIZE);", 
+                        i, message.javaClass(), message.opaqueSize);
+            } else if(message.fields.isEmpty()) {
+                line("                case %d: return new %s(%s);", i, message.javaClass(), message.padded ? "(Object) null" : "");
+            } else {
+                line("                case %d: return %s.decode(buf, index);", i, message.nestedClass());
+            }
+        }
+        line("                default: throw new IllegalArgumentException(\"unknown message \" + message);");
+        line("            }");
+        line("        }");
+        line("        ");
+        line("        /**");
+        line("         * Returns false if the payload has to be written as is.");
+        line("         */");
+        line("        static boolean encode(int message, LxProtocolTypeBase payload, ByteBuffer buf, int index) {");
+        line("            switch(message) {");
+        for(int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if(!message.group.equals(family)) {
+                continue;
+            }
+            line("                case %d:", i);
+            if(message.opaqueSize >= 0) {
+                line("                    return false;");
+            } else if(message.fields.isEmpty()) {
+                line("                    return true;");
+            } else {
+                line("                    if(payload instanceof %s) {", message.javaClass());
+                line("                        %s.encode((%s)payload, buf, index);", message.nestedClass(), message.javaClass());
+                line("                        return true;");
+                line("                    }");
+                line("                    return false;");
+            }
+        }
+        line("                default:");
+        line("                    throw new IllegalArgumentException(\"unknown message \" + message);");
+        line("            }");
+        line("        }");
+        line("    }");
+        line("    ");
+    }
+    
+    private void generateMessageClass(Message message) {
+        List<Leaf> leaves = new ArrayList<>();
+        flatten(message.fields, 0, "", "payload", leaves);
+        
+        line("    /**");
+        line("     * %s, {@link %s}.", message.type, message.javaClass());
+        line("     */");
+        line("    static final class %s {", message.nestedClass());
+        line("        static final int PAYLOAD_SIZE = %d;", message.getSize());
+        line("        ");
+        for(Leaf leaf: leaves) {
+            line("        static final int %s = %d;", leaf.constant, leaf.offset);
+            if(leaf.field.kind == Kind.BYTES || leaf.field.kind == Kind.STRING) {
+                line("        static final int %s_SIZE = %d;", leaf.constant, leaf.field.size);
+            }
+        }
+        line("        ");
+        line("        private %s() {", message.nestedClass());
+        line("        }");
+        line("        ");
+        
+        for(Leaf leaf: leaves) {
+            generateAccessors(leaf);
+        }
+        
+        line("        static %s decode(ByteBuffer buf, int index) {", message.javaClass());
+        line("            return %s;", construct(message, message.fields, leaves.iterator(), true));
+        line("        }");
+        line("        ");
+        line("        static void encode(%s payload, ByteBuffer buf, int index) {", message.javaClass());
+        for(Leaf leaf: leaves) {
+            switch(leaf.field.kind) {
+                case BYTES:
+                    line("            writeBytes(buf, index + %s, %s_SIZE, %s);", leaf.constant, leaf.constant, leaf.getter);
+                    break;
+                case STRING:
+                    line("            writeString(buf, index + %s, %s_SIZE, %s);", leaf.constant, leaf.constant, leaf.getter);
+                    break;
+                default:
+                    // the StructleTypes keep their value encoded, copying the
+                    // bytes is cheaper than getValue()
+                    line("            writeBytes(buf, index + %s, %d, %s.getBytes());", leaf.constant, leaf.field.size, leaf.getter);
+            }
+        }
+        line("        }");
+        line("    }");
+        line("    ");
+    }
+    
+    private void generateAccessors(Leaf leaf) {
+        Kind kind = leaf.field.kind;
+        switch(kind) {
+            case BYTES:
+                line("        static void get%s(ByteBuffer buf, int index, byte[] value) {", leaf.accessor);
+                line("            readBytes(buf, index + %s, %s_SIZE, value);", leaf.constant, leaf.constant);
+                line("        }");
+                line("        ");
+                line("        static void put%s(ByteBuffer buf, int index, byte[] value) {", leaf.accessor);
+                line("            writeBytes(buf, index + %s, %s_SIZE, value);", leaf.constant, leaf.constant);
+                line("        }");
+                break;
+            case STRING:
+                line("        static String get%s(ByteBuffer buf, int index) {", leaf.accessor);
+                line("            return readString(buf, index + %s, %s_SIZE);", leaf.constant, leaf.constant);
+                line("        }");
+                line("        ");
+                line("        static void put%s(ByteBuffer buf, int index, String value) {", leaf.accessor);
+                line("            writeString(buf, index + %s, %s_SIZE, value);", leaf.constant, leaf.constant);
+                line("        }");
+                break;
+            default:
+                line("        static %s get%s(ByteBuffer buf, int index) {", kind.javaType, leaf.accessor);
+                line("            return read%s(buf, index + %s);", kind.structleType, leaf.constant);
+                line("        }");
+                line("        ");
+                line("        static void put%s(ByteBuffer buf, int index, %s value) {", leaf.accessor, kind.javaType);
+                line("            write%s(buf, index + %s, value);", kind.structleType, leaf.constant);
+                line("        }");
+        }
+        line("        ");
+    }
+    
+    private static void flatten(List<Field> fields, int base, String prefix, String getter, List<Leaf> leaves) {
+        int offset = base;
+        for(Field field: fields) {
+            String name = prefix.isEmpty() ? field.name : prefix + "_" + field.name;
+            String fieldGetter = getter + ".get" + capitalize(field.name) + "()";
+            if(field.kind == Kind.STRUCT) {
+                flatten(field.struct.fields, offset, name, fieldGetter, leaves);
+            } else {
+                leaves.add(new Leaf(field, offset, name, fieldGetter));
+            }
+            offset += field.size;
+        }
+    }
+    
+    /**
+     * Returns the expression that creates the struct from the buffer, with 
+     * the field constructor of the class.
+     */
+    private static String construct(Struct struct, List<Field> fields, Iterator<Leaf> leaves, boolean top) {
+        // the arguments of the message get a line each
+        String separator = top ? ",\n                    " : ", ";
+        StringBuilder expr = new StringBuilder("new ").append(struct.javaClass()).append('(');
+        boolean first = true;
+        if(struct.padded) {
+            expr.append("(Object) null");
+            first = false;
+        }
+        for(Field field: fields) {
+            if(!first) {
+                expr.append(separator);
+            }
+            first = false;
+            
+            if(field.kind == Kind.STRUCT) {
+                expr.append(construct(field.struct, field.struct.fields, leaves, false));
+                continue;
+            }
+            
+            Leaf leaf = leaves.next();
+            switch(field.kind) {
+                case BYTES:
+                    expr.append("readBytes(buf, index + ").append(leaf.constant).append(", ")
+                            .append(leaf.constant).append("_SIZE)");
+                    break;
+                case STRING:
+                    expr.append("get").append(leaf.accessor).append("(buf, index)");
+                    break;
+                default:
+                    expr.append("new ").append(field.kind.structleType).append("(get")
+                            .append(leaf.accessor).append("(buf, index))");
+            }
+        }
+        return expr.append(')').toString();
+    }
+    
+    private void generateHelpers() {
+        String[] helpers = {
+            "static int readUInt8(ByteBuffer buf, int index) {",
+            "    return buf.get(index) & 0xff;",
+            "}",
+            "",
+            "static void writeUInt8(ByteBuffer buf, int index, int value) {",
+            "    buf.put(index, (byte)value);",
+            "}",
+            "",
+            "static boolean readBool8(ByteBuffer buf, int index) {",
+            "    return buf.get(index) != 0;",
+            "}",
+            "",
+            "static void writeBool8(ByteBuffer buf, int index, boolean value) {",
+            "    buf.put(index, value ? (byte)0xff : 0);",
+            "}",
+            "",
+            "static int readUInt16(ByteBuffer buf, int index) {",
+            "    return (buf.get(index) & 0xff) | ((buf.get(index + 1) & 0xff) << 8);",
+            "}",
+            "",
+            "static void writeUInt16(ByteBuffer buf, int index, int value) {",
+            "    buf.put(index, (byte)value);",
+            "    buf.put(index + 1, (byte)(value >>> 8));",
+            "}",
+            "",
+            "static short readInt16(ByteBuffer buf, int index) {",
+            "    return (short)readUInt16(buf, index);",
+            "}",
+            "",
+            "static void writeInt16(ByteBuffer buf, int index, short value) {",
+            "    writeUInt16(buf, index, value);",
+            "}",
+            "",
+            "static int readInt32(ByteBuffer buf, int index) {",
+            "    return readUInt16(buf, index) | (readUInt16(buf, index + 2) << 16);",
+            "}",
+            "",
+            "static void writeInt32(ByteBuffer buf, int index, int value) {",
+            "    writeUInt16(buf, index, value);",
+            "    writeUInt16(buf, index + 2, value >>> 16);",
+            "}",
+            "",
+            "static long readUInt32(ByteBuffer buf, int index) {",
+            "    return readInt32(buf, index) & 0xffffffffL;",
+            "}",
+            "",
+            "static void writeUInt32(ByteBuffer buf, int index, long value) {",
+            "    writeInt32(buf, index, (int)value);",
+            "}",
+            "",
+            "static long readUInt64(ByteBuffer buf, int index) {",
+            "    return readUInt32(buf, index) | ((long)readInt32(buf, index + 4) << 32);",
+            "}",
+            "",
+            "static void writeUInt64(ByteBuffer buf, int index, long value) {",
+            "    writeInt32(buf, index, (int)value);",
+            "    writeInt32(buf, index + 4, (int)(value >>> 32));",
+            "}",
+            "",
+            "static float readFloat32(ByteBuffer buf, int index) {",
+            "    return Float.intBitsToFloat(readInt32(buf, index));",
+            "}",
+            "",
+            "static void writeFloat32(ByteBuffer buf, int index, float value) {",
+            "    writeInt32(buf, index, Float.floatToRawIntBits(value));",
+            "}",
+            "",
+            "static byte[] readBytes(ByteBuffer buf, int index, int size) {",
+            "    byte[] value = new byte[size];",
+            "    readBytes(buf, index, size, value);",
+            "    return value;",
+            "}",
+            "",
+            "static void readBytes(ByteBuffer buf, int index, int size, byte[] value) {",
+            "    for(int i = 0; i < size; i++) {",
+            "        value[i] = buf.get(index + i);",
+            "    }",
+            "}",
+            "",
+            "/**",
+            " * Writes the bytes, cut to the size or padded with zeros.",
+            " */",
+            "static void writeBytes(ByteBuffer buf, int index, int size, byte[] value) {",
+            "    int length = Math.min(size, value.length);",
+            "    for(int i = 0; i < length; i++) {",
+            "        buf.put(index + i, value[i]);",
+            "    }",
+            "    for(int i = length; i < size; i++) {",
+            "        buf.put(index + i, (byte)0);",
+            "    }",
+            "}",
+            "",
+            "/**",
+            " * Reads a string field, which ends at the first zero.",
+            " */",
+            "static String readString(ByteBuffer buf, int index, int size) {",
+            "    int length = 0;",
+            "    while(length < size && buf.get(index + length) != 0) {",
+            "        length++;",
+            "    }",
+            "    if(buf.hasArray()) {",
+            "        return new String(buf.array(), buf.arrayOffset() + index, length, UTF8);",
+            "    }",
+            "    return new String(readBytes(buf, index, length), UTF8);",
+            "}",
+            "",
+            "/**",
+            " * Writes a string field, cut to the size or padded with zeros. ASCII",
+            " * strings are written char by char without encoding them first.",
+            " */",
+            "static void writeString(ByteBuffer buf, int index, int size, String value) {",
+            "    int length = Math.min(size, value.length());",
+            "    for(int i = 0; i < length; i++) {",
+            "        char c = value.charAt(i);",
+            "        if(c > 0x7f) {",
+            "            writeBytes(buf, index, size, value.getBytes(UTF8));",
+            "            return;",
+            "        }",
+            "        buf.put(index + i, (byte)c);",
+            "    }",
+            "    for(int i = length; i < size; i++) {",
+            "        buf.put(index + i, (byte)0);",
+            "    }",
+            "}",
+            "",
+            "/**",
+            " * Copies a whole message for the classes that decode themselves from an",
+            " * array, given the index of its payload.",
+            " */",
+            "static byte[] readMessage(ByteBuffer buf, int index, int size) {",
+            "    int start = index - LFXMessageEncoder.HEADER_SIZE;",
+            "    return readBytes(buf, start, LFXMessageEncoder.HEADER_SIZE + size);",
+            "}",
+        };
+        for(int i = 0; i < helpers.length; i++) {
+            line(helpers[i].isEmpty() ? "    " : "    " + helpers[i]);
+        }
+    }
+    
+    private void line(String format, Object... args) {
+        out.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+    }
+    
+    private static String read(File file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            char[] buffer = new char[4096];
+            int n;
+            while((n = reader.read(buffer)) > 0) {
+                content.append(buffer, 0, n);
+            }
+        }
+        return content.toString();
+    }
+    
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+    
+    private static String camelCase(String name) {
+        StringBuilder result = new StringBuilder();
+        for(String part: name.split("_")) {
+            if(!part.isEmpty()) {
+                result.append(capitalize(part));
+            }
+        }
+        return result.toString();
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    // Model
+    ////////////////////////////////////////////////////////////////////////////
+    
+    private enum Kind {
+        UINT8("uint8", 1, "int", "UInt8"),
+        BOOL8("bool8", 1, "boolean", "Bool8"),
+        INT16("int16", 2, "short", "Int16"),
+        UINT16("uint16", 2, "int", "UInt16"),
+        INT32("int32", 4, "int", "Int32"),
+        UINT32("uint32", 4, "long", "UInt32"),
+        UINT64("uint64", 8, "long", "UInt64"),
+        FLOAT32("float32", 4, "float", "Float32"),
+        BYTES("bytes", 0, "byte[]", null),
+        STRING("string", 0, "String", null),
+        STRUCT(null, 0, null, null);
+        
+        final String schemaName;
+        final int size;
+        final String javaType;
+        // the StructleTypes class, also the name of the read and write helpers
+        final String structleType;
+
+        private Kind(String schemaName, int size, String javaType, String structleType) {
+            this.schemaName = schemaName;
+            this.size = size;
+            this.javaType = javaType;
+            this.structleType = structleType;
+        }
+        
+        static Kind forName(String name) {
+            for(Kind kind: values()) {
+                if(name.equals(kind.schemaName)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("unknown field type " + name);
+        }
+    }
+    
+    private static class Field {
+        final Kind kind;
+        final int size;
+        final String name;
+        final Struct struct;
+
+        Field(Kind kind, int size, String name, Struct struct) {
+            this.kind = kind;
+            this.size = size;
+            this.name = name;
+            this.struct = struct;
+        }
+    }
+    
+    /**
+     * A field that is not a struct, with the names it gets in the nested 
+     * class of the message.
+     */
+    private static class Leaf {
+        final Field field;
+        final int offset;
+        final String constant;
+        final String accessor;
+        final String getter;
+
+        Leaf(Field field, int offset, String name, String getter) {
+            this.field = field;
+            this.offset = offset;
+            this.constant = name.toUpperCase();
+            this.accessor = camelCase(name);
+            this.getter = getter;
+        }
+    }
+    
+    private static class Struct {
+        final String className;
+        final String group;
+        final String name;
+        final List<Field> fields = new ArrayList<>();
+        boolean padded;
+
+        Struct(String className) {
+            int dot = className.indexOf('.');
+            if(dot <= 0 || dot == className.length() - 1) {
+                throw new IllegalArgumentException("expected <Group>.<Class> instead of " + className);
+            }
+            this.className = className;
+            this.group = className.substring(0, dot);
+            this.name = className.substring(dot + 1);
+        }
+        
+        void add(Field field) {
+            for(Field other: fields) {
+                if(other.name.equals(field.name)) {
+                    throw new IllegalArgumentException(className + " already has a field " + field.name);
+                }
+            }
+            fields.add(field);
+        }
+        
+        int getSize() {
+            int size = 0;
+            for(Field field: fields) {
+                size += field.size;
+            }
+            return size;
+        }
+        
+        String javaClass() {
+            return "LxProtocol" + group + "." + name;
+        }
+    }
+    
+    private static class Message extends Struct {
+        final String type;
+        final int value;
+        boolean response;
+        String expects;
+        int opaqueSize = -1;
+
+        Message(String type, int value, String className) {
+            super(className);
+            if(value < 0 || value > 0xffff) {
+                throw new IllegalArgumentException("type value " + value + " does not fit the header");
+            }
+            this.type = type;
+            this.value = value;
+        }
+        
+        @Override
+        int getSize() {
+            return opaqueSize >= 0 ? opaqueSize : super.getSize();
+        }
+        
+        String nestedClass() {
+            return group + name;
+        }
+    }
+}
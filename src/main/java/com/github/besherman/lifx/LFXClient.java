@@ -41,6 +41,7 @@ public class LFXClient {
     public LFXClient() {
         loop = LFXNetworkLoop.getLoop();
         loop.addHandler(lightHandler);
+        loop.addResponseTrackerListener(lightHandler);
     }
 
     /**
@@ -65,6 +66,30 @@ public class LFXClient {
         return lightHandler.getGroups();
     }
 
+    /**
+     * Sets how long a light can go without being heard from before it is 
+     * removed from the lights of this client. Takes effect the next time the
+     * client is opened.
+     */
+    public void setLightLostTimeout(long timeout, TimeUnit unit) {
+        lightHandler.setLightLostTimeout(unit.toMillis(timeout));
+    }
+
+    /**
+     * Adds a listener that is told when messages to the lights start to pile
+     * up and when they have been sent again. 
+     */
+    public void addSendQueueListener(LFXSendQueueListener l) {
+        loop.addSendQueueListener(l);
+    }
+
+    /**
+     * Removes a send queue listener.
+     */
+    public void removeSendQueueListener(LFXSendQueueListener l) {
+        loop.removeSendQueueListener(l);
+    }
+    
     /**
      * Returns true if the client is opened.
      */
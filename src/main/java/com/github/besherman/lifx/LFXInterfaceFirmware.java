@@ -33,11 +33,18 @@ import java.util.Objects;
  */
 public class LFXInterfaceFirmware {
     private final Date build;
-    private final BigInteger install;
+    private final long install;
     private final int majorVersion;
     private final int minorVersion;
 
     public LFXInterfaceFirmware(Date build, BigInteger install, int majorVersion, int minorVersion) {
+        this(build, install.longValue(), majorVersion, minorVersion);
+    }
+    
+    /**
+     * @param install the install time as it is sent by the light
+     */
+    public LFXInterfaceFirmware(Date build, long install, int majorVersion, int minorVersion) {
         this.build = build;
         this.install = install;
         this.majorVersion = majorVersion;
@@ -48,7 +55,19 @@ public class LFXInterfaceFirmware {
         return (Date)build.clone();
     }
 
+    /**
+     * Returns the install time as an unsigned number, see 
+     * {@link #getInstallValue()}.
+     */
     public BigInteger getInstall() {
+        BigInteger value = BigInteger.valueOf(install & Long.MAX_VALUE);
+        return install < 0 ? value.setBit(63) : value;
+    }
+    
+    /**
+     * Returns the 64 bits of the install time as it is sent by the light.
+     */
+    public long getInstallValue() {
         return install;
     }
 
@@ -68,7 +87,7 @@ public class LFXInterfaceFirmware {
     public int hashCode() {
         int hash = 7;
         hash = 37 * hash + Objects.hashCode(this.build);
-        hash = 37 * hash + Objects.hashCode(this.install);
+        hash = 37 * hash + (int) (this.install ^ (this.install >>> 32));
         hash = 37 * hash + this.majorVersion;
         hash = 37 * hash + this.minorVersion;
         return hash;
@@ -86,7 +105,7 @@ public class LFXInterfaceFirmware {
         if (!Objects.equals(this.build, other.build)) {
             return false;
         }
-        if (!Objects.equals(this.install, other.install)) {
+        if (this.install != other.install) {
             return false;
         }
         if (this.majorVersion != other.majorVersion) {
@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx;
+
+/**
+ * A listener that gets informed when the queue of messages waiting to be sent
+ * to the network fills up and when it has drained again. 
+ * 
+ * Code that changes lights at a high rate, such as animations, can use this 
+ * to slow down before the messages start to lag behind.
+ * 
+ * The methods are called on the thread that made the queue cross the 
+ * watermark, so they should return quickly.
+ */
+public interface LFXSendQueueListener {
+    /**
+     * The number of waiting messages has reached the high watermark.
+     */
+    void highWatermarkReached(int queueSize);
+    
+    /**
+     * The number of waiting messages has dropped to the low watermark after
+     * having reached the high watermark.
+     */
+    void lowWatermarkReached(int queueSize);
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.examples.benchmark;
+
+import com.github.besherman.lifx.LFXClient;
+import com.github.besherman.lifx.LFXLight;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.network.LFXMemoryTransport;
+import com.github.besherman.lifx.impl.network.LFXNetworkLoop;
+import com.github.besherman.lifx.impl.network.LFXRttEstimator;
+import com.github.besherman.lifx.impl.network.LFXSimulatedGateway;
+import com.github.besherman.lifx.impl.network.LFXSimulatedLight;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a large number of simulated lights and turns them all on. No real 
+ * lights or network are needed, the client talks to the simulated lights 
+ * through a LFXMemoryTransport.
+ * 
+ * The number of lights is given as the first argument, 10000 by default.
+ */
+public class BenchmarkEx01SimulatedLights {
+    private static final int LIGHTS_PER_GATEWAY = 100;
+    
+    public static void main(String[] args) throws Exception {
+        int lightCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        
+        // the lights are simulated so there is no need to go easy on them
+        setDefault("com.github.besherman.lifx.sendLaneRate", "1000000");
+        setDefault("com.github.besherman.lifx.sendLaneBurst", "1000");
+        setDefault("com.github.besherman.lifx.outgoingQueueSize", "1000000");
+        
+        LFXMemoryTransport transport = new LFXMemoryTransport();
+        List<LFXSimulatedGateway> gateways = createGateways(lightCount);
+        for(LFXSimulatedGateway gateway: gateways) {
+            transport.connect(gateway);
+        }
+        LFXNetworkLoop.getLoop().setTransport(transport);
+        
+        // nothing is sent to the broadcast address, but the client needs one
+        LFXClient client = new LFXClient("255.255.255.255");
+        long start = System.nanoTime();
+        client.open(true);
+        try {
+            System.out.format("Loaded %d of %d lights in %d ms%n", client.getLights().size(), lightCount, 
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            
+            start = System.nanoTime();
+            for(LFXLight light: client.getLights()) {
+                light.setPower(true);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            int powered;
+            while((powered = countPowered(gateways)) < lightCount && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            System.out.format("Turned on %d lights in %d ms%n", powered, 
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            
+            long received = 0;
+            long sent = 0;
+            for(LFXSimulatedGateway gateway: gateways) {
+                received += gateway.getReceivedCount();
+                sent += gateway.getSentCount();
+            }
+            System.out.format("The lights received %d messages and sent %d%n", received, sent);
+            System.out.format("%s%n", LFXNetworkLoop.getLoop().getStatistics());
+            printRoundTripTimes();
+        } finally {
+            client.close();
+            LFXNetworkLoop.getLoop().setTransport(null);
+        }
+    }
+    
+    private static void printRoundTripTimes() {
+        List<LFXRttEstimator> estimates = new ArrayList<>(LFXNetworkLoop.getLoop().getRoundTripTimes().values());
+        if(estimates.isEmpty()) {
+            return;
+        }
+        long[] smoothed = new long[estimates.size()];
+        long[] timeouts = new long[estimates.size()];
+        for(int i = 0; i < estimates.size(); i++) {
+            smoothed[i] = estimates.get(i).getSmoothedRoundTripTime(TimeUnit.MICROSECONDS);
+            timeouts[i] = estimates.get(i).getTimeout(TimeUnit.MILLISECONDS);
+        }
+        Arrays.sort(smoothed);
+        Arrays.sort(timeouts);
+        System.out.format("Round trip time of %d lights: median %d us, max %d us, median timeout %d ms%n", 
+                estimates.size(), smoothed[smoothed.length / 2], smoothed[smoothed.length - 1], 
+                timeouts[timeouts.length / 2]);
+    }
+    
+    private static List<LFXSimulatedGateway> createGateways(int lightCount) throws Exception {
+        List<LFXSimulatedGateway> gateways = new ArrayList<>();
+        for(int i = 0; i < lightCount; i++) {
+            int g = i / LIGHTS_PER_GATEWAY;
+            if(g == gateways.size()) {
+                InetAddress host = InetAddress.getByAddress(new byte[]{10, (byte)(g >> 8), (byte)g, 1});
+                LFXSiteID site = LFXSiteID.valueOf(new byte[]{'L', 'I', 'F', 'X', (byte)(g >> 8), (byte)g});
+                LFXDeviceID gatewayID = LFXDeviceID.valueOf(new byte[]{(byte)0xd0, 0x73, (byte)0xd5, (byte)(g >> 8), (byte)g, 0});
+                gateways.add(new LFXSimulatedGateway(new InetSocketAddress(host, 56700), site, gatewayID));
+            }
+            LFXDeviceID id = LFXDeviceID.valueOf(new byte[]{(byte)0xd0, 0x73, (byte)0xd5, (byte)(i >> 16), (byte)(i >> 8), (byte)i});
+            gateways.get(g).addLight(id, "Light " + i);
+        }
+        return gateways;
+    }
+    
+    private static int countPowered(List<LFXSimulatedGateway> gateways) {
+        int count = 0;
+        for(LFXSimulatedGateway gateway: gateways) {
+            for(LFXSimulatedLight light: gateway.getLights()) {
+                if(light.isPower()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    private static void setDefault(String key, String value) {
+        if(System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.examples.benchmark;
+
+import com.github.besherman.lifx.LFXClient;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.network.LFXMemoryTransport;
+import com.github.besherman.lifx.impl.network.LFXNetworkLoop;
+import com.github.besherman.lifx.impl.network.LFXSimulatedGateway;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes from starting the JVM until the first gateway
+ * has been discovered on a simulated network. Only meaningful as the first
+ * thing a fresh JVM does, run it once per JVM.
+ * 
+ * To see what class data sharing gains, build the archive with the appcds 
+ * profile in the pom and run it again with the archive:
+ * 
+ * <pre>
+ * mvn package -Pappcds
+ * java -XX:SharedArchiveFile=target/lifx-sdk.jsa -cp target/lifx-sdk-java-2.1-SNAPSHOT.jar \
+ *     com.github.besherman.lifx.examples.benchmark.BenchmarkEx02ColdStart
+ * </pre>
+ */
+public class BenchmarkEx02ColdStart {
+    public static void main(String[] args) throws Exception {
+        long jvmStarted = ManagementFactory.getRuntimeMXBean().getUptime();
+        long start = System.nanoTime();
+        
+        InetAddress host = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+        LFXSiteID site = LFXSiteID.valueOf(new byte[]{'L', 'I', 'F', 'X', 0, 0});
+        LFXDeviceID gatewayID = LFXDeviceID.valueOf(new byte[]{(byte)0xd0, 0x73, (byte)0xd5, 0, 0, 0});
+        LFXSimulatedGateway gateway = new LFXSimulatedGateway(new InetSocketAddress(host, 56700), site, gatewayID);
+        gateway.addLight(gatewayID, "Light 0");
+        
+        LFXMemoryTransport transport = new LFXMemoryTransport();
+        transport.connect(gateway);
+        LFXNetworkLoop.getLoop().setTransport(transport);
+        
+        // nothing is sent to the broadcast address, but the client needs one
+        LFXClient client = new LFXClient("255.255.255.255");
+        long created = System.nanoTime();
+        client.open(false);
+        long opened = System.nanoTime();
+        try {
+            boolean found = LFXNetworkLoop.getLoop().waitForGateway(10, TimeUnit.SECONDS);
+            long discovered = System.nanoTime();
+            
+            System.out.format("JVM start to main:        %4d ms%n", jvmStarted);
+            System.out.format("Creating the client:      %4d ms%n", millis(start, created));
+            System.out.format("Opening the client:       %4d ms%n", millis(created, opened));
+            System.out.format("Open to first gateway:    %4d ms%n", millis(opened, discovered));
+            System.out.format("JVM start to gateway:     %4d ms%s%n", jvmStarted + millis(start, discovered), 
+                    found ? "" : " (no gateway found)");
+            System.out.format("Loaded classes:           %4d%n", 
+                    ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+            System.out.format("Live threads:             %4d%n", Thread.activeCount());
+        } finally {
+            client.close();
+            LFXNetworkLoop.getLoop().setTransport(null);
+        }
+    }
+    
+    private static long millis(long from, long to) {
+        return TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+}
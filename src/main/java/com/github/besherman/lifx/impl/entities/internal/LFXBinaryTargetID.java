@@ -26,7 +26,6 @@ package com.github.besherman.lifx.impl.entities.internal;
 
 import java.util.ArrayList;
 
-import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -58,23 +57,29 @@ public class LFXBinaryTargetID {
 
 
     private final LFXBinaryTargetType targetType;
-    private final Set<LFXTagID> groupTagField = EnumSet.noneOf(LFXTagID.class);
+    private final LFXTagMask tags;
     private final LFXDeviceID deviceId;
 
     public LFXBinaryTargetID() {
         targetType = LFXBinaryTargetType.BROADCAST;
+        tags = LFXTagMask.NONE;
         deviceId = null;
     }
     
     public LFXBinaryTargetID(LFXDeviceID deviceId) {
         this.targetType = LFXBinaryTargetType.DEVICE;
+        this.tags = LFXTagMask.NONE;
         this.deviceId = deviceId;
     }    
     
     public LFXBinaryTargetID(Set<LFXTagID> tagField) {        
-        targetType = tagField.isEmpty() ? LFXBinaryTargetType.BROADCAST : LFXBinaryTargetType.TAG;
-        groupTagField.addAll(tagField);        
-        deviceId = null;        
+        this(LFXTagMask.of(tagField));
+    }    
+    
+    public LFXBinaryTargetID(LFXTagMask tags) {        
+        this.targetType = tags.isEmpty() ? LFXBinaryTargetType.BROADCAST : LFXBinaryTargetType.TAG;
+        this.tags = tags;
+        this.deviceId = null;        
     }    
     
     public LFXDeviceID getDeviceID() {
@@ -122,7 +127,7 @@ public class LFXBinaryTargetID {
                 return "*";
             }
             case TAG: {
-                return "#" + LFXTagID.pack(groupTagField).toHex();
+                return "#" + tags.toHex();
             }
             case DEVICE: {
                 return deviceId.toString();	
@@ -141,16 +146,23 @@ public class LFXBinaryTargetID {
         return targetType;
     }
 
+    /**
+     * Returns a copy of the tags as a set, see {@link #getTagMask()}.
+     */
     public Set<LFXTagID> getGroupTagField() {
-        return groupTagField;
+        return tags.toSet();
+    }
+    
+    public LFXTagMask getTagMask() {
+        return tags;
     }
 
     public List<LFXBinaryTargetID> getIndividualGroupTargetIDs() {
         // For future optimisation, this could get generated once, when a groupTargetID is created
         List<LFXBinaryTargetID> targetIDs = new ArrayList<>();
 
-        for(LFXTagID tag: groupTagField) {
-            targetIDs.add(new LFXBinaryTargetID(EnumSet.of(tag)));
+        for(LFXTagID tag: tags) {
+            targetIDs.add(new LFXBinaryTargetID(LFXTagMask.of(tag)));
         }
         
         return targetIDs;
@@ -160,7 +172,7 @@ public class LFXBinaryTargetID {
     public int hashCode() {
         int hash = 7;
         hash = 43 * hash + Objects.hashCode(this.targetType);
-        hash = 43 * hash + Objects.hashCode(this.groupTagField);
+        hash = 43 * hash + Objects.hashCode(this.tags);
         hash = 43 * hash + Objects.hashCode(this.deviceId);
         return hash;
     }
@@ -177,7 +189,7 @@ public class LFXBinaryTargetID {
         if (this.targetType != other.targetType) {
             return false;
         }
-        if (!Objects.equals(this.groupTagField, other.groupTagField)) {
+        if (!Objects.equals(this.tags, other.tags)) {
             return false;
         }
         if (!Objects.equals(this.deviceId, other.deviceId)) {
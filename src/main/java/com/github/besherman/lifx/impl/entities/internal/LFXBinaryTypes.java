@@ -31,11 +31,13 @@ import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolLight
 import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes;
 import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt16;
 import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
-import java.math.BigInteger;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
 import java.util.Calendar;
 import java.util.Date;
 
 public class LFXBinaryTypes {
+    private static final long NANOSECOND_BUILD_TIME_THRESHOLD = 1200000000000000000L;
+    
 
     public static UInt16 getLFXProtocolPowerLevelFromLFXPowerState(LFXPowerState powerState) {
         switch (powerState) {
@@ -49,7 +51,11 @@ public class LFXBinaryTypes {
     }
 
     public static LFXPowerState getLFXPowerStateFromLFXProtocolPowerLevel(UInt16 powerLevel) {
-        if (powerLevel.getValue() == 0) {
+        return getLFXPowerStateFromLFXProtocolPowerLevel(powerLevel.getValue());
+    }
+    
+    public static LFXPowerState getLFXPowerStateFromLFXProtocolPowerLevel(int powerLevel) {
+        if (powerLevel == 0) {
             return LFXPowerState.OFF;
         } else {
             return LFXPowerState.ON;
@@ -57,20 +63,36 @@ public class LFXBinaryTypes {
     }
 
     public static LFXHSBKColor getLFXHSBKColorFromLXProtocolLightHsbk(LxProtocolLight.Hsbk protocolHsbk) {
-        float hue = (float) protocolHsbk.getHue().getValue() * 360.0f / (float) UInt16.MAX_U16_VALUE;
-        float saturation = (float) protocolHsbk.getSaturation().getValue() / (float) UInt16.MAX_U16_VALUE;
-        float brightness = (float) protocolHsbk.getBrightness().getValue() / (float) UInt16.MAX_U16_VALUE;
-        int kelvin = protocolHsbk.getKelvin().getValue();
+        return getLFXHSBKColorFromLXProtocolLightHsbk(protocolHsbk.getHue().getValue(), protocolHsbk.getSaturation().getValue(), 
+                protocolHsbk.getBrightness().getValue(), protocolHsbk.getKelvin().getValue());
+    }
+    
+    public static LFXHSBKColor getLFXHSBKColorFromLXProtocolLightHsbk(int hueRaw, int saturationRaw, int brightnessRaw, int kelvin) {
+        float hue = (float) hueRaw * 360.0f / UInt16.MAX_U16_VALUE;
+        float saturation = (float) saturationRaw / UInt16.MAX_U16_VALUE;
+        float brightness = (float) brightnessRaw / UInt16.MAX_U16_VALUE;
 
         LFXHSBKColor color = new LFXHSBKColor(hue, saturation, brightness, kelvin);
 
         return color;
     }
+    
+    /**
+     * Returns true if the color is the one the raw protocol values would be
+     * converted to, without creating a new color.
+     */
+    public static boolean isLFXHSBKColorFromLXProtocolLightHsbk(LFXHSBKColor color, int hueRaw, int saturationRaw, int brightnessRaw, int kelvin) {
+        return color != null 
+                && color.getHue() == (float) hueRaw * 360.0f / UInt16.MAX_U16_VALUE
+                && color.getSaturation() == (float) saturationRaw / UInt16.MAX_U16_VALUE
+                && color.getBrightness() == (float) brightnessRaw / UInt16.MAX_U16_VALUE
+                && color.getKelvin() == kelvin;
+    }
 
     public static LxProtocolLight.Hsbk getLXProtocolLightHsbkFromLFXHSBKColor(LFXHSBKColor color) {
-        int hue = (int) (color.getHue() / 360.0 * (float) UInt16.MAX_U16_VALUE);
-        int saturation = (int) (color.getSaturation() * (float) UInt16.MAX_U16_VALUE);
-        int brightness = (int) (color.getBrightness() * (float) UInt16.MAX_U16_VALUE);
+        int hue = (int) (color.getHue() / 360.0 * UInt16.MAX_U16_VALUE);
+        int saturation = (int) (color.getSaturation() * UInt16.MAX_U16_VALUE);
+        int brightness = (int) (color.getBrightness() * UInt16.MAX_U16_VALUE);
         int kelvin = color.getKelvin();
 
         UInt16 wrappedHue = new UInt16(hue);
@@ -91,13 +113,14 @@ public class LFXBinaryTypes {
         int majorVersion = (int)((version.getValue() & 0xffff0000) >> 16); 
         int minorVersion = (int)(version.getValue() & 0xffff);
         Date buildDate = getBuildDate(build);
-        return new LFXInterfaceFirmware(buildDate, install.getBigIntegerValue(), majorVersion, minorVersion);        
+        return new LFXInterfaceFirmware(buildDate, install.getValue(), majorVersion, minorVersion);        
     }
     
     private static Date getBuildDate(StructleTypes.UInt64 build) {
-        BigInteger bigBuild = build.getBigIntegerValue();
-        if(bigBuild.compareTo(new BigInteger("1200000000000000000")) > 0) {
-            return new Date(bigBuild.divide(new BigInteger("1000000")).longValue());        
+        // newer firmware has the build time in nanoseconds, older has it 
+        // packed as date fields
+        if(UInt64.compareUnsigned(build.getValue(), NANOSECOND_BUILD_TIME_THRESHOLD) > 0) {
+            return new Date(build.getMillis());        
         } else {
             Calendar cal = Calendar.getInstance();
             cal.setTime(new Date(0));
@@ -24,6 +24,8 @@
  */
 package com.github.besherman.lifx.impl.entities.internal;
 
+import java.nio.ByteBuffer;
+
 public class LFXByteUtils {
 
     public static boolean areByteArraysEqual(byte[] byteArray0, byte[] byteArray1) {
@@ -75,6 +77,46 @@ public class LFXByteUtils {
         return new String(hexChars);
     }
 
+    /**
+     * Returns the bytes between the buffer's position and limit as a hex 
+     * string. The buffer's position is not changed.
+     */
+    public static String byteBufferToHexString(ByteBuffer buffer) {
+        char[] hexChars = new char[buffer.remaining() * 2];
+        int v;
+
+        for (int j = 0; j < buffer.remaining(); j++) {
+            v = buffer.get(buffer.position() + j) & 0xFF;
+            hexChars[ j * 2] = hexArray[ v >>> 4];
+            hexChars[ j * 2 + 1] = hexArray[ v & 0x0F];
+        }
+
+        return new String(hexChars);
+    }
+
+    /**
+     * Reads 6 bytes at the index into the low 48 bits of a long, the first
+     * byte being the most significant. The buffer's position is not changed.
+     */
+    public static long getUInt48(ByteBuffer buffer, int index) {
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            value = (value << 8) | (buffer.get(index + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Writes the low 48 bits of the value as 6 bytes at the index, the most
+     * significant first. The buffer's position is not changed.
+     */
+    public static void putUInt48(ByteBuffer buffer, int index, long value) {
+        for (int i = 5; i >= 0; i--) {
+            buffer.put(index + i, (byte) value);
+            value >>>= 8;
+        }
+    }
+
     public static void copyBytesIntoByteArrayAtOffset(byte[] dest, byte[] src, int offset) {
         for (int i = 0; i < src.length; i++) {
             dest[offset + i] = src[i];
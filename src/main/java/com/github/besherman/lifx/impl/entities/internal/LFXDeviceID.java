@@ -23,57 +23,138 @@
  */
 package com.github.besherman.lifx.impl.entities.internal;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
+ * The 6 byte MAC address of a light, kept packed into a long.
+ * 
+ * Identifiers from the network are interned, {@link #valueOf(ByteBuffer, int)}
+ * returns the same instance every time for the same light, so reading one 
+ * from a message does not allocate and they are cheap to use as keys. The 
+ * number of interned ids is bounded, see 
+ * {@link com.github.besherman.lifx.impl.network.LFXConstants#getInternTableSize()},
+ * so ids must be compared with equals(). The hex string is only made when 
+ * it is asked for.
  *
  * @author Richard
  */
 public class LFXDeviceID {
     private static final int DEVICE_TARGET_ID_BYTES = 6;
-    private final byte[] deviceBytes;
-    private final String stringRepresentation;
-
-    public LFXDeviceID(byte[] bytes) {
-        if(bytes == null) {
-            throw new IllegalArgumentException("bytes can not be null");            
+    
+    private static final LFXInternTable<LFXDeviceID> interned = new LFXInternTable<LFXDeviceID>() {
+        @Override
+        protected long valueOf(LFXDeviceID id) {
+            return id.value;
         }
-        this.stringRepresentation = LFXByteUtils.byteArrayToHexString(bytes);
-        if(bytes.length != DEVICE_TARGET_ID_BYTES) {
-            throw new IllegalArgumentException("bytes expected to be " + 
-                    DEVICE_TARGET_ID_BYTES + " was " + bytes.length + ": " + stringRepresentation);
+
+        @Override
+        protected LFXDeviceID create(long value) {
+            return new LFXDeviceID(value);
         }
-        
-        deviceBytes = Arrays.copyOf(bytes, DEVICE_TARGET_ID_BYTES);
+    };
+    
+    private final long value;
+    
+    // made lazily, at worst twice
+    private String stringRepresentation;
+    
+    // the path of the last message from the device, the site seldom changes
+    private LFXBinaryPath lastPath;
+
+    private LFXDeviceID(long value) {
+        this.value = value;
+    }
+    
+    public LFXDeviceID(byte[] bytes) {
+        this(toValue(bytes));
     }
     
     public LFXDeviceID(String hexString) {
-        this.deviceBytes = LFXByteUtils.hexStringToByteArray(hexString);
-        this.stringRepresentation = hexString;
+        this(toValue(LFXByteUtils.hexStringToByteArray(hexString)));
+    }
+    
+    /**
+     * Returns the canonical id for the 48 bit value.
+     */
+    public static LFXDeviceID valueOf(long value) {
+        return interned.intern(value & 0xFFFFFFFFFFFFL);
+    }
+    
+    /**
+     * Returns the canonical id for the 6 bytes.
+     */
+    public static LFXDeviceID valueOf(byte[] bytes) {
+        return interned.intern(toValue(bytes));
+    }
+    
+    /**
+     * Returns the canonical id for the 6 bytes at the index of the buffer. 
+     * The buffer's position is not changed.
+     */
+    public static LFXDeviceID valueOf(ByteBuffer data, int index) {
+        return interned.intern(LFXByteUtils.getUInt48(data, index));
+    }
+    
+    /**
+     * Returns the id packed into the low 48 bits of a long, the first byte 
+     * being the most significant.
+     */
+    public long toLong() {
+        return value;
     }
     
     public byte[] getDeviceDataValue() {
-        return Arrays.copyOf(deviceBytes, DEVICE_TARGET_ID_BYTES);
+        byte[] bytes = new byte[DEVICE_TARGET_ID_BYTES];
+        LFXByteUtils.putUInt48(ByteBuffer.wrap(bytes), 0, value);
+        return bytes;
+    }
+    
+    /**
+     * Writes the device id at the index without making a copy.
+     */
+    void writeDeviceDataValue(ByteBuffer buf, int index) {
+        LFXByteUtils.putUInt48(buf, index, value);
+    }
+    
+    /**
+     * Returns the path to the device through the site. The same instance is
+     * returned as long as the site does not change, so that decoding a 
+     * message does not allocate any identifiers.
+     */
+    LFXBinaryPath getPath(LFXSiteID site) {
+        LFXBinaryPath path = lastPath;
+        if(path == null || path.getSiteID() != site) {
+            LFXBinaryTargetID target = path != null ? path.getBinaryTargetID() : new LFXBinaryTargetID(this);
+            path = new LFXBinaryPath(site, target);
+            lastPath = path;
+        }
+        return path;
     }
     
     public String getStringRepresentation() {
-        return stringRepresentation;
+        String str = stringRepresentation;
+        if(str == null) {
+            str = LFXByteUtils.byteArrayToHexString(getDeviceDataValue());
+            stringRepresentation = str;
+        }
+        return str;
     }
 
     @Override
     public String toString() {
-        return "LFXDeviceID{" + stringRepresentation + '}';
+        return "LFXDeviceID{" + getStringRepresentation() + '}';
     }
     
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 37 * hash + Arrays.hashCode(this.deviceBytes);
-        return hash;
+        return (int)(value ^ (value >>> 32));
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -81,9 +162,17 @@ public class LFXDeviceID {
             return false;
         }
         final LFXDeviceID other = (LFXDeviceID) obj;
-        if (!Arrays.equals(this.deviceBytes, other.deviceBytes)) {
-            return false;
+        return this.value == other.value;
+    }
+    
+    private static long toValue(byte[] bytes) {
+        if(bytes == null) {
+            throw new IllegalArgumentException("bytes can not be null");            
+        }
+        if(bytes.length != DEVICE_TARGET_ID_BYTES) {
+            throw new IllegalArgumentException("bytes expected to be " + 
+                    DEVICE_TARGET_ID_BYTES + " was " + bytes.length + ": " + LFXByteUtils.byteArrayToHexString(bytes));
         }
-        return true;
+        return LFXByteUtils.getUInt48(ByteBuffer.wrap(bytes), 0);
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.network.LFXConstants;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps 48 bit identifiers packed into longs to one canonical instance each,
+ * so that the identifiers read from every received message are the same 
+ * objects and nothing is allocated once an identifier has been seen.
+ * 
+ * Lookups do not lock, the table is open addressed and entries are never 
+ * removed, so a lookup that runs into an empty slot knows the identifier is
+ * missing. Adding takes a lock and looks again. 
+ * 
+ * Identifiers are interned before it is known if a message came from a 
+ * light, so the table is bounded. Once it is full, identifiers that are not 
+ * in it are created each time they are asked for. They are equal to each 
+ * other but not the same instance.
+ */
+abstract class LFXInternTable<T> {
+    private final int maxSize;
+    private volatile AtomicReferenceArray<T> table = new AtomicReferenceArray<>(64);
+    private int size;
+    
+    public LFXInternTable() {
+        this(LFXConstants.getInternTableSize());
+    }
+    
+    /**
+     * @param maxSize how many identifiers are interned at most
+     */
+    public LFXInternTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Returns the packed value of the identifier.
+     */
+    protected abstract long valueOf(T id);
+    
+    /**
+     * Creates the canonical identifier for the value.
+     */
+    protected abstract T create(long value);
+    
+    /**
+     * Returns the canonical identifier for the value, creates it the first
+     * time the value is seen.
+     */
+    public T intern(long value) {
+        T id = find(table, value);
+        return id != null ? id : add(value);
+    }
+    
+    private synchronized T add(long value) {
+        AtomicReferenceArray<T> t = table;
+        T id = find(t, value);
+        if(id != null) {
+            return id;
+        }
+        
+        id = create(value);
+        if(size >= maxSize) {
+            return id;
+        }
+        if((size + 1) * 2 > t.length()) {
+            AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(t.length() * 2);
+            for(int i = 0; i < t.length(); i++) {
+                T old = t.get(i);
+                if(old != null) {
+                    grown.set(emptySlot(grown, valueOf(old)), old);
+                }
+            }
+            grown.set(emptySlot(grown, value), id);
+            table = grown;
+        } else {
+            t.set(emptySlot(t, value), id);
+        }
+        size++;
+        return id;
+    }
+    
+    /**
+     * Returns the number of interned identifiers.
+     */
+    synchronized int size() {
+        return size;
+    }
+    
+    private T find(AtomicReferenceArray<T> t, long value) {
+        int mask = t.length() - 1;
+        for(int i = slot(value, mask); ; i = (i + 1) & mask) {
+            T id = t.get(i);
+            if(id == null || valueOf(id) == value) {
+                return id;
+            }
+        }
+    }
+    
+    private static <T> int emptySlot(AtomicReferenceArray<T> t, long value) {
+        int mask = t.length() - 1;
+        int i = slot(value, mask);
+        while(t.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+    
+    private static int slot(long value, int mask) {
+        // identifiers of the same vendor share most of their bits
+        return (int)((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
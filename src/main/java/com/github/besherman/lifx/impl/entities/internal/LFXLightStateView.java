@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import static com.github.besherman.lifx.impl.entities.internal.LFXProtocolSchema.LightState.*;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+
+/**
+ * A view of a LX_PROTOCOL_LIGHT_STATE payload, see {@link LFXPayloadView}.
+ */
+public class LFXLightStateView extends LFXPayloadView {
+    public LFXLightStateView() {
+        super(Type.LX_PROTOCOL_LIGHT_STATE);
+    }
+    
+    public int getHueRaw() {
+        return getUInt16(COLOR_HUE);
+    }
+    
+    public int getSaturationRaw() {
+        return getUInt16(COLOR_SATURATION);
+    }
+    
+    public int getBrightnessRaw() {
+        return getUInt16(COLOR_BRIGHTNESS);
+    }
+    
+    public int getKelvin() {
+        return getUInt16(COLOR_KELVIN);
+    }
+    
+    public short getDim() {
+        return getInt16(DIM);
+    }
+    
+    public int getPowerLevel() {
+        return getUInt16(POWER);
+    }
+    
+    public String getLabel() {
+        return getString(LABEL, LABEL_SIZE);
+    }
+    
+    /**
+     * Returns true if the label is equal to the string, without creating a
+     * new string.
+     */
+    public boolean isLabel(String label) {
+        return stringEquals(LABEL, LABEL_SIZE, label);
+    }
+    
+    /**
+     * Returns the tags as a bit field, bit n is set if the light has tag n.
+     */
+    public long getTagsRaw() {
+        return getUInt64(TAGS);
+    }
+}
@@ -24,22 +24,17 @@
  */
 package com.github.besherman.lifx.impl.entities.internal;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
 import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes;
 import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
-import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
 import java.net.InetAddress;
-import java.util.Arrays;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class LFXMessage {
-    private static final String PAYLOAD_SIZE_METHOD_NAME = "getPayloadSize";
 
     private static final short ADDRESSABLE_BIT = 0x1000;
     private static final short TAGGED_BIT = 0x2000;
@@ -50,6 +45,9 @@ public class LFXMessage {
     private static final int CURRENT_PROTOCOL = LX_PROTOCOL_V1;
     private static final int BASE_MESSAGE_SIZE = 36;
     private static final int PAYLOAD_START_INDEX = 36;    
+    private static final int AT_TIME_INDEX = 24;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
     
 
     // When the message was received (incoming) or created (outgoing)
@@ -73,14 +71,22 @@ public class LFXMessage {
     private final LFXBinaryPath path;
     
     
-    private final LxProtocolTypeBase payload;
+    // decoded lazily from the payload view or the message data if there is
+    // one, at worst two threads decode it at the same time. Volatile since
+    // the message is handed between threads after it is created.
+    private volatile LxProtocolTypeBase payload;
+    
+    private final LFXPayloadView payloadView;
+    
+    // the whole received message, kept until the payload is asked for
+    private final byte[] messageData;
     
     // Network host (this will be set by the Message Router to be the host of the receiving
     // network connection). For outgoing messages, this will be nil.
     private final InetAddress sourceNetworkHost;
 
-    // 
-    private final int incomingHash;
+    // 64 bit content hash of an incoming message, see getIncomingHash()
+    private final long incomingHash;
     
     /**
      * Creates a new message with specific type. Used for outgoing messages.
@@ -99,6 +105,8 @@ public class LFXMessage {
         this.size = 0;
         this.atTime = 0;
         this.incomingHash = 0;
+        this.payloadView = null;
+        this.messageData = null;
     }
 
     /**
@@ -126,6 +134,8 @@ public class LFXMessage {
         this.size = 0;
         this.atTime = 0;        
         this.incomingHash = 0;
+        this.payloadView = null;
+        this.messageData = null;
     }    
 
     public LFXMessage(Type type, LFXBinaryPath path) {
@@ -146,87 +156,103 @@ public class LFXMessage {
         this.size = 0;
         this.atTime = 0;        
         this.incomingHash = 0;
+        this.payloadView = null;
+        this.messageData = null;
     }
     
     public LFXMessage(byte[] data) {
-        if (data == null || data.length == 0) {
+        this(data != null ? ByteBuffer.wrap(data) : null, null);
+    }
+
+    /**
+     * Creates a message from a received datagram. The header is decoded 
+     * straight from the buffer, the message is copied out of it once and the
+     * payload is decoded from the copy the first time getPayload() is 
+     * called. The buffer's position and limit are left untouched so that it can be 
+     * reused by the caller as soon as this returns.
+     * 
+     * @param data the datagram, between position and limit
+     * @param sourceNetworkHost the host that sent the datagram, can be null
+     */
+    public LFXMessage(ByteBuffer data, InetAddress sourceNetworkHost) {
+        this(data, sourceNetworkHost, null);
+    }
+    
+    /**
+     * Creates a message from a received datagram, with the payload read 
+     * through a view of the buffer if the message is of the type of the 
+     * view. The message must then not be used after the buffer is reused,
+     * see {@link LFXPayloadView}.
+     * 
+     * @param data the datagram, between position and limit
+     * @param sourceNetworkHost the host that sent the datagram, can be null
+     * @param view the view to use, or null to always decode the payload 
+     *             from a copy
+     */
+    public LFXMessage(ByteBuffer data, InetAddress sourceNetworkHost, LFXPayloadView view) {
+        if (data == null || data.remaining() == 0) {
             throw new RuntimeException("data is missing");
         }
+        
+        int start = data.position();
+        int length = data.remaining();
+        
+        if (length < BASE_MESSAGE_SIZE) {
+            throw new RuntimeException("Message is too short: " + length + " bytes");
+        }
 
-        byte[] bytes = new byte[data.length];
-        LFXByteUtils.copyBytesIntoByteArray(bytes, data);
-
-        if (!messageIsAddressable(bytes)) {
+        int protocolField = getUInt16(data, start + 2);
+        if ((protocolField & ADDRESSABLE_BIT) == 0) {
             // We don't know how to deal with non-addressable messages, but the bulbs are sometimes not setting this flag correctly
             throw new RuntimeException("Message claims to be non-addressable");
         }
-
-        int protocol = getProtocolFromMessageData(bytes);
+        
+        this.timestamp = System.currentTimeMillis();
+        this.messageDirection = LFXMessageDirection.INCOMING;
+        this.messageType = getTypeFromMessageData(data, start);
+        this.size = getUInt16(data, start);
+        this.protocol = protocolField & PROTOCOL_VERSION_BITS;
+
+        LFXSiteID site = LFXSiteID.valueOf(data, start + 16);
+        if ((protocolField & TAGGED_BIT) != 0) {
+            LFXBinaryTargetID target = new LFXBinaryTargetID(LFXTagMask.valueOf(getUInt64(data, start + 8)));
+            this.path = new LFXBinaryPath(site, target);
+        } else {
+            this.path = LFXDeviceID.valueOf(data, start + 8).getPath(site);
+        }
+        
         if (protocol != CURRENT_PROTOCOL) {
-            
             // TODO: can't we just remove this?
-            
             Logger.getLogger(LFXMessage.class.getName()).log(Level.WARNING, "Handling non-protocol message of protocol {0}", protocol);
-            //return LFXMessageA.initWithNonProtocolMessageData(data);
-            this.messageType = getTypeFromMessageData(data);
-
-            this.timestamp = System.currentTimeMillis();
-            this.messageDirection = LFXMessageDirection.INCOMING;
-
-            byte[] bytes_2 = new byte[data.length];
-            LFXByteUtils.copyBytesIntoByteArray(bytes_2, data);
-
-            this.size = getSizeFromMessageData(data);
-            this.protocol = getProtocolFromMessageData(data);
-
-            LFXSiteID site = new LFXSiteID(getSiteIDFromMessageData(data));
-
-            LFXBinaryTargetID target = null;
-            if (getIsTaggedFromMessageData(bytes_2)) {            
-                Set<LFXTagID> tags = LFXTagID.unpack(new UInt64(getTargetFromMessageData(bytes_2)));
-                target = new LFXBinaryTargetID(tags);
-            } else {
-                LFXDeviceID deviceId = new LFXDeviceID(getTargetFromMessageData(bytes_2));
-                target = new LFXBinaryTargetID(deviceId);
-            }
-            this.path = new LFXBinaryPath(site, target);                
             
             // final 
             this.atTime = 0;
             this.payload = null;
+            this.payloadView = null;
             this.incomingHash = 0;
-        } else {        
-            this.messageType = getTypeFromMessageData(data);
-
-            this.timestamp = System.currentTimeMillis();
-            this.messageDirection = LFXMessageDirection.INCOMING;
-
-            byte[] bytes_1 = new byte[data.length];
-            LFXByteUtils.copyBytesIntoByteArray(bytes_1, data);
-
-            this.size = getSizeFromMessageData(bytes_1);
-            this.protocol = getProtocolFromMessageData(bytes_1);
-            this.atTime = getAtTimeFromMessageData(bytes_1);
-            this.incomingHash = getHashFromMessageData(bytes_1);
-
-            LFXSiteID site_1 = new LFXSiteID(getSiteIDFromMessageData(bytes_1));
-
-            LFXBinaryTargetID target_1;
-            if (getIsTaggedFromMessageData(bytes_1)) {            
-                Set<LFXTagID> tags = LFXTagID.unpack(new UInt64(getTargetFromMessageData(bytes_1)));
-                target_1 = new LFXBinaryTargetID(tags);
-            } else {
-                LFXDeviceID deviceId = new LFXDeviceID(getTargetFromMessageData(bytes_1));
-                target_1 = new LFXBinaryTargetID(deviceId);
-            }
-
-            this.path = new LFXBinaryPath(site_1, target_1);
-
-            this.payload = getPayloadFromMessageData(bytes_1);            
+            this.messageData = null;
+        } else if(view != null && view.getType() == messageType 
+                && length == LFXMessageEncoder.HEADER_SIZE + LFXMessageEncoder.getPayloadSize(messageType)) {
+            view.wrap(data, start);
+            this.atTime = getUInt64(data, start + 24);
+            this.payload = null;
+            this.payloadView = view;
+            this.incomingHash = getHashFromMessageData(data, start, length);
+            this.messageData = null;
+        } else {
+            // the buffer is reused for the next datagram, so this is the 
+            // only copy we make of it
+            byte[] bytes = getBytes(data, start, length);
+            
+            this.atTime = getUInt64(data, start + 24);
+            this.incomingHash = getHashFromMessageData(data, start, length);
+            this.payload = null;
+            this.payloadView = null;
+            this.messageData = bytes;
         }        
         
         // final 
-        this.sourceNetworkHost = null;
+        this.sourceNetworkHost = sourceNetworkHost;
         this.target = null;        
     }    
 
@@ -241,7 +267,9 @@ public class LFXMessage {
         this.path = path;
         this.payload = other.payload;
         this.sourceNetworkHost = sourceNetworkHost;
-        this.incomingHash = 0;
+        this.incomingHash = path == other.path ? other.incomingHash : 0;
+        this.payloadView = other.payloadView;
+        this.messageData = other.messageData;
     }
     
     
@@ -252,52 +280,19 @@ public class LFXMessage {
     }    
     
     public byte[] getMessageDataRepresentation() {
-        byte[] data;
-
-        if (payload != null) {
-            data = new byte[getMessageDataRepresentationLength()];
-        } else {
-            data = new byte[BASE_MESSAGE_SIZE];
-        }
-
-        writeSizeToMessage((short) data.length, data);
-        writeProtocolToMessage((short) protocol, data);
-        writeIsAddressableToMessage(true, data);
-        writeAtTimeToMessage(atTime, data);
-        writeTypeToMessage(messageType, data);
-
-        if(LFXMessage.getTypeFromMessageData(data) != messageType) {
-            throw new IllegalStateException("failed to encode the message type properly");
-        }
-        
-        
-        writeSiteIDToMessage(path.getSiteID().getDataValue(), data);
-
-        if (path.getBinaryTargetID().geTargetType() == LFXBinaryTargetType.DEVICE) {
-            writeTargetIDtoMessage(path.getBinaryTargetID().getDeviceID().getDeviceDataValue(), data);
-            writeIsTaggedToMessage(false, data);
-        } else {
-            UInt64 tags = LFXTagID.pack(path.getBinaryTargetID().getGroupTagField());
-            //writeTargetIDtoMessage(path.getBinaryTargetID().getGroupTagField().tagData, data);
-            writeTargetIDtoMessage(tags.getBytes(), data);
-            writeIsTaggedToMessage(true, data);
-        }
-
-        if (payload != null) {
-            byte[] payloadData = payload.getBytes();
-
-            LFXByteUtils.copyBytesIntoByteArrayAtOffset(data, payloadData, PAYLOAD_START_INDEX);
-        }
-        
-        
-        
-        if(LFXMessage.getTypeFromMessageData(data) != messageType) {
-            throw new IllegalStateException("failed to encode the message type properly");
-        }
-        
-        return data;
+        ByteBuffer buf = ByteBuffer.allocate(LFXMessageEncoder.getEncodedLength(this)).order(ByteOrder.LITTLE_ENDIAN);
+        LFXMessageEncoder.encode(this, buf);
+        return buf.array();
     }    
     
+    /**
+     * Writes the message at the position of the buffer, see 
+     * {@link LFXMessageEncoder}.
+     */
+    public void writeMessageData(ByteBuffer buf) {
+        LFXMessageEncoder.encode(this, buf);
+    }
+    
     public long getTimestamp() {
         return timestamp;
     }
@@ -308,59 +303,52 @@ public class LFXMessage {
     
     /**
      * Returns a hash of the data (excluding the time) from an incoming message.
-     * This is 0 if no hash is available.
-     * 
-     * TODO: remove this?
+     * Two messages with the same hash are, for all practical purposes, copies
+     * of each other. This is 0 if no hash is available.
      */
-    public int getIncomingHash() {
+    public long getIncomingHash() {
         return incomingHash;
     }
 
     public boolean isAResponseMessage() {
-        switch(getType()) {
-            case LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY:
-            case LX_PROTOCOL_DEVICE_STATE_TIME:
-            case LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH:
-            case LX_PROTOCOL_DEVICE_STATE_DUMMY_LOAD:
-            case LX_PROTOCOL_DEVICE_STATE_MESH_INFO:
-            case LX_PROTOCOL_DEVICE_STATE_MESH_FIRMWARE:
-            case LX_PROTOCOL_DEVICE_STATE_WIFI_INFO:
-            case LX_PROTOCOL_DEVICE_STATE_WIFI_FIRMWARE:
-            case LX_PROTOCOL_DEVICE_STATE_POWER:
-            case LX_PROTOCOL_DEVICE_STATE_LABEL:
-            case LX_PROTOCOL_DEVICE_STATE_TAGS:
-            case LX_PROTOCOL_DEVICE_STATE_TAG_LABELS:
-            case LX_PROTOCOL_DEVICE_STATE_VERSION:
-            case LX_PROTOCOL_DEVICE_STATE_INFO:
-            case LX_PROTOCOL_DEVICE_STATE_MCU_RAIL_VOLTAGE:
-            case LX_PROTOCOL_DEVICE_STATE_FACTORY_TEST_MODE:
-            case LX_PROTOCOL_LIGHT_STATE:
-            case LX_PROTOCOL_LIGHT_STATE_RAIL_VOLTAGE:
-            case LX_PROTOCOL_LIGHT_STATE_TEMPERATURE:
-            case LX_PROTOCOL_LIGHT_STATE_SIMPLE_EVENT:
-            case LX_PROTOCOL_LIGHT_STATE_POWER:
-            //case LX_PROTOCOL_WAN_STATE:
-            //case LX_PROTOCOL_WAN_STATE_AUTH_KEY:
-            //case LX_PROTOCOL_WAN_STATE_KEEP_ALIVE:
-            //case LX_PROTOCOL_WAN_STATE_HOST:
-            case LX_PROTOCOL_WIFI_STATE:
-            //case LX_PROTOCOL_WIFI_STATE_ACCESS_POINTS:
-            case LX_PROTOCOL_WIFI_STATE_ACCESS_POINT:
-            case LX_PROTOCOL_SENSOR_STATE_AMBIENT_LIGHT:
-            case LX_PROTOCOL_SENSOR_STATE_DIMMER_VOLTAGE:            
-                return true;
-        }
-        return false;        
+        LFXPayloadCodec codec = LFXPayloadCodec.forType(getType());
+        return codec != null && codec.isResponse();
     }
 
 
     public <T extends LxProtocolTypeBase> T getPayload() {
-        return (T)payload;
+        LxProtocolTypeBase p = payload;
+        if(p == null) {
+            if(payloadView != null) {
+                p = payloadView.decodePayload();
+            } else if(messageData != null) {
+                p = getPayloadFromMessageData(messageType, messageData);
+            }
+            payload = p;
+        }
+        return (T)p;
+    }
+    
+    /**
+     * Returns the flyweight view of the payload if the message was decoded 
+     * with one, otherwise null. The view is only valid while the message is 
+     * being handled, a handler that keeps the message must call getPayload()
+     * before it returns.
+     * 
+     * @param type the class of the view the caller can handle
+     * @return the view or null if there is none of that class
+     */
+    public <T extends LFXPayloadView> T getPayloadView(Class<T> type) {
+        return type.isInstance(payloadView) ? type.cast(payloadView) : null;
     }
 
     public LFXBinaryPath getPath() {
         return path;
     }
+
+    long getAtTime() {
+        return atTime;
+    }
     
     public InetAddress getSourceNetworkHost() {
         return sourceNetworkHost;
@@ -383,246 +371,78 @@ public class LFXMessage {
     // Static methods
     ////////////////////////////////////////////////////////////////////////////
     
-    private static boolean messageIsAddressable(byte[] data) {
-        boolean addressable = false;
-        short protocol = StructleTypes.getShortValue(data[2], data[3]);
-
-        if ((protocol & ADDRESSABLE_BIT) != 0) {
-            addressable = true;
-        } else {
-            addressable = false;
-        }
-
-        return addressable;
-    }
-
-    private static int getProtocolFromMessageData(byte[] data) {
-        short protocol = StructleTypes.getShortValue(data[2], data[3]);
-        int protocolVersion = (protocol & PROTOCOL_VERSION_BITS);
-        return protocolVersion;
-    }
-
-    private static long getAtTimeFromMessageData(byte[] data) {
-        byte[] atTimeArray = new byte[8];
-
-        atTimeArray[0] = data[24];
-        atTimeArray[1] = data[25];
-        atTimeArray[2] = data[26];
-        atTimeArray[3] = data[27];
-        atTimeArray[4] = data[28];
-        atTimeArray[5] = data[29];
-        atTimeArray[6] = data[30];
-        atTimeArray[7] = data[31];
-
-        return StructleTypes.getLongValue(atTimeArray[0], atTimeArray[1], atTimeArray[2], 
-                atTimeArray[3], atTimeArray[4], atTimeArray[5], atTimeArray[6], atTimeArray[7]);
-    }
-    
     /**
-     * Returns a hash of the message data, excluding the time.
+     * Returns a 64 bit FNV-1a hash of the message data, excluding the time.
+     * Read straight from the buffer, which is left untouched.
      */
-    private static int getHashFromMessageData(byte[] _data) {
-        byte[] copy = Arrays.copyOf(_data, _data.length);
-
-        // clear out atTime because that will be different every time even
-        // if the message is the same
-        copy[24] = 0;
-        copy[25] = 0;
-        copy[26] = 0;
-        copy[27] = 0;
-        copy[28] = 0;
-        copy[29] = 0;
-        copy[30] = 0;
-        copy[31] = 0;
-        
-        return LFXByteUtils.byteArrayToHexString(copy).hashCode();
-    }
-
-    private static byte[] getSiteIDFromMessageData(byte[] data) {
-        byte[] siteIdArray = new byte[6];
-        siteIdArray[0] = data[16];
-        siteIdArray[1] = data[17];
-        siteIdArray[2] = data[18];
-        siteIdArray[3] = data[19];
-        siteIdArray[4] = data[20];
-        siteIdArray[5] = data[21];
-
-        return siteIdArray;
+    private static long getHashFromMessageData(ByteBuffer data, int start, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for(int i = 0; i < length; i++) {
+            if(i == AT_TIME_INDEX) {
+                // skip atTime because that will be different every time 
+                // even if the message is the same
+                i += 7;
+            } else {
+                hash = (hash ^ (data.get(start + i) & 0xff)) * FNV_PRIME;
+            }
+        }
+        // 0 means no hash
+        return hash != 0 ? hash : 1;
     }
 
-    private static byte[] getTargetFromMessageData(byte[] data) {
-        boolean tagged = getIsTaggedFromMessageData(data);
-        byte[] targetByteArray = null;
-
-        if (tagged) {
-            targetByteArray = new byte[8];
-            targetByteArray[0] = data[8];
-            targetByteArray[1] = data[9];
-            targetByteArray[2] = data[10];
-            targetByteArray[3] = data[11];
-            targetByteArray[4] = data[12];
-            targetByteArray[5] = data[13];
-            targetByteArray[6] = data[14];
-            targetByteArray[7] = data[15];
-        } else {
-            targetByteArray = new byte[6];
-            targetByteArray[0] = data[8];
-            targetByteArray[1] = data[9];
-            targetByteArray[2] = data[10];
-            targetByteArray[3] = data[11];
-            targetByteArray[4] = data[12];
-            targetByteArray[5] = data[13];
+    private static Type getTypeFromMessageData(ByteBuffer data, int start) {
+        int typeValue = getUInt16(data, start + 32);
+        LFXPayloadCodec codec = LFXPayloadCodec.forTypeValue(typeValue);
+        if(codec == null) {
+            throw new IllegalStateException("message data has type value=" + typeValue + " which is not a known type");
         }
 
-        return targetByteArray;
+        return codec.getType();
     }
-
-    private static boolean getIsTaggedFromMessageData(byte[] data) {
-        short protocol = StructleTypes.getShortValue(data[2], data[3]);
-        boolean tagged = false;
-
-        if ((protocol & TAGGED_BIT) != 0) {
-            tagged = true;
-        } else {
-            tagged = false;
+    
+    private static int getUInt16(ByteBuffer data, int index) {
+        return (data.get(index) & 0xff) | ((data.get(index + 1) & 0xff) << 8);
+    }
+    
+    private static long getUInt64(ByteBuffer data, int index) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= ((long) data.get(index + i) & 0xffL) << (8 * i);
         }
-
-        return tagged;
+        return value;
     }
-
-    private static Type getTypeFromMessageData(byte[] data) {
-        short typeValue = StructleTypes.getShortValue(data[32], data[33]);
-        Type type = LxProtocol.typeMap.get((int) typeValue);
-        if(type == null) {
-            throw new IllegalStateException("message data has type value=" + typeValue + " which is not in LxProtocol.typeMap");
+    
+    private static byte[] getBytes(ByteBuffer data, int index, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(index + i);
         }
-
-        return type;
+        return bytes;
     }
 
-    private static LxProtocolTypeBase getPayloadFromMessageData(byte[] data) {
+    private static LxProtocolTypeBase getPayloadFromMessageData(Type messageType, byte[] data) {
         if(data == null) {
             throw new IllegalArgumentException("data can not be null");
         }
-        LxProtocol.Type messageType = getTypeFromMessageData(data);        
-        if(messageType == null) {
-            throw new IllegalStateException("messageType is null in message data");
-        }
         
-        Class<? extends LxProtocolTypeBase> messagePayloadClass = LxProtocol.typeClassMap.get(messageType);
-        if(messagePayloadClass == null) {
-            throw new IllegalStateException(messageType + " is missing from LxProtocol.typeClassMap");
+        LFXPayloadCodec codec = LFXPayloadCodec.forType(messageType);
+        if(codec == null) {
+            throw new IllegalStateException(messageType + " has no payload codec");
+        }
+
+        if(data.length != PAYLOAD_START_INDEX + codec.getPayloadSize()) {
+            Logger.getLogger(LFXMessage.class.getName()).log(Level.SEVERE, 
+                    String.format("payload has more data than advertised: %s", StructleTypes.bytesToString(data)));
         }
 
         LxProtocolTypeBase payload = null;        
         try {
-            payload = messagePayloadClass.getDeclaredConstructor(new Class[]{byte[].class, int.class}).newInstance(data, PAYLOAD_START_INDEX);
-        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException e) {
-            String msg = String.format("Faild to create class %s from payload %s", messagePayloadClass.getName(), StructleTypes.bytesToString(data));
+            payload = codec.decode(data, PAYLOAD_START_INDEX);
+        } catch (RuntimeException e) {
+            String msg = String.format("Faild to decode %s from payload %s", messageType, StructleTypes.bytesToString(data));
             Logger.getLogger(LFXMessage.class.getName()).log(Level.SEVERE, msg, e);
         }
 
         return payload;
     }
-
-
-    private int getMessageDataRepresentationLength() {
-        int prePayloadLength = BASE_MESSAGE_SIZE;
-
-        Class<? extends LxProtocolTypeBase> payloadClass = LxProtocol.typeClassMap.get(messageType);
-        int payloadLength = 0;
-
-        try {
-            Method method = payloadClass.getMethod(PAYLOAD_SIZE_METHOD_NAME);
-            Object o = method.invoke(null);
-
-            if (o != null) {
-                payloadLength = (Integer) o;
-            }
-        } catch (IllegalAccessException | IllegalArgumentException | NoSuchMethodException | InvocationTargetException e) {
-            Logger.getLogger(LFXMessage.class.getName()).log(Level.SEVERE, null, e);
-        }
-
-        return (payloadLength + prePayloadLength);
-    }
-
-    private static void writeSizeToMessage(short size, byte[] data) {
-        data[0] = (byte) (size & 0xff);
-        data[1] = (byte) ((size >> 8) & 0xff);
-    }
-
-    private static void writeProtocolToMessage(short protocol, byte[] data) {
-        short protocolField = StructleTypes.getShortValue(data[2], data[3]);
-
-        short version = (short) (protocol & PROTOCOL_VERSION_BITS);
-
-        protocolField = (short) (protocolField | version);
-
-        data[2] = (byte) (protocolField & 0xff);
-        data[3] = (byte) ((protocolField >> 8) & 0xff);
-    }
-
-    private static void writeIsAddressableToMessage(boolean isAddressable, byte[] data) {
-        short protocolField = StructleTypes.getShortValue(data[2], data[3]);
-
-        if (isAddressable) {
-            protocolField = (short) (protocolField | ADDRESSABLE_BIT);
-        }
-
-        data[2] = (byte) (protocolField & 0xff);
-        data[3] = (byte) ((protocolField >> 8) & 0xff);
-    }
-
-    private static void writeAtTimeToMessage(long atTime, byte[] data) {
-        UInt64 wrappedAtTime = new UInt64(atTime);
-        byte[] atTimeBytes = wrappedAtTime.getBytes();
-
-        data[24] = atTimeBytes[0];
-        data[25] = atTimeBytes[1];
-        data[26] = atTimeBytes[2];
-        data[27] = atTimeBytes[3];
-        data[28] = atTimeBytes[4];
-        data[29] = atTimeBytes[5];
-        data[30] = atTimeBytes[6];
-        data[31] = atTimeBytes[7];
-    }
-
-    private static void writeTypeToMessage(Type type, byte[] data) {
-        int typeValue = LxProtocol.typeValueMap.get(type);
-//        short typeValueShort = (short) typeValue;
-//        data[32] = (byte) (typeValueShort & 0xff);
-//        data[33] = (byte) ((typeValueShort >> 8) & 0xff);
-        data[32] = (byte) (typeValue & 0xff);
-        data[33] = (byte) ((typeValue >> 8) & 0xff);
-        
-        short enc = StructleTypes.getShortValue(data[32], data[33]);
-        if(typeValue != enc) {
-            throw new IllegalStateException("failed to encode short, was " + typeValue + " as integer, and became " + enc);
-        }
-    }
-
-    private static void writeSiteIDToMessage(byte[] siteID, byte[] data) {
-        int siteOffsetIndex = 16;
-        for (int i = 0; i < siteID.length; i++) {
-            data[siteOffsetIndex + i] = siteID[i];
-        }
-    }
-
-    private static void writeTargetIDtoMessage(byte[] targetID, byte[] data) {
-        int targetOffsetIndex = 8;
-        for (int i = 0; i < targetID.length; i++) {
-            data[targetOffsetIndex + i] = targetID[i];
-        }
-    }
-
-    private static void writeIsTaggedToMessage(boolean tagged, byte[] data) {
-        short protocolField = StructleTypes.getShortValue(data[2], data[3]);
-
-        if (tagged) {
-            protocolField = (short) (protocolField | TAGGED_BIT);
-        }
-
-        data[2] = (byte) (protocolField & 0xff);
-        data[3] = (byte) ((protocolField >> 8) & 0xff);
-    }
 }
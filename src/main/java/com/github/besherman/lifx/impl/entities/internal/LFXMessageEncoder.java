@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes outgoing messages straight into a buffer.
+ * 
+ * Every type has a pre-encoded template with the size, protocol and type 
+ * already filled in. Encoding a message copies the template and then 
+ * patches the target, site and time. The payload is written by the 
+ * {@link LFXPayloadCodec} of the type.
+ */
+public final class LFXMessageEncoder {
+    public static final int HEADER_SIZE = 36;
+    
+    private static final int PROTOCOL_VERSION = 1024;
+    private static final int PROTOCOL_VERSION_BITS = 0x0FFF;
+    private static final int ADDRESSABLE_BIT = 0x1000;
+    private static final int TAGGED_BIT = 0x2000;
+    
+    private static final int SIZE_INDEX = 0;
+    private static final int PROTOCOL_INDEX = 2;
+    private static final int TARGET_INDEX = 8;
+    private static final int SITE_INDEX = 16;
+    private static final int AT_TIME_INDEX = 24;
+    private static final int TYPE_INDEX = 32;
+    
+    // template for messages with a payload, and for those without one
+    // indexed by the ordinal of the type
+    private static final byte[][] templates = new byte[Type.values().length][];
+    private static final byte[][] headerTemplates = new byte[Type.values().length][];
+    
+    static {
+        for(Type type: Type.values()) {
+            LFXPayloadCodec codec = LFXPayloadCodec.forType(type);
+            if(codec == null) {
+                continue;
+            }
+            templates[type.ordinal()] = createTemplate(type, codec.getTypeValue(), HEADER_SIZE + codec.getPayloadSize());
+            headerTemplates[type.ordinal()] = createTemplate(type, codec.getTypeValue(), HEADER_SIZE);
+        }
+    }
+    
+    private LFXMessageEncoder() {        
+    }
+    
+    /**
+     * Returns the number of bytes the message will be encoded as.
+     */
+    public static int getEncodedLength(LFXMessage message) {
+        return getTemplate(message).length;
+    }
+    
+    /**
+     * Returns the payload size of the type, 0 if it has no payload.
+     */
+    public static int getPayloadSize(Type type) {
+        byte[] template = templates[type.ordinal()];
+        return template != null ? template.length - HEADER_SIZE : 0;
+    }
+    
+    /**
+     * Writes the message at the position of the buffer and moves the 
+     * position past it. The buffer must be little endian.
+     * 
+     * @throws java.nio.BufferOverflowException if there is not enough room
+     */
+    public static void encode(LFXMessage message, ByteBuffer buf) {
+        if(buf.order() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IllegalArgumentException("buffer must be little endian");
+        }
+        
+        int start = buf.position();
+        buf.put(getTemplate(message));
+        
+        LFXBinaryPath path = message.getPath();
+        int protocolField = buf.getShort(start + PROTOCOL_INDEX);
+        
+        path.getSiteID().writeDataValue(buf, start + SITE_INDEX);
+        
+        LFXBinaryTargetID target = path.getBinaryTargetID();
+        if(target.geTargetType() == LFXBinaryTargetType.DEVICE) {
+            target.getDeviceID().writeDeviceDataValue(buf, start + TARGET_INDEX);
+        } else {
+            buf.putLong(start + TARGET_INDEX, target.getTagMask().toLong());
+            protocolField |= TAGGED_BIT;
+        }
+        
+        buf.putShort(start + PROTOCOL_INDEX, (short)protocolField);
+        buf.putLong(start + AT_TIME_INDEX, message.getAtTime());
+        
+        LxProtocolTypeBase payload = message.getPayload();
+        if(payload != null) {
+            LFXPayloadCodec.forType(message.getType()).encode(payload, buf, start + HEADER_SIZE);
+        }
+    }
+    
+    private static byte[] getTemplate(LFXMessage message) {
+        byte[] template = message.getPayload() != null 
+                ? templates[message.getType().ordinal()]
+                : headerTemplates[message.getType().ordinal()];
+        if(template == null) {
+            throw new IllegalArgumentException("unknown message type " + message.getType());
+        }
+        return template;
+    }
+    
+    private static byte[] createTemplate(Type type, int typeValue, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort(SIZE_INDEX, (short)size);
+        buf.putShort(PROTOCOL_INDEX, (short)((PROTOCOL_VERSION & PROTOCOL_VERSION_BITS) | ADDRESSABLE_BIT));
+        buf.putShort(TYPE_INDEX, (short)typeValue);
+        
+        if((buf.getShort(TYPE_INDEX) & 0xffff) != typeValue) {
+            throw new IllegalStateException("failed to encode the message type " + type + " properly");
+        }
+        
+        return buf.array();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes and encodes the payload of a single message type, and knows the 
+ * things about the type that the network code asks for on every message: 
+ * the value in the header, the payload size, if it is a response and what
+ * response a request expects.
+ * 
+ * The codecs are created once when the class is loaded, from the tables in
+ * {@link LFXProtocolSchema} which is generated from the protocol schema in 
+ * src/main/protocol. The payload classes themselves, and the Type enum, 
+ * are the hand written ones in the structle package. The codecs are looked
+ * up in plain arrays indexed by the type value or the type's ordinal, so 
+ * nothing on the receive or send path uses reflection or boxed map keys. Creating the codecs only reads the tables,
+ * the payload classes of a message family are not loaded until a message
+ * of the family is decoded or encoded.
+ */
+public final class LFXPayloadCodec {
+    private static final int MAX_TYPE_VALUE = 1024;
+    
+    private static final LFXPayloadCodec[] byTypeValue = new LFXPayloadCodec[MAX_TYPE_VALUE];
+    private static final LFXPayloadCodec[] byType = new LFXPayloadCodec[Type.values().length];
+    
+    private final int message;
+    private final Type type;
+    private final int typeValue;
+    private final int payloadSize;
+    private final boolean response;
+    private final Type expectedResponse;
+
+    /**
+     * @param message the number of the message in LFXProtocolSchema
+     */
+    private LFXPayloadCodec(int message) {
+        this.message = message;
+        this.type = LFXProtocolSchema.TYPES[message];
+        this.typeValue = LFXProtocolSchema.TYPE_VALUES[message];
+        this.payloadSize = LFXProtocolSchema.PAYLOAD_SIZES[message];
+        this.response = LFXProtocolSchema.RESPONSES[message];
+        this.expectedResponse = LFXProtocolSchema.EXPECTED_RESPONSES[message];
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the value of the type field in the message header.
+     */
+    public int getTypeValue() {
+        return typeValue;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * Returns true if messages of this type are sent by the lights as a 
+     * response to a request.
+     */
+    public boolean isResponse() {
+        return response;
+    }
+
+    /**
+     * Returns the type of the response the lights answer this request with, 
+     * or null if this type does not get a response that can be tracked.
+     */
+    public Type getExpectedResponse() {
+        return expectedResponse;
+    }
+    
+    /**
+     * Creates the payload from a whole message. 
+     * 
+     * @param data the message
+     * @param offset the index of the payload in data
+     */
+    public LxProtocolTypeBase decode(byte[] data, int offset) {
+        return decode(ByteBuffer.wrap(data), offset);
+    }
+    
+    /**
+     * Creates the payload from a message in the buffer, without moving the 
+     * position of the buffer.
+     * 
+     * @param data the buffer with the message
+     * @param index the index of the payload in data, it must be preceded by
+     *              the header of the message
+     */
+    public LxProtocolTypeBase decode(ByteBuffer data, int index) {
+        return LFXProtocolSchema.decode(message, data, index);
+    }
+    
+    /**
+     * Writes the payload into the buffer at the index, without moving the 
+     * position of the buffer.
+     */
+    public void encode(LxProtocolTypeBase payload, ByteBuffer buf, int index) {
+        LFXProtocolSchema.encode(message, payload, buf, index);
+    }
+    
+    /**
+     * Creates a flyweight view for the payload, or returns null if the type
+     * doesn't have one.
+     */
+    public LFXPayloadView createView() {
+        switch(type) {
+            case LX_PROTOCOL_LIGHT_STATE:
+                return new LFXLightStateView();
+            case LX_PROTOCOL_DEVICE_STATE_POWER:
+                return new LFXPowerStateView();
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Returns the codec for the type value in a message header, or null if 
+     * the value is unknown.
+     */
+    public static LFXPayloadCodec forTypeValue(int typeValue) {
+        if(typeValue < 0 || typeValue >= byTypeValue.length) {
+            return null;
+        }
+        return byTypeValue[typeValue];
+    }
+    
+    /**
+     * Returns the codec for the type, or null if the type has no value in 
+     * the protocol.
+     */
+    public static LFXPayloadCodec forType(Type type) {
+        return byType[type.ordinal()];
+    }
+    
+    private static void register(LFXPayloadCodec codec) {
+        if(byTypeValue[codec.typeValue] != null) {
+            throw new IllegalStateException("type value " + codec.typeValue + " is used by both " 
+                    + byTypeValue[codec.typeValue].type + " and " + codec.type);
+        }
+        byTypeValue[codec.typeValue] = codec;
+        byType[codec.type.ordinal()] = codec;
+    }
+    
+    static {
+        for(int message = 0; message < LFXProtocolSchema.MESSAGE_COUNT; message++) {
+            register(new LFXPayloadCodec(message));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight payload that reads its fields straight from the buffer the 
+ * message was received into, instead of copying them into StructleTypes 
+ * objects. One view per type is reused for every message, so a view is only
+ * valid until the handlers of the message have returned.
+ * 
+ * Views are only used if {@link 
+ * com.github.besherman.lifx.impl.network.LFXConstants#isFlyweightPayloadsEnabled()}
+ * is set, see {@link LFXMessage#getPayloadView(Class)}.
+ */
+public abstract class LFXPayloadView {
+    private final Type type;
+    private ByteBuffer data;
+    private int messageStart;
+
+    protected LFXPayloadView(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Points the view at a message, which must have the payload size of the
+     * type.
+     * 
+     * @param data the buffer with the message
+     * @param messageStart the index of the message header in data
+     */
+    void wrap(ByteBuffer data, int messageStart) {
+        this.data = data;
+        this.messageStart = messageStart;
+    }
+    
+    /**
+     * Lets go of the buffer, called when the handlers are done with the 
+     * message.
+     */
+    public void release() {
+        this.data = null;
+    }
+    
+    /**
+     * Returns true if the view is pointing at a message.
+     */
+    public boolean isValid() {
+        return data != null;
+    }
+    
+    /**
+     * Decodes the whole payload, for the handlers that need more than the 
+     * getters of the view.
+     */
+    LxProtocolTypeBase decodePayload() {
+        return LFXPayloadCodec.forType(type).decode(buffer(), messageStart + LFXMessageEncoder.HEADER_SIZE);
+    }
+    
+    protected int getUInt16(int index) {
+        return LFXProtocolSchema.readUInt16(buffer(), payloadIndex(index));
+    }
+    
+    protected short getInt16(int index) {
+        return LFXProtocolSchema.readInt16(buffer(), payloadIndex(index));
+    }
+    
+    protected long getUInt64(int index) {
+        return LFXProtocolSchema.readUInt64(buffer(), payloadIndex(index));
+    }
+    
+    /**
+     * Returns a zero terminated string field.
+     */
+    protected String getString(int index, int maxLength) {
+        return LFXProtocolSchema.readString(buffer(), payloadIndex(index), maxLength);
+    }
+    
+    /**
+     * Returns true if the zero terminated string field is equal to the 
+     * string, without creating a string from the field. Only ASCII strings
+     * are compared byte by byte, for other strings the field is decoded.
+     */
+    protected boolean stringEquals(int index, int maxLength, String value) {
+        if(value == null) {
+            return false;
+        }
+        int i = payloadIndex(index);
+        ByteBuffer buf = buffer();
+        int length = stringLength(buf, i, maxLength);
+        if(length != value.length()) {
+            return false;
+        }
+        for(int n = 0; n < length; n++) {
+            byte b = buf.get(i + n);
+            if(b < 0 || value.charAt(n) > 0x7f) {
+                return value.equals(getString(index, maxLength));
+            }
+            if(b != value.charAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int stringLength(ByteBuffer buf, int index, int maxLength) {
+        for(int n = 0; n < maxLength; n++) {
+            if(buf.get(index + n) == 0) {
+                return n;
+            }
+        }
+        return maxLength;
+    }
+    
+    private int payloadIndex(int index) {
+        return messageStart + LFXMessageEncoder.HEADER_SIZE + index;
+    }
+    
+    private ByteBuffer buffer() {
+        if(data == null) {
+            throw new IllegalStateException("the " + type + " view is used after its message was handled");
+        }
+        return data;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import static com.github.besherman.lifx.impl.entities.internal.LFXProtocolSchema.DeviceStatePower.*;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+
+/**
+ * A view of a LX_PROTOCOL_DEVICE_STATE_POWER payload, see 
+ * {@link LFXPayloadView}.
+ */
+public class LFXPowerStateView extends LFXPayloadView {
+    public LFXPowerStateView() {
+        super(Type.LX_PROTOCOL_DEVICE_STATE_POWER);
+    }
+    
+    public int getPowerLevel() {
+        return getUInt16(LEVEL);
+    }
+}
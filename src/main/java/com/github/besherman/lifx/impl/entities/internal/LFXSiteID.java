@@ -24,7 +24,7 @@
  */
 package com.github.besherman.lifx.impl.entities.internal;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * What is a site you ask? Good question.
@@ -33,26 +33,66 @@ import java.util.Arrays;
  * But it is not the address of the interface that sends us messages. 
  * Current working hypothesis: It's the PAN controller's mesh interface MAC address.
  * 
+ * The 6 bytes are kept packed into a long and the sites read from the 
+ * network are interned like {@link LFXDeviceID}.
+ * 
  * This is part of {@link LFXBinaryPath}.
  */
 public class LFXSiteID {
     private static final int LFX_SITE_ID_NUMBER_OF_BYTES = 6;
+    
+    private static final LFXInternTable<LFXSiteID> interned = new LFXInternTable<LFXSiteID>() {
+        @Override
+        protected long valueOf(LFXSiteID id) {
+            return id.value;
+        }
 
-    private final byte[] data;
+        @Override
+        protected LFXSiteID create(long value) {
+            return new LFXSiteID(value);
+        }
+    };
+
+    private final long value;
 
     // When a device hasn't been added to a site yet, it will have a 'zero' Site ID.
     public LFXSiteID() {
-        this.data = new byte[LFX_SITE_ID_NUMBER_OF_BYTES];
-        Arrays.fill(data, (byte)0);
+        this.value = 0;
+    }
+    
+    private LFXSiteID(long value) {
+        this.value = value;
     }
     
     public LFXSiteID(byte[] data) {
-        this.data = Arrays.copyOf(data, data.length);        
+        this(toValue(data));
     }
     
     public LFXSiteID(String siteIDString) {
         this(LFXByteUtils.hexStringToByteArray(siteIDString));
     }
+    
+    /**
+     * Returns the canonical site for the 48 bit value.
+     */
+    public static LFXSiteID valueOf(long value) {
+        return interned.intern(value & 0xFFFFFFFFFFFFL);
+    }
+    
+    /**
+     * Returns the canonical site for the 6 bytes.
+     */
+    public static LFXSiteID valueOf(byte[] data) {
+        return interned.intern(toValue(data));
+    }
+    
+    /**
+     * Returns the canonical site for the 6 bytes at the index of the buffer.
+     * The buffer's position is not changed.
+     */
+    public static LFXSiteID valueOf(ByteBuffer data, int index) {
+        return interned.intern(LFXByteUtils.getUInt48(data, index));
+    }
 
 
     public String getStringValue() {
@@ -60,16 +100,33 @@ public class LFXSiteID {
             return "*";
         }
 
-        return LFXByteUtils.byteArrayToHexString(data);
+        return LFXByteUtils.byteArrayToHexString(getDataValue());
     }
 
     public byte[] getDataValue() {
+        byte[] data = new byte[LFX_SITE_ID_NUMBER_OF_BYTES];
+        LFXByteUtils.putUInt48(ByteBuffer.wrap(data), 0, value);
         return data;
     }
+    
+    /**
+     * Writes the site at the index without making a copy.
+     */
+    void writeDataValue(ByteBuffer buf, int index) {
+        LFXByteUtils.putUInt48(buf, index, value);
+    }
+    
+    /**
+     * Returns the site packed into the low 48 bits of a long, the first 
+     * byte being the most significant.
+     */
+    public long toLong() {
+        return value;
+    }
 
     
     public boolean isZeroSite() {
-        return LFXByteUtils.isByteArrayEmpty(data);
+        return value == 0;
     }
 
     @Override
@@ -79,13 +136,14 @@ public class LFXSiteID {
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 79 * hash + Arrays.hashCode(this.data);
-        return hash;
+        return (int)(value ^ (value >>> 32));
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -93,12 +151,13 @@ public class LFXSiteID {
             return false;
         }
         final LFXSiteID other = (LFXSiteID) obj;
-        if (!Arrays.equals(this.data, other.data)) {
-            return false;
-        }
-        return true;
+        return this.value == other.value;
     }
-
-    
     
+    private static long toValue(byte[] data) {
+        if(data == null || data.length != LFX_SITE_ID_NUMBER_OF_BYTES) {
+            throw new IllegalArgumentException("site id must be " + LFX_SITE_ID_NUMBER_OF_BYTES + " bytes");
+        }
+        return LFXByteUtils.getUInt48(ByteBuffer.wrap(data), 0);
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of tags kept as the 64 bit field that is sent over the
+ * wire, bit n is set if tag n is in the set. 
+ * 
+ * The network code and the group model work on masks, sets of 
+ * {@link LFXTagID} are only created where an API asks for one.
+ */
+public final class LFXTagMask implements Iterable<LFXTagID> {
+    public static final LFXTagMask NONE = new LFXTagMask(0L);
+    public static final LFXTagMask ALL = new LFXTagMask(-1L);
+    
+    private static final LFXTagID[] TAGS = LFXTagID.values();
+    
+    private final long bits;
+
+    private LFXTagMask(long bits) {
+        this.bits = bits;
+    }
+    
+    public static LFXTagMask valueOf(long bits) {
+        if(bits == 0L) {
+            return NONE;
+        } else if(bits == -1L) {
+            return ALL;
+        }
+        return new LFXTagMask(bits);
+    }
+    
+    public static LFXTagMask valueOf(UInt64 value) {
+        return valueOf(value.getValue());
+    }
+    
+    public static LFXTagMask of(LFXTagID tag) {
+        return valueOf(tag.bit());
+    }
+    
+    public static LFXTagMask of(Set<LFXTagID> tags) {
+        long bits = 0L;
+        for(LFXTagID tag: tags) {
+            bits |= tag.bit();
+        }
+        return valueOf(bits);
+    }
+
+    public long toLong() {
+        return bits;
+    }
+    
+    public UInt64 toUInt64() {
+        return new UInt64(bits);
+    }
+    
+    public EnumSet<LFXTagID> toSet() {
+        EnumSet<LFXTagID> result = EnumSet.noneOf(LFXTagID.class);
+        for(LFXTagID tag: this) {
+            result.add(tag);
+        }
+        return result;
+    }
+    
+    public boolean isEmpty() {
+        return bits == 0L;
+    }
+    
+    public int size() {
+        return Long.bitCount(bits);
+    }
+    
+    public boolean contains(LFXTagID tag) {
+        return (bits & tag.bit()) != 0L;
+    }
+    
+    /**
+     * Returns true if the masks have one or more tags in common.
+     */
+    public boolean intersects(LFXTagMask other) {
+        return (bits & other.bits) != 0L;
+    }
+    
+    public LFXTagMask with(LFXTagID tag) {
+        return valueOf(bits | tag.bit());
+    }
+    
+    public LFXTagMask without(LFXTagID tag) {
+        return valueOf(bits & ~tag.bit());
+    }
+    
+    /**
+     * Returns the tags in the order of their bits.
+     */
+    @Override
+    public Iterator<LFXTagID> iterator() {
+        return new Iterator<LFXTagID>() {
+            private long remaining = bits;
+            
+            @Override
+            public boolean hasNext() {
+                return remaining != 0L;
+            }
+
+            @Override
+            public LFXTagID next() {
+                if(remaining == 0L) {
+                    throw new NoSuchElementException();
+                }
+                int index = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                return TAGS[index];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * Returns the bit field as a 16 character hex string, in the byte order
+     * of the wire.
+     */
+    public String toHex() {
+        return toUInt64().toHex();
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return bits == ((LFXTagMask) obj).bits;
+    }
+
+    @Override
+    public String toString() {
+        return "LFXTagMask{" + toHex() + '}';
+    }
+}
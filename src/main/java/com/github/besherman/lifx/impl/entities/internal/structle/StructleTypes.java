@@ -428,6 +428,7 @@ public class StructleTypes {
     //
     ////////////////////////////////////////////////////////////////////////////
     public static class UInt64 {
+        private static final long NANOS_PER_MILLI = 1000000L;
 
         private byte[] value;
 
@@ -453,19 +454,21 @@ public class StructleTypes {
             return new UInt64(LFXByteUtils.hexStringToByteArray(s));            
         }
 
+        /**
+         * @param value the 64 bits of the value, read as unsigned
+         */
         public UInt64(long value) {
             this.value = new byte[8];
-
-            byte[] buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
-
-            this.value[0] = buffer[0];
-            this.value[1] = buffer[1];
-            this.value[2] = buffer[2];
-            this.value[3] = buffer[3];
-            this.value[4] = buffer[4];
-            this.value[5] = buffer[5];
-            this.value[6] = buffer[6];
-            this.value[7] = buffer[7];
+            for (int i = 0; i < 8; i++) {
+                this.value[i] = (byte) (value >>> (8 * i));
+            }
+        }
+        
+        /**
+         * Creates a time field, these are nanoseconds since the epoch.
+         */
+        public static UInt64 fromMillis(long millis) {
+            return new UInt64(millis * NANOS_PER_MILLI);
         }
 
         public void set(byte[] value) {
@@ -477,9 +480,49 @@ public class StructleTypes {
         }
 
         public long getSignedValue() {
-            return (long) getLongValue(value[0], value[1], value[2], value[3], value[4], value[5], value[6], value[7]);
+            return getValue();
+        }
+        
+        /**
+         * Returns the 64 bits of the value. Values above Long.MAX_VALUE are 
+         * negative, use {@link #compareUnsigned(long, long)} and 
+         * {@link #nanosToMillis(long)} instead of the signed operators.
+         */
+        public long getValue() {
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result |= ((long) value[i] & 0xffL) << (8 * i);
+            }
+            return result;
+        }
+        
+        /**
+         * Returns a time field, which is in nanoseconds, in milliseconds.
+         */
+        public long getMillis() {
+            return nanosToMillis(getValue());
+        }
+        
+        /**
+         * Converts unsigned nanoseconds to milliseconds.
+         */
+        public static long nanosToMillis(long nanos) {
+            // an unsigned divide, NANOS_PER_MILLI is even so halving both 
+            // sides first gives the same result
+            return (nanos >>> 1) / (NANOS_PER_MILLI / 2);
+        }
+        
+        /**
+         * Compares two values as unsigned.
+         */
+        public static int compareUnsigned(long a, long b) {
+            return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
         }
         
+        /**
+         * Returns the value as a BigInteger. Only here for compatibility, 
+         * the SDK uses {@link #getValue()}.
+         */
         public BigInteger getBigIntegerValue() {
             byte[] buffer = new byte[8];
             buffer[0] = value[7];
@@ -490,7 +533,7 @@ public class StructleTypes {
             buffer[5] = value[2];
             buffer[6] = value[1];
             buffer[7] = value[0];
-            return new BigInteger(buffer);
+            return new BigInteger(1, buffer);
         }
 
         public boolean equals(UInt64 other) {
@@ -42,7 +42,6 @@ import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes;
 import com.github.besherman.lifx.impl.network.LFXMessageRouter;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -215,16 +214,12 @@ public class LFXAlarmCollectionImpl implements LFXAlarmCollection {
         }
         
         StructleTypes.UInt8 idx = new StructleTypes.UInt8(index);
-        BigInteger t = BigInteger.valueOf(alarm.getTime().getTime());
-        t = t.multiply(new BigInteger("1000000"));
-        StructleTypes.UInt64 time = new StructleTypes.UInt64(t);
+        StructleTypes.UInt64 time = StructleTypes.UInt64.fromMillis(alarm.getTime().getTime());
         StructleTypes.UInt16 power = new StructleTypes.UInt16(alarm.isPower() ? 1 : 0);
         StructleTypes.UInt32 duration = new StructleTypes.UInt32(alarm.getDuration());
         LxProtocolLight.SetSimpleEvent payload = new LxProtocolLight.SetSimpleEvent(idx, time, power, duration, waveform);
         
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(new LFXMessage(LX_PROTOCOL_LIGHT_SET_SIMPLE_EVENT, target, payload));
-        }
+        router.sendMessage(new LFXMessage(LX_PROTOCOL_LIGHT_SET_SIMPLE_EVENT, target, payload), 3);
     }
     
     private void simpleEventDidChangeTo(LxProtocolLight.StateSimpleEvent payload) {        
@@ -253,9 +248,7 @@ public class LFXAlarmCollectionImpl implements LFXAlarmCollection {
                 (short)wf.getSkewRatio().getValue(), 
                 wf.getWaveform().getValue()); 
         
-        BigInteger time = payload.getTime().getBigIntegerValue();
-        time = time.divide(new BigInteger("1000000"));
-        Date date = new Date(time.longValue());
+        Date date = new Date(payload.getTime().getMillis());
         
         LFXAlarm alarm = new LFXAlarm(date, 
                 payload.getPower().getValue() > 0, 
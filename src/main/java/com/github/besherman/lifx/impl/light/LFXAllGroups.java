@@ -31,6 +31,7 @@ import com.github.besherman.lifx.LFXGroupCollection;
 import com.github.besherman.lifx.LFXGroupCollectionListener;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
 import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAGS;
@@ -39,9 +40,6 @@ import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevic
 import com.github.besherman.lifx.impl.network.LFXMessageRouter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +49,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,7 +70,8 @@ public class LFXAllGroups implements LFXGroupCollection {
     private final Set<LFXGroupImpl> availableGroups = new CopyOnWriteArraySet<>(); 
     private final Object availableLock = new Object();
     private final List<LFXGroupCollectionListener> listeners = new CopyOnWriteArrayList<>();
-    private final Set<LFXTagID> hasNotReceivedLabel = Collections.synchronizedSet(EnumSet.allOf(LFXTagID.class));
+    // the tags we have not received a label for yet, as a tag mask
+    private final AtomicLong hasNotReceivedLabel = new AtomicLong(LFXTagMask.ALL.toLong());
     private volatile CountDownLatch allLabelsLoaded = new CountDownLatch(1);
     private LFXAllLights allLights;
     private LFXMessageRouter router;
@@ -159,14 +159,11 @@ public class LFXAllGroups implements LFXGroupCollection {
             Iterator<LFXLight> it = group.iterator();
             while(it.hasNext()) {
                 LFXLightImpl light = (LFXLightImpl)it.next();
-                Set<LFXTagID> tags = getTagIDsForLight(light);
-                tags.remove(impl.getTagID());            
+                LFXTagMask tags = getTagMaskForLight(light).without(impl.getTagID());
 
-                LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(LFXTagID.pack(tags));
+                LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(tags.toUInt64());
                 LFXMessage msg = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_TAGS, light.getTarget(), payload);
-                for(int i = 0; i < 3; i++) {
-                    router.sendMessage(msg);                            
-                }
+                router.sendMessage(msg, 3);
             }
             
             impl.clearImpl();
@@ -234,13 +231,13 @@ public class LFXAllGroups implements LFXGroupCollection {
         }     
         
         // TODO: i am not a fan of this
-        hasNotReceivedLabel.addAll(EnumSet.allOf(LFXTagID.class));
+        hasNotReceivedLabel.set(LFXTagMask.ALL.toLong());
         allLabelsLoaded = new CountDownLatch(1);
     }
     
     
     public boolean isLoaded() {
-        return hasNotReceivedLabel.isEmpty();
+        return hasNotReceivedLabel.get() == 0L;
     }
     
     public boolean waitForInitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
@@ -250,34 +247,28 @@ public class LFXAllGroups implements LFXGroupCollection {
     
     
     public void sendAddLightToGroup(LFXLightImpl light, LFXGroupImpl group) {
-        Set<LFXTagID> tags = getTagIDsForLight(light);
-        tags.add(group.getTagID());
-        LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(LFXTagID.pack(tags));            
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_TAGS, light.getTarget(), payload));        
-        }
+        LFXTagMask tags = getTagMaskForLight(light).with(group.getTagID());
+        LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(tags.toUInt64());            
+        router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_TAGS, light.getTarget(), payload), 3);
     }
     
     public void sendRemoveLightToGroup(LFXLightImpl light, LFXGroupImpl group) {
-        Set<LFXTagID> tags = getTagIDsForLight(light);
-        tags.remove(group.getTagID());
-        LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(LFXTagID.pack(tags));            
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_TAGS, light.getTarget(), payload));        
-        }
+        LFXTagMask tags = getTagMaskForLight(light).without(group.getTagID());
+        LxProtocolDevice.SetTags payload = new LxProtocolDevice.SetTags(tags.toUInt64());            
+        router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_TAGS, light.getTarget(), payload), 3);
     }
     
     /**
      * Returns all tags that the light has.
      */
-    public Set<LFXTagID> getTagIDsForLight(LFXLightImpl light) {
-        Set<LFXTagID> result = new HashSet<>();
+    public LFXTagMask getTagMaskForLight(LFXLightImpl light) {
+        long result = 0L;
         for(LFXGroupImpl group: availableGroups) {
             if(group.contains(light)) {
-                result.add(group.getTagID());
+                result |= group.getTagID().bit();
             }
         }
-        return result;
+        return LFXTagMask.valueOf(result);
     }    
     
     
@@ -285,11 +276,10 @@ public class LFXAllGroups implements LFXGroupCollection {
         Type type = message.getType();
         if(type == LX_PROTOCOL_DEVICE_STATE_TAGS) {
             LxProtocolDevice.StateTags payload = message.getPayload();
-            Set<LFXTagID> ids = LFXTagID.unpack(payload.getTags());                            
-            setLightGroups(targets, ids);
+            setLightGroups(targets, LFXTagMask.valueOf(payload.getTags()));
         } else if(type == LX_PROTOCOL_DEVICE_STATE_TAG_LABELS) {
             LxProtocolDevice.StateTagLabels payload = message.getPayload();
-            Set<LFXTagID> tags = LFXTagID.unpack(payload.getTags());
+            LFXTagMask tags = LFXTagMask.valueOf(payload.getTags());
             String label = payload.getLabel();            
             if(targets.size() == 1) {
                 setGroupLabels(targets.iterator().next(), tags, label); 
@@ -297,7 +287,7 @@ public class LFXAllGroups implements LFXGroupCollection {
         }        
     }
 
-    private void setLightGroups(Set<LFXDeviceID> targets, Set<LFXTagID> ids) {
+    private void setLightGroups(Set<LFXDeviceID> targets, LFXTagMask ids) {
         for(LFXDeviceID deviceId: targets) {
             LFXLightImpl light = allLights.getLight(deviceId);
             for(LFXGroupImpl group: allGroups.values()) {
@@ -312,7 +302,7 @@ public class LFXAllGroups implements LFXGroupCollection {
         }                
     }
 
-    private void setGroupLabels(LFXDeviceID source, Set<LFXTagID> ids, String label) {        
+    private void setGroupLabels(LFXDeviceID source, LFXTagMask ids, String label) {        
         for(LFXTagID id: ids) {
             LFXGroupImpl group = allGroups.get(id);
             if(group.contains(source)) {
@@ -321,11 +311,14 @@ public class LFXAllGroups implements LFXGroupCollection {
             } 
         }
         
-        if(!hasNotReceivedLabel.isEmpty()) {
-            hasNotReceivedLabel.removeAll(ids);
-            if(hasNotReceivedLabel.isEmpty()) {
-                allLabelsLoaded.countDown();
-            }
+        long before;
+        long after;
+        do {
+            before = hasNotReceivedLabel.get();
+            after = before & ~ids.toLong();
+        } while(before != after && !hasNotReceivedLabel.compareAndSet(before, after));
+        if(before != 0L && after == 0L) {
+            allLabelsLoaded.countDown();
         }
     }
     
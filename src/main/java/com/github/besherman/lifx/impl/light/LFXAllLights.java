@@ -31,7 +31,9 @@ import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.network.LFXMessageRouter;
 import com.github.besherman.lifx.impl.network.LFXTimerQueue;
+import com.github.besherman.lifx.impl.network.LFXTimingWheel;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -39,12 +41,23 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * All lights on the network. A light is removed when we haven't heard from
+ * it for the light lost timeout, a {@link LFXTimingWheel} keeps track of 
+ * that so removing the lost lights does not have to look at every light.
  *
  * @author Richard
  */
 public class LFXAllLights implements LFXLightCollection {        
+    private static final long EXPIRY_TICK = 1000;
+    private static final int EXPIRY_SIZE = 64;
+    
     private volatile CountDownLatch allLightsLoaded = new CountDownLatch(1);
     private final LFXLightCollectionImpl lights = new LFXLightCollectionImpl();
+    
+    private final Object expiryLock = new Object();
+    private long lightLostTimeout = LFXLightConstants.getLightLostTimeout();
+    private LFXTimingWheel<LFXDeviceID> expiry = new LFXTimingWheel<>(lightLostTimeout, 
+            EXPIRY_TICK, EXPIRY_SIZE, System.currentTimeMillis());
 
     @Override
     public int size() {
@@ -87,7 +100,28 @@ public class LFXAllLights implements LFXLightCollection {
         lights.removeLightCollectionListener(listener);
     } 
     
+    /**
+     * Starts a new expiry wheel with the current light lost timeout. The
+     * lights we already have are counted as seen now.
+     */
     public void open() {
+        long now = System.currentTimeMillis();
+        synchronized(expiryLock) {
+            expiry = new LFXTimingWheel<>(lightLostTimeout, EXPIRY_TICK, EXPIRY_SIZE, now);
+            for(LFXLight light: lights) {
+                expiry.touch(((LFXLightImpl)light).getDeviceID(), now);
+            }
+        }
+    }
+    
+    /**
+     * Sets how long, in milliseconds, until a light we haven't heard from
+     * is removed. Takes effect the next time the lights are opened.
+     */
+    public void setLightLostTimeout(long timeout) {
+        synchronized(expiryLock) {
+            this.lightLostTimeout = timeout;
+        }
     }
 
     public void close() {
@@ -104,14 +138,21 @@ public class LFXAllLights implements LFXLightCollection {
     }
     
     public void handleMessage(LFXMessageRouter router, LFXTimerQueue timer, Set<LFXDeviceID> targets, LFXMessage message) {
+        long now = System.currentTimeMillis();
+        synchronized(expiryLock) {
+            for(LFXDeviceID device: targets) {
+                expiry.touch(device, now);
+            }
+        }
+        
         for(LFXDeviceID device: targets) {
             LFXLightImpl light = lights.get(device);
             if(light == null) {
                 light = new LFXLightImpl(router, timer, device);
-                router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_LABEL, light.getTarget()));
-                router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_POWER, light.getTarget()));
-                router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TIME, light.getTarget()));                                
-                light.getDetails().load();
+                router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_LABEL, light.getTarget()));
+                router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_POWER, light.getTarget()));
+                router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TIME, light.getTarget()));                                
+                light.loadDetails();
             }
             light.handleMessage(message);
             
@@ -120,6 +161,22 @@ public class LFXAllLights implements LFXLightCollection {
             }
         }
         
+        checkLoaded();
+    }
+    
+    /**
+     * The light will not answer the request for the response, if it was 
+     * waiting for it to be loaded it is loaded without it.
+     */
+    public void responseAbandoned(LFXDeviceID device, LxProtocol.Type type) {
+        LFXLightImpl light = lights.get(device);
+        if(light != null) {
+            light.responseAbandoned(type);
+            checkLoaded();
+        }
+    }
+    
+    private void checkLoaded() {
         if(allLightsLoaded.getCount() > 0) {
             for(LFXLight l: lights) {
                 if(((LFXLightImpl)l).isLoaded() == false) {
@@ -131,14 +188,16 @@ public class LFXAllLights implements LFXLightCollection {
     }
     
     /**
-     * Go through all lighs and remove the ones we haven't seen for a while.
+     * Removes the lights we haven't seen for a while.
      */
     public void removeLostLights() {
-        Iterator<LFXDeviceID> it = lights.keyIterator();        
-        while(it.hasNext()) {
-            LFXDeviceID id = it.next();
+        List<LFXDeviceID> lost;
+        synchronized(expiryLock) {
+            lost = expiry.expire(System.currentTimeMillis());
+        }
+        for(LFXDeviceID id: lost) {
             LFXLightImpl light = lights.get(id);            
-            if(light.isLost()) {
+            if(light != null) {
                 lights.remove(light);
             } 
         }
@@ -23,15 +23,18 @@
  */
 package com.github.besherman.lifx.impl.light;
 
-import com.github.besherman.lifx.impl.entities.internal.LFXTagID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
 import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.network.LFXAbandonReason;
 import com.github.besherman.lifx.impl.network.LFXLightHandler;
 import com.github.besherman.lifx.impl.network.LFXMessageRouter;
+import com.github.besherman.lifx.impl.network.LFXResponseTrackerListener;
 import com.github.besherman.lifx.impl.network.LFXTimerQueue;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -41,7 +44,26 @@ import java.util.logging.Logger;
 /**
  * 
  */
-public class LFXDefaultLightHandler implements LFXLightHandler {
+public class LFXDefaultLightHandler implements LFXLightHandler, LFXResponseTrackerListener {
+    // everything the lights, their details and alarms, and the groups handle
+    private static final Set<LxProtocol.Type> SUBSCRIBED_TYPES = Collections.unmodifiableSet(EnumSet.of(
+            LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_LABEL,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_POWER,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TIME,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_INFO,
+            LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE_TEMPERATURE,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MESH_INFO,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MESH_FIRMWARE,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_WIFI_INFO,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_WIFI_FIRMWARE,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_VERSION,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MCU_RAIL_VOLTAGE,
+            LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE_SIMPLE_EVENT,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAGS,
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAG_LABELS));
+    
     private LFXMessageRouter router;
     private final LFXAllLights lights = new LFXAllLights();
     private final LFXAllGroups groups = new LFXAllGroups();
@@ -63,6 +85,14 @@ public class LFXDefaultLightHandler implements LFXLightHandler {
         return groups;
     }    
     
+    /**
+     * Sets how long, in milliseconds, until a light we haven't heard from
+     * is removed. Takes effect the next time the handler is opened.
+     */
+    public void setLightLostTimeout(long timeout) {
+        lights.setLightLostTimeout(timeout);
+    }
+    
     public boolean waitForLoaded(long timeout, TimeUnit unit) throws InterruptedException {
         Logger.getLogger(LFXDefaultLightHandler.class.getName()).log(Level.FINE, "Waiting for LFXDefaultLightHandler.open()");
         synchronized(openLock) {
@@ -103,12 +133,27 @@ public class LFXDefaultLightHandler implements LFXLightHandler {
         groups.handleMessage(targets, message);
     }
 
+    /**
+     * A light that does not answer is loaded without the answer, so that it
+     * does not keep the lights from being loaded.
+     */
+    @Override
+    public void requestAbandoned(LFXMessage request, LFXDeviceID device, LxProtocol.Type expectedResponse, 
+            LFXAbandonReason reason) {
+        lights.responseAbandoned(device, expectedResponse);
+    }
+
+    @Override
+    public Set<LxProtocol.Type> getSubscribedTypes() {
+        return SUBSCRIBED_TYPES;
+    }
+
     @Override
     public void open() {
         lights.open();
         groups.open();
         
-        timerQueue = new LFXTimerQueue();        
+        timerQueue = router.createTimerQueue();
         
         timerQueue.doLater(sendGetGroupLabelsAction, 1, TimeUnit.SECONDS);
         
@@ -148,17 +193,16 @@ public class LFXDefaultLightHandler implements LFXLightHandler {
     private final Runnable sendGetLightInfo = new Runnable() {
         @Override
         public void run() {
-            router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_LABEL, LFXTarget.getBroadcastTarget()));
-            router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_POWER, LFXTarget.getBroadcastTarget()));
-            router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TIME, LFXTarget.getBroadcastTarget()));
+            router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_LABEL, LFXTarget.getBroadcastTarget()));
+            router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_POWER, LFXTarget.getBroadcastTarget()));
+            router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TIME, LFXTarget.getBroadcastTarget()));
             
             // get the tag labels
             {
-                Set<LFXTagID> allTags = EnumSet.allOf(LFXTagID.class);
-                LxProtocolDevice.GetTagLabels payload = new LxProtocolDevice.GetTagLabels(LFXTagID.pack(allTags));
+                LxProtocolDevice.GetTagLabels payload = new LxProtocolDevice.GetTagLabels(LFXTagMask.ALL.toUInt64());
                 // TODO: is it correct to do this as a broadcast? maybee just ask one
                 LFXMessage msg = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAG_LABELS, LFXTarget.getBroadcastTarget(), payload);
-                router.sendMessage(msg);                
+                router.sendBackgroundMessage(msg);                
             }
         }        
     };
@@ -190,7 +234,7 @@ public class LFXDefaultLightHandler implements LFXLightHandler {
             if(!groups.isLoaded()) {
                 if(!lights.isEmpty()) {                    
                     Logger.getLogger(LFXDefaultLightHandler.class.getName()).log(Level.FINE, "Sending GET_TAG_LABELS");
-                    router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAG_LABELS, LFXTarget.getBroadcastTarget()));
+                    router.sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAG_LABELS, LFXTarget.getBroadcastTarget()));
                 }
                 timerQueue.doLater(sendGetGroupLabelsAction, 1, TimeUnit.SECONDS);
             }
@@ -25,6 +25,7 @@ package com.github.besherman.lifx.impl.light;
 
 import com.github.besherman.lifx.LFXFuzzyPower;
 import com.github.besherman.lifx.impl.entities.internal.LFXTagID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
 import com.github.besherman.lifx.LFXGroup;
 import com.github.besherman.lifx.LFXHSBKColor;
 import com.github.besherman.lifx.LFXLight;
@@ -44,10 +45,8 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 /**
  *
@@ -138,9 +137,7 @@ public class LFXGroupImpl implements LFXGroup {
         StructleTypes.UInt16 protocolPowerLevel = LFXBinaryTypes.getLFXProtocolPowerLevelFromLFXPowerState(state);
         LxProtocolDevice.SetPower payload = new LxProtocolDevice.SetPower(protocolPowerLevel);
         LFXMessage message = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_POWER, getTarget(), payload);
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(message);
-        }
+        router.sendMessage(message, 3);
         
         for(LFXLight light: lights) {
             ((LFXLightImpl)light).powerDidChangeTo(state);
@@ -274,13 +271,10 @@ public class LFXGroupImpl implements LFXGroup {
      * the light.
      */
     public void setLabelImpl(String label) {
-        Set<LFXTagID> tag = EnumSet.of(id);
-        LxProtocolDevice.SetTagLabels payload = new LxProtocolDevice.SetTagLabels(LFXTagID.pack(tag), label);
+        LxProtocolDevice.SetTagLabels payload = new LxProtocolDevice.SetTagLabels(LFXTagMask.of(id).toUInt64(), label);
         // note that we send this to all lights
         LFXMessage msg = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_TAG_LABELS, LFXTarget.getBroadcastTarget(), payload);
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(msg);                
-        }
+        router.sendMessage(msg, 3);
         
         labelDidChangeTo(label);        
     }
@@ -34,6 +34,8 @@ public class LFXLightConstants {
      * When a light loses power we never get to know that is is gone, so we 
      * remember when we last got a message from a light. When we haven't seen
      * a light for long enough we say that it is lost.
+     * 
+     * Can be changed for a single client with LFXClient.setLightLostTimeout().
      */
     public static int getLightLostTimeout() {
         return Integer.parseInt(System.getProperty("com.github.besherman.lifx.light.lightLostTimeout", "35000"));
@@ -39,7 +39,6 @@ import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.U
 import com.github.besherman.lifx.impl.network.LFXMessageRouter;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -148,15 +147,37 @@ public class LFXLightDetailsImpl implements LFXLightDetails {
 
     @Override
     public void load() {
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_LIGHT_GET_TEMPERATURE, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_INFO, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_RESET_SWITCH, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_INFO, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_FIRMWARE, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_INFO, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_FIRMWARE, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_VERSION, target));
-        router.sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MCU_RAIL_VOLTAGE, target));        
+        load(false);
+    }
+    
+    /**
+     * Like load() but sent as background messages, used when a light is 
+     * found.
+     */
+    void loadInBackground() {
+        load(true);
+    }
+    
+    private void load(boolean background) {
+        LxProtocol.Type[] types = {
+            LxProtocol.Type.LX_PROTOCOL_LIGHT_GET_TEMPERATURE, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_INFO, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_RESET_SWITCH, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_INFO, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_FIRMWARE, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_INFO, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_FIRMWARE, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_VERSION, 
+            LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MCU_RAIL_VOLTAGE
+        };
+        for(LxProtocol.Type type: types) {
+            LFXMessage message = new LFXMessage(type, target);
+            if(background) {
+                router.sendBackgroundMessage(message);
+            } else {
+                router.sendMessage(message);
+            }
+        }
     }
 
     @Override
@@ -179,6 +200,13 @@ public class LFXLightDetailsImpl implements LFXLightDetails {
     
     public boolean isLoaded() {
         return messagesUntilLoaded.isEmpty();
+    }
+    
+    /**
+     * Stops waiting for the response to be loaded.
+     */
+    public void responseAbandoned(LxProtocol.Type type) {
+        messagesUntilLoaded.remove(type);
     }    
     
     public void handleMessage(LFXMessage message) {
@@ -190,7 +218,7 @@ public class LFXLightDetailsImpl implements LFXLightDetails {
             }
             case LX_PROTOCOL_DEVICE_STATE_INFO: {
                 LxProtocolDevice.StateInfo payload = message.getPayload();                                
-                infoDidChangeTo(payload.getUptime().getBigIntegerValue(), payload.getDowntime().getBigIntegerValue());                
+                infoDidChangeTo(payload.getUptime().getMillis(), payload.getDowntime().getMillis());                
                 break;
             }
             case LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH: {
@@ -257,13 +285,13 @@ public class LFXLightDetailsImpl implements LFXLightDetails {
         pcs.firePropertyChange("temperature", oldTemp, temperature);
     }
     
-    private void infoDidChangeTo(BigInteger newUptime, BigInteger newDowntime) {        
+    private void infoDidChangeTo(long newUptime, long newDowntime) {        
         long oldUptime = uptime;        
-        uptime = newUptime.divide(new BigInteger("1000000")).longValue();        
+        uptime = newUptime;        
         pcs.firePropertyChange("uptime", oldUptime, uptime);
         
         long oldDowntime = downtime;
-        downtime = newDowntime.divide(new BigInteger("1000000")).longValue();
+        downtime = newDowntime;
         pcs.firePropertyChange("downtime", oldDowntime, downtime);
     }
     
@@ -30,7 +30,9 @@ import com.github.besherman.lifx.LFXLightDetails;
 import com.github.besherman.lifx.impl.entities.LFXPowerState;
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTypes;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXLightStateView;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXPowerStateView;
 import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
@@ -42,7 +44,6 @@ import java.awt.Color;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -56,13 +57,11 @@ public class LFXLightImpl implements LFXLight {
     private final LFXLightDetailsImpl details;
     private final LFXAlarmCollectionImpl alarms;
     private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);    
-    private final int lightLostTimeout;
     
     private boolean enabled;
     private String label = "";
     private LFXHSBKColor color;
     private Date time;        
-    private long lastSeenTimestamp;
 
     // the messages we wait for unit we call this light loaded
     private final Set<LxProtocol.Type> messagesUntilLoaded = Collections.synchronizedSet(new HashSet<>(Arrays.asList(
@@ -79,8 +78,6 @@ public class LFXLightImpl implements LFXLight {
         this.router = router;        
         this.alarms = new LFXAlarmCollectionImpl(router, new LFXTarget(deviceID));
         this.details = new LFXLightDetailsImpl(router, new LFXTarget(deviceID));        
-        this.lightLostTimeout = LFXLightConstants.getLightLostTimeout();
-        this.lastSeenTimestamp = System.currentTimeMillis();        
     }
 
     @Override
@@ -120,9 +117,7 @@ public class LFXLightImpl implements LFXLight {
         
         LxProtocolDevice.SetLabel payload = new LxProtocolDevice.SetLabel(label);
         LFXMessage message = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_LABEL, target, payload);                
-        for(int i = 0; i < 3; i++) {
-            router.sendMessage(message);
-        }        
+        router.sendMessage(message, 3);
         
         labelDidChangeTo(label);
     }
@@ -197,8 +192,7 @@ public class LFXLightImpl implements LFXLight {
         LxProtocolDevice.SetPower payload = new LxProtocolDevice.SetPower(protocolPowerLevel);
         LFXMessage message = new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_POWER, target, payload);
         
-        router.sendMessage(message);
-        router.sendMessage(message);
+        router.sendMessage(message, 2);
         
         powerDidChangeTo(state);
     }
@@ -237,6 +231,15 @@ public class LFXLightImpl implements LFXLight {
         return messagesUntilLoaded.isEmpty() && alarms.isLoaded() && details.isLoaded();
     }
     
+    /**
+     * The light did not answer a request, if the response is one of the 
+     * messages the light waits for to be loaded it stops waiting for it.
+     */
+    public void responseAbandoned(LxProtocol.Type type) {
+        messagesUntilLoaded.remove(type);
+        details.responseAbandoned(type);
+    }
+    
     /**
      * Returns the message types this light is waiting for before it can call
      * itself loaded. 
@@ -250,25 +253,40 @@ public class LFXLightImpl implements LFXLight {
     public LFXTarget getTarget() {
         return target;
     }
+    
+    /**
+     * Asks the light for its details, used when the light is found.
+     */
+    void loadDetails() {
+        details.loadInBackground();
+    }
 
     @Override
     public String toString() {
         return "LFXLightImpl{" + "deviceID=" + deviceID + '}';
     }
     
-    public boolean isLost() {
-        return (System.currentTimeMillis() - lastSeenTimestamp) > lightLostTimeout;
-    }
-    
     public void close() {
         details.close();
         alarms.close();
     }
     
     public void handleMessage(LFXMessage message) {
-        lastSeenTimestamp = System.currentTimeMillis();
         switch (message.getType()) {
             case LX_PROTOCOL_LIGHT_STATE: {
+                LFXLightStateView view = message.getPayloadView(LFXLightStateView.class);
+                if(view != null) {
+                    if(!view.isLabel(label)) {
+                        labelDidChangeTo(view.getLabel());
+                    }
+                    if(!LFXBinaryTypes.isLFXHSBKColorFromLXProtocolLightHsbk(color, view.getHueRaw(), 
+                            view.getSaturationRaw(), view.getBrightnessRaw(), view.getKelvin())) {
+                        colorDidChangeTo(LFXBinaryTypes.getLFXHSBKColorFromLXProtocolLightHsbk(view.getHueRaw(), 
+                                view.getSaturationRaw(), view.getBrightnessRaw(), view.getKelvin()));
+                    }
+                    powerDidChangeTo(LFXBinaryTypes.getLFXPowerStateFromLFXProtocolPowerLevel(view.getPowerLevel()));
+                    break;
+                }
                 LxProtocolLight.State payload = (LxProtocolLight.State) message.getPayload();
                 labelDidChangeTo(payload.getLabel());
                 colorDidChangeTo(LFXBinaryTypes.getLFXHSBKColorFromLXProtocolLightHsbk(payload.getColor()));
@@ -281,20 +299,25 @@ public class LFXLightImpl implements LFXLight {
                 break;
             }
             case LX_PROTOCOL_DEVICE_STATE_POWER: {
+                LFXPowerStateView view = message.getPayloadView(LFXPowerStateView.class);
+                if(view != null) {
+                    powerDidChangeTo(LFXBinaryTypes.getLFXPowerStateFromLFXProtocolPowerLevel(view.getPowerLevel()));
+                    break;
+                }
                 LxProtocolDevice.StatePower payload = (LxProtocolDevice.StatePower) message.getPayload();
                 powerDidChangeTo(LFXBinaryTypes.getLFXPowerStateFromLFXProtocolPowerLevel(payload.getLevel()));
                 break;
             }
             case LX_PROTOCOL_DEVICE_STATE_TIME: {
                 LxProtocolDevice.StateTime payload = message.getPayload();
-                timeDidChangeTo(payload.getTime().getBigIntegerValue());
+                timeDidChangeTo(payload.getTime().getMillis());
                 break;
             }
             case LX_PROTOCOL_DEVICE_STATE_INFO: {
                 // The light handler does not send this automatically, but when
                 // the LFXLightDetailsImpl sends it we can read it 
                 LxProtocolDevice.StateInfo payload = message.getPayload();                                
-                timeDidChangeTo(payload.getTime().getBigIntegerValue());
+                timeDidChangeTo(payload.getTime().getMillis());
                 break;
             }
             default:
@@ -325,9 +348,8 @@ public class LFXLightImpl implements LFXLight {
         pcs.firePropertyChange("power", oldValue, enabled);
     }
     
-    private void timeDidChangeTo(BigInteger newTime) {
+    private void timeDidChangeTo(long msSinceEpoch) {
         Date oldTime = time;
-        long msSinceEpoch = newTime.longValue() / 1000000;
         time = new Date(msSinceEpoch);        
         pcs.firePropertyChange("time", oldTime, time);
     }    
@@ -28,6 +28,115 @@ package com.github.besherman.lifx.impl.network;
  * settings see LFXLightConstants.
  */
 public class LFXConstants {    
+    /**
+     * If true the reading, writing and timers are all done by a single 
+     * {@link LFXEventLoop} thread instead of a thread each.
+     */
+    public static boolean isEventLoopEnabled() {
+        return Boolean.parseBoolean(System.getProperty(
+                "com.github.besherman.lifx.eventLoop", "false"));
+    }
+    
+    /**
+     * Returns a comma separated list of the names of the network interfaces 
+     * to look for lights on, or null to use all active IPv4 interfaces.
+     */
+    public static String getNetworkInterfaces() {
+        return System.getProperty("com.github.besherman.lifx.networkInterfaces");
+    }
+    
+    /**
+     * How often, in milliseconds, the network interfaces are scanned to find
+     * interfaces that have come up or gone down.
+     */
+    public static int getInterfaceRescanInterval() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.interfaceRescanInterval", "10000"));
+    }
+    
+    /**
+     * How many threads receive and decode messages. More than one uses 
+     * SO_REUSEPORT to let the kernel spread the datagrams over one channel
+     * per thread, which needs Java 9 or later. Not used by the event loop.
+     */
+    public static int getReceiveThreads() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.receiveThreads", "1"));
+    }
+    
+    /**
+     * The size in bytes of the receive buffer of each channel, 0 to use the
+     * default of the operating system. A bigger buffer keeps the responses 
+     * to a broadcast from being dropped when there are many lights.
+     */
+    public static int getReceiveBufferSize() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.receiveBufferSize", "0"));
+    }
+    
+    /**
+     * If true messages to gateways that have a TCP service are sent over a
+     * TCP connection instead of UDP. Not used by the event loop.
+     */
+    public static boolean isTcpEnabled() {
+        return Boolean.parseBoolean(System.getProperty(
+                "com.github.besherman.lifx.tcp", "false"));
+    }
+    
+    /**
+     * How long, in milliseconds, to wait before connecting again to a 
+     * gateway whose TCP connection failed. UDP is used in the meantime.
+     */
+    public static int getTcpReconnectInterval() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.tcpReconnectInterval", "10000"));
+    }
+    
+    /**
+     * If true the most common state messages are read through a flyweight 
+     * view of the receive buffer instead of being copied into payload 
+     * objects. Only used when the messages are handled on the thread that
+     * received them, that is with a single receive thread without TCP, or
+     * by the event loop.
+     */
+    public static boolean isFlyweightPayloadsEnabled() {
+        return Boolean.parseBoolean(System.getProperty(
+                "com.github.besherman.lifx.flyweightPayloads", "false"));
+    }
+    
+    /**
+     * If true received messages that were sent from one of our own addresses
+     * are dropped without being decoded. Turn this off to use an emulator
+     * running on the same host.
+     */
+    public static boolean isDropOwnPacketsEnabled() {
+        return Boolean.parseBoolean(System.getProperty(
+                "com.github.besherman.lifx.dropOwnPackets", "true"));
+    }
+    
+    /**
+     * How long, in milliseconds, a received message that is an exact copy
+     * of an earlier one, apart from the time it was sent, is dropped as a 
+     * duplicate. Commands and broadcasts are sent more than once so the same
+     * response often arrives several times in a row. 0 turns this off.
+     */
+    public static int getDuplicateWindow() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.duplicateWindow", "250"));
+    }
+    
+    /**
+     * How many device ids, and how many site ids, are interned at most. The 
+     * ids are read from every received message before it is known if it 
+     * came from a light, so without a limit anyone on the network could 
+     * fill the tables. Ids seen after the tables are full still work, they 
+     * are just not the same instance each time.
+     */
+    public static int getInternTableSize() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.internTableSize", "16384"));
+    }
+    
     /**
      * Returns the wait time between sending messages. Flooding the network
      * will just cause the bulbs to get confused.
@@ -39,6 +148,30 @@ public class LFXConstants {
                 "com.github.besherman.lifx.messageSendRateLimitInterval", "20"));        
     }
     
+    /**
+     * Returns how many messages per second can be sent to a single gateway.
+     * Each gateway (and the broadcast address) has its own lane so the total
+     * rate grows with the number of gateways.
+     * 
+     * Defaults to one message per send rate limit interval.
+     */
+    public static double getSendLaneRate() {
+        String rate = System.getProperty("com.github.besherman.lifx.sendLaneRate");
+        if(rate != null) {
+            return Double.parseDouble(rate);
+        }
+        return 1000.0 / Math.max(1, getNetworkLoopSendRateLimitInterval());
+    }
+    
+    /**
+     * Returns how many messages can be sent back to back to a single gateway
+     * after it has been idle for a while.
+     */
+    public static int getSendLaneBurst() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.sendLaneBurst", "1"));        
+    }
+    
     /**
      * Messages that are to be sent to the network are added to a queue. This
      * is the max size of that queue.
@@ -49,17 +182,118 @@ public class LFXConstants {
      */
     public static int getOutgoingQueueSize() {
         return Integer.parseInt(System.getProperty(
-                "com.github.besherman.lifx.outgoingQueueSize", "500"));        
+                "com.github.besherman.lifx.outgoingQueueSize", "500"));
+    }
+
+    /**
+     * What to do with new messages when the outgoing queue is full. One of
+     * the names in {@link LFXSendQueuePolicy}.
+     */
+    public static LFXSendQueuePolicy getOutgoingQueuePolicy() {
+        return LFXSendQueuePolicy.valueOf(System.getProperty(
+                "com.github.besherman.lifx.outgoingQueuePolicy", "DROP_NEWEST"));
+    }
+
+    /**
+     * When this many messages are waiting in the outgoing queue the send
+     * queue listeners are told to slow down. Defaults to 80% of the queue
+     * size.
+     */
+    public static int getOutgoingQueueHighWatermark() {
+        String value = System.getProperty("com.github.besherman.lifx.outgoingQueueHighWatermark");
+        if(value != null) {
+            return Integer.parseInt(value);
+        }
+        return getOutgoingQueueSize() * 8 / 10;
     }
 
     /**
-     * How long the response tracker waits until it resends a message.     
+     * When the outgoing queue has drained to this many messages the send
+     * queue listeners are told that it is fine to speed up again. Defaults
+     * to 50% of the queue size.
+     */
+    public static int getOutgoingQueueLowWatermark() {
+        String value = System.getProperty("com.github.besherman.lifx.outgoingQueueLowWatermark");
+        if(value != null) {
+            return Integer.parseInt(value);
+        }
+        return getOutgoingQueueSize() / 2;
+    }
+
+    /**
+     * How long, in milliseconds, the routing table keeps a light it has not
+     * heard from. Messages are no longer routed to the light after that.
+     */
+    public static int getLightTimeout() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.lightTimeout", "35000"));
+    }
+    
+    /**
+     * How long, in milliseconds, the routing table keeps a gateway it has 
+     * not heard from. Gateways answer the discovery broadcast every few 
+     * seconds so this can be a lot shorter than the light timeout.
+     */
+    public static int getGatewayTimeout() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.gatewayTimeout", "20000"));
+    }
+
+    /**
+     * How long the response tracker waits until it resends a message to a
+     * light it has not measured the round trip time to yet. After that the
+     * timeout of each light is worked out from its round trip time.
      */
     public static int getResponseTrackerResendTimeout() {
         return Integer.parseInt(System.getProperty(
                 "com.github.besherman.lifx.responseTrackerTimeout", "500"));        
     }
     
+    /**
+     * The shortest time, in milliseconds, the response tracker waits before
+     * it resends a message, however fast the light answers. There is no 
+     * point in it being shorter than the response tracker interval.
+     */
+    public static int getResponseTrackerMinTimeout() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.responseTrackerMinTimeout", "100"));
+    }
+    
+    /**
+     * The longest time, in milliseconds, the response tracker waits before
+     * it resends a message, however slow the light answers.
+     */
+    public static int getResponseTrackerMaxTimeout() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.responseTrackerMaxTimeout", "5000"));
+    }
+    
+    /**
+     * How many times the response tracker resends a message that has not 
+     * been answered before it gives up. The timeout doubles for each resend.
+     */
+    public static int getResponseTrackerMaxResends() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.responseTrackerMaxResends", "5"));
+    }
+    
+    /**
+     * How many messages the response tracker can resend to a single light
+     * within the retry window. Resends over the budget are skipped.
+     */
+    public static int getResponseTrackerRetryBudget() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.responseTrackerRetryBudget", "20"));
+    }
+    
+    /**
+     * The length, in milliseconds, of the sliding window of the retry budget.
+     */
+    public static int getResponseTrackerRetryWindow() {
+        return Integer.parseInt(System.getProperty(
+                "com.github.besherman.lifx.responseTrackerRetryWindow", "10000"));
+    }
+    
     /**
      * The response tracker has a single timer that wakes it up and checks for
      * timeouts. This is how long it sleeps.
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+/**
+ * Remembers the content hash of the last message received on each stream,
+ * that is from one device and of one type, so that the copies of a message
+ * that arrive within a short window can be dropped. Only the last message
+ * of a stream is remembered, if a light reports A, B and then A again the
+ * second A is not a duplicate.
+ * 
+ * The hashes are kept in a direct mapped table indexed by the stream, a 
+ * message simply replaces whatever was in its slot. A collision can only 
+ * make a duplicate slip through, never drop a message that is not a 
+ * duplicate, since the whole 64 bit hash is compared and it covers the 
+ * stream as well. The window starts when a message is first seen, so a 
+ * message that keeps repeating is still let through once per window.
+ */
+public class LFXDuplicateFilter {
+    private final long windowNanos;
+    private final long[] hashes;
+    private final long[] seen;
+    private final int mask;
+
+    /**
+     * @param windowMillis how long a message counts as a duplicate, 0 to 
+     *                     never drop anything
+     * @param size the number of slots, rounded up to a power of two
+     */
+    public LFXDuplicateFilter(long windowMillis, int size) {
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis can not be negative");
+        }
+        if(size < 1) {
+            throw new IllegalArgumentException("size must be at least 1");
+        }
+        int slots = Integer.highestOneBit(size);
+        if(slots < size) {
+            slots <<= 1;
+        }
+        this.windowNanos = windowMillis * 1000000L;
+        this.hashes = new long[slots];
+        this.seen = new long[slots];
+        this.mask = slots - 1;
+    }
+    
+    /**
+     * Returns true if the last message on the stream had the same hash and
+     * was seen within the window, otherwise remembers the hash and returns
+     * false. A hash of 0 is never a duplicate.
+     * 
+     * @param stream a hash of the device and type of the message
+     * @param hash the content hash of the message
+     * @param now the time from System.nanoTime()
+     */
+    public synchronized boolean isDuplicate(int stream, long hash, long now) {
+        if(hash == 0 || windowNanos == 0) {
+            return false;
+        }
+        int slot = (stream ^ (stream >>> 16)) & mask;
+        if(hashes[slot] == hash && now - seen[slot] < windowNanos) {
+            return true;
+        }
+        hashes[slot] = hash;
+        seen[slot] = now;
+        return false;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the whole network side of the client on a single thread. 
+ * 
+ * This is an alternative to the reader, writer and timer threads. One 
+ * selector is used to receive messages, to send messages from the outgoing
+ * queue when the queue allows it, and to run the tasks of the timer queues 
+ * when they are due. Since the router, the response tracker and the light
+ * handlers only ever run on this thread nothing is handed between threads,
+ * except for messages sent by the user which are put on the queue.
+ * 
+ * Enabled with the com.github.besherman.lifx.eventLoop property.
+ */
+public class LFXEventLoop implements Runnable {
+    private static final int BUF_SIZE = 255;
+    
+    // how many datagrams are received each time the channel is readable
+    // before the loop checks on the queue and the timers again
+    private static final int MAX_RECEIVE_BATCH = 16;
+    
+    private final LFXMessageRouter router;
+    private final LFXSendQueue outgoingQueue;
+    private final LFXInterfaceChannels channels;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final AtomicBoolean running = new AtomicBoolean(true);    
+    
+    // guarded by itself
+    private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<>();
+    private long taskSequence = 0;
+    
+    private volatile Thread thread;
+    
+    // a message that did not fit in the socket send buffer, it is sent
+    // when its channel becomes writable
+    private LFXSocketMessage pendingWrite;
+    
+    /**
+     * @param channels the channels to use, they are not closed by the loop
+     */
+    public LFXEventLoop(LFXMessageRouter router, LFXSendQueue outgoingQueue, LFXInterfaceChannels channels) throws IOException {
+        this.router = router;
+        this.outgoingQueue = outgoingQueue;
+        this.channels = channels;
+        this.selector = Selector.open();
+    }
+    
+    public void close() {
+        running.set(false);
+        selector.wakeup();
+    }
+
+    /**
+     * Schedules a task of a timer queue. Can be called from any thread.
+     * 
+     * @param delay nanoseconds until the task is run
+     * @param period nanoseconds between runs, 0 to run once
+     * @return the key used to cancel the task
+     */
+    ScheduledTask schedule(LFXTimerQueue owner, Runnable runnable, long delay, long period) {
+        ScheduledTask task;
+        synchronized(tasks) {
+            task = new ScheduledTask(owner, runnable, System.nanoTime() + delay, period, taskSequence++);
+            tasks.add(task);
+        }
+        if(Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+        return task;
+    }
+    
+    @Override
+    public void run() {
+        Logger.getLogger(LFXEventLoop.class.getName()).log(Level.FINE, "Starting event loop");        
+        thread = Thread.currentThread();
+        outgoingQueue.setEventLoop(thread, new Runnable() {
+            @Override
+            public void run() {
+                selector.wakeup();
+            }
+        });
+        
+        try {
+            channels.update(selector);
+            new LFXTimerQueue(this).doRepeatedly(new Runnable() {
+                @Override
+                public void run() {
+                    channels.update(selector);
+                }
+            }, LFXConstants.getInterfaceRescanInterval(), TimeUnit.MILLISECONDS);
+            
+            router.open();
+            
+            while(running.get()) {
+                runDueTasks();
+                send();
+                select(Math.min(nanosUntilNextTask(), nanosUntilSendable()));
+            }
+            
+            try {
+                router.close();
+            } catch(Exception ex) {
+                Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                        "Failed to close router", ex);
+            }
+            
+            // we don't want to stop before the queue is empty because
+            // then the stuff we asked for wont happen and the user
+            // will be confused
+            while(pendingWrite != null || !outgoingQueue.isEmpty()) {
+                send();
+                select(nanosUntilSendable());
+            }
+        } catch(Exception ex) {
+            // not supposed to end up there
+            Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                    "Event loop unexpectedly died", ex);
+        } finally {
+            outgoingQueue.setEventLoop(null, null);
+            
+            try {
+                selector.close();
+            } catch(IOException ex) {
+                Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                        "Failed to close selector", ex);
+            }
+        }
+        
+        Logger.getLogger(LFXEventLoop.class.getName()).log(Level.FINE, "Stopping event loop");
+    }
+    
+    /**
+     * Waits until the channel has something for us or the timeout has passed.
+     */
+    private void select(long timeout) {
+        try {
+            int selected;
+            if(timeout <= 0) {
+                selected = selector.selectNow();
+            } else if(timeout == Long.MAX_VALUE) {
+                selected = selector.select();
+            } else {
+                // round up, select(0) would wait forever
+                selected = selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout + 999999)));
+            }
+            
+            if(selected > 0) {
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while(it.hasNext()) {
+                    SelectionKey selectedKey = it.next();
+                    it.remove();
+                    if(selectedKey.isValid() && selectedKey.isReadable()) {
+                        receive((DatagramChannel)selectedKey.channel());
+                    }
+                    if(selectedKey.isValid() && selectedKey.isWritable()) {
+                        selectedKey.interestOps(SelectionKey.OP_READ);
+                        send();
+                    }
+                }
+            }
+        } catch(IOException ex) {
+            Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                    "Failed to select channel", ex);
+        }
+    }
+    
+    private void receive(DatagramChannel channel) {
+        for(int i = 0; i < MAX_RECEIVE_BATCH; i++) {
+            readBuffer.clear();
+            if(!LFXUdpTransport.receive(channel, readBuffer, router)) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Sends messages until the queue has nothing more to send right now or
+     * the socket buffer is full.
+     */
+    private void send() {
+        while(true) {
+            LFXSocketMessage msg = pendingWrite;
+            if(msg == null) {
+                msg = outgoingQueue.pollReady();
+                if(msg == null) {
+                    return;
+                }
+            }
+            
+            try {
+                DatagramChannel channel = channels.getChannel(msg.getNetworkInterface());
+                writeBuffer.clear();
+                msg.getMessage().writeMessageData(writeBuffer);
+                writeBuffer.flip();
+                if(channel.send(writeBuffer, msg.getAddress()) == 0) {
+                    SelectionKey key = channel.keyFor(selector);
+                    if(key != null && key.isValid()) {
+                        pendingWrite = msg;
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+            } catch(Exception ex) {
+                Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                        "Failed to send message", ex);
+            }
+            pendingWrite = null;
+        }
+    }
+    
+    private long nanosUntilSendable() {
+        // when a message is pending we wait for OP_WRITE instead
+        return pendingWrite != null ? Long.MAX_VALUE : outgoingQueue.nanosUntilReady();
+    }
+    
+    private long nanosUntilNextTask() {
+        synchronized(tasks) {
+            ScheduledTask next = tasks.peek();
+            return next == null ? Long.MAX_VALUE : Math.max(0, next.deadline - System.nanoTime());
+        }
+    }
+    
+    private void runDueTasks() {
+        long now = System.nanoTime();
+        while(true) {
+            ScheduledTask task;
+            synchronized(tasks) {
+                task = tasks.peek();
+                if(task == null || task.deadline - now > 0) {
+                    return;
+                }
+                tasks.poll();
+            }
+            
+            if(task.isCancelled()) {
+                continue;
+            }
+            
+            try {
+                task.runnable.run();
+            } catch(Exception ex) {
+                Logger.getLogger(LFXEventLoop.class.getName()).log(Level.SEVERE, 
+                        "Scheduled task failed", ex);
+            }
+            
+            if(task.period > 0 && !task.isCancelled()) {
+                synchronized(tasks) {
+                    task.deadline += task.period;
+                    tasks.add(task);
+                }
+            }
+        }
+    }
+    
+    /**
+     * A task of a timer queue waiting in the deadline heap.
+     */
+    static class ScheduledTask implements Comparable<ScheduledTask> {
+        private final LFXTimerQueue owner;
+        private final Runnable runnable;
+        private final long period;
+        private final long sequence;
+        private long deadline;
+        private volatile boolean cancelled = false;
+
+        public ScheduledTask(LFXTimerQueue owner, Runnable runnable, long deadline, long period, long sequence) {
+            this.owner = owner;
+            this.runnable = runnable;
+            this.deadline = deadline;
+            this.period = period;
+            this.sequence = sequence;
+        }
+        
+        public void cancel() {
+            cancelled = true;
+        }
+        
+        public boolean isCancelled() {
+            return cancelled || owner.isClosed();
+        }
+
+        /**
+         * Order by deadline first then by when the task was scheduled.
+         */
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int compareDeadline = Long.compare(this.deadline - other.deadline, 0);
+            return compareDeadline != 0 
+                    ? compareDeadline
+                    : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
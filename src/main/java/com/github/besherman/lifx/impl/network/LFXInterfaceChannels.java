@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The channels used to talk to the lights. 
+ * 
+ * There is one channel bound to the LIFX port on all addresses, it receives
+ * the broadcasts from the lights and is used when there is no better channel.
+ * Then there is one channel per network interface, bound to the address of
+ * the interface, so that messages to a gateway go out on the interface the 
+ * gateway was found on.
+ * 
+ * The channels are added to and removed from the selector by update(), which
+ * must be called by the thread that selects. getChannel() can be called from
+ * any thread.
+ * 
+ * When there are several receiving threads each has its own channels, all
+ * opened with SO_REUSEPORT so that the kernel spreads the datagrams over 
+ * them. Only the first has a default channel, a broadcast is delivered to 
+ * every channel bound to the address it is sent to and should only be 
+ * received once.
+ */
+public class LFXInterfaceChannels {
+    private static final int PORT = 56700;
+    
+    // StandardSocketOptions.SO_REUSEPORT was added in Java 9
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+    
+    private final LFXNetworkSettings settings;
+    private final boolean reusePort;
+    private final DatagramChannel defaultChannel;
+    private final Map<LFXNetworkInterface, DatagramChannel> channels = new ConcurrentHashMap<>();
+
+    public LFXInterfaceChannels(LFXNetworkSettings settings) throws IOException {
+        this(settings, true, false);
+    }
+    
+    /**
+     * @param openDefaultChannel false if the channels are only used to 
+     *                           receive, getChannel() can then return null
+     * @param reusePort true to open the channels with SO_REUSEPORT
+     */
+    public LFXInterfaceChannels(LFXNetworkSettings settings, boolean openDefaultChannel, boolean reusePort) throws IOException {
+        this.settings = settings;
+        this.reusePort = reusePort;
+        this.defaultChannel = openDefaultChannel 
+                ? openChannel(new InetSocketAddress(PORT), reusePort)
+                : null;
+    }
+    
+    /**
+     * Returns true if channels can be opened with SO_REUSEPORT.
+     */
+    public static boolean isReusePortSupported() {
+        if(SO_REUSEPORT == null) {
+            return false;
+        }
+        try(DatagramChannel channel = DatagramChannel.open()) {
+            return channel.supportedOptions().contains(SO_REUSEPORT);
+        } catch(IOException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns the channel to use for the interface, or the default channel
+     * if there is no channel for it.
+     * 
+     * @param iface the interface or null
+     */
+    public DatagramChannel getChannel(LFXNetworkInterface iface) {
+        DatagramChannel channel = iface != null ? channels.get(iface) : null;
+        return channel != null ? channel : defaultChannel;
+    }
+    
+    /**
+     * Opens channels for new interfaces and closes the channels of interfaces
+     * that are gone. The first call registers the default channel.
+     */
+    public void update(Selector selector) {
+        if(defaultChannel != null && defaultChannel.keyFor(selector) == null) {
+            try {
+                defaultChannel.register(selector, SelectionKey.OP_READ);
+            } catch(IOException ex) {
+                Logger.getLogger(LFXInterfaceChannels.class.getName()).log(Level.SEVERE, 
+                        "Failed to register channel", ex);
+            }
+        }
+        
+        Set<LFXNetworkInterface> current = new HashSet<>();
+        for(LFXNetworkInterface iface: settings.getInterfaces()) {
+            if(iface.getAddress() == null) {
+                continue;
+            }
+            current.add(iface);
+            if(!channels.containsKey(iface)) {
+                try {
+                    DatagramChannel channel = openChannel(new InetSocketAddress(iface.getAddress(), PORT), reusePort);
+                    channel.register(selector, SelectionKey.OP_READ);
+                    channels.put(iface, channel);
+                    Logger.getLogger(LFXInterfaceChannels.class.getName()).log(Level.FINE, 
+                            "Opened channel for {0}", iface);
+                } catch(IOException ex) {
+                    // the default channel is used for this interface
+                    Logger.getLogger(LFXInterfaceChannels.class.getName()).log(Level.WARNING, 
+                            "Failed to open channel for " + iface, ex);
+                }
+            }
+        }
+        
+        Iterator<Map.Entry<LFXNetworkInterface, DatagramChannel>> it = channels.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<LFXNetworkInterface, DatagramChannel> entry = it.next();
+            if(!current.contains(entry.getKey())) {
+                it.remove();
+                close(entry.getValue());
+                Logger.getLogger(LFXInterfaceChannels.class.getName()).log(Level.FINE, 
+                        "Closed channel for {0}", entry.getKey());
+            }
+        }
+    }
+    
+    public void close() {
+        for(DatagramChannel channel: channels.values()) {
+            close(channel);
+        }
+        channels.clear();
+        if(defaultChannel != null) {
+            close(defaultChannel);
+        }
+    }
+    
+    private static DatagramChannel openChannel(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setBroadcast(true);
+            channel.socket().setReuseAddress(true);
+            if(reusePort) {
+                if(SO_REUSEPORT == null || !channel.supportedOptions().contains(SO_REUSEPORT)) {
+                    throw new IOException("SO_REUSEPORT is not supported");
+                }
+                channel.setOption(SO_REUSEPORT, true);
+            }
+            int receiveBufferSize = LFXConstants.getReceiveBufferSize();
+            if(receiveBufferSize > 0) {
+                channel.socket().setReceiveBufferSize(receiveBufferSize);
+            }
+            channel.socket().bind(bindAddress);
+        } catch(IOException ex) {
+            close(channel);
+            throw ex;
+        }
+        return channel;
+    }
+    
+    private static void close(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            Logger.getLogger(LFXInterfaceChannels.class.getName()).log(Level.SEVERE, 
+                    "Failed to close DatagramChannel", ex);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        try {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch(NoSuchFieldException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.github.besherman.lifx.impl.network;
 
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import java.util.Set;
 
 /**
@@ -47,6 +48,15 @@ public interface LFXLightHandler {
      */
     void handleMessage(Set<LFXDeviceID> targets, LFXMessage message);    
     
+    /**
+     * Returns the types of the messages the handler wants. The router drops
+     * messages that no handler wants before decoding their payload. Asked
+     * for when the handler is added to the router.
+     * 
+     * @return the types, or null to get all messages
+     */
+    Set<LxProtocol.Type> getSubscribedTypes();
+    
     /**
      * Opens the handler. This will always be called after setRouter() and 
      * before handleMessage.
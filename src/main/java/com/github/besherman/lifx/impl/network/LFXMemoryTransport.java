@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A transport that never touches the network. Messages from the outgoing 
+ * queue are given to the {@link LFXMemoryEndpoint}s connected to the 
+ * transport, and what they deliver back is decoded and routed just like a
+ * received datagram.
+ * 
+ * A message sent to the address of an endpoint goes to that endpoint, any 
+ * other address is taken to be a broadcast address and the message goes to
+ * all endpoints. 
+ * 
+ * Like the UDP transport it has a writer and a reader thread, and every
+ * message is encoded before it is handed over so that the cost of the 
+ * writer is part of what is measured when benchmarking.
+ */
+public class LFXMemoryTransport implements LFXTransport {
+    private static final int BUF_SIZE = 255;
+    
+    private final Map<InetSocketAddress, LFXMemoryEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final BlockingQueue<Datagram> incoming = new LinkedBlockingQueue<>();
+    
+    private Reader reader;    
+    private Thread readingThread;
+    
+    private Writer writer;
+    private Thread writingThread;        
+    
+    /**
+     * Connects an endpoint, it starts getting messages right away.
+     */
+    public void connect(LFXMemoryEndpoint endpoint) {
+        endpoints.put(endpoint.getAddress(), endpoint);
+    }
+    
+    public void disconnect(LFXMemoryEndpoint endpoint) {
+        endpoints.remove(endpoint.getAddress());
+    }
+    
+    /**
+     * Passes a datagram to the router as if it had been received from the
+     * source. Can be called from any thread.
+     */
+    public void deliver(byte[] data, InetAddress source) {
+        incoming.add(new Datagram(data, source));
+    }
+    
+    @Override
+    public void open(LFXMessageRouter router, LFXSendQueue outgoingQueue, LFXNetworkSettings networkSettings) throws IOException {
+        incoming.clear();
+        
+        writer = new Writer(outgoingQueue);
+        writingThread = new Thread(writer, "LIFX Memory Writer");
+        writingThread.start();
+
+        reader = new Reader(router);
+        readingThread = new Thread(reader, "LIFX Memory Reader");        
+        readingThread.start();                     
+    }
+
+    @Override
+    public void close() {
+        if(reader != null) {
+            reader.close();
+        }
+
+        if(writer != null) {
+            writer.close();                
+        }
+
+        try {
+            if(readingThread != null) {
+                readingThread.join();
+            }
+
+            if(writingThread != null) {
+                writingThread.join();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+        reader = null;
+        readingThread = null;
+        writer = null;
+        writingThread = null;
+    }
+    
+    private static class Datagram {
+        private final byte[] data;
+        private final InetAddress source;
+
+        public Datagram(byte[] data, InetAddress source) {
+            this.data = data;
+            this.source = source;
+        }
+    }
+    
+    private class Writer implements Runnable {
+        private final LFXSendQueue outgoingQueue;
+        private final AtomicBoolean running = new AtomicBoolean(true);    
+
+        public Writer(LFXSendQueue outgoingQueue) {
+            this.outgoingQueue = outgoingQueue;
+        }
+        
+        public void close() {
+            running.set(false);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                while(running.get() || !outgoingQueue.isEmpty()) {
+                    LFXSocketMessage msg = outgoingQueue.poll(1, TimeUnit.SECONDS);                    
+                    if(msg != null) {
+                        try {
+                            buf.clear();
+                            msg.getMessage().writeMessageData(buf);
+                            send(msg);
+                        } catch(Exception ex) {
+                            Logger.getLogger(LFXMemoryTransport.class.getName()).log(Level.SEVERE, 
+                                    "Failed to send message", ex);
+                        }
+                    }                    
+                }                
+            } catch(Exception ex) {
+                Logger.getLogger(LFXMemoryTransport.class.getName()).log(Level.SEVERE, 
+                        "Writer died unexpectadly", ex);
+            }
+        }
+        
+        private void send(LFXSocketMessage msg) {
+            LFXMemoryEndpoint endpoint = endpoints.get(msg.getAddress());
+            if(endpoint != null) {
+                endpoint.receive(msg.getMessage(), LFXMemoryTransport.this);
+            } else {
+                for(LFXMemoryEndpoint e: endpoints.values()) {
+                    e.receive(msg.getMessage(), LFXMemoryTransport.this);
+                }
+            }
+        }
+    }
+    
+    private class Reader implements Runnable {
+        private final LFXMessageRouter router;  
+        private final AtomicBoolean running = new AtomicBoolean(true);    
+
+        public Reader(LFXMessageRouter router) {
+            this.router = router;
+        }
+        
+        public void close() {
+            running.set(false);
+        }
+
+        @Override
+        public void run() {
+            try {
+                router.open();
+                while(running.get()) {
+                    Datagram datagram = incoming.poll(100, TimeUnit.MILLISECONDS);
+                    if(datagram != null) {
+                        router.handleMessageData(ByteBuffer.wrap(datagram.data), datagram.source);
+                    }
+                }
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch(Exception ex) {
+                Logger.getLogger(LFXMemoryTransport.class.getName()).log(Level.SEVERE, 
+                        "Reader unexpectedly died", ex);
+            } finally {
+                try {
+                    router.close();
+                } catch(Exception ex) {
+                    Logger.getLogger(LFXMemoryTransport.class.getName()).log(Level.SEVERE, 
+                            "Failed to close router", ex);
+                }
+            }
+        }
+    }
+}
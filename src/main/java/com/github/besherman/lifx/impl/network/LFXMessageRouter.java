@@ -24,23 +24,30 @@
 package com.github.besherman.lifx.impl.network;
 
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXByteUtils;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessageEncoder;
+import com.github.besherman.lifx.impl.entities.internal.LFXPayloadCodec;
+import com.github.besherman.lifx.impl.entities.internal.LFXPayloadView;
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
 import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,25 +55,70 @@ import java.util.logging.Logger;
  * The message router passes messages between {@link LFXNetworkLoop} and 
  * {@link LFXLightHandler}. In order to know which light should get what message
  * and where to send messages it also tracks routing information.
+ * 
+ * Received datagrams are first classified from their header alone. Requests,
+ * datagrams from our own addresses and types that neither the router nor 
+ * any handler wants are dropped before anything else is decoded, and copies
+ * of the message just received from the same device are not passed to the
+ * handlers, see {@link LFXReceiveDropReason}. The payload of the rest is 
+ * decoded the first time it is asked for.
  */
 public class LFXMessageRouter {    
-    private final LFXRoutingTable routingTable = new LFXRoutingTable();    
+    private static final int TYPE_INDEX = 32;
+    
+    private final LFXRoutingTable routingTable;
     private final LFXNetworkSettings networkSettings;
     private final LFXLightHandlerModel handlers;
-    private final BlockingQueue<LFXSocketMessage> outgoingQueue;
+    private final LFXSendQueue outgoingQueue;
+    private final LFXNetworkStatistics statistics;
     
     private final AtomicBoolean opened = new AtomicBoolean(false);    
     private final CountDownLatch firstPANReceived = new CountDownLatch(1);    
-    private final LFXResponseTracker responseTracker = new LFXResponseTracker(routingTable);
+    private final LFXResponseTracker responseTracker;
     
     
     private LFXTimerQueue timerQueue;
+    private final LFXTimerQueue.SharedTimer sharedTimer = new LFXTimerQueue.SharedTimer();
+    private volatile LFXEventLoop eventLoop;
+    private volatile boolean streamsEnabled;
+    
+    private final boolean flyweightPayloads = LFXConstants.isFlyweightPayloadsEnabled();
+    private final ThreadLocal<LFXPayloadView[]> payloadViews = new ThreadLocal<LFXPayloadView[]>() {
+        @Override
+        protected LFXPayloadView[] initialValue() {
+            return new LFXPayloadView[LxProtocol.Type.values().length];
+        }
+    };
+    
+    private final boolean dropOwnPackets = LFXConstants.isDropOwnPacketsEnabled();
+    private final LFXDuplicateFilter duplicates = new LFXDuplicateFilter(LFXConstants.getDuplicateWindow(), 1024);
+    
+    // indexed by type ordinal, null while any handler wants every type
+    private volatile boolean[] subscribedTypes;
+    
+    // the responses to the requests we have sent, these are always wanted
+    private final AtomicIntegerArray requestedTypes = new AtomicIntegerArray(LxProtocol.Type.values().length);
     
 
-    public LFXMessageRouter(String broadcastAddress, LFXLightHandlerModel handlers, BlockingQueue<LFXSocketMessage> outgoingQueue) {
-        networkSettings = new LFXNetworkSettings(broadcastAddress);
+    public LFXMessageRouter(LFXNetworkSettings networkSettings, LFXLightHandlerModel handlers, LFXSendQueue outgoingQueue) {
+        this(networkSettings, handlers, outgoingQueue, new LFXNetworkStatistics());
+    }
+    
+    public LFXMessageRouter(LFXNetworkSettings networkSettings, LFXLightHandlerModel handlers, 
+            LFXSendQueue outgoingQueue, LFXNetworkStatistics statistics) {
+        this(networkSettings, handlers, outgoingQueue, statistics, new LFXRoutingTable(), 
+                Collections.<LFXResponseTrackerListener>emptyList());
+    }
+    
+    public LFXMessageRouter(LFXNetworkSettings networkSettings, LFXLightHandlerModel handlers, 
+            LFXSendQueue outgoingQueue, LFXNetworkStatistics statistics, LFXRoutingTable routingTable, 
+            List<LFXResponseTrackerListener> responseTrackerListeners) {
+        this.routingTable = routingTable;
+        this.responseTracker = new LFXResponseTracker(routingTable, statistics, responseTrackerListeners);
+        this.networkSettings = networkSettings;
         this.handlers = handlers;
         this.outgoingQueue = outgoingQueue;
+        this.statistics = statistics;
         this.responseTracker.setOutgoingQueue(outgoingQueue);
     }
     
@@ -83,17 +135,52 @@ public class LFXMessageRouter {
         return firstPANReceived.getCount() == 0;
     }
     
+    /**
+     * Returns the round trip time estimates of the lights that have 
+     * answered a request, see {@link LFXResponseTracker}.
+     */
+    public Map<LFXDeviceID, LFXRttEstimator> getRoundTripTimes() {
+        return responseTracker.getRoundTripTimes();
+    }
+    
+    /**
+     * Makes the router create timer queues that run on the event loop. Must
+     * be called before open().
+     */
+    void setEventLoop(LFXEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+    
+    /**
+     * Makes the router send messages to gateways that have a TCP service 
+     * over TCP. Set by transports that can do that.
+     */
+    void setStreamsEnabled(boolean streamsEnabled) {
+        this.streamsEnabled = streamsEnabled;
+    }
+    
+    /**
+     * Creates a timer queue for the router, the response tracker and the 
+     * light handlers. In event loop mode the tasks are run by the event loop,
+     * otherwise all the queues of the router share one timer thread.
+     */
+    public LFXTimerQueue createTimerQueue() {
+        LFXEventLoop loop = eventLoop;
+        return loop != null ? new LFXTimerQueue(loop) : new LFXTimerQueue(sharedTimer);
+    }
+    
     public void open() {
         if(!opened.getAndSet(true)) {
-            timerQueue = new LFXTimerQueue();  
+            timerQueue = createTimerQueue();  
 
-            responseTracker.open();
+            responseTracker.open(createTimerQueue());
 
             for(int i = 0; i < 5; i++) {
                 timerQueue.doLater(sendGatewayDiscoveryAction, i, TimeUnit.SECONDS);                    
             }                
 
             timerQueue.doRepeatedly(sendGatewayDiscoveryAction, 15, TimeUnit.SECONDS);
+            timerQueue.doRepeatedly(removeLostEntriesAction, 1, TimeUnit.SECONDS);
 
             handlers.forEach(new LFXLightHandlerModelConsumer() {
                 @Override
@@ -107,6 +194,7 @@ public class LFXMessageRouter {
                     }                    
                 }
             });  
+            updateSubscribedTypes();
             
             // TODO: what if a handler was added between previous and next lines?
             handlers.addLightHandlerModelListener(lightHandlerModelListener);
@@ -146,6 +234,169 @@ public class LFXMessageRouter {
         }
     }    
     
+    /**
+     * Decodes a received datagram and handles it. 
+     * 
+     * @param data the datagram, between position and limit
+     * @param source the host that sent the datagram
+     */
+    public void handleMessageData(ByteBuffer data, InetAddress source) {
+        LFXPayloadCodec codec = classify(data, source);
+        if(codec == null) {
+            return;
+        }
+        LFXPayloadView view = flyweightPayloads ? getPayloadView(codec) : null;
+        LFXMessage msg = decodeMessageData(data, source, view);
+        try {
+            if(msg != null) {
+                handleReceivedMessage(msg);
+            }
+        } finally {
+            if(view != null) {
+                view.release();
+            }
+        }
+    }
+    
+    /**
+     * Decides from the header of a received datagram alone if it should be
+     * handled. Dropped datagrams are counted in the statistics.
+     * 
+     * @return the codec of the datagram's type, or null if it was dropped
+     */
+    private LFXPayloadCodec classify(ByteBuffer data, InetAddress source) {
+        LFXReceiveDropReason reason;
+        LFXPayloadCodec codec = null;
+        if(data.remaining() < LFXMessageEncoder.HEADER_SIZE) {
+            reason = LFXReceiveDropReason.MALFORMED;
+        } else if(dropOwnPackets && source != null && networkSettings.isOwnAddress(source)) {
+            reason = LFXReceiveDropReason.OWN_ADDRESS;
+        } else {
+            int typeIndex = data.position() + TYPE_INDEX;
+            int typeValue = (data.get(typeIndex) & 0xff) | ((data.get(typeIndex + 1) & 0xff) << 8);
+            codec = LFXPayloadCodec.forTypeValue(typeValue);
+            if(codec == null) {
+                reason = LFXReceiveDropReason.MALFORMED;
+            } else if(!codec.isResponse()) {
+                reason = LFXReceiveDropReason.NOT_A_RESPONSE;
+            } else if(!isSubscribed(codec.getType())) {
+                reason = LFXReceiveDropReason.NOT_SUBSCRIBED;
+            } else {
+                return codec;
+            }
+        }
+        
+        statistics.receiveDropped(reason);
+        Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.FINEST, "Dropped message {0} from {1}: {2}", 
+                new Object[] {codec != null ? codec.getType() : null, source, reason});
+        return null;
+    }
+    
+    /**
+     * Returns true, and counts it, if the message is a copy of the one 
+     * received just before it from the same device. Duplicates still answer
+     * requests and keep the light alive in the routing table, they are only
+     * kept from the handlers.
+     */
+    private boolean isDuplicate(LFXMessage msg) {
+        int stream = 31 * msg.getPath().hashCode() + msg.getType().ordinal();
+        if(duplicates.isDuplicate(stream, msg.getIncomingHash(), System.nanoTime())) {
+            statistics.receiveDropped(LFXReceiveDropReason.DUPLICATE);
+            Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.FINEST, "Dropped message {0} from {1}: {2}", 
+                    new Object[] {msg.getType(), msg.getSourceNetworkHost(), LFXReceiveDropReason.DUPLICATE});
+            return true;
+        }
+        return false;
+    }
+    
+    private boolean isSubscribed(LxProtocol.Type type) {
+        boolean[] subscribed = subscribedTypes;
+        return subscribed == null 
+                || subscribed[type.ordinal()] 
+                || requestedTypes.get(type.ordinal()) != 0;
+    }
+    
+    /**
+     * Collects the types the handlers subscribe to, together with the ones
+     * the router needs itself. Called when the handlers change.
+     */
+    private void updateSubscribedTypes() {
+        final boolean[] subscribed = new boolean[LxProtocol.Type.values().length];
+        subscribed[LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY.ordinal()] = true;
+        subscribed[LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAGS.ordinal()] = true;
+        
+        final AtomicBoolean all = new AtomicBoolean(false);
+        handlers.forEach(new LFXLightHandlerModelConsumer() {
+            @Override
+            public void accept(LFXLightHandler handler) {
+                Set<LxProtocol.Type> types = handler.getSubscribedTypes();
+                if(types == null) {
+                    all.set(true);
+                } else {
+                    for(LxProtocol.Type type: types) {
+                        subscribed[type.ordinal()] = true;
+                    }
+                }
+            }
+        });
+        subscribedTypes = all.get() ? null : subscribed;
+    }
+    
+    /**
+     * Returns this thread's view for the type, or null if the type does not 
+     * have one.
+     */
+    private LFXPayloadView getPayloadView(LFXPayloadCodec codec) {
+        LFXPayloadView[] views = payloadViews.get();
+        LFXPayloadView view = views[codec.getType().ordinal()];
+        if(view == null) {
+            view = codec.createView();
+            views[codec.getType().ordinal()] = view;
+        }
+        return view;
+    }
+    
+    /**
+     * Decodes a received datagram. The header is decoded straight from the
+     * buffer and the message is copied out of it once, the buffer is only 
+     * turned into a hex string when something goes wrong. The buffer can be
+     * reused when this returns. Can be called from any thread.
+     * 
+     * @param data the datagram, between position and limit
+     * @param source the host that sent the datagram
+     * @return the message or null if it was dropped or could not be decoded
+     */
+    public LFXMessage decodeMessageData(ByteBuffer data, InetAddress source) {
+        if(classify(data, source) == null) {
+            return null;
+        }
+        return decodeMessageData(data, source, null);
+    }
+    
+    private LFXMessage decodeMessageData(ByteBuffer data, InetAddress source, LFXPayloadView view) {
+        try {
+            return new LFXMessage(data, source, view);
+        } catch(Exception ex) {
+            statistics.receiveDropped(LFXReceiveDropReason.MALFORMED);
+            Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
+                    "Failed to parse message: " + LFXByteUtils.byteBufferToHexString(data), ex);
+            return null;
+        }                                    
+    }
+    
+    /**
+     * Handles a received message, logs instead of throwing if it fails.
+     */
+    public void handleReceivedMessage(LFXMessage msg) {
+        Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.FINEST, "Received message {0}", msg.getType());
+        try {                                    
+            handleMessage(msg);
+        } catch(Exception ex) {
+            Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
+                    "Failed to handle message " + msg.getType(), ex);
+        }
+    }
+    
     public void handleMessage(LFXMessage message) { 
         if(!message.isAResponseMessage()) {
             return;
@@ -153,7 +404,8 @@ public class LFXMessageRouter {
         
         
         if(message.getType() == LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY) {
-            LFXSiteID newSite = routingTable.updateTableWithPAN(message);
+            LFXNetworkInterface iface = networkSettings.getInterfaceFor(message.getSourceNetworkHost());
+            LFXSiteID newSite = routingTable.updateTableWithPAN(message, iface);
             if(newSite != null) {            
                 firstPANReceived.countDown();
 
@@ -175,28 +427,35 @@ public class LFXMessageRouter {
             if(newDevice != null) {
                 // the routing table needs to know about tags, so we ask about
                 // them when we find a new light                
-                sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAGS, new LFXTarget(newDevice)));
+                sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAGS, new LFXTarget(newDevice)));
             }
             
+            if(isDuplicate(message)) {
+                return;
+            }
             
             LFXBinaryPath path = message.getPath();
 
-            Set<LFXDeviceID> targets = new HashSet<>();
+            Set<LFXDeviceID> targets;
             switch (path.getBinaryTargetID().getTargetType()) {
                 case BROADCAST: {
-                    targets.addAll(routingTable.getLightsAtSite(path.getSiteID()));                
+                    targets = routingTable.getLightsAtSite(path.getSiteID());                
                     break;
                 }
 
                 case DEVICE: {                
+                    targets = new HashSet<>();
                     targets.add(path.getBinaryTargetID().getDeviceID());
                     break;
                 }
 
                 case TAG: {
-                    targets.addAll(routingTable.getLightsAtSiteWithTags(path.getSiteID(), path.getBinaryTargetID().getGroupTagField()));
+                    targets = routingTable.getLightsAtSiteWithTags(path.getSiteID(), path.getBinaryTargetID().getTagMask());
                     break;
                 }
+                
+                default:
+                    targets = new HashSet<>();
             }
             
             passMessageToHandlers(targets, message);            
@@ -222,7 +481,49 @@ public class LFXMessageRouter {
     //
     ////////////////////////////////////////////////////////////////////////////
     
-    public void sendMessage(LFXMessage message) {
+    /**
+     * Sends the message to all gateways it is for.
+     * @return false if the outgoing queue was full and the message, or a 
+     *         copy of it for one of the gateways, was dropped
+     */
+    public boolean sendMessage(LFXMessage message) {
+        return sendMessage(message, 1);
+    }
+    
+    /**
+     * Sends the message to all gateways it is for, a number of times to 
+     * gateways that are reached over UDP in case some of them are lost. 
+     * All copies are queued, but when the first one goes over TCP the 
+     * writer skips the others.
+     * 
+     * @return false if the outgoing queue was full and a copy of the message
+     *         was dropped
+     */
+    public boolean sendMessage(LFXMessage message, int copies) {
+        return send(message, copies, false);
+    }
+    
+    /**
+     * Sends a message that the SDK sends on its own, such as discovery and 
+     * the polls of the light handlers. These are often sent from the timer, 
+     * reader or routing threads, so whatever the policy of the outgoing 
+     * queue is they never wait for room or throw. If the queue is full they
+     * are dropped, they are sent again later anyway.
+     * 
+     * @return false if the outgoing queue was full and the message, or a 
+     *         copy of it for one of the gateways, was dropped
+     */
+    public boolean sendBackgroundMessage(LFXMessage message) {
+        return send(message, 1, true);
+    }
+    
+    private boolean send(LFXMessage message, int copies, boolean background) {
+        LFXPayloadCodec codec = LFXPayloadCodec.forType(message.getType());
+        LxProtocol.Type expectedResponse = codec != null ? codec.getExpectedResponse() : null;
+        if(expectedResponse != null && requestedTypes.get(expectedResponse.ordinal()) == 0) {
+            requestedTypes.set(expectedResponse.ordinal(), 1);
+        }
+        
         // For messages that have their Target set        
         LFXTarget target = message.getTarget();
         if (target != null) {
@@ -242,7 +543,7 @@ public class LFXMessageRouter {
                 }
                 case TAG: {
                     for(LFXSiteID site: routingTable.getSiteIDsWhereLightHasTag(target.getTag())) {
-                        LFXBinaryTargetID targetID = new LFXBinaryTargetID(EnumSet.of(target.getTag()));
+                        LFXBinaryTargetID targetID = new LFXBinaryTargetID(LFXTagMask.of(target.getTag()));
                         binaryPaths.add(new LFXBinaryPath(site, targetID));                        
                     }
                     break;
@@ -257,64 +558,85 @@ public class LFXMessageRouter {
                 // TODO: do something about this
             }
             
+            boolean queued = true;
             for(LFXBinaryPath path: binaryPaths) {
-                sendWithPath(message.withPath(path));
+                queued &= sendWithPath(message.withPath(path), copies, background);
             }     
+            return queued;
         } else if(message.getPath() != null) {
             // For message that have their Binary Path set explicitly (for internal use only)
-            sendWithPath(message);
+            return sendWithPath(message, copies, background);
         } else {
             throw new RuntimeException("message has neither target nor path");
         }
     } 
     
-    private void sendWithPath(LFXMessage message) {
+    private boolean sendWithPath(LFXMessage message, int copies, boolean background) {
+        boolean queued = true;
         if (message.getPath().getSiteID().isZeroSite()) {
             // send to all gateways
             for (InetSocketAddress address : routingTable.getAllSiteAddresses()) {
-                sendToAddress(message, address);
+                queued &= sendToAddress(message, address, routingTable.getInterfaceForAddress(address), copies, background);
             }
         } else {            
             InetSocketAddress address = routingTable.getAddressForSiteID(message.getPath().getSiteID());
             if(address != null) {
-                sendToAddress(message, address);                
+                queued = sendToAddress(message, address, routingTable.getInterfaceForAddress(address), copies, background);
             } else {
                 // this should not happen
                 Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
                         "No address for gateway, this should not happen");
             }            
         }        
+        return queued;
     }
     
+    /**
+     * Sends the message to the broadcast address of each network interface,
+     * the way background messages are sent.
+     */
     private void sendBroadcast(LFXMessage message) {
-        InetSocketAddress broadcastAddress;
-        try {
-            broadcastAddress = networkSettings.getBroadcast();
-        } catch(SocketException ex) {
-            Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
-                    "Failed to get broadcast address", ex);
-            return;
+        for(LFXNetworkInterface iface: networkSettings.getInterfaces()) {
+            sendToAddress(message, networkSettings.getBroadcast(iface), iface, 1, true);
         }
-        
-        sendToAddress(message, broadcastAddress);
     }
     
     int maxQueueLength = 0;
     
-    private void sendToAddress(LFXMessage message, InetSocketAddress address) {
+    private boolean sendToAddress(LFXMessage message, InetSocketAddress address, LFXNetworkInterface iface, 
+            int copies, boolean background) {
         int messagesInQueue = outgoingQueue.size();
         if(messagesInQueue > maxQueueLength) {
             //Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.INFO, "New max queue size is " + messagesInQueue);
             maxQueueLength = messagesInQueue;
         }
         
-        byte[] messageData = message.getMessageDataRepresentation();
-        LFXSocketMessage sm = new LFXSocketMessage(messageData, address, getMessagePriority(message));
-        if(!outgoingQueue.offer(sm)) {
-            Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
-                    "Failed to send message, queue is full");
-        }         
-        responseTracker.trackResponse(message, sm);
+        InetSocketAddress streamAddress = streamsEnabled 
+                ? routingTable.getStreamAddressForAddress(address) 
+                : null;
+        
+        int priority = getMessagePriority(message);
+        Object coalesceKey = getCoalesceKey(message);
+        boolean queued = true;
+        // all copies are queued even if there is a TCP service, the 
+        // connection might be down when they are written and then they
+        // go over UDP
+        LFXSocketMessage first = new LFXSocketMessage(message, address, iface, streamAddress, 
+                priority, coalesceKey);
+        for(int i = 0; i < copies; i++) {
+            LFXSocketMessage sm = i == 0 ? first : first.copy();
+            boolean added = background ? outgoingQueue.tryOffer(sm) : outgoingQueue.offer(sm);
+            if(!added) {
+                // this is counted in the statistics, logging every drop during
+                // a burst would only make things worse
+                Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.FINE, 
+                        "Failed to send message, queue is full");
+                queued = false;
+            } else {
+                responseTracker.trackResponse(message, sm);
+            }
+        }
+        return queued;
     }
 
     /**
@@ -348,6 +670,51 @@ public class LFXMessageRouter {
         return LFXSocketMessage.LOW_PRIORITY;
     }
     
+    /**
+     * Messages that only set the current state of a light are last-writer-wins,
+     * if a newer one is sent before an older has left the queue there is no
+     * point in sending the older one. These are keyed on the path and the 
+     * type, other messages return null and are never coalesced.
+     */
+    private Object getCoalesceKey(LFXMessage message) {
+        switch(message.getType()) {
+            case LX_PROTOCOL_DEVICE_SET_POWER: 
+            case LX_PROTOCOL_LIGHT_SET: 
+            case LX_PROTOCOL_LIGHT_SET_DIM_ABSOLUTE: 
+            case LX_PROTOCOL_LIGHT_SET_RGBW: 
+                return new CoalesceKey(message.getType(), message.getPath());
+        }
+        
+        return null;
+    }
+    
+    /**
+     * The type and path of a message that can be coalesced.
+     */
+    private static final class CoalesceKey {
+        private final LxProtocol.Type type;
+        private final LFXBinaryPath path;
+
+        public CoalesceKey(LxProtocol.Type type, LFXBinaryPath path) {
+            this.type = type;
+            this.path = path;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + type.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof CoalesceKey)) {
+                return false;
+            }
+            CoalesceKey other = (CoalesceKey) obj;
+            return type == other.type && path.equals(other.path);
+        }
+    }
+    
     
     ////////////////////////////////////////////////////////////////////////////
     //
@@ -363,6 +730,13 @@ public class LFXMessageRouter {
         }        
     };    
     
+    private final Runnable removeLostEntriesAction = new Runnable() {
+        @Override
+        public void run() {
+            routingTable.removeLostEntries();
+        }
+    };
+    
     
     private class SendGetLightsFromSite implements Runnable {
         private final LFXSiteID site;
@@ -373,7 +747,7 @@ public class LFXMessageRouter {
 
         @Override
         public void run() {
-            sendMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_LIGHT_GET, new LFXBinaryPath(site)));                            
+            sendBackgroundMessage(new LFXMessage(LxProtocol.Type.LX_PROTOCOL_LIGHT_GET, new LFXBinaryPath(site)));                            
         }
     }
     
@@ -390,6 +764,7 @@ public class LFXMessageRouter {
                     Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
                             "Failed to open LightHandler", ex);
                 }                
+                updateSubscribedTypes();
             }
         }
 
@@ -402,6 +777,7 @@ public class LFXMessageRouter {
                 Logger.getLogger(LFXMessageRouter.class.getName()).log(Level.SEVERE, 
                         "Failed to close LightHandler", ex);
             }
+            updateSubscribedTypes();
         }
     };
 }
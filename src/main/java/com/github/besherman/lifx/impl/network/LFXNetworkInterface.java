@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Objects;
+
+/**
+ * An IPv4 address of a local network interface that lights can be found on.
+ * 
+ * When the user has given a broadcast address there is only one of these and
+ * it has no local address, messages are then sent on the default channel.
+ */
+public class LFXNetworkInterface {
+    private final String name;
+    private final InetAddress address;
+    private final InetAddress broadcast;
+    private final int prefixLength;
+
+    public LFXNetworkInterface(String name, InetAddress address, InetAddress broadcast, int prefixLength) {
+        this.name = name;
+        this.address = address;
+        this.broadcast = broadcast;
+        this.prefixLength = prefixLength;
+    }
+    
+    /**
+     * Creates an interface for a broadcast address given by the user.
+     */
+    public static LFXNetworkInterface forBroadcast(InetAddress broadcast) {
+        return new LFXNetworkInterface(null, null, broadcast, 0);
+    }
+
+    /**
+     * Returns the name of the interface, null for a user given broadcast 
+     * address.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the local address, null for a user given broadcast address.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public InetAddress getBroadcast() {
+        return broadcast;
+    }
+    
+    /**
+     * Returns true if the host is on the same subnet as this interface.
+     */
+    public boolean isOnSubnet(InetAddress host) {
+        if(address == null || !(host instanceof Inet4Address) || prefixLength <= 0) {
+            return false;
+        }
+        int mask = prefixLength >= 32 ? -1 : -1 << (32 - prefixLength);
+        return (toInt(address) & mask) == (toInt(host) & mask);
+    }
+    
+    private static int toInt(InetAddress address) {
+        byte[] b = address.getAddress();
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 41 * hash + Objects.hashCode(this.name);
+        hash = 41 * hash + Objects.hashCode(this.address);
+        hash = 41 * hash + Objects.hashCode(this.broadcast);
+        hash = 41 * hash + this.prefixLength;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final LFXNetworkInterface other = (LFXNetworkInterface) obj;
+        return Objects.equals(this.name, other.name)
+                && Objects.equals(this.address, other.address)
+                && Objects.equals(this.broadcast, other.broadcast)
+                && this.prefixLength == other.prefixLength;
+    }
+
+    @Override
+    public String toString() {
+        return "LFXNetworkInterface{" + "name=" + name + ", address=" + address + ", broadcast=" + broadcast + '}';
+    }
+}
@@ -28,7 +28,14 @@ package com.github.besherman.lifx.impl.network;
  * @author Richard
  */
 
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -39,10 +46,17 @@ public class LFXNetworkLoop {
     private static LFXNetworkLoop instance;
     
     private final LFXLightHandlerModel handlers = new LFXLightHandlerModel();
+    private final LFXNetworkStatistics statistics = new LFXNetworkStatistics();
+    private final List<LFXSendQueueListener> sendQueueListeners = new CopyOnWriteArrayList<>();
+    private final List<LFXRoutingTableListener> routingTableListeners = new CopyOnWriteArrayList<>();
+    private final List<LFXResponseTrackerListener> responseTrackerListeners = new CopyOnWriteArrayList<>();
     
     private LFXNetworkLoopConnection connection;
     private final Object conLock = new Object();
     private String broadcastAddress = null;
+    private LFXTransport transport = null;
+    private long lightTimeout = LFXConstants.getLightTimeout();
+    private long gatewayTimeout = LFXConstants.getGatewayTimeout();
     
     
     private LFXNetworkLoop() {        
@@ -66,7 +80,9 @@ public class LFXNetworkLoop {
     public void open() throws IOException {
         synchronized(conLock) {
             if(connection == null) {
-                LFXNetworkLoopConnection newConnection = new LFXNetworkLoopConnection(broadcastAddress, handlers);
+                LFXRoutingTable routingTable = new LFXRoutingTable(lightTimeout, gatewayTimeout, routingTableListeners);
+                LFXNetworkLoopConnection newConnection = new LFXNetworkLoopConnection(broadcastAddress, handlers, statistics, sendQueueListeners, 
+                        routingTable, responseTrackerListeners, transport != null ? transport : new LFXUdpTransport());
                 newConnection.open();
                 connection = newConnection;
             }
@@ -82,10 +98,68 @@ public class LFXNetworkLoop {
         }
     }    
 
+    /**
+     * Waits for the first gateway to be discovered after the loop was 
+     * opened. Returns false if the loop is not open or no gateway was 
+     * found in time.
+     */
+    public boolean waitForGateway(long timeout, TimeUnit unit) throws InterruptedException {
+        LFXNetworkLoopConnection con;
+        synchronized(conLock) {
+            con = connection;
+        }
+        return con != null && con.waitForGateway(timeout, unit);
+    }
+
+    /**
+     * Returns the counters kept by the network code. The counters are kept
+     * across close() and open().
+     */
+    public LFXNetworkStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the round trip time estimates of the lights that have answered
+     * a request since the loop was opened, an empty map if it is not open. 
+     * The map is a live view.
+     */
+    public Map<LFXDeviceID, LFXRttEstimator> getRoundTripTimes() {
+        LFXNetworkLoopConnection con;
+        synchronized(conLock) {
+            con = connection;
+        }
+        return con != null ? con.getRoundTripTimes() : Collections.<LFXDeviceID, LFXRttEstimator>emptyMap();
+    }
+
     public void setBroadcastAddress(String broadcastAddress) {
         this.broadcastAddress = broadcastAddress;
     }
     
+    /**
+     * Sets the transport used to talk to the lights, null to use UDP. Takes 
+     * effect the next time the loop is opened.
+     */
+    public void setTransport(LFXTransport transport) {
+        this.transport = transport;
+    }
+    
+    /**
+     * Sets how long the routing table keeps a light it has not heard from. 
+     * Takes effect the next time the loop is opened.
+     */
+    public void setLightTimeout(long timeout, TimeUnit unit) {
+        this.lightTimeout = unit.toMillis(timeout);
+    }
+    
+    /**
+     * Sets how long the routing table keeps a gateway it has not heard from.
+     * Takes effect the next time the loop is opened.
+     */
+    public void setGatewayTimeout(long timeout, TimeUnit unit) {
+        this.gatewayTimeout = unit.toMillis(timeout);
+    }
+    
     public void addHandler(LFXLightHandler handler) {
         handlers.addLightHandler(handler);
     }
@@ -93,5 +167,36 @@ public class LFXNetworkLoop {
     public void removeHandler(LFXLightHandler handler) {
         handlers.removeLightHandler(handler);
     }    
-}
     
+    public void addSendQueueListener(LFXSendQueueListener l) {
+        sendQueueListeners.add(l);
+    }
+    
+    public void removeSendQueueListener(LFXSendQueueListener l) {
+        sendQueueListeners.remove(l);
+    }
+    
+    /**
+     * Adds a listener that is told when the routing table removes a gateway
+     * or a light that it has not heard from for a while.
+     */
+    public void addRoutingTableListener(LFXRoutingTableListener l) {
+        routingTableListeners.add(l);
+    }
+    
+    public void removeRoutingTableListener(LFXRoutingTableListener l) {
+        routingTableListeners.remove(l);
+    }
+    
+    /**
+     * Adds a listener that is told when the response tracker gives up on 
+     * getting a response to a request.
+     */
+    public void addResponseTrackerListener(LFXResponseTrackerListener l) {
+        responseTrackerListeners.add(l);
+    }
+    
+    public void removeResponseTrackerListener(LFXResponseTrackerListener l) {
+        responseTrackerListeners.remove(l);
+    }
+}
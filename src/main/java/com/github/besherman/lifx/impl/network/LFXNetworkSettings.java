@@ -31,70 +31,126 @@ import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- *
+ * Keeps track of the network interfaces that lights are searched for on.
+ * 
+ * Unless the user has given a broadcast address all active IPv4 interfaces 
+ * are used, or the ones named in {@link LFXConstants#getNetworkInterfaces()}.
+ * The interfaces are scanned again now and then so that interfaces that come
+ * up or go down are noticed without a restart.
+ * 
  * @author Richard
  */
 public class LFXNetworkSettings {
-    private InetSocketAddress broadcastAddress;
-    
     private final int broadcastPort = 56700;
     private final int peerToPeerPort = 56750;
     private final String broadcastAddressString;
     
+    private List<LFXNetworkInterface> interfaces = Collections.emptyList();
+    private volatile Set<InetAddress> ownAddresses = Collections.emptySet();
+    private long lastScan = 0;
+    
     public LFXNetworkSettings(String broadcastAddressString) {
         this.broadcastAddressString = broadcastAddressString;
     }
-
+    
     /**
-     * Returns the broadcast address that sockets should use.
+     * Returns the interfaces to search for lights on. 
      */
-    public synchronized InetSocketAddress getBroadcast() throws SocketException, UnknownHostException {
-        if(broadcastAddress == null) {
-            if (broadcastAddressString == null) {
-                broadcastAddress = new InetSocketAddress(getFirstActiveBroadcast(), broadcastPort);
+    public synchronized List<LFXNetworkInterface> getInterfaces() {
+        long now = System.currentTimeMillis();
+        if(lastScan == 0 || now - lastScan > LFXConstants.getInterfaceRescanInterval()) {
+            lastScan = now;
+            try {
+                List<LFXNetworkInterface> found = scan();
+                if(!found.equals(interfaces)) {
+                    Logger.getLogger(LFXNetworkSettings.class.getName()).log(Level.FINE, 
+                            "Network interfaces: {0}", found);
+                }
+                interfaces = found;
+                ownAddresses = scanOwnAddresses();
+            } catch(SocketException | UnknownHostException ex) {
+                Logger.getLogger(LFXNetworkSettings.class.getName()).log(Level.SEVERE, 
+                        "Failed to get network interfaces", ex);
             }
-            else {
-                InetAddress addr = InetAddress.getByName(broadcastAddressString);
-                broadcastAddress = new InetSocketAddress(addr, broadcastPort);
+        }
+        return interfaces;
+    }
+
+    /**
+     * Returns the broadcast address that sockets should use for the interface.
+     */
+    public InetSocketAddress getBroadcast(LFXNetworkInterface iface) {
+        return new InetSocketAddress(iface.getBroadcast(), broadcastPort);
+    }
+    
+    /**
+     * Returns the interface that has the host on its subnet, or null if there
+     * is no such interface.
+     */
+    public LFXNetworkInterface getInterfaceFor(InetAddress host) {
+        for(LFXNetworkInterface iface: getInterfaces()) {
+            if(iface.isOnSubnet(host)) {
+                return iface;
             }
         }
-        return broadcastAddress;
+        return null;
     }
     
-  
+    /**
+     * Returns true if the address is one of the addresses of this host, on
+     * any interface but the loopback. This does not rescan the interfaces so
+     * it is cheap enough to call for every received datagram.
+     */
+    public boolean isOwnAddress(InetAddress address) {
+        return ownAddresses.contains(address);
+    }
     
-    private static InetAddress getFirstActiveBroadcast() throws SocketException {
-        NetworkInterface iface = getFirstActiveIPv4Interface();
-
-        if (iface != null) {
-            for (InterfaceAddress ifaceAddr : iface.getInterfaceAddresses()) {
-                InetAddress addr = ifaceAddr.getAddress();
-                if (addr instanceof Inet4Address) {
-                    return ifaceAddr.getBroadcast();
+    private List<LFXNetworkInterface> scan() throws SocketException, UnknownHostException {
+        if(broadcastAddressString != null) {
+            InetAddress addr = InetAddress.getByName(broadcastAddressString);
+            return Collections.singletonList(LFXNetworkInterface.forBroadcast(addr));
+        }
+        
+        String names = LFXConstants.getNetworkInterfaces();
+        List<String> selected = names != null 
+                ? Arrays.asList(names.split("\\s*,\\s*")) 
+                : null;
+        
+        List<LFXNetworkInterface> result = new ArrayList<>();
+        for(NetworkInterface iface: Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if(!iface.isUp() || iface.isLoopback()) {
+                continue;
+            }
+            if(selected != null && !selected.contains(iface.getName())) {
+                continue;
+            }
+            for(InterfaceAddress ifaceAddr: iface.getInterfaceAddresses()) {
+                if(ifaceAddr.getAddress() instanceof Inet4Address && ifaceAddr.getBroadcast() != null) {
+                    result.add(new LFXNetworkInterface(iface.getName(), ifaceAddr.getAddress(), 
+                            ifaceAddr.getBroadcast(), ifaceAddr.getNetworkPrefixLength()));
                 }
             }
         }
-
-        return null;
+        return result;
     }
     
-    private static NetworkInterface getFirstActiveIPv4Interface() throws SocketException {
-        Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
-        while(networkInterfaces.hasMoreElements()) {
-            NetworkInterface iface = networkInterfaces.nextElement();
+    private static Set<InetAddress> scanOwnAddresses() throws SocketException {
+        Set<InetAddress> result = new HashSet<>();
+        for(NetworkInterface iface: Collections.list(NetworkInterface.getNetworkInterfaces())) {
             if(iface.isUp() && !iface.isLoopback()) {
-                for(InterfaceAddress ifaceAddr: iface.getInterfaceAddresses()) {
-                    if(ifaceAddr.getAddress() instanceof Inet4Address) {
-                        return iface;
-                    }
-                }
+                result.addAll(Collections.list(iface.getInetAddresses()));
             }
-        }        
-        return null;
+        }
+        return result;
     }
-    
-
 }
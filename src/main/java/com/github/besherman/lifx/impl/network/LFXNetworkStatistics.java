@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters kept by the network code. They are only for diagnostics, nothing
+ * in the SDK acts on them.
+ */
+public class LFXNetworkStatistics {
+    final AtomicLong coalescable = new AtomicLong();
+    final AtomicLong replaced = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong highWatermark = new AtomicLong();
+    final AtomicLong resent = new AtomicLong();
+    final AtomicLong resendSkipped = new AtomicLong();
+    final AtomicLong abandoned = new AtomicLong();
+    final AtomicLongArray receiveDropped = new AtomicLongArray(LFXReceiveDropReason.values().length);
+    
+    /**
+     * Returns the number of state setting messages that have been offered
+     * to the send queue, these are the messages that can be coalesced.
+     */
+    public long getCoalescableCount() {
+        return coalescable.get();
+    }
+
+    /**
+     * Returns the number of messages that replaced the data of a message 
+     * still waiting in the send queue instead of being queued themselves.
+     */
+    public long getReplacedCount() {
+        return replaced.get();
+    }
+
+    /**
+     * Returns the number of messages that were dropped or rejected because
+     * the send queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of times the send queue has reached its high
+     * watermark.
+     */
+    public long getHighWatermarkCount() {
+        return highWatermark.get();
+    }
+
+    /**
+     * Returns the number of messages the response tracker has resent 
+     * because they were not answered in time.
+     */
+    public long getResentCount() {
+        return resent.get();
+    }
+
+    /**
+     * Returns the number of resends the response tracker skipped because 
+     * the light had used up its retry budget.
+     */
+    public long getResendSkippedCount() {
+        return resendSkipped.get();
+    }
+
+    /**
+     * Returns the number of requests the response tracker gave up on.
+     */
+    public long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    /**
+     * Returns the number of received messages the router has dropped for 
+     * the reason.
+     */
+    public long getReceiveDropCount(LFXReceiveDropReason reason) {
+        return receiveDropped.get(reason.ordinal());
+    }
+    
+    void receiveDropped(LFXReceiveDropReason reason) {
+        receiveDropped.incrementAndGet(reason.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder drops = new StringBuilder();
+        for(LFXReceiveDropReason reason: LFXReceiveDropReason.values()) {
+            drops.append(", ").append(reason).append('=').append(receiveDropped.get(reason.ordinal()));
+        }
+        return "LFXNetworkStatistics{" + "coalescable=" + coalescable + ", replaced=" + replaced
+                + ", dropped=" + dropped + ", highWatermark=" + highWatermark + ", resent=" + resent 
+                + ", resendSkipped=" + resendSkipped + ", abandoned=" + abandoned + drops + '}';
+    }
+}
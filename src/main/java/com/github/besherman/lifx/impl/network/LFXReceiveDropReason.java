@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+/**
+ * Why the message router dropped a received message. All but DUPLICATE are
+ * decided from the header alone, before the message is decoded.
+ */
+public enum LFXReceiveDropReason {
+    /**
+     * The message is a request or a command, not something a light sends
+     * in response. These are mostly our own broadcasts and the messages of
+     * other clients on the network.
+     */
+    NOT_A_RESPONSE,
+    
+    /**
+     * The message was sent from one of our own addresses, see 
+     * {@link LFXConstants#isDropOwnPacketsEnabled()}.
+     */
+    OWN_ADDRESS,
+    
+    /**
+     * Neither the router nor any of the light handlers wants messages of 
+     * this type, see {@link LFXLightHandler#getSubscribedTypes()}.
+     */
+    NOT_SUBSCRIBED,
+    
+    /**
+     * The message is a copy of one received just before, see 
+     * {@link LFXConstants#getDuplicateWindow()}. It still answers requests
+     * and updates the routing table, it is only kept from the handlers.
+     */
+    DUPLICATE,
+    
+    /**
+     * The message is too short, of an unknown type or could not be decoded.
+     */
+    MALFORMED
+}
@@ -28,58 +28,17 @@ import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetType;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
 import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXPayloadCodec;
 import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
-import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_DUMMY_LOAD;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_LABEL;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MCU_RAIL_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_FIRMWARE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_MESH_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_PAN_GATEWAY;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_POWER;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_RESET_SWITCH;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TAGS;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_TIME;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_VERSION;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_FIRMWARE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_GET_WIFI_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_DUMMY_LOAD;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_LABEL;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MCU_RAIL_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MESH_FIRMWARE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_MESH_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_POWER;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAGS;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TIME;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_VERSION;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_WIFI_FIRMWARE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_WIFI_INFO;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_GET;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_GET_POWER;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_GET_RAIL_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_GET_TEMPERATURE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE_POWER;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE_RAIL_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_LIGHT_STATE_TEMPERATURE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_SENSOR_GET_AMBIENT_LIGHT;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_SENSOR_GET_DIMMER_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_SENSOR_STATE_AMBIENT_LIGHT;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_SENSOR_STATE_DIMMER_VOLTAGE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_WIFI_GET;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_WIFI_GET_ACCESS_POINT;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_WIFI_STATE;
-import static com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type.LX_PROTOCOL_WIFI_STATE_ACCESS_POINT;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -87,32 +46,96 @@ import java.util.logging.Logger;
 /**
  * Keeps track of sent messages and if there is no response for a while the
  * same message is sent again.
+ * 
+ * The expected responses are indexed by device and response type, so 
+ * matching a received message costs a single lookup in a concurrent map. 
+ * There is only one expected response per device and type, a new request 
+ * for the same response replaces the message that is resent. The deadlines
+ * are kept in a queue that only the timer thread touches, new entries are 
+ * handed to it through a lock free queue and answered or replaced entries
+ * are dropped when their deadline comes up. So senders, the thread that 
+ * reads responses and the timer never wait for each other.
+ * 
+ * The time it takes to get a response is sampled for each light, and how
+ * long to wait before a message to a light is resent is worked out from 
+ * that by a {@link LFXRttEstimator}. Only responses to messages that were 
+ * sent once, and that did not replace a request still waiting for the same
+ * response, are sampled. Otherwise there is no telling which send the 
+ * response answers.
+ * 
+ * A message is resent at most {@link LFXConstants#getResponseTrackerMaxResends()}
+ * times. The timeout doubles with each resend and is jittered so that the
+ * resends to many lights that were asked at the same time spread out. Each
+ * light also has a budget of resends over a sliding window, when it is used
+ * up the resends to that light are skipped but still counted, so one light 
+ * that does not answer can not take the capacity of the send queue from 
+ * everything else. A message that is still waiting in the send queue when
+ * its timeout comes up is neither resent nor counted, its timeout starts
+ * over. When the tracker gives up on a message the 
+ * {@link LFXResponseTrackerListener}s are told.
  */
 public class LFXResponseTracker {
     private LFXTimerQueue timerQueue;
-    private BlockingQueue<LFXSocketMessage> outgoingQueue;
-    private final Map<LxProtocol.Type, LxProtocol.Type> reqResp = createReqResp();
-    private final Object lock = new Object();
-    private final PriorityQueue<Expected> expectedResponses = new PriorityQueue<>();
+    private LFXSendQueue outgoingQueue;
     private final LFXRoutingTable routingTable;
     
-    private int messageSendRateLimitInterval;
+    // the expected responses that are still waiting for an answer
+    private final ConcurrentHashMap<Key, Expected> expectedResponses = new ConcurrentHashMap<>();
+    
+    // new expected responses, not yet in the deadlines
+    private final ConcurrentLinkedQueue<Expected> added = new ConcurrentLinkedQueue<>();
+    
+    // only used by the timer thread
+    private final PriorityQueue<Expected> deadlines = new PriorityQueue<>();
+    
+    private final ConcurrentHashMap<LFXDeviceID, LFXRttEstimator> roundTripTimes = new ConcurrentHashMap<>();
+    
+    // only used by the timer thread
+    private final Map<LFXDeviceID, RetryBudget> retryBudgets = new HashMap<>();
+    private final Random jitter = new Random();
+    
+    private final LFXNetworkStatistics statistics;
+    private final List<LFXResponseTrackerListener> listeners;
+    
     private int responseTrackerInterval;
     private int responseTrackerTimeout;
+    private int responseTrackerMinTimeout;
+    private int responseTrackerMaxTimeout;
+    private int maxResends;
+    private int retryBudget;
+    private int retryWindow;
     
     public LFXResponseTracker(LFXRoutingTable routingTable) {
+        this(routingTable, new LFXNetworkStatistics(), Collections.<LFXResponseTrackerListener>emptyList());
+    }
+    
+    /**
+     * @param listeners told about the abandoned requests, the list is read
+     *                  each time a request is abandoned
+     */
+    public LFXResponseTracker(LFXRoutingTable routingTable, LFXNetworkStatistics statistics, 
+            List<LFXResponseTrackerListener> listeners) {
         this.routingTable = routingTable;
+        this.statistics = statistics;
+        this.listeners = listeners;
     }
     
-    public void setOutgoingQueue(BlockingQueue<LFXSocketMessage> outgoingQueue) {
+    public void setOutgoingQueue(LFXSendQueue outgoingQueue) {
         this.outgoingQueue = outgoingQueue;
     }    
     
-    public void open() {
-        timerQueue = new LFXTimerQueue();                
+    /**
+     * @param timerQueue used to check for timeouts, it is closed by close()
+     */
+    public void open(LFXTimerQueue timerQueue) {
+        this.timerQueue = timerQueue;
         responseTrackerTimeout = LFXConstants.getResponseTrackerResendTimeout();        
         responseTrackerInterval = LFXConstants.getResponseTrackerInterval();        
-        messageSendRateLimitInterval = LFXConstants.getNetworkLoopSendRateLimitInterval();
+        responseTrackerMinTimeout = LFXConstants.getResponseTrackerMinTimeout();
+        responseTrackerMaxTimeout = LFXConstants.getResponseTrackerMaxTimeout();
+        maxResends = LFXConstants.getResponseTrackerMaxResends();
+        retryBudget = LFXConstants.getResponseTrackerRetryBudget();
+        retryWindow = LFXConstants.getResponseTrackerRetryWindow();
         
         timerQueue.doRepeatedly(updateTimeoutsRunnable, responseTrackerInterval, TimeUnit.MILLISECONDS);
     }
@@ -134,54 +157,165 @@ public class LFXResponseTracker {
             return;
         }
         
-        Type expectedResponse = reqResp.get(message.getType());
+        LFXPayloadCodec codec = LFXPayloadCodec.forType(message.getType());
+        Type expectedResponse = codec != null ? codec.getExpectedResponse() : null;
         if(expectedResponse != null) {
-            synchronized(lock) {
-                expectedResponses.add(new Expected(expectedResponse, target.getDeviceID(), getTimeout(), sm));
-            }
+            Key key = new Key(target.getDeviceID(), expectedResponse);
+            Expected ex = new Expected(key, message, getTimeout(key.device, sm, 0), sm);
+            // the one it replaces, if any, is dropped at its deadline
+            Expected previous;
+            do {
+                previous = expectedResponses.get(key);
+                ex.replaced = previous != null;
+            } while(previous == null 
+                    ? expectedResponses.putIfAbsent(key, ex) != null 
+                    : !expectedResponses.replace(key, previous, ex));
+            added.offer(ex);
         }        
     }
     
 
     public void updateReponse(LFXMessage message) {
-        synchronized(lock) {
-            Iterator<Expected> it = expectedResponses.iterator();
-            while(it.hasNext()) {
-                Expected ex = it.next();
-                if(ex.isResponse(message)) {
-                    it.remove();                    
-                }
+        if(expectedResponses.isEmpty()) {
+            return;
+        }
+        LFXBinaryTargetID target = message.getPath().getBinaryTargetID();
+        if(target.geTargetType() == LFXBinaryTargetType.DEVICE) {
+            Expected ex = expectedResponses.remove(new Key(target.getDeviceID(), message.getType()));
+            long sentTime = ex != null ? ex.getMessage().getSentTime() : 0;
+            if(sentTime != 0 && ex.resends == 0 && !ex.replaced) {
+                getRoundTripTime(ex.getDeviceID(), true).addSample(System.nanoTime() - sentTime, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Returns the round trip time estimate for the light, or null if no 
+     * response from it has been sampled.
+     */
+    public LFXRttEstimator getRoundTripTime(LFXDeviceID device) {
+        return roundTripTimes.get(device);
+    }
+    
+    /**
+     * Returns the round trip time estimates of the lights that have been 
+     * sampled. The map is a live view.
+     */
+    public Map<LFXDeviceID, LFXRttEstimator> getRoundTripTimes() {
+        return Collections.unmodifiableMap(roundTripTimes);
+    }
+    
+    private LFXRttEstimator getRoundTripTime(LFXDeviceID device, boolean create) {
+        LFXRttEstimator estimator = roundTripTimes.get(device);
+        if(estimator == null && create) {
+            estimator = new LFXRttEstimator(responseTrackerTimeout, responseTrackerMinTimeout, 
+                    responseTrackerMaxTimeout, TimeUnit.MILLISECONDS);
+            LFXRttEstimator existing = roundTripTimes.putIfAbsent(device, estimator);
+            if(existing != null) {
+                estimator = existing;
             }
         }
+        return estimator;
     }
     
-    private long getTimeout() {
-        long timeoutAfter = System.currentTimeMillis() + responseTrackerTimeout;
+    /**
+     * Returns when to give up waiting for the response after the message 
+     * has been resent the given number of times. The timeout of the light 
+     * is doubled for each resend, up to the max timeout, and a random amount 
+     * of up to half of it is taken off.
+     */
+    private long getTimeout(LFXDeviceID device, LFXSocketMessage sm, int resends) {
+        LFXRttEstimator estimator = roundTripTimes.get(device);
+        long timeout = estimator != null ? estimator.getTimeout(TimeUnit.MILLISECONDS) : responseTrackerTimeout;
+        if(resends > 0) {
+            timeout = Math.min(timeout << Math.min(resends, 20), Math.max(timeout, responseTrackerMaxTimeout));
+            timeout -= (long)(jitter.nextDouble() * timeout / 2);
+        }
+        long timeoutAfter = System.currentTimeMillis() + timeout;
 
-        // the outgoing message queue might be long, so we have to take
+        // the outgoing lane might be long, so we have to take
         // take that into account as well            
-        timeoutAfter +=  outgoingQueue.size() * messageSendRateLimitInterval;
+        timeoutAfter += outgoingQueue.getQueueDelay(sm.getAddress(), TimeUnit.MILLISECONDS);
         
         return timeoutAfter;
     }
     
     
     private void updateTimeouts() {
-        synchronized(lock) {
-            while(!expectedResponses.isEmpty() && expectedResponses.peek().isTimedOut()) {                
-                Expected ex = expectedResponses.poll();
-                if(routingTable.isLightStillAlive(ex.getDeviceID())) {                    
-                    ex.reschedule(getTimeout());
-                    Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.FINE, "Resending " + ex.type);
-                    if(!outgoingQueue.offer(ex.getMessage())) {
-                        Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.SEVERE, 
-                                "Failed to send message, queue is full");
-                    }
-                    expectedResponses.add(ex);
+        Expected ex;
+        while((ex = added.poll()) != null) {
+            deadlines.add(ex);
+        }
+        
+        long now = System.currentTimeMillis();
+        while(!deadlines.isEmpty() && deadlines.peek().isTimedOut(now)) {                
+            ex = deadlines.poll();
+            if(expectedResponses.get(ex.key) != ex) {
+                // answered or replaced
+                continue;
+            }
+            if(!routingTable.isLightStillAlive(ex.getDeviceID())) {
+                roundTripTimes.remove(ex.getDeviceID());
+                retryBudgets.remove(ex.getDeviceID());
+                abandon(ex, LFXAbandonReason.LIGHT_LOST);
+                continue;
+            }
+            if(ex.getMessage().isQueued()) {
+                // still waiting in the lane behind other messages, sending
+                // it again would only queue a duplicate
+                ex.reschedule(getTimeout(ex.getDeviceID(), ex.getMessage(), ex.resends));
+                deadlines.add(ex);
+                continue;
+            }
+            if(ex.resends >= maxResends) {
+                abandon(ex, LFXAbandonReason.NO_RESPONSE);
+                continue;
+            }
+            
+            ex.resends++;
+            ex.reschedule(getTimeout(ex.getDeviceID(), ex.getMessage(), ex.resends));
+            if(getRetryBudget(ex.getDeviceID()).tryTake(now)) {
+                Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.FINE, "Resending " + ex.key.type);
+                if(outgoingQueue.tryOffer(ex.getMessage())) {
+                    statistics.resent.incrementAndGet();
+                } else {
+                    // it will be tried again at the next timeout
+                    Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.FINE, 
+                            "Failed to resend message, queue is full");
                 }
+            } else {
+                // counts as a resend, so the light runs out of them sooner
+                statistics.resendSkipped.incrementAndGet();
+            }
+            deadlines.add(ex);
+        }
+    }
+    
+    private void abandon(Expected ex, LFXAbandonReason reason) {
+        if(!expectedResponses.remove(ex.key, ex)) {
+            return;
+        }
+        statistics.abandoned.incrementAndGet();
+        Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.FINE, 
+                "Giving up on {0} after {1} resends: {2}", new Object[]{ex, ex.resends, reason});
+        for(LFXResponseTrackerListener l: listeners) {
+            try {
+                l.requestAbandoned(ex.request, ex.getDeviceID(), ex.key.type, reason);
+            } catch(RuntimeException e) {
+                Logger.getLogger(LFXResponseTracker.class.getName()).log(Level.SEVERE, 
+                        "Response tracker listener failed", e);
             }
         }
     }
+    
+    private RetryBudget getRetryBudget(LFXDeviceID device) {
+        RetryBudget budget = retryBudgets.get(device);
+        if(budget == null) {
+            budget = new RetryBudget(retryBudget, retryWindow);
+            retryBudgets.put(device, budget);
+        }
+        return budget;
+    }
 
     private final Runnable updateTimeoutsRunnable = new Runnable() {
         @Override public void run() {
@@ -190,45 +324,76 @@ public class LFXResponseTracker {
     };
 
 
-    
-    private static Map<LxProtocol.Type, LxProtocol.Type> createReqResp() {
-        Map<LxProtocol.Type, LxProtocol.Type> map = new HashMap<>();
-        map.put(LX_PROTOCOL_DEVICE_GET_PAN_GATEWAY, LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY);
-        map.put(LX_PROTOCOL_DEVICE_GET_TIME, LX_PROTOCOL_DEVICE_STATE_TIME);
-        map.put(LX_PROTOCOL_DEVICE_GET_RESET_SWITCH, LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH);
-        map.put(LX_PROTOCOL_DEVICE_GET_DUMMY_LOAD, LX_PROTOCOL_DEVICE_STATE_DUMMY_LOAD);
-        map.put(LX_PROTOCOL_DEVICE_GET_MESH_INFO, LX_PROTOCOL_DEVICE_STATE_MESH_INFO);
-        map.put(LX_PROTOCOL_DEVICE_GET_MESH_FIRMWARE, LX_PROTOCOL_DEVICE_STATE_MESH_FIRMWARE);
-        map.put(LX_PROTOCOL_DEVICE_GET_WIFI_INFO, LX_PROTOCOL_DEVICE_STATE_WIFI_INFO);
-        map.put(LX_PROTOCOL_DEVICE_GET_WIFI_FIRMWARE, LX_PROTOCOL_DEVICE_STATE_WIFI_FIRMWARE);
-        map.put(LX_PROTOCOL_DEVICE_GET_POWER, LX_PROTOCOL_DEVICE_STATE_POWER);
-        map.put(LX_PROTOCOL_DEVICE_GET_LABEL, LX_PROTOCOL_DEVICE_STATE_LABEL);
-        map.put(LX_PROTOCOL_DEVICE_GET_TAGS, LX_PROTOCOL_DEVICE_STATE_TAGS);         
-        // map.put(LX_PROTOCOL_DEVICE_GET_TAG_LABELS, LX_PROTOCOL_DEVICE_STATE_TAG_LABELS); // takes arguments
-        map.put(LX_PROTOCOL_DEVICE_GET_VERSION, LX_PROTOCOL_DEVICE_STATE_VERSION);
-        map.put(LX_PROTOCOL_DEVICE_GET_INFO, LX_PROTOCOL_DEVICE_STATE_INFO);
-        map.put(LX_PROTOCOL_DEVICE_GET_MCU_RAIL_VOLTAGE, LX_PROTOCOL_DEVICE_STATE_MCU_RAIL_VOLTAGE);
-        map.put(LX_PROTOCOL_LIGHT_GET, LX_PROTOCOL_LIGHT_STATE);
-        map.put(LX_PROTOCOL_LIGHT_GET_RAIL_VOLTAGE, LX_PROTOCOL_LIGHT_STATE_RAIL_VOLTAGE);
-        map.put(LX_PROTOCOL_LIGHT_GET_TEMPERATURE, LX_PROTOCOL_LIGHT_STATE_TEMPERATURE);
-        //map.put(LX_PROTOCOL_LIGHT_GET_SIMPLE_EVENT, LX_PROTOCOL_LIGHT_STATE_SIMPLE_EVENT); // takes arguments
-        map.put(LX_PROTOCOL_LIGHT_GET_POWER, LX_PROTOCOL_LIGHT_STATE_POWER);
-        map.put(LX_PROTOCOL_WIFI_GET, LX_PROTOCOL_WIFI_STATE);
-        map.put(LX_PROTOCOL_WIFI_GET_ACCESS_POINT, LX_PROTOCOL_WIFI_STATE_ACCESS_POINT);
-        map.put(LX_PROTOCOL_SENSOR_GET_AMBIENT_LIGHT, LX_PROTOCOL_SENSOR_STATE_AMBIENT_LIGHT);
-        map.put(LX_PROTOCOL_SENSOR_GET_DIMMER_VOLTAGE, LX_PROTOCOL_SENSOR_STATE_DIMMER_VOLTAGE);
-        return map;        
+    /**
+     * The times of the last resends to a light, it may be resent to as many 
+     * times as the size of the budget within the window.
+     */
+    private static class RetryBudget {
+        private final long[] resends;
+        private final long window;
+        private int next;
+
+        public RetryBudget(int size, long window) {
+            this.resends = new long[Math.max(0, size)];
+            this.window = window;
+        }
+        
+        public boolean tryTake(long now) {
+            if(resends.length == 0) {
+                return false;
+            }
+            // the oldest of the last resends is the next to be replaced
+            if(resends[next] != 0 && now - resends[next] < window) {
+                return false;
+            }
+            resends[next] = now;
+            next = (next + 1) % resends.length;
+            return true;
+        }
+    }
+
+    /**
+     * The device and type of an expected response.
+     */
+    private static final class Key {
+        private final LFXDeviceID device;
+        private final Type type;
+
+        public Key(LFXDeviceID device, Type type) {
+            this.device = device;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return device.hashCode() * 31 + type.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type && device.equals(other.device);
+        }
     }
     
     private static class Expected implements Comparable<Expected> {
-        private final Type type;
-        private final LFXDeviceID device;
+        private final Key key;
+        private final LFXMessage request;
         private long timeoutAfterTimestamp;
         private final LFXSocketMessage originalSocketMessage;
+        // only changed by the timer thread, read by the thread that gets 
+        // the response
+        private volatile int resends;
+        // true if it replaced an entry that was still waiting, set before 
+        // it is put in the map
+        private boolean replaced;
 
-        public Expected(Type type, LFXDeviceID device, long timeoutAfter, LFXSocketMessage message) {
-            this.type = type;
-            this.device = device;
+        public Expected(Key key, LFXMessage request, long timeoutAfter, LFXSocketMessage message) {
+            this.key = key;
+            this.request = request;
             this.timeoutAfterTimestamp = timeoutAfter;
             this.originalSocketMessage = message;
         }
@@ -238,10 +403,14 @@ public class LFXResponseTracker {
             return Long.compare(timeoutAfterTimestamp, other.timeoutAfterTimestamp);
         }
         
-        public boolean isTimedOut() {
-            return System.currentTimeMillis() > timeoutAfterTimestamp;
+        public boolean isTimedOut(long now) {
+            return now > timeoutAfterTimestamp;
         }
         
+        /**
+         * Only called by the timer thread while the entry is out of the 
+         * deadline queue.
+         */
         public void reschedule(long newTimeout) {
             this.timeoutAfterTimestamp = newTimeout;
         }
@@ -251,25 +420,12 @@ public class LFXResponseTracker {
         }      
         
         public LFXDeviceID getDeviceID() {
-            return device;
-        }
-        
-        public boolean isResponse(LFXMessage message) {
-            if(message.getType().equals(type)) {
-                LFXBinaryTargetID target = message.getPath().getBinaryTargetID();
-                if(target.geTargetType() == LFXBinaryTargetType.DEVICE) {
-                    if(this.device.equals(target.getDeviceID())) {
-                        return true;
-                    } 
-                }
-            }
-            
-            return false;
+            return key.device;
         }
 
         @Override
         public String toString() {
-            return String.format("%s %s", type, device.getStringRepresentation());
+            return String.format("%s %s", key.type, key.device.getStringRepresentation());
         }
     }
 }
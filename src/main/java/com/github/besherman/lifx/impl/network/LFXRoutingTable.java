@@ -24,6 +24,7 @@
 package com.github.besherman.lifx.impl.network;
 
 import com.github.besherman.lifx.impl.entities.internal.LFXTagID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
 import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetType;
 import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
@@ -33,24 +34,104 @@ import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
 import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Keeps track of the gateways and lights we know of and the site and tags 
+ * of each light.
+ * 
+ * The lights are also indexed by site, and each site has a bit set per tag 
+ * of the lights that have it. The indexes are updated as messages arrive, 
+ * so finding the lights a broadcast or tag message is for costs time in 
+ * proportion to the number of lights found, not to the number of lights 
+ * known. 
+ * 
+ * Gateways and lights that have not been heard from for a while are removed
+ * by a {@link LFXTimingWheel} each, so hearing from one costs a map lookup
+ * and removing the lost ones costs time in proportion to the ones that
+ * expire, not to the number known. The router's timer moves the wheels on,
+ * see {@link #removeLostEntries()}, so the lost ones are removed even when 
+ * nothing is received, and the {@link LFXRoutingTableListener}s are told 
+ * about what was removed once the change has been published.
+ * 
+ * The table is updated by the thread that handles received messages, and 
+ * read by every thread that sends messages. The updates are made to entries
+ * only the updating thread sees, and all the changes an update makes are
+ * then published together as a new immutable {@link Snapshot}. Reading 
+ * never takes a lock, it uses whatever snapshot was published last. Only 
+ * the parts of a site that changed are copied, see {@link SiteEntry}, only
+ * the gateways are copied when they change, and hearing from a light
+ * or gateway again does not change anything that is published. The site of
+ * a single light is looked up in a concurrent map that is updated when a 
+ * snapshot is published, copying a map of every light for each change would
+ * cost too much with many lights.
  *
  * @author Richard
  */
 public class LFXRoutingTable {
+    private static final long WHEEL_TICK = 1000;
+    private static final int WHEEL_SIZE = 64;
+    
     private final Map<LFXSiteID, GatewayEntry> gateways = new HashMap<>();
     private final Map<LFXDeviceID, LightEntry> lights = new HashMap<>();
+    private final Map<LFXSiteID, SiteEntry> sites = new HashMap<>();
+    
+    private final long lightTimeout;
+    private final LFXTimingWheel<LFXDeviceID> lightExpiry;
+    private final LFXTimingWheel<LFXSiteID> gatewayExpiry;
+    private final List<LFXRoutingTableListener> listeners;
+    
+    // what has changed since the last snapshot was published
+    private final Set<LFXSiteID> changedSites = new HashSet<>();
+    private final Set<LightEntry> changedLights = new HashSet<>();
+    private boolean gatewaysChanged = false;
+    
+    // the published lights, by device
+    private final ConcurrentHashMap<LFXDeviceID, LightEntry> publishedLights = new ConcurrentHashMap<>();
+    
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<LFXSiteID, SiteSnapshot>emptyMap(), 
+            Collections.<LFXSiteID, Gateway>emptyMap(), Collections.<InetSocketAddress, Gateway>emptyMap());
 
     public LFXRoutingTable() {
+        this(LFXConstants.getLightTimeout(), LFXConstants.getGatewayTimeout(), 
+                Collections.<LFXRoutingTableListener>emptyList());
+    }
+    
+    /**
+     * @param lightTimeout   how long, in milliseconds, until a light we 
+     *                       have not heard from is removed
+     * @param gatewayTimeout how long, in milliseconds, until a gateway we 
+     *                       have not heard from is removed
+     * @param listeners      told about the removed lights and gateways, the
+     *                       list is read each time something is removed
+     */
+    public LFXRoutingTable(long lightTimeout, long gatewayTimeout, List<LFXRoutingTableListener> listeners) {
+        long now = System.currentTimeMillis();
+        this.lightTimeout = lightTimeout;
+        this.lightExpiry = new LFXTimingWheel<>(lightTimeout, WHEEL_TICK, WHEEL_SIZE, now);
+        this.gatewayExpiry = new LFXTimingWheel<>(gatewayTimeout, WHEEL_TICK, WHEEL_SIZE, now);
+        this.listeners = listeners;
+    }
+    
+    /**
+     * Returns the version of the routing information, it changes each time
+     * a change is published. Whatever is computed from the table can be 
+     * kept until the version changes.
+     */
+    public long getVersion() {
+        return snapshot.version;
     }
     
     // 
@@ -60,27 +141,17 @@ public class LFXRoutingTable {
     /**
      * Returns all lights at the given site.
      */
-    public synchronized Set<LFXDeviceID> getLightsAtSite(LFXSiteID siteID) {
-        Set<LFXDeviceID> result = new HashSet<>();
-        for(LightEntry light: lights.values()) {
-            if(light.isSite(siteID)) {
-                result.add(light.getDevice());
-            }
-        }
-        return result;
+    public Set<LFXDeviceID> getLightsAtSite(LFXSiteID siteID) {
+        SiteSnapshot site = snapshot.sites.get(siteID);
+        return site != null ? site.getLights() : new HashSet<LFXDeviceID>();
     }
 
     /**
      * Return all lights at the site that has one or more of the given tags.
      */
-    public synchronized Set<LFXDeviceID> getLightsAtSiteWithTags(LFXSiteID siteID, Set<LFXTagID> groupTagField) {
-        Set<LFXDeviceID> result = new HashSet<>();
-        for(LightEntry light: lights.values()) {
-            if(light.isSite(siteID) && light.hasTags(groupTagField)) {
-                result.add(light.getDevice());
-            }
-        }
-        return result;
+    public Set<LFXDeviceID> getLightsAtSiteWithTags(LFXSiteID siteID, LFXTagMask tags) {
+        SiteSnapshot site = snapshot.sites.get(siteID);
+        return site != null ? site.getLightsWithTags(tags) : new HashSet<LFXDeviceID>();
     }
     
     
@@ -93,32 +164,29 @@ public class LFXRoutingTable {
     /**
      * Returns all sites we know of.
      */
-    public synchronized Set<LFXSiteID> getAllSites() {
-        return new HashSet<>(gateways.keySet());
+    public Set<LFXSiteID> getAllSites() {
+        return snapshot.gateways.keySet();
     }
 
     /**
      * Returns the light's site id.
      */
-    public synchronized LFXSiteID getLightsSiteID(LFXDeviceID deviceID) {
-        LightEntry entry = lights.get(deviceID);
-        if(entry != null) {
-            return entry.getSite();
-        }
-        return null;
+    public LFXSiteID getLightsSiteID(LFXDeviceID deviceID) {
+        LightEntry entry = publishedLights.get(deviceID);
+        return entry != null ? entry.publishedSite : null;
     }
 
     /**
      * Returns all sites that has a light with the given tag.
      */
-    public synchronized Set<LFXSiteID> getSiteIDsWhereLightHasTag(LFXTagID tag) {
-        Set<LFXSiteID> sites = new HashSet<>();
-        for(LightEntry entry: lights.values()) {
-            if(entry.hasTag(tag)) {
-                sites.add(entry.getSite());
+    public Set<LFXSiteID> getSiteIDsWhereLightHasTag(LFXTagID tag) {
+        Set<LFXSiteID> result = new HashSet<>();
+        for(SiteSnapshot site: snapshot.sites.values()) {
+            if(site.hasTag(tag)) {
+                result.add(site.site);
             }
         }
-        return sites;
+        return result;
     }
     
     
@@ -130,29 +198,45 @@ public class LFXRoutingTable {
     /**
      * Returns the addresses to all gateways we know of.
      */
-    public synchronized Collection<InetSocketAddress> getAllSiteAddresses() {
-        Set<InetSocketAddress> addresses = new HashSet<>();
-        for(GatewayEntry gw: gateways.values()) {
-            addresses.add(gw.getAddress());
-        }            
-        return addresses;        
+    public Collection<InetSocketAddress> getAllSiteAddresses() {
+        return snapshot.byAddress.keySet();
     }
     
     /**
      * Returns the address of the given site.
      */
-    public synchronized InetSocketAddress getAddressForSiteID(LFXSiteID siteID) {
-        GatewayEntry entry = gateways.get(siteID);        
-        return entry != null ? entry.getAddress() : null;
+    public InetSocketAddress getAddressForSiteID(LFXSiteID siteID) {
+        Gateway gateway = snapshot.gateways.get(siteID);        
+        return gateway != null ? gateway.address : null;
     } 
     
+    /**
+     * Returns the network interface the gateway with the given address was 
+     * found on, or null if it is not known.
+     */
+    public LFXNetworkInterface getInterfaceForAddress(InetSocketAddress address) {
+        Gateway gateway = snapshot.byAddress.get(address);
+        return gateway != null ? gateway.networkInterface : null;
+    }
+    
+    
+    /**
+     * Returns the address of the TCP service of the gateway with the given 
+     * address, or null if it has none.
+     */
+    public InetSocketAddress getStreamAddressForAddress(InetSocketAddress address) {
+        Gateway gateway = snapshot.byAddress.get(address);
+        return gateway != null ? gateway.streamAddress : null;
+    }
+    
     
     //
     //
     //
     
-    public synchronized boolean isLightStillAlive(LFXDeviceID deviceID) {
-        return lights.containsKey(deviceID);
+    public boolean isLightStillAlive(LFXDeviceID deviceID) {
+        LightEntry entry = publishedLights.get(deviceID);
+        return entry != null && System.currentTimeMillis() - entry.lastSeen <= lightTimeout;
     }
 
     
@@ -162,9 +246,16 @@ public class LFXRoutingTable {
      * This is its distinct from updateTable() because the caller wants to know
      * if a new gateway was found so that it can ask it for new lights.
      * 
+     * @param iface the network interface the message came from, can be null
      * @return the site id if a new gateway was found
      */
-    public synchronized LFXSiteID updateTableWithPAN(LFXMessage message) {
+    public synchronized LFXSiteID updateTableWithPAN(LFXMessage message, LFXNetworkInterface iface) {
+        LFXSiteID newGatewayDiscovered = updateGateways(message, iface, System.currentTimeMillis());
+        publish();
+        return newGatewayDiscovered;
+    }
+    
+    private LFXSiteID updateGateways(LFXMessage message, LFXNetworkInterface iface, long now) {
         LFXSiteID newGatewayDiscovered = null;
         LFXBinaryPath path = message.getPath();
         
@@ -176,23 +267,32 @@ public class LFXRoutingTable {
             LFXSiteID site = path.getSiteID();
             LxProtocolDevice.Service service = LxProtocolDevice.serviceMap.get(statePanGatewayPayload.getService().getValue());
 
+            GatewayEntry gateway = gateways.get(site);
             if (service == LxProtocolDevice.Service.LX_PROTOCOL_DEVICE_SERVICE_TCP) {
-                // TODO: can this happen?
+                // the gateway tells us about each service in a message of 
+                // its own, if the TCP service comes before the UDP service 
+                // it is picked up by the next discovery
+                if(gateway != null) {
+                    InetSocketAddress streamAddress = new InetSocketAddress(host, port);
+                    if(!streamAddress.equals(gateway.getStreamAddress())) {
+                        gateway.setStreamAddress(streamAddress);
+                        gatewaysChanged = true;
+                    }
+                }
                 return null;
             }
 
-            GatewayEntry gateway = gateways.get(site);
             if(gateway == null) {   
                 Logger.getLogger(LFXRoutingTable.class.getName()).log(Level.FINE, "Found new gateway: {0}", site);
-                gateway = new GatewayEntry(new InetSocketAddress(host, port), site);
+                gateway = new GatewayEntry(new InetSocketAddress(host, port), iface, site);
                 gateways.put(site, gateway);
                 newGatewayDiscovered = site;
-            } else {
-                gateway.refresh(new InetSocketAddress(host, port));
+                gatewaysChanged = true;
+            } else if(gateway.refresh(new InetSocketAddress(host, port), iface)) {
+                gatewaysChanged = true;
             }        
+            gatewayExpiry.touch(site, now);
         }
-
-        removeStaleGateways();
      
         return newGatewayDiscovered;
     }
@@ -201,6 +301,29 @@ public class LFXRoutingTable {
      * Updates the routing table from information in the message.
      */
     public synchronized LFXDeviceID updateTableWithLight(LFXMessage message) {
+        LFXDeviceID newLightDiscovered = updateLights(message, System.currentTimeMillis());
+        publish();
+        return newLightDiscovered;
+    }
+    
+    /**
+     * Removes the gateways and lights that we haven't heard from for a 
+     * while and tells the listeners about them. Called periodically by the
+     * router's timer.
+     */
+    public void removeLostEntries() {
+        List<LFXSiteID> lostGateways;
+        List<LFXDeviceID> lostLights;
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            lostGateways = expireGateways(now);
+            lostLights = expireLights(now);
+            publish();
+        }
+        fireLost(lostGateways, lostLights);
+    }
+    
+    private LFXDeviceID updateLights(LFXMessage message, long now) {
         LFXDeviceID newLightDiscovered = null;
         LFXBinaryPath path = message.getPath();
         
@@ -215,16 +338,24 @@ public class LFXRoutingTable {
                 lights.put(device, entry);
                 newLightDiscovered = device;
             }            
-            entry.refresh(site);
+            if(entry.siteEntry == null || !entry.isSite(site)) {
+                moveLight(entry, site);
+            }
+            entry.refresh(site, now);
+            lightExpiry.touch(device, now);
         }
         
         if(message.getType() == LxProtocol.Type.LX_PROTOCOL_DEVICE_STATE_TAGS) {
             LxProtocolDevice.StateTags payload = message.getPayload();            
             LFXDeviceID device = path.getBinaryTargetID().getDeviceID();
-            Set<LFXTagID> tags = LFXTagID.unpack(payload.getTags());
+            LFXTagMask tags = LFXTagMask.valueOf(payload.getTags());
                         
             LightEntry entry = lights.get(device);
-            if(entry != null) {
+            if(entry != null && !tags.equals(entry.tags)) {
+                if(entry.siteEntry != null) {
+                    entry.siteEntry.updateTags(entry, tags);
+                    changedSites.add(entry.siteEntry.getSiteID());
+                }
                 entry.setTags(tags);
             } else {
                 // If we get tags information before we have discovered the 
@@ -232,46 +363,148 @@ public class LFXRoutingTable {
             }
         }
         
-        removeStaleGateways();
-        removeStaleLights();      
-        
         return newLightDiscovered;
     }
     
     /**
-     * Removed gateways that we haven't seen for a while.
+     * Publishes a new snapshot if anything has changed since the last one.
+     * Only the sites that changed get a new snapshot.
      */
-    private void removeStaleGateways() {
-        Iterator<LFXSiteID> it = gateways.keySet().iterator();
-        while(it.hasNext()) {
-            LFXSiteID site = it.next();
-            GatewayEntry gateway = gateways.get(site);
-            if(gateway.isLost()) {
-                it.remove();
+    private void publish() {
+        if(changedSites.isEmpty() && changedLights.isEmpty() && !gatewaysChanged) {
+            return;
+        }
+        Snapshot last = snapshot;
+        
+        for(LightEntry entry: changedLights) {
+            if(entry.siteEntry != null) {
+                entry.publishedSite = entry.siteEntry.getSiteID();
+                publishedLights.put(entry.getDevice(), entry);
+            } else {
+                publishedLights.remove(entry.getDevice(), entry);
+            }
+        }
+        changedLights.clear();
+        
+        Map<LFXSiteID, SiteSnapshot> siteSnapshots = last.sites;
+        if(!changedSites.isEmpty()) {
+            siteSnapshots = new HashMap<>(last.sites);
+            for(LFXSiteID siteID: changedSites) {
+                SiteEntry site = sites.get(siteID);
+                if(site != null) {
+                    siteSnapshots.put(siteID, site.snapshot());
+                } else {
+                    siteSnapshots.remove(siteID);
+                }
+            }
+            changedSites.clear();
+        }
+        
+        Map<LFXSiteID, Gateway> gatewaySnapshots = last.gateways;
+        Map<InetSocketAddress, Gateway> byAddress = last.byAddress;
+        if(gatewaysChanged) {
+            gatewaySnapshots = new HashMap<>();
+            byAddress = new HashMap<>();
+            for(GatewayEntry entry: gateways.values()) {
+                Gateway gateway = new Gateway(entry);
+                gatewaySnapshots.put(entry.getSiteID(), gateway);
+                byAddress.put(gateway.address, gateway);
+            }
+            // the key sets are handed out to callers
+            gatewaySnapshots = Collections.unmodifiableMap(gatewaySnapshots);
+            byAddress = Collections.unmodifiableMap(byAddress);
+            gatewaysChanged = false;
+        }
+        
+        snapshot = new Snapshot(last.version + 1, siteSnapshots, gatewaySnapshots, byAddress);
+    }
+    
+    /**
+     * Moves the light from the index of its current site, if any, to the
+     * index of the site.
+     */
+    private void moveLight(LightEntry entry, LFXSiteID siteID) {
+        removeFromSite(entry);
+        SiteEntry site = sites.get(siteID);
+        if(site == null) {
+            site = new SiteEntry(siteID);
+            sites.put(siteID, site);
+        }
+        site.add(entry);
+        changedSites.add(siteID);
+        changedLights.add(entry);
+    }
+    
+    private void removeFromSite(LightEntry entry) {
+        SiteEntry site = entry.siteEntry;
+        if(site != null) {
+            site.remove(entry);
+            changedSites.add(site.getSiteID());
+            changedLights.add(entry);
+            if(site.isEmpty()) {
+                sites.remove(site.getSiteID());
             }
         }
     }
     
     /**
-     * Removes lights we haven't heard from in a while. Returns the lost lights.
+     * Removes the gateways that we haven't heard from for a while and 
+     * returns them.
+     */
+    private List<LFXSiteID> expireGateways(long now) {
+        List<LFXSiteID> lost = gatewayExpiry.expire(now);
+        for(LFXSiteID site: lost) {
+            Logger.getLogger(LFXRoutingTable.class.getName()).log(Level.FINE, "Lost gateway: {0}", site);
+            gateways.remove(site);
+            gatewaysChanged = true;
+        }
+        return lost;
+    }
+    
+    /**
+     * Removes the lights that we haven't heard from for a while and returns
+     * them.
      */
-    private void removeStaleLights() {
-        Iterator<LFXDeviceID> it = lights.keySet().iterator();
-        while(it.hasNext()) {
-            LFXDeviceID id = it.next();
-            LightEntry entry = lights.get(id);
-            if(entry.isLost()) {
-                it.remove();
+    private List<LFXDeviceID> expireLights(long now) {
+        List<LFXDeviceID> lost = lightExpiry.expire(now);
+        for(LFXDeviceID device: lost) {
+            Logger.getLogger(LFXRoutingTable.class.getName()).log(Level.FINE, "Lost light: {0}", device);
+            removeFromSite(lights.remove(device));
+        }
+        return lost;
+    }
+    
+    /**
+     * Tells the listeners about the removed gateways and lights, called 
+     * after the removal has been published and without holding the lock.
+     */
+    private void fireLost(List<LFXSiteID> lostGateways, List<LFXDeviceID> lostLights) {
+        if(lostGateways.isEmpty() && lostLights.isEmpty()) {
+            return;
+        }
+        for(LFXRoutingTableListener l: listeners) {
+            for(LFXSiteID site: lostGateways) {
+                l.gatewayLost(site);
             }
-        }        
+            for(LFXDeviceID device: lostLights) {
+                l.lightLost(device);
+            }
+        }
     }
 
     
     private static class LightEntry {
         private final LFXDeviceID device;
         private LFXSiteID site;
-        private long lastSeen = System.currentTimeMillis();
-        private Set<LFXTagID> tags = new HashSet<>();
+        // read by isLightStillAlive() without a lock
+        private volatile long lastSeen = System.currentTimeMillis();
+        // the site in the last published snapshot
+        private volatile LFXSiteID publishedSite;
+        private LFXTagMask tags = LFXTagMask.NONE;
+        
+        // the index of the site the light is in and the light's slot in it
+        private SiteEntry siteEntry;
+        private int slot = -1;
 
         public LightEntry(LFXDeviceID device) {
             this.device = device;
@@ -287,81 +520,346 @@ public class LFXRoutingTable {
         }
         
         
-        public void refresh(LFXSiteID site) {
+        public void refresh(LFXSiteID site, long now) {
             this.site = site;
-            this.lastSeen = System.currentTimeMillis();
+            this.lastSeen = now;
+        }
+
+        private void setTags(LFXTagMask tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public String toString() {
+            return "LightEntry{" + "device=" + device + ", site=" + site + ", lastSeen=" + lastSeen + ", tags=" + tags + '}';
         }
         
-        public boolean isLost() {
-            // TODO: configure this
-            return (System.currentTimeMillis() - lastSeen) > 35 * 1000;
-        }        
+        
+    } 
+    
+    /**
+     * The lights at a site. Each light has a slot, the bit sets are indexed
+     * by slot and the slots of removed lights are reused.
+     * 
+     * The slots are kept in chunks of 64 and the bit sets as arrays of 
+     * words, and a snapshot shares them instead of copying them. Whatever 
+     * has been handed to a snapshot is copied before it is changed, so an
+     * update copies the chunk and the words it changes, and the arrays that
+     * refer to them, but never the whole site. Changing the same chunk 
+     * again before the next snapshot changes the copy in place.
+     */
+    private static class SiteEntry {
+        private static final int CHUNK_BITS = 6;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        
+        private final LFXSiteID site;
+        private int count = 0;
+        
+        // the slots in chunks of CHUNK_SIZE, and one bit per slot in use
+        private LightEntry[][] slots = new LightEntry[0][];
+        private long[] used = new long[0];
+        
+        // the words of each tag, indexed by tag, null if no light has the 
+        // tag, and the number of lights with each tag
+        private long[][] tagged = new long[64][];
+        private final int[] tagCounts = new int[64];
+        
+        // what has been copied since the last snapshot and can be changed 
+        // in place
+        private boolean slotsOwned = true;
+        private final BitSet ownedChunks = new BitSet();
+        private boolean usedOwned = true;
+        private boolean taggedOwned = true;
+        private long ownedTags = 0;
+        
+        public SiteEntry(LFXSiteID site) {
+            this.site = site;
+        }
 
-        private boolean hasTags(Set<LFXTagID> groupTagField) {
-            for(LFXTagID tag: groupTagField) {
-                if(tags.contains(tag)) {
-                    return true;
+        public LFXSiteID getSiteID() {
+            return site;
+        }
+        
+        public boolean isEmpty() {
+            return count == 0;
+        }
+        
+        public void add(LightEntry entry) {
+            int slot = nextFreeSlot();
+            setSlot(slot, entry);
+            setUsed(slot, true);
+            count++;
+            entry.siteEntry = this;
+            entry.slot = slot;
+            setTags(slot, entry.tags.toLong(), true);
+        }
+        
+        public void remove(LightEntry entry) {
+            setTags(entry.slot, entry.tags.toLong(), false);
+            setUsed(entry.slot, false);
+            setSlot(entry.slot, null);
+            count--;
+            entry.siteEntry = null;
+            entry.slot = -1;
+        }
+        
+        /**
+         * Updates the tag index, must be called before the tags of the 
+         * light are changed.
+         */
+        public void updateTags(LightEntry entry, LFXTagMask tags) {
+            long before = entry.tags.toLong();
+            long after = tags.toLong();
+            setTags(entry.slot, before & ~after, false);
+            setTags(entry.slot, after & ~before, true);
+        }
+        
+        private int nextFreeSlot() {
+            for(int word = 0; word < used.length; word++) {
+                if(used[word] != -1L) {
+                    return (word << CHUNK_BITS) + Long.numberOfTrailingZeros(~used[word]);
                 }
             }
-            return false;
+            return used.length << CHUNK_BITS;
         }
-
-        private LFXSiteID getSite() {
-            return site;
+        
+        private void setSlot(int slot, LightEntry entry) {
+            int chunk = slot >>> CHUNK_BITS;
+            if(chunk >= slots.length) {
+                slots = Arrays.copyOf(slots, chunk + 1);
+                slotsOwned = true;
+            } else if(!slotsOwned) {
+                slots = slots.clone();
+                slotsOwned = true;
+            }
+            if(slots[chunk] == null) {
+                slots[chunk] = new LightEntry[CHUNK_SIZE];
+                ownedChunks.set(chunk);
+            } else if(!ownedChunks.get(chunk)) {
+                slots[chunk] = slots[chunk].clone();
+                ownedChunks.set(chunk);
+            }
+            slots[chunk][slot & (CHUNK_SIZE - 1)] = entry;
         }
-
-        private boolean hasTag(LFXTagID tag) {
-            return tags.contains(tag);
-        }     
-
-        private void setTags(Set<LFXTagID> tags) {
-            this.tags = tags;
+        
+        private void setUsed(int slot, boolean value) {
+            int word = slot >>> CHUNK_BITS;
+            if(word >= used.length) {
+                used = Arrays.copyOf(used, word + 1);
+                usedOwned = true;
+            } else if(!usedOwned) {
+                used = used.clone();
+                usedOwned = true;
+            }
+            used[word] = setBit(used[word], slot, value);
         }
-
+        
+        private void setTags(int slot, long tags, boolean value) {
+            int word = slot >>> CHUNK_BITS;
+            while(tags != 0) {
+                int tag = Long.numberOfTrailingZeros(tags);
+                tags &= tags - 1;
+                if(tagged[tag] == null && !value) {
+                    continue;
+                }
+                if(!taggedOwned) {
+                    tagged = tagged.clone();
+                    taggedOwned = true;
+                }
+                
+                long[] words = tagged[tag];
+                if(words == null) {
+                    words = new long[word + 1];
+                } else if(word >= words.length) {
+                    words = Arrays.copyOf(words, word + 1);
+                } else if((ownedTags & (1L << tag)) == 0) {
+                    words = words.clone();
+                }
+                ownedTags |= 1L << tag;
+                tagged[tag] = words;
+                
+                words[word] = setBit(words[word], slot, value);
+                tagCounts[tag] += value ? 1 : -1;
+                if(tagCounts[tag] == 0) {
+                    tagged[tag] = null;
+                }
+            }
+        }
+        
+        private static long setBit(long word, int slot, boolean value) {
+            long bit = 1L << slot;
+            return value ? word | bit : word & ~bit;
+        }
+        
+        /**
+         * Returns an immutable view of the site. The view shares everything
+         * with the entry, which copies what it changes from then on.
+         */
+        public SiteSnapshot snapshot() {
+            slotsOwned = false;
+            ownedChunks.clear();
+            usedOwned = false;
+            taggedOwned = false;
+            ownedTags = 0;
+            return new SiteSnapshot(site, slots, used, tagged);
+        }
+        
         @Override
         public String toString() {
-            return "LightEntry{" + "device=" + device + ", site=" + site + ", lastSeen=" + lastSeen + ", tags=" + tags + '}';
+            return "SiteEntry{" + "site=" + site + ", lights=" + count + '}';
+        }
+    }
+    
+    /**
+     * An immutable view of a {@link SiteEntry}, the arrays are never changed
+     * once the snapshot is published.
+     */
+    private static class SiteSnapshot {
+        private final LFXSiteID site;
+        private final LightEntry[][] slots;
+        private final long[] used;
+        private final long[][] tagged;
+
+        public SiteSnapshot(LFXSiteID site, LightEntry[][] slots, long[] used, long[][] tagged) {
+            this.site = site;
+            this.slots = slots;
+            this.used = used;
+            this.tagged = tagged;
         }
         
+        public boolean hasTag(LFXTagID tag) {
+            return tagged[tag.ordinal()] != null;
+        }
         
-    } 
+        public Set<LFXDeviceID> getLights() {
+            return collect(used);
+        }
+        
+        public Set<LFXDeviceID> getLightsWithTags(LFXTagMask tags) {
+            long remaining = tags.toLong();
+            long[] found = null;
+            while(remaining != 0) {
+                int tag = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                long[] words = tagged[tag];
+                if(words == null) {
+                    continue;
+                }
+                if(found == null) {
+                    found = words.clone();
+                } else {
+                    if(words.length > found.length) {
+                        found = Arrays.copyOf(found, words.length);
+                    }
+                    for(int i = 0; i < words.length; i++) {
+                        found[i] |= words[i];
+                    }
+                }
+            }
+            return found != null ? collect(found) : new HashSet<LFXDeviceID>();
+        }
+        
+        private Set<LFXDeviceID> collect(long[] found) {
+            int cardinality = 0;
+            for(long word: found) {
+                cardinality += Long.bitCount(word);
+            }
+            Set<LFXDeviceID> result = new HashSet<>(cardinality * 4 / 3 + 1);
+            for(int i = 0; i < found.length; i++) {
+                long word = found[i];
+                while(word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    result.add(slots[i][bit].getDevice());
+                }
+            }
+            return result;
+        }
+    }
     
     private static class GatewayEntry {        
         private final LFXSiteID site;
         
         private InetSocketAddress address;
-        private long lastSeen = System.currentTimeMillis();
+        private InetSocketAddress streamAddress;
+        private LFXNetworkInterface networkInterface;
 
-        public GatewayEntry(InetSocketAddress address, LFXSiteID site) {
+        public GatewayEntry(InetSocketAddress address, LFXNetworkInterface networkInterface, LFXSiteID site) {
             this.address = address;
+            this.networkInterface = networkInterface;
             this.site = site;
         }
         
-        public void refresh(InetSocketAddress address) {
+        /**
+         * Returns true if the address or the network interface changed.
+         */
+        public boolean refresh(InetSocketAddress address, LFXNetworkInterface networkInterface) {
+            boolean changed = !address.equals(this.address) || !Objects.equals(networkInterface, this.networkInterface);
             this.address = address;
-            lastSeen = System.currentTimeMillis();
-        }
-        
-        public boolean isLost() {
-            // TODO: configure this
-            return (System.currentTimeMillis() - lastSeen) > 20 * 1000;
+            this.networkInterface = networkInterface;
+            return changed;
         }
 
         public InetSocketAddress getAddress() {
             return address;
         }
 
+        public LFXNetworkInterface getNetworkInterface() {
+            return networkInterface;
+        }
+
+        public InetSocketAddress getStreamAddress() {
+            return streamAddress;
+        }
+
+        public void setStreamAddress(InetSocketAddress streamAddress) {
+            this.streamAddress = streamAddress;
+        }
+
         public LFXSiteID getSiteID() {
             return site;
         }
 
         @Override
         public String toString() {
-            return "GatewayEntry{" + "site=" + site + ", address=" + address + ", lastSeen=" + lastSeen + '}';
+            return "GatewayEntry{" + "site=" + site + ", address=" + address + ", streamAddress=" + streamAddress + ", networkInterface=" + networkInterface + '}';
         }
         
         
 
     }
     
+    /**
+     * An immutable copy of a {@link GatewayEntry}.
+     */
+    private static class Gateway {
+        private final InetSocketAddress address;
+        private final InetSocketAddress streamAddress;
+        private final LFXNetworkInterface networkInterface;
+
+        public Gateway(GatewayEntry entry) {
+            this.address = entry.getAddress();
+            this.streamAddress = entry.getStreamAddress();
+            this.networkInterface = entry.getNetworkInterface();
+        }
+    }
+    
+    /**
+     * The routing information as it was when it was published. Nothing in a
+     * snapshot is changed once it has been published.
+     */
+    private static class Snapshot {
+        private final long version;
+        private final Map<LFXSiteID, SiteSnapshot> sites;
+        private final Map<LFXSiteID, Gateway> gateways;
+        private final Map<InetSocketAddress, Gateway> byAddress;
+
+        public Snapshot(long version, Map<LFXSiteID, SiteSnapshot> sites, Map<LFXSiteID, Gateway> gateways, 
+                Map<InetSocketAddress, Gateway> byAddress) {
+            this.version = version;
+            this.sites = sites;
+            this.gateways = gateways;
+            this.byAddress = byAddress;
+        }
+    }
 }
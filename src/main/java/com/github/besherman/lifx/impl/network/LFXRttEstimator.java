@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the round trip time to a light from how long it takes to get 
+ * the response to a request, and from that how long to wait before the 
+ * request is sent again. It works like the retransmission timer of TCP 
+ * (Jacobson/Karels): each sample moves the smoothed round trip time 1/8 
+ * and the mean deviation 1/4 of the way towards it, and the timeout is the
+ * smoothed round trip time plus four times the deviation.
+ * 
+ * So a light behind a wired gateway that answers in a few milliseconds gets
+ * a short timeout, and one that is reached through the mesh, or that is far
+ * from the access point, gets a long one.
+ * 
+ * This class is thread safe.
+ */
+public class LFXRttEstimator {
+    private final long initialTimeout;
+    private final long minTimeout;
+    private final long maxTimeout;
+    
+    // in nanoseconds
+    private long smoothed;
+    private long deviation;
+    private int samples;
+
+    /**
+     * @param initialTimeout the timeout until there is a sample
+     * @param minTimeout     the shortest timeout, should not be shorter than
+     *                       how often the timeouts are checked
+     * @param maxTimeout     the longest timeout
+     */
+    public LFXRttEstimator(long initialTimeout, long minTimeout, long maxTimeout, TimeUnit unit) {
+        this.initialTimeout = unit.toNanos(initialTimeout);
+        this.minTimeout = unit.toNanos(minTimeout);
+        this.maxTimeout = unit.toNanos(maxTimeout);
+    }
+    
+    /**
+     * Adds the time from when a request was sent until its response was 
+     * received. Requests that have been sent more than once must not be
+     * sampled, there is no way to know which of them was answered.
+     */
+    public synchronized void addSample(long rtt, TimeUnit unit) {
+        long sample = unit.toNanos(rtt);
+        if(samples == 0) {
+            smoothed = sample;
+            deviation = sample / 2;
+        } else {
+            deviation += (Math.abs(smoothed - sample) - deviation) >> 2;
+            smoothed += (sample - smoothed) >> 3;
+        }
+        samples++;
+    }
+    
+    /**
+     * Returns how long to wait for a response before the request is sent
+     * again.
+     */
+    public synchronized long getTimeout(TimeUnit unit) {
+        long timeout = samples == 0 ? initialTimeout : smoothed + 4 * deviation;
+        timeout = Math.max(minTimeout, Math.min(maxTimeout, timeout));
+        return unit.convert(timeout, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Returns the smoothed round trip time, 0 if there are no samples.
+     */
+    public synchronized long getSmoothedRoundTripTime(TimeUnit unit) {
+        return unit.convert(smoothed, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Returns the mean deviation of the round trip time, 0 if there are no 
+     * samples.
+     */
+    public synchronized long getRoundTripTimeDeviation(TimeUnit unit) {
+        return unit.convert(deviation, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of round trip times that have been sampled.
+     */
+    public synchronized int getSampleCount() {
+        return samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LFXRttEstimator{" + "smoothed=" + TimeUnit.NANOSECONDS.toMicros(smoothed) 
+                + "us, deviation=" + TimeUnit.NANOSECONDS.toMicros(deviation) 
+                + "us, timeout=" + getTimeout(TimeUnit.MILLISECONDS) + "ms, samples=" + samples + '}';
+    }
+}
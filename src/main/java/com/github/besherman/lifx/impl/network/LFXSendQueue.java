@@ -0,0 +1,516 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The queue of messages waiting to be sent to the network. 
+ * 
+ * There is one lane per destination address (that is, per gateway and one for
+ * the broadcast address). Each lane is paced by its own token bucket, so a 
+ * busy gateway does not hold back the others. Within a lane messages are 
+ * ordered by priority and then by age. When several lanes are ready the 
+ * message with the highest priority is taken.
+ * 
+ * Messages that set state (color, power and so on) are coalesced. If a new
+ * message has the same coalesce key as a message that is still waiting in the
+ * lane, the waiting message gets the new data and keeps its place. This way 
+ * a stream of color changes to a light never builds up a backlog of stale 
+ * frames. The copies made by a single send, see 
+ * {@link LFXMessageRouter#sendMessage(com.github.besherman.lifx.impl.entities.internal.LFXMessage, int)},
+ * are deliberate resends, so each gets a place of its own. The copies of a
+ * later send replace the messages of those waiting copies instead, so a 
+ * key never has more messages waiting than the send with the most copies.
+ * 
+ * The queue is bounded. When it is full the configured 
+ * {@link LFXSendQueuePolicy} decides if the caller waits or if a message is 
+ * dropped. Listeners are told when the queue reaches the high watermark and
+ * when it has drained to the low watermark again.
+ */
+public class LFXSendQueue {
+    private static final int NO_EVENT = 0;
+    private static final int HIGH_WATERMARK_EVENT = 1;
+    private static final int LOW_WATERMARK_EVENT = 2;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<InetSocketAddress, Lane> lanes = new HashMap<>();
+    private final double laneRate;
+    private final int laneBurst;
+    private final int capacity;
+    private final LFXSendQueuePolicy policy;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final LFXNetworkStatistics statistics;
+    private final List<LFXSendQueueListener> listeners;
+    private int size = 0;
+    private boolean aboveHighWatermark = false;
+    private volatile Thread eventLoopThread;
+    private volatile Runnable eventLoopWakeup;
+    
+    /**
+     * @param statistics where the queue counters are kept
+     * @param listeners the listeners to inform when the watermarks are crossed,
+     *                  the list is read each time so it can be changed later
+     */
+    public LFXSendQueue(LFXNetworkStatistics statistics, List<LFXSendQueueListener> listeners) {
+        this.laneRate = LFXConstants.getSendLaneRate();
+        this.laneBurst = LFXConstants.getSendLaneBurst();
+        this.capacity = LFXConstants.getOutgoingQueueSize();
+        this.policy = LFXConstants.getOutgoingQueuePolicy();
+        this.highWatermark = LFXConstants.getOutgoingQueueHighWatermark();
+        this.lowWatermark = LFXConstants.getOutgoingQueueLowWatermark();
+        this.statistics = statistics;
+        this.listeners = listeners;
+    }
+    
+    /**
+     * Adds a message to the lane of its address, or replaces the message of a
+     * waiting message with the same coalesce key. If the queue is full 
+     * the {@link LFXSendQueuePolicy} decides what happens.
+     * 
+     * @return true if the message was added or coalesced, false if it was
+     *         dropped
+     * @throws IllegalStateException if the queue is full and the policy is
+     *         THROW
+     */
+    public boolean offer(LFXSocketMessage message) {
+        // the event loop is the only thread that empties the queue so it
+        // must never wait for room
+        if(policy == LFXSendQueuePolicy.BLOCK && Thread.currentThread() == eventLoopThread) {
+            return offer(message, LFXSendQueuePolicy.DROP_NEWEST);
+        }
+        return offer(message, policy);
+    }
+    
+    /**
+     * Like offer() but never waits or throws, if the queue is full the 
+     * message is dropped. Used for resends which are made with locks held
+     * and that will be retried anyway.
+     */
+    boolean tryOffer(LFXSocketMessage message) {
+        return offer(message, LFXSendQueuePolicy.DROP_NEWEST);
+    }
+    
+    private boolean offer(LFXSocketMessage message, LFXSendQueuePolicy policy) {
+        boolean added;
+        int event;
+        int currentSize;
+        lock.lock();
+        try {
+            added = add(message, policy);
+            event = checkWatermarks();
+            currentSize = size;
+        } finally {
+            lock.unlock();
+        }
+        fireWatermarkEvent(event, currentSize);
+        
+        Runnable wakeup = eventLoopWakeup;
+        if(added && wakeup != null && Thread.currentThread() != eventLoopThread) {
+            wakeup.run();
+        }
+        return added;
+    }
+    
+    private boolean add(LFXSocketMessage message, LFXSendQueuePolicy policy) {
+        if(message.isQueued()) {
+            // a resend of a message that has not been sent yet
+            return true;
+        }
+        
+        Object key = message.getCoalesceKey();
+        if(key != null) {
+            statistics.coalescable.incrementAndGet();
+        }
+        
+        while(true) {
+            Lane lane = lanes.get(message.getAddress());
+            if(lane == null) {
+                lane = new Lane(new LFXTokenBucket(laneRate, laneBurst));
+                lanes.put(message.getAddress(), lane);
+            }
+
+            Pending pending = key != null ? lane.pending.get(key) : null;
+            if(pending != null) {
+                if(!pending.isSameSend(message)) {
+                    pending.startSend(message);
+                }
+                if(pending.claimed < pending.copies.size()) {
+                    // the copies of the new send take over the waiting 
+                    // copies one by one
+                    LFXSocketMessage waiting = pending.copies.get(pending.claimed++);
+                    if(waiting.getMessage() != message.getMessage()) {
+                        waiting.replaceMessage(message.getMessage());
+                        statistics.replaced.incrementAndGet();
+                    }
+                    return true;
+                }
+            }
+
+            if(size < capacity) {
+                if(key != null) {
+                    if(pending == null) {
+                        pending = new Pending(message);
+                        lane.pending.put(key, pending);
+                    }
+                    pending.copies.add(message);
+                    pending.claimed++;
+                }
+                lane.queue.add(message);
+                message.setQueued(true);
+                size++;
+                changed.signalAll();
+                return true;
+            }
+            
+            switch(policy) {
+                case BLOCK:
+                    try {
+                        // the lane can be removed while waiting, so start over
+                        notFull.await();
+                    } catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        statistics.dropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    if(!removeOldestLowPriority()) {
+                        statistics.dropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    statistics.dropped.incrementAndGet();
+                    return false;
+                case THROW:
+                    statistics.dropped.incrementAndGet();
+                    throw new IllegalStateException("Outgoing queue is full");
+            }
+        }
+    }
+    
+    /**
+     * Removes the oldest low priority message from all lanes.
+     * @return false if there was no low priority message
+     */
+    private boolean removeOldestLowPriority() {
+        Lane oldestLane = null;
+        LFXSocketMessage oldest = null;
+        for(Lane lane: lanes.values()) {
+            for(LFXSocketMessage m: lane.queue) {
+                if(m.getPriority() >= LFXSocketMessage.LOW_PRIORITY 
+                        && (oldest == null || m.getTimestamp() < oldest.getTimestamp())) {
+                    oldest = m;
+                    oldestLane = lane;
+                }
+            }
+        }
+        
+        if(oldest == null) {
+            return false;
+        }
+        
+        oldestLane.queue.remove(oldest);
+        oldestLane.removePending(oldest);
+        oldest.setQueued(false);
+        size--;
+        statistics.dropped.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Takes the next message that is allowed to be sent. Waits until a lane
+     * has both a message and a token, or until the timeout has passed.
+     * 
+     * @return the message or null if the timeout passed
+     */
+    public LFXSocketMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        LFXSocketMessage message;
+        int event;
+        int currentSize;
+        lock.lockInterruptibly();
+        try {
+            message = take(unit.toNanos(timeout));
+            event = checkWatermarks();
+            currentSize = size;
+        } finally {
+            lock.unlock();
+        }
+        fireWatermarkEvent(event, currentSize);
+        return message;
+    }
+    
+    /**
+     * Takes the next message that is allowed to be sent without waiting.
+     * Used by the event loop.
+     * 
+     * @return the message or null if no lane has both a message and a token
+     */
+    LFXSocketMessage pollReady() {
+        LFXSocketMessage message;
+        int event;
+        int currentSize;
+        lock.lock();
+        try {
+            message = takeReady(System.nanoTime());
+            event = checkWatermarks();
+            currentSize = size;
+        } finally {
+            lock.unlock();
+        }
+        fireWatermarkEvent(event, currentSize);
+        return message;
+    }
+    
+    /**
+     * Returns how long it is until pollReady() can return a message, 0 if
+     * it can do so now and Long.MAX_VALUE if the queue is empty.
+     */
+    long nanosUntilReady() {
+        lock.lock();
+        try {
+            return nanosUntilReady(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Lets the event loop know when there is something new in the queue.
+     * 
+     * @param thread the event loop thread, it is never blocked by offer()
+     * @param wakeup called when a message is added by another thread
+     */
+    void setEventLoop(Thread thread, Runnable wakeup) {
+        this.eventLoopThread = thread;
+        this.eventLoopWakeup = wakeup;
+    }
+    
+    private LFXSocketMessage take(long remaining) throws InterruptedException {
+        while(true) {
+            long now = System.nanoTime();
+            LFXSocketMessage message = takeReady(now);
+            if(message != null) {
+                return message;
+            }
+
+            if(remaining <= 0) {
+                return null;
+            }
+
+            long waited = Math.min(nanosUntilReady(now), remaining);
+            remaining -= waited - changed.awaitNanos(waited);
+        }
+    }
+    
+    private LFXSocketMessage takeReady(long now) {
+        Lane best = null;
+        Iterator<Lane> it = lanes.values().iterator();
+        while(it.hasNext()) {
+            Lane lane = it.next();
+            if(lane.queue.isEmpty()) {
+                // a full bucket is the same as a new one, so there
+                // is no need to keep the lane around
+                if(lane.bucket.isFull(now)) {
+                    it.remove();
+                }
+                continue;
+            }
+
+            if(lane.bucket.nanosUntilAvailable(now) == 0) {
+                if(best == null || lane.queue.peek().compareTo(best.queue.peek()) < 0) {
+                    best = lane;
+                }
+            }
+        }
+
+        if(best == null) {
+            return null;
+        }
+        
+        best.bucket.tryTake(now);
+        size--;
+        LFXSocketMessage message = best.queue.poll();
+        best.removePending(message);
+        message.setQueued(false);
+        message.markSent(now);
+        notFull.signalAll();
+        return message;
+    }
+    
+    private long nanosUntilReady(long now) {
+        long wait = Long.MAX_VALUE;
+        for(Lane lane: lanes.values()) {
+            if(!lane.queue.isEmpty()) {
+                wait = Math.min(wait, lane.bucket.nanosUntilAvailable(now));
+            }
+        }
+        return wait;
+    }
+    
+    /**
+     * Must be called with the lock held. Returns the event to fire once the
+     * lock has been released.
+     */
+    private int checkWatermarks() {
+        if(!aboveHighWatermark && size >= highWatermark) {
+            aboveHighWatermark = true;
+            statistics.highWatermark.incrementAndGet();
+            return HIGH_WATERMARK_EVENT;
+        } else if(aboveHighWatermark && size <= lowWatermark) {
+            aboveHighWatermark = false;
+            return LOW_WATERMARK_EVENT;
+        }
+        return NO_EVENT;
+    }
+    
+    private void fireWatermarkEvent(int event, int currentSize) {
+        if(event == NO_EVENT) {
+            return;
+        }
+        for(LFXSendQueueListener l: listeners) {
+            try {
+                if(event == HIGH_WATERMARK_EVENT) {
+                    l.highWatermarkReached(currentSize);
+                } else {
+                    l.lowWatermarkReached(currentSize);
+                }
+            } catch(RuntimeException ex) {
+                Logger.getLogger(LFXSendQueue.class.getName()).log(Level.SEVERE, 
+                        "Send queue listener failed", ex);
+            }
+        }
+    }
+    
+    /**
+     * Returns the total number of messages waiting to be sent.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }        
+    }
+    
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    /**
+     * Returns roughly how long it will take until the messages that are 
+     * waiting to be sent to the address are sent.
+     */
+    public long getQueueDelay(InetSocketAddress address, TimeUnit unit) {
+        int waiting = 0;
+        lock.lock();
+        try {
+            Lane lane = lanes.get(address);
+            if(lane != null) {
+                waiting = lane.queue.size();
+            }
+        } finally {
+            lock.unlock();
+        }   
+        return unit.convert((long)(waiting * 1000000000.0 / laneRate), TimeUnit.NANOSECONDS);
+    }
+    
+    private static class Lane {
+        private final PriorityQueue<LFXSocketMessage> queue = new PriorityQueue<>();
+        private final Map<Object, Pending> pending = new HashMap<>();
+        private final LFXTokenBucket bucket;
+
+        public Lane(LFXTokenBucket bucket) {
+            this.bucket = bucket;
+        }
+        
+        /**
+         * Forgets a message that has left the queue.
+         */
+        public void removePending(LFXSocketMessage message) {
+            Object key = message.getCoalesceKey();
+            Pending p = key != null ? pending.get(key) : null;
+            if(p == null) {
+                return;
+            }
+            int i = p.copies.indexOf(message);
+            if(i < 0) {
+                return;
+            }
+            p.copies.remove(i);
+            if(i < p.claimed) {
+                p.claimed--;
+            }
+            if(p.copies.isEmpty()) {
+                pending.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * The waiting messages with the same coalesce key, one for each copy of 
+     * the send that queued them. The copies of a later send replace the 
+     * messages of the waiting ones in order, claimed is how many of them the
+     * latest send has replaced so far.
+     */
+    private static class Pending {
+        private final List<LFXSocketMessage> copies = new ArrayList<>(2);
+        private LFXSocketMessage send;
+        private int claimed;
+
+        public Pending(LFXSocketMessage send) {
+            this.send = send;
+        }
+        
+        /**
+         * Copies of one send share the first copy, or at least the message.
+         */
+        public boolean isSameSend(LFXSocketMessage message) {
+            return message.getFirstCopy() == send.getFirstCopy() 
+                    || message.getMessage() == send.getMessage();
+        }
+        
+        public void startSend(LFXSocketMessage message) {
+            send = message;
+            claimed = 0;
+        }
+    }
+}
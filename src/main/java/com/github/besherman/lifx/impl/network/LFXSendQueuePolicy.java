@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+/**
+ * What the send queue does with a message when it is full. The policy only
+ * applies to the messages sent by the user, the messages the SDK sends on 
+ * its own are always dropped, see 
+ * {@link LFXMessageRouter#sendBackgroundMessage(com.github.besherman.lifx.impl.entities.internal.LFXMessage)}.
+ */
+public enum LFXSendQueuePolicy {
+    /**
+     * The caller waits until there is room in the queue.
+     */
+    BLOCK,
+    
+    /**
+     * The oldest low priority message in the queue is dropped to make room. 
+     * If there are no low priority messages the new message is dropped and
+     * offer() returns false.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * The new message is dropped and offer() returns false.
+     */
+    DROP_NEWEST,
+    
+    /**
+     * The new message is not added and offer() throws an 
+     * IllegalStateException.
+     */
+    THROW
+}
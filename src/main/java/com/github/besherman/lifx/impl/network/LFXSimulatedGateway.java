@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt8;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulated gateway bulb and the lights on its mesh, to be connected to a
+ * {@link LFXMemoryTransport}. It answers gateway discovery and passes the 
+ * messages for its site on to the lights they are for.
+ */
+public class LFXSimulatedGateway implements LFXMemoryEndpoint {
+    private static final int SERVICE_UDP = 1;
+    
+    private final InetSocketAddress address;
+    private final LFXSiteID site;
+    private final LFXDeviceID deviceID;
+    private final Map<LFXDeviceID, LFXSimulatedLight> lights = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    
+    private volatile LFXMemoryTransport transport;
+    
+    /**
+     * @param deviceID the id of the gateway bulb itself, it is not one of 
+     *                 the lights unless it is added
+     */
+    public LFXSimulatedGateway(InetSocketAddress address, LFXSiteID site, LFXDeviceID deviceID) {
+        this.address = address;
+        this.site = site;
+        this.deviceID = deviceID;
+    }
+    
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public LFXSiteID getSiteID() {
+        return site;
+    }
+    
+    public LFXSimulatedLight addLight(LFXDeviceID id, String label) {
+        LFXSimulatedLight light = new LFXSimulatedLight(id, label);
+        lights.put(id, light);
+        return light;
+    }
+    
+    public void removeLight(LFXDeviceID id) {
+        lights.remove(id);
+    }
+    
+    public Collection<LFXSimulatedLight> getLights() {
+        return Collections.unmodifiableCollection(lights.values());
+    }
+
+    /**
+     * Returns the number of messages the gateway has received.
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Returns the number of replies the gateway has sent.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+    
+    @Override
+    public void receive(LFXMessage message, LFXMemoryTransport transport) {
+        this.transport = transport;
+        received.incrementAndGet();
+        
+        if(message.getType() == Type.LX_PROTOCOL_DEVICE_GET_PAN_GATEWAY) {
+            LxProtocolDevice.StatePanGateway payload = new LxProtocolDevice.StatePanGateway(null, 
+                    new UInt8(SERVICE_UDP), new UInt32(address.getPort()));
+            send(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY, 
+                    new LFXBinaryPath(site, new LFXBinaryTargetID(deviceID)), payload));
+            return;
+        }
+        
+        LFXBinaryPath path = message.getPath();
+        if(!path.getSiteID().isZeroSite() && !path.getSiteID().equals(site)) {
+            return;
+        }
+        
+        LFXBinaryTargetID target = path.getBinaryTargetID();
+        switch(target.getTargetType()) {
+            case DEVICE: {
+                LFXSimulatedLight light = lights.get(target.getDeviceID());
+                if(light != null) {
+                    light.handleMessage(message, this);
+                }
+                break;
+            }
+            case TAG: {
+                for(LFXSimulatedLight light: getLightsWithAnyTag(target.getTagMask().toLong())) {
+                    light.handleMessage(message, this);
+                }
+                break;
+            }
+            case BROADCAST: {
+                for(LFXSimulatedLight light: lights.values()) {
+                    light.handleMessage(message, this);
+                }
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Sends a reply from one of the lights.
+     */
+    void reply(LFXSimulatedLight light, Type type, LxProtocolTypeBase payload) {
+        send(new LFXMessage(type, new LFXBinaryPath(site, new LFXBinaryTargetID(light.getDeviceID())), payload));
+    }
+    
+    private void send(LFXMessage message) {
+        LFXMemoryTransport t = transport;
+        if(t != null) {
+            sent.incrementAndGet();
+            t.deliver(message.getMessageDataRepresentation(), address.getAddress());
+        }
+    }
+    
+    private List<LFXSimulatedLight> getLightsWithAnyTag(long mask) {
+        List<LFXSimulatedLight> result = new ArrayList<>();
+        for(LFXSimulatedLight light: lights.values()) {
+            if((light.getTags() & mask) != 0) {
+                result.add(light);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessageEncoder;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolLight;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.Int16;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt16;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A light behind a {@link LFXSimulatedGateway}. It keeps the state that the
+ * SDK sets and reads (power, color, label, tags and tag labels), and answers
+ * the other questions the SDK asks with zeroed payloads.
+ */
+public class LFXSimulatedLight {
+    private static final int TAG_COUNT = 64;
+    
+    // wifi firmware 1.5 is the first one with alarms
+    private static final long WIFI_FIRMWARE_VERSION = (1 << 16) | 5;
+    private static final int MAX_ALARMS = 2;
+    
+    // questions that are answered with a zeroed payload
+    private static final Map<Type, Type> zeroResponses = createZeroResponses();
+    
+    private final LFXDeviceID deviceID;
+    private String label;
+    private int power;
+    private int hue;
+    private int saturation;
+    private int brightness = 0xffff;
+    private int kelvin = 3500;
+    private long tags;
+    private final String[] tagLabels = new String[TAG_COUNT];
+    
+    public LFXSimulatedLight(LFXDeviceID deviceID, String label) {
+        this.deviceID = deviceID;
+        this.label = label;
+        Arrays.fill(tagLabels, "");
+    }
+
+    public LFXDeviceID getDeviceID() {
+        return deviceID;
+    }
+
+    public synchronized String getLabel() {
+        return label;
+    }
+
+    public synchronized boolean isPower() {
+        return power != 0;
+    }
+
+    public synchronized long getTags() {
+        return tags;
+    }
+    
+    /**
+     * Handles a message sent to the light and sends the replies through 
+     * the gateway.
+     */
+    synchronized void handleMessage(LFXMessage message, LFXSimulatedGateway gateway) {
+        Type type = message.getType();
+        switch(type) {
+            case LX_PROTOCOL_LIGHT_GET: {
+                gateway.reply(this, Type.LX_PROTOCOL_LIGHT_STATE, createLightState());
+                break;
+            }
+            case LX_PROTOCOL_LIGHT_SET: {
+                LxProtocolLight.Set payload = message.getPayload();
+                hue = payload.getColor().getHue().getValue();
+                saturation = payload.getColor().getSaturation().getValue();
+                brightness = payload.getColor().getBrightness().getValue();
+                kelvin = payload.getColor().getKelvin().getValue();
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_LABEL: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_LABEL, new LxProtocolDevice.StateLabel(null, label));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_SET_LABEL: {
+                LxProtocolDevice.SetLabel payload = message.getPayload();
+                label = payload.getLabel();
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_LABEL, new LxProtocolDevice.StateLabel(null, label));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_POWER: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_POWER, new LxProtocolDevice.StatePower(new UInt16(power)));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_SET_POWER: {
+                LxProtocolDevice.SetPower payload = message.getPayload();
+                power = payload.getLevel().getValue();
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_TIME: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_TIME, new LxProtocolDevice.StateTime(null, getTime()));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_INFO: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_INFO, 
+                        new LxProtocolDevice.StateInfo(null, getTime(), new UInt64(0), new UInt64(0)));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_WIFI_FIRMWARE: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_WIFI_FIRMWARE, 
+                        new LxProtocolDevice.StateWifiFirmware(null, new UInt64(0), new UInt64(0), new UInt32(WIFI_FIRMWARE_VERSION)));
+                break;
+            }
+            case LX_PROTOCOL_LIGHT_GET_SIMPLE_EVENT: {
+                LxProtocolLight.GetSimpleEvent payload = message.getPayload();
+                byte[] data = new byte[LFXMessageEncoder.getPayloadSize(Type.LX_PROTOCOL_LIGHT_STATE_SIMPLE_EVENT)];
+                data[0] = (byte)payload.getIndex().getValue();
+                data[data.length - 2] = MAX_ALARMS;
+                gateway.reply(this, Type.LX_PROTOCOL_LIGHT_STATE_SIMPLE_EVENT, new RawPayload(data));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_TAGS: {
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_TAGS, new LxProtocolDevice.StateTags(null, new UInt64(tags)));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_SET_TAGS: {
+                LxProtocolDevice.SetTags payload = message.getPayload();
+                tags = payload.getTags().getSignedValue();
+                gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_TAGS, new LxProtocolDevice.StateTags(null, new UInt64(tags)));
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_GET_TAG_LABELS: {
+                // the SDK sometimes asks without a payload, that is taken
+                // to mean all tags
+                LxProtocolDevice.GetTagLabels payload = message.getPayload();
+                long mask = payload != null ? payload.getTags().getSignedValue() : -1L;
+                replyTagLabels(gateway, mask);
+                break;
+            }
+            case LX_PROTOCOL_DEVICE_SET_TAG_LABELS: {
+                LxProtocolDevice.SetTagLabels payload = message.getPayload();
+                long mask = payload.getTags().getSignedValue();
+                for(int i = 0; i < TAG_COUNT; i++) {
+                    if((mask & (1L << i)) != 0) {
+                        tagLabels[i] = payload.getLabel();
+                    }
+                }
+                replyTagLabels(gateway, mask);
+                break;
+            }
+            default: {
+                Type response = zeroResponses.get(type);
+                if(response != null) {
+                    byte[] data = new byte[LFXMessageEncoder.getPayloadSize(response)];
+                    gateway.reply(this, response, new RawPayload(data));
+                }
+            }
+        }
+    }
+    
+    private LxProtocolLight.State createLightState() {
+        LxProtocolLight.Hsbk color = new LxProtocolLight.Hsbk(null, 
+                new UInt16(hue), new UInt16(saturation), new UInt16(brightness), new UInt16(kelvin));
+        return new LxProtocolLight.State(null, color, new Int16((short)0), new UInt16(power), label, new UInt64(tags));
+    }
+    
+    /**
+     * Sends one reply for each label among the tags in the mask.
+     */
+    private void replyTagLabels(LFXSimulatedGateway gateway, long mask) {
+        Map<String, Long> masksByLabel = new LinkedHashMap<>();
+        for(int i = 0; i < TAG_COUNT; i++) {
+            if((mask & (1L << i)) != 0) {
+                Long m = masksByLabel.get(tagLabels[i]);
+                masksByLabel.put(tagLabels[i], (m != null ? m : 0L) | (1L << i));
+            }
+        }
+        for(Map.Entry<String, Long> entry: masksByLabel.entrySet()) {
+            gateway.reply(this, Type.LX_PROTOCOL_DEVICE_STATE_TAG_LABELS, 
+                    new LxProtocolDevice.StateTagLabels(new UInt64(entry.getValue()), entry.getKey()));
+        }
+    }
+    
+    private static UInt64 getTime() {
+        return UInt64.fromMillis(System.currentTimeMillis());
+    }
+    
+    private static Map<Type, Type> createZeroResponses() {
+        Map<Type, Type> map = new EnumMap<>(Type.class);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_RESET_SWITCH, Type.LX_PROTOCOL_DEVICE_STATE_RESET_SWITCH);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_MESH_INFO, Type.LX_PROTOCOL_DEVICE_STATE_MESH_INFO);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_MESH_FIRMWARE, Type.LX_PROTOCOL_DEVICE_STATE_MESH_FIRMWARE);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_WIFI_INFO, Type.LX_PROTOCOL_DEVICE_STATE_WIFI_INFO);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_VERSION, Type.LX_PROTOCOL_DEVICE_STATE_VERSION);
+        map.put(Type.LX_PROTOCOL_DEVICE_GET_MCU_RAIL_VOLTAGE, Type.LX_PROTOCOL_DEVICE_STATE_MCU_RAIL_VOLTAGE);
+        map.put(Type.LX_PROTOCOL_LIGHT_GET_TEMPERATURE, Type.LX_PROTOCOL_LIGHT_STATE_TEMPERATURE);
+        map.put(Type.LX_PROTOCOL_LIGHT_GET_RAIL_VOLTAGE, Type.LX_PROTOCOL_LIGHT_STATE_RAIL_VOLTAGE);
+        map.put(Type.LX_PROTOCOL_LIGHT_GET_POWER, Type.LX_PROTOCOL_LIGHT_STATE_POWER);
+        return map;
+    }
+    
+    /**
+     * A payload given as bytes.
+     */
+    private static class RawPayload extends LxProtocolTypeBase {
+        private final byte[] data;
+
+        public RawPayload(byte[] data) {
+            this.data = data;
+        }
+        
+        @Override
+        public void printMessageData() {
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return data;
+        }
+    }
+}
@@ -23,10 +23,8 @@
  */
 package com.github.besherman.lifx.impl.network;
 
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
 import java.net.InetSocketAddress;
-import java.util.IdentityHashMap;
-import java.util.Map;
-import java.util.concurrent.PriorityBlockingQueue;
 
 /**
  *
@@ -38,24 +36,166 @@ public class LFXSocketMessage implements Comparable<LFXSocketMessage> {
     
     private final long timestamp;
     private final int priority;
-    private final byte[] bytes;
     private final InetSocketAddress address;
+    private final Object coalesceKey;
+    private final LFXNetworkInterface networkInterface;
+    private final InetSocketAddress streamAddress;
+    private final LFXSocketMessage firstCopy;
+    private LFXMessage message;
+    private volatile long sentTime;
+    private volatile boolean sentOverStream;
+    private volatile boolean queued;
 
-    public LFXSocketMessage(byte[] bytes, InetSocketAddress address, int priority) {
-        this.bytes = bytes;
+    public LFXSocketMessage(LFXMessage message, InetSocketAddress address, int priority) {
+        this(message, address, priority, null);
+    }
+    
+    /**
+     * @param coalesceKey messages to the same address with equal keys 
+     *                    supersede each other, null if the message must
+     *                    always be sent
+     */
+    public LFXSocketMessage(LFXMessage message, InetSocketAddress address, int priority, Object coalesceKey) {
+        this(message, address, null, priority, coalesceKey);
+    }
+    
+    /**
+     * @param networkInterface the interface to send the message on, null to 
+     *                         use the default channel
+     */
+    public LFXSocketMessage(LFXMessage message, InetSocketAddress address, LFXNetworkInterface networkInterface, 
+            int priority, Object coalesceKey) {
+        this(message, address, networkInterface, null, priority, coalesceKey);
+    }
+    
+    /**
+     * @param streamAddress the TCP service of the gateway to send the message
+     *                      to instead of the address, null to use UDP
+     */
+    public LFXSocketMessage(LFXMessage message, InetSocketAddress address, LFXNetworkInterface networkInterface, 
+            InetSocketAddress streamAddress, int priority, Object coalesceKey) {
+        this(message, address, networkInterface, streamAddress, priority, coalesceKey, null);
+    }
+    
+    private LFXSocketMessage(LFXMessage message, InetSocketAddress address, LFXNetworkInterface networkInterface, 
+            InetSocketAddress streamAddress, int priority, Object coalesceKey, LFXSocketMessage firstCopy) {
+        this.firstCopy = firstCopy != null ? firstCopy : this;
+        this.message = message;
         this.address = address;
+        this.networkInterface = networkInterface;
+        this.streamAddress = streamAddress;
         this.priority = priority;
+        this.coalesceKey = coalesceKey;
         this.timestamp = System.nanoTime();
     }
     
-    public byte[] getMessageData() {
-        return bytes;
+    /**
+     * Returns another copy of this message, for messages that are sent 
+     * several times in case some of the copies are lost. The copies are 
+     * only meant for UDP, if the first copy goes over TCP the others are
+     * not sent.
+     */
+    public LFXSocketMessage copy() {
+        return new LFXSocketMessage(message, address, networkInterface, streamAddress, 
+                priority, coalesceKey, firstCopy);
+    }
+    
+    /**
+     * Returns the message this is a copy of, or this message if it is not
+     * a copy.
+     */
+    public LFXSocketMessage getFirstCopy() {
+        return firstCopy;
+    }
+    
+    /**
+     * Returns true if the message has been written to a TCP connection.
+     */
+    public boolean isSentOverStream() {
+        return sentOverStream;
+    }
+    
+    /**
+     * Only called by {@link LFXTcpConnections}.
+     */
+    void markSentOverStream() {
+        this.sentOverStream = true;
+    }
+    
+    /**
+     * Returns the message to send. It is encoded by the writer when it is
+     * sent.
+     */
+    public LFXMessage getMessage() {
+        return message;
+    }
+    
+    /**
+     * Replaces the message that is still waiting in the queue, the message 
+     * keeps its place in the queue. Only called by {@link LFXSendQueue}.
+     */
+    void replaceMessage(LFXMessage message) {
+        this.message = message;
+    }
+    
+    public Object getCoalesceKey() {
+        return coalesceKey;
     }
     
     public InetSocketAddress getAddress() {
         return address;
     }
 
+    /**
+     * Returns the address of the gateway's TCP service, if the message 
+     * should be sent over TCP, otherwise null. If the TCP connection is down
+     * the message is sent to getAddress() over UDP.
+     */
+    public InetSocketAddress getStreamAddress() {
+        return streamAddress;
+    }
+
+    public LFXNetworkInterface getNetworkInterface() {
+        return networkInterface;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Returns the System.nanoTime() when the message was last taken from
+     * the send queue to be written, 0 if it has not been.
+     */
+    public long getSentTime() {
+        return sentTime;
+    }
+    
+    /**
+     * Returns true if the message is waiting in the send queue.
+     */
+    public boolean isQueued() {
+        return queued;
+    }
+    
+    /**
+     * Only called by {@link LFXSendQueue}.
+     */
+    void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+    
+    /**
+     * Only called by {@link LFXSendQueue}.
+     */
+    void markSent(long now) {
+        this.sentTime = now;
+    }
+
     /**
      * Order by priority first then timestamp;
      */
@@ -0,0 +1,346 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessageEncoder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TCP connections to the gateways that have a TCP service.
+ * 
+ * There is one connection per gateway and it is kept open. Messages are 
+ * written back to back without waiting for the responses, and the responses
+ * are read by a thread per connection, decoded and put on the routing queue.
+ * 
+ * send() never blocks, it only copies the message into the connection's 
+ * write buffer. Each connection has a writer thread of its own that empties
+ * the buffer, so a gateway that stops reading can not hold up the messages
+ * to the other gateways or the UDP ones.
+ * 
+ * A connection is opened the first time a message is sent to the gateway. 
+ * Until it is open, for a while after it has failed and while its write 
+ * buffer is full, send() returns false and the message should be sent over
+ * UDP instead. The messages in the buffer when a connection fails are lost,
+ * the response tracker sends them again.
+ */
+public class LFXTcpConnections {
+    private static final int CONNECT_TIMEOUT = 2000;
+    
+    // messages are a few hundred bytes at most
+    private static final int BUF_SIZE = 4096;
+    
+    // what a connection buffers before messages go over UDP instead
+    private static final int WRITE_BUF_SIZE = 16 * 1024;
+    
+    private final LFXMessageRouter router;
+    private final BlockingQueue<LFXMessage> routingQueue;
+    private final Map<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    
+    /**
+     * @param routingQueue where received messages are put
+     */
+    public LFXTcpConnections(LFXMessageRouter router, BlockingQueue<LFXMessage> routingQueue) {
+        this.router = router;
+        this.routingQueue = routingQueue;
+    }
+    
+    /**
+     * Sends the message over TCP if it is for a gateway with a TCP service
+     * and the connection is open. The copies of a message are only sent 
+     * when the first copy could not be sent over TCP, since they are only
+     * there in case the message is lost over UDP. Should only be called by
+     * one thread.
+     * 
+     * @param data the encoded message, between position and limit
+     * @return false if the message should be sent over UDP
+     */
+    public boolean send(LFXSocketMessage message, ByteBuffer data) {
+        if(message.getStreamAddress() == null) {
+            return false;
+        }
+        
+        LFXSocketMessage first = message.getFirstCopy();
+        if(first != message) {
+            return first.isSentOverStream();
+        }
+        
+        if(send(message.getStreamAddress(), data)) {
+            message.markSentOverStream();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Queues the data to be written to the connection to the gateway. 
+     * Should only be called by one thread.
+     * 
+     * @param address the address of the gateway's TCP service
+     * @param data an encoded message, between position and limit
+     * @return false if there is no open connection, or its write buffer is
+     *         full, and the message should be sent over UDP
+     */
+    public boolean send(InetSocketAddress address, ByteBuffer data) {
+        if(!open.get()) {
+            return false;
+        }
+        
+        Connection connection = connections.get(address);
+        if(connection == null) {
+            connection = new Connection(address);
+            connections.put(address, connection);
+        }
+        return connection.send(data);
+    }
+    
+    /**
+     * Closes all connections and waits for their threads to stop.
+     */
+    public void close() {
+        open.set(false);
+        for(Connection connection: connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+    
+    private class Connection implements Runnable {
+        private final InetSocketAddress address;
+        private volatile SocketChannel channel;
+        private Thread thread;
+        private long nextAttempt = 0;
+        
+        // guarded by itself, emptied by the writer of the current channel
+        private final ByteBuffer pending = ByteBuffer.allocate(WRITE_BUF_SIZE);
+
+        public Connection(InetSocketAddress address) {
+            this.address = address;
+        }
+        
+        public boolean send(ByteBuffer data) {
+            if(channel == null) {
+                connectLater();
+                return false;
+            }
+            
+            synchronized(pending) {
+                if(channel == null) {
+                    return false;
+                }
+                if(pending.remaining() < data.remaining()) {
+                    Logger.getLogger(LFXTcpConnections.class.getName()).log(Level.FINE, 
+                            "Write buffer to {0} is full", address);
+                    return false;
+                }
+                pending.put(data);
+                pending.notifyAll();
+                return true;
+            }
+        }
+        
+        /**
+         * Starts a thread that connects and then reads, unless one is 
+         * running or the last attempt was too recent.
+         */
+        private synchronized void connectLater() {
+            long now = System.currentTimeMillis();
+            if((thread != null && thread.isAlive()) || now < nextAttempt || !open.get()) {
+                return;
+            }
+            nextAttempt = now + LFXConstants.getTcpReconnectInterval();
+            thread = new Thread(this, "LIFX TCP " + address);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        public void close() {
+            SocketChannel ch = channel;
+            if(ch != null) {
+                closeChannel(ch);
+            }
+            
+            Thread t;
+            synchronized(this) {
+                t = thread;
+            }
+            if(t != null) {
+                try {
+                    t.join();
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            SocketChannel ch = null;
+            Thread writer = null;
+            try {
+                ch = SocketChannel.open();
+                ch.socket().setTcpNoDelay(true);
+                ch.socket().connect(address, CONNECT_TIMEOUT);
+                channel = ch;
+                if(!open.get()) {
+                    // closed while we were connecting
+                    return;
+                }
+                Logger.getLogger(LFXTcpConnections.class.getName()).log(Level.FINE, 
+                        "Connected to {0}", address);
+                
+                final SocketChannel writeChannel = ch;
+                writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(writeChannel);
+                    }
+                }, "LIFX TCP writer " + address);
+                writer.setDaemon(true);
+                writer.start();
+                
+                read(ch);
+            } catch(IOException ex) {
+                if(open.get()) {
+                    Logger.getLogger(LFXTcpConnections.class.getName()).log(Level.FINE, 
+                            "Connection to " + address + " failed", ex);
+                }
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if(ch != null) {
+                    closeChannel(ch);
+                }
+                if(writer != null) {
+                    try {
+                        writer.join();
+                    } catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Writes what is put in the write buffer until the channel is closed
+         * or replaced. Takes everything in the buffer at once so that 
+         * messages sent back to back are written together.
+         */
+        private void write(SocketChannel ch) {
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUF_SIZE);
+            try {
+                while(true) {
+                    synchronized(pending) {
+                        while(pending.position() == 0 && channel == ch) {
+                            pending.wait();
+                        }
+                        if(channel != ch) {
+                            return;
+                        }
+                        pending.flip();
+                        out.put(pending);
+                        pending.clear();
+                    }
+                    
+                    out.flip();
+                    while(out.hasRemaining()) {
+                        ch.write(out);
+                    }
+                    out.clear();
+                }
+            } catch(IOException ex) {
+                if(open.get()) {
+                    Logger.getLogger(LFXTcpConnections.class.getName()).log(Level.FINE, 
+                            "Failed to send to " + address, ex);
+                }
+                closeChannel(ch);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                closeChannel(ch);
+            }
+        }
+        
+        /**
+         * Reads messages until the connection is closed. Each message starts 
+         * with its size.
+         */
+        private void read(SocketChannel ch) throws IOException, InterruptedException {
+            ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(true) {
+                if(ch.read(buf) < 0) {
+                    throw new EOFException("Connection closed by gateway");
+                }
+                
+                buf.flip();
+                while(buf.remaining() >= 2) {
+                    int size = buf.getShort(buf.position()) & 0xffff;
+                    if(size < LFXMessageEncoder.HEADER_SIZE || size > BUF_SIZE) {
+                        throw new IOException("Bad message size " + size);
+                    }
+                    if(buf.remaining() < size) {
+                        break;
+                    }
+                    
+                    ByteBuffer frame = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                    frame.limit(buf.position() + size);
+                    buf.position(buf.position() + size);
+                    
+                    LFXMessage msg = router.decodeMessageData(frame, address.getAddress());
+                    if(msg != null) {
+                        routingQueue.put(msg);
+                    }
+                }
+                buf.compact();
+            }
+        }
+        
+        private void closeChannel(SocketChannel ch) {
+            synchronized(pending) {
+                if(channel == ch) {
+                    channel = null;
+                    pending.clear();
+                }
+                pending.notifyAll();
+            }
+            try {
+                ch.close();
+            } catch(IOException ex) {
+                Logger.getLogger(LFXTcpConnections.class.getName()).log(Level.SEVERE, 
+                        "Failed to close SocketChannel", ex);
+            }
+        }
+    }
+}
@@ -23,24 +23,85 @@
  */
 package com.github.besherman.lifx.impl.network;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Scheduler for tasks to be performed at a later time. 
+ * 
+ * The queues created by a {@link LFXMessageRouter} share a single timer 
+ * thread, that is not started until the first task is scheduled and that is 
+ * stopped when the last of the queues is closed. A queue created with the
+ * public constructor has a thread of its own. When the network code runs in
+ * event loop mode the tasks are instead run by the {@link LFXEventLoop}, 
+ * see {@link LFXMessageRouter#createTimerQueue()}.
+ * 
+ * Tasks on a shared thread are run one at a time, a task that takes long 
+ * delays the tasks of the other queues. A task that throws is logged and 
+ * does not stop the thread.
  */
 public class LFXTimerQueue {
     private static final AtomicInteger instanceCounter = new AtomicInteger(0);
-    private final Timer timer = new Timer("LIFX Timer Queue " + instanceCounter.incrementAndGet(), false);
+    private final SharedTimer sharedTimer;
+    private final LFXEventLoop eventLoop;
+    private volatile boolean closed = false;
+    
+    // the tasks that have not run yet, so that close() only cancels the 
+    // tasks of this queue
+    private final Set<TimerTaskImpl> tasks = new HashSet<>();
     
     public LFXTimerQueue() {        
-        
+        this(new SharedTimer());
+    }
+    
+    /**
+     * Creates a queue that runs its tasks on a timer thread shared with 
+     * other queues.
+     */
+    LFXTimerQueue(SharedTimer sharedTimer) {
+        this.sharedTimer = sharedTimer;
+        this.eventLoop = null;
+        sharedTimer.acquire();
+    }
+    
+    /**
+     * Creates a queue that has its tasks run by the event loop.
+     */
+    LFXTimerQueue(LFXEventLoop eventLoop) {
+        this.sharedTimer = null;
+        this.eventLoop = eventLoop;
     }
     
     public void close() {
-        timer.cancel();
+        if(sharedTimer != null) {
+            synchronized(tasks) {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                for(TimerTaskImpl task: tasks) {
+                    task.cancel();
+                }
+                tasks.clear();
+            }
+            sharedTimer.release();
+        } else {
+            closed = true;
+        }
+    }
+    
+    /**
+     * Returns true if close() has been called, the event loop will not
+     * run any more tasks from this queue.
+     */
+    boolean isClosed() {
+        return closed;
     }
 
     /**
@@ -52,8 +113,15 @@ public class LFXTimerQueue {
      * @return a unique key used to cancel the action
      */
     public Object doLater(Runnable runnable, long time, TimeUnit unit) {        
-        TimerTaskImpl task = new TimerTaskImpl(runnable);
-        timer.schedule(task, unit.toMillis(time));
+        if(eventLoop != null) {
+            return eventLoop.schedule(this, runnable, unit.toNanos(time), 0);
+        }
+        TimerTaskImpl task = new TimerTaskImpl(this, runnable, true);
+        synchronized(tasks) {
+            checkNotClosed();
+            tasks.add(task);
+            sharedTimer.get().schedule(task, unit.toMillis(time));
+        }
         return task;
     }
     
@@ -67,9 +135,16 @@ public class LFXTimerQueue {
      * @return a unique key used to cancel the action
      */
     public Object doRepeatedly(Runnable runnable, long duration, TimeUnit unit) {
+        if(eventLoop != null) {
+            return eventLoop.schedule(this, runnable, unit.toNanos(duration), unit.toNanos(duration));
+        }
         long ms = unit.toMillis(duration);
-        TimerTaskImpl task = new TimerTaskImpl(runnable);
-        timer.scheduleAtFixedRate(task, ms, ms);
+        TimerTaskImpl task = new TimerTaskImpl(this, runnable, false);
+        synchronized(tasks) {
+            checkNotClosed();
+            tasks.add(task);
+            sharedTimer.get().scheduleAtFixedRate(task, ms, ms);
+        }
         return task;
     }    
     
@@ -81,20 +156,77 @@ public class LFXTimerQueue {
         if(key == null) {
             throw new IllegalArgumentException("key can not be null");
         }
-        ((TimerTaskImpl)key).cancel();
+        if(key instanceof LFXEventLoop.ScheduledTask) {
+            ((LFXEventLoop.ScheduledTask)key).cancel();
+        } else {
+            TimerTaskImpl task = (TimerTaskImpl)key;
+            task.cancel();
+            removeTask(task);
+        }
+    }
+    
+    private void checkNotClosed() {
+        if(closed) {
+            throw new IllegalStateException("Timer queue is closed");
+        }
     }
     
+    private void removeTask(TimerTaskImpl task) {
+        synchronized(tasks) {
+            tasks.remove(task);
+        }
+    }
+    
+    /**
+     * A timer thread for one or more queues. The thread is started when the
+     * first task is scheduled and stopped when the last queue is closed.
+     */
+    static class SharedTimer {
+        private Timer timer;
+        private int queues;
+        
+        synchronized void acquire() {
+            queues++;
+        }
+        
+        synchronized void release() {
+            queues--;
+            if(queues == 0 && timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+        
+        synchronized Timer get() {
+            if(timer == null) {
+                timer = new Timer("LIFX Timer Queue " + instanceCounter.incrementAndGet(), false);
+            }
+            return timer;
+        }
+    }
     
     private static class TimerTaskImpl extends TimerTask {
+        private final LFXTimerQueue owner;
         private final Runnable runnable;
+        private final boolean once;
 
-        public TimerTaskImpl(Runnable runnable) {
+        public TimerTaskImpl(LFXTimerQueue owner, Runnable runnable, boolean once) {
+            this.owner = owner;
             this.runnable = runnable;
+            this.once = once;
         }        
         
         @Override
         public void run() {
-            runnable.run();
+            if(once) {
+                owner.removeTask(this);
+            }
+            try {
+                runnable.run();
+            } catch(Exception ex) {
+                Logger.getLogger(LFXTimerQueue.class.getName()).log(Level.SEVERE, 
+                        "Scheduled task failed", ex);
+            }
         }
     }
 }
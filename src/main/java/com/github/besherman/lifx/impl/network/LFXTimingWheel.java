@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timing wheel that finds the keys that have not been touched for
+ * longer than the timeout.
+ * 
+ * The wheel is a ring of buckets, one per tick. A key is put in the bucket 
+ * of the tick when it would expire, and touching it again only records the 
+ * time, it is not moved. When a bucket comes up the keys in it that were 
+ * touched since they were put there are moved to the bucket of their new
+ * expiry time and the rest have expired. So touching a key is a single map 
+ * lookup, and expiring costs time in proportion to the keys in the buckets 
+ * that came up, not to the number of keys. A key is moved at most once per 
+ * timeout, or once per turn of the wheel if the timeout is longer than that.
+ * 
+ * The wheel is not thread safe.
+ */
+public class LFXTimingWheel<K> {
+    private final long timeout;
+    private final long tick;
+    private final List<List<Slot<K>>> buckets;
+    private final Map<K, Slot<K>> slots = new HashMap<>();
+    
+    // the next tick to expire
+    private long nextTick;
+
+    /**
+     * @param timeout how long, in milliseconds, a key can go untouched 
+     * @param tick    the length, in milliseconds, of a tick, keys expire at
+     *                most this late
+     * @param size    the number of buckets
+     * @param now     the current time in milliseconds
+     */
+    public LFXTimingWheel(long timeout, long tick, int size, long now) {
+        if(timeout < 0 || tick <= 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid timing wheel: timeout=" + timeout 
+                    + ", tick=" + tick + ", size=" + size);
+        }
+        this.timeout = timeout;
+        this.tick = tick;
+        this.buckets = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<Slot<K>>());
+        }
+        this.nextTick = now / tick;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Records that the key was seen now, the key is added if it is not in
+     * the wheel. Returns true if it was added.
+     */
+    public boolean touch(K key, long now) {
+        Slot<K> slot = slots.get(key);
+        if(slot != null) {
+            slot.lastSeen = now;
+            return false;
+        }
+        slot = new Slot<>(key, now);
+        slots.put(key, slot);
+        schedule(slot);
+        return true;
+    }
+    
+    /**
+     * Removes the key without it expiring. Returns false if it was not in 
+     * the wheel.
+     */
+    public boolean remove(K key) {
+        Slot<K> slot = slots.remove(key);
+        if(slot == null) {
+            return false;
+        }
+        // the slot is dropped when its bucket comes up
+        slot.removed = true;
+        return true;
+    }
+    
+    public boolean contains(K key) {
+        return slots.containsKey(key);
+    }
+    
+    public int size() {
+        return slots.size();
+    }
+    
+    /**
+     * Removes the keys that have not been touched for longer than the 
+     * timeout and returns them, or an empty list if none has expired.
+     */
+    public List<K> expire(long now) {
+        long currentTick = now / tick;
+        if(currentTick < nextTick) {
+            return Collections.emptyList();
+        }
+        // every key is in some bucket, so a single turn of the wheel is 
+        // enough however long it has been since the last call
+        long lastTick = Math.min(currentTick, nextTick + buckets.size() - 1);
+        List<K> expired = null;
+        for(long t = nextTick; t <= lastTick; t++) {
+            int index = (int)(t % buckets.size());
+            List<Slot<K>> bucket = buckets.get(index);
+            if(bucket.isEmpty()) {
+                continue;
+            }
+            buckets.set(index, new ArrayList<Slot<K>>());
+            for(Slot<K> slot: bucket) {
+                if(slot.removed) {
+                    continue;
+                }
+                if(now - slot.lastSeen > timeout) {
+                    slots.remove(slot.key);
+                    if(expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(slot.key);
+                } else {
+                    schedule(slot);
+                }
+            }
+        }
+        nextTick = currentTick + 1;
+        return expired != null ? expired : Collections.<K>emptyList();
+    }
+    
+    /**
+     * Puts the slot in the bucket of the first tick that starts after it 
+     * expires. If that is more than a turn away the slot comes up early and
+     * is moved again.
+     */
+    private void schedule(Slot<K> slot) {
+        long t = Math.max((slot.lastSeen + timeout) / tick + 1, nextTick);
+        buckets.get((int)(t % buckets.size())).add(slot);
+    }
+    
+    private static class Slot<K> {
+        private final K key;
+        private long lastSeen;
+        private boolean removed;
+
+        public Slot(K key, long lastSeen) {
+            this.key = key;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+/**
+ * A token bucket used to pace the messages sent to one address. Tokens are
+ * added at a fixed rate up to the burst size and each sent message takes 
+ * one token.
+ * 
+ * This class is not thread safe, the owner has to synchronize access.
+ */
+public class LFXTokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond how many tokens are added per second
+     * @param burst the max number of tokens the bucket can hold
+     */
+    public LFXTokenBucket(double ratePerSecond, int burst) {
+        if(ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        if(burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        this.tokensPerNano = ratePerSecond / 1000000000.0;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+    
+    /**
+     * Takes a token if there is one.
+     * @return true if a token was taken
+     */
+    public boolean tryTake(long now) {
+        refill(now);
+        if(tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns how many nanoseconds until a token is available, 0 if there
+     * is one available now.
+     */
+    public long nanosUntilAvailable(long now) {
+        refill(now);
+        if(tokens >= 1) {
+            return 0;
+        }
+        return (long)Math.ceil((1 - tokens) / tokensPerNano);
+    }
+    
+    /**
+     * Returns true if the bucket is full, which means that it has not been 
+     * used for a while.
+     */
+    public boolean isFull(long now) {
+        refill(now);
+        return tokens >= burst;
+    }
+    
+    private void refill(long now) {
+        if(now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.io.IOException;
+
+/**
+ * Moves messages between the {@link LFXMessageRouter} and the lights. 
+ * 
+ * When opened the transport takes messages from the outgoing queue and 
+ * delivers them, and passes the messages it receives to 
+ * {@link LFXMessageRouter#handleMessageData}. The transport opens the router
+ * once it is ready to receive, and closes it again when it is closed.
+ * 
+ * The default is {@link LFXUdpTransport}, {@link LFXMemoryTransport} talks
+ * to simulated lights instead.
+ */
+public interface LFXTransport {
+    /**
+     * Starts the transport and returns. A transport can be opened again 
+     * after it has been closed.
+     */
+    void open(LFXMessageRouter router, LFXSendQueue outgoingQueue, LFXNetworkSettings networkSettings) throws IOException;
+    
+    /**
+     * Sends what is left on the outgoing queue and stops the transport. 
+     * Blocks until it has stopped.
+     */
+    void close();
+}
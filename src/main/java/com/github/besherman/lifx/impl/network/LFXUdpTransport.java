@@ -0,0 +1,503 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends and receives messages as UDP datagrams on port 56700 of each 
+ * network interface. This is the transport that talks to real lights.
+ * 
+ * This is done either by a reader and a writer thread, or by a single 
+ * {@link LFXEventLoop} thread if that is enabled in {@link LFXConstants}.
+ * With {@link LFXConstants#getReceiveThreads()} above one there are several
+ * readers that decode messages in parallel and a routing thread that passes
+ * them to the router.
+ * 
+ * If {@link LFXConstants#isTcpEnabled()} messages to gateways with a TCP 
+ * service are sent over {@link LFXTcpConnections} instead, and UDP is only 
+ * used while the connection is down.
+ */
+public class LFXUdpTransport implements LFXTransport {
+    // how many decoded messages can wait for the routing thread before the
+    // readers have to wait, and the socket buffers start to fill up
+    private static final int ROUTING_QUEUE_SIZE = 4096;
+    
+    private LFXInterfaceChannels channels;
+    
+    // the channels of the readers after the first one
+    private final List<LFXInterfaceChannels> extraChannels = new ArrayList<>();
+        
+    private final List<Reader> readers = new ArrayList<>();    
+    private final List<Thread> readingThreads = new ArrayList<>();
+    
+    private RoutingStage routingStage;
+    private Thread routingThread;
+    
+    private LFXTcpConnections tcpConnections;
+    
+    private Writer writer;
+    private Thread writingThread;        
+    
+    private LFXEventLoop eventLoop;
+    private Thread eventLoopThread;
+    
+    @Override
+    public void open(LFXMessageRouter router, LFXSendQueue outgoingQueue, LFXNetworkSettings networkSettings) throws IOException {
+        int receiveThreads = LFXConstants.getReceiveThreads();
+        
+        try {
+            if(LFXConstants.isEventLoopEnabled()) {
+                if(receiveThreads > 1) {
+                    Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.WARNING, 
+                            "The event loop receives on a single thread, ignoring receiveThreads");
+                }
+                if(LFXConstants.isTcpEnabled()) {
+                    Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.WARNING, 
+                            "The event loop only uses UDP, ignoring tcp");
+                }
+                channels = new LFXInterfaceChannels(networkSettings);
+                eventLoop = new LFXEventLoop(router, outgoingQueue, channels);
+                router.setEventLoop(eventLoop);
+                eventLoopThread = new Thread(eventLoop, "LIFX Event Loop");
+                eventLoopThread.start();
+                return;
+            }
+            
+            if(receiveThreads > 1 && !LFXInterfaceChannels.isReusePortSupported()) {
+                Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.WARNING, 
+                        "SO_REUSEPORT is not supported, receiving on a single thread");
+                receiveThreads = 1;
+            }
+            
+            channels = new LFXInterfaceChannels(networkSettings, true, receiveThreads > 1);
+            
+            if(receiveThreads == 1 && !LFXConstants.isTcpEnabled()) {
+                // the reader routes the messages itself
+                startReader(new Reader(channels, router, null), "LIFX Network Reader");
+            } else {
+                // messages come from more than one thread, so they are 
+                // routed by a thread of their own
+                BlockingQueue<LFXMessage> routingQueue = new ArrayBlockingQueue<>(ROUTING_QUEUE_SIZE);
+                routingStage = new RoutingStage(router, routingQueue);
+                routingThread = new Thread(routingStage, "LIFX Network Router");
+                routingThread.start();
+                
+                if(LFXConstants.isTcpEnabled()) {
+                    tcpConnections = new LFXTcpConnections(router, routingQueue);
+                    router.setStreamsEnabled(true);
+                }
+                
+                for(int i = 0; i < receiveThreads; i++) {
+                    LFXInterfaceChannels readerChannels = channels;
+                    if(i > 0) {
+                        readerChannels = new LFXInterfaceChannels(networkSettings, false, true);
+                        extraChannels.add(readerChannels);
+                    }
+                    startReader(new Reader(readerChannels, router, routingQueue), "LIFX Network Reader " + i);
+                }
+            }
+            
+            writer = new Writer(outgoingQueue, channels, tcpConnections);
+            writingThread = new Thread(writer, "LIFX Network Writer");
+            writingThread.start();
+        } catch(IOException ex) {
+            close();                    
+            throw ex;
+        }
+    }
+    
+    private void startReader(Reader reader, String name) {
+        Thread thread = new Thread(reader, name);
+        readers.add(reader);
+        readingThreads.add(thread);
+        thread.start();
+    }
+        
+    @Override
+    public void close() {
+        if(eventLoop != null) {
+            eventLoop.close();
+        }
+        
+        for(Reader reader: readers) {
+            reader.close();
+        }
+
+        try {
+            if(eventLoopThread != null) {
+                eventLoopThread.join();
+            }
+            
+            for(Thread thread: readingThreads) {
+                thread.join();
+            }
+            
+            if(tcpConnections != null) {
+                tcpConnections.close();
+            }
+            
+            // the readers are done so nothing more is put on the queue, the
+            // routing stage routes what is left on it before it stops
+            if(routingStage != null) {
+                routingStage.close();
+                routingThread.join();
+            }
+            
+            // and the writer sends what was sent while routing
+            if(writer != null) {
+                writer.close();                
+                writingThread.join();
+            }
+        } catch(InterruptedException ex) {
+            // TODO: maybee we should interrupt the writing thread here?
+        }
+        
+        if(channels != null) {
+            channels.close();
+        }
+        for(LFXInterfaceChannels c: extraChannels) {
+            c.close();
+        }
+        
+        eventLoop = null;
+        eventLoopThread = null;
+        readers.clear();
+        readingThreads.clear();
+        routingStage = null;
+        routingThread = null;
+        tcpConnections = null;
+        writer = null;
+        writingThread = null;
+        channels = null;
+        extraChannels.clear();
+    }    
+    
+    /**
+     * Receives one datagram into the buffer and passes it to the router.
+     * 
+     * @return false if there was nothing to receive
+     */
+    static boolean receive(DatagramChannel ch, ByteBuffer buf, LFXMessageRouter router) {
+        InetAddress source = receiveDatagram(ch, buf);
+        if(source == null) {
+            return false;
+        }
+        
+        // sometimes we get an empty package for some reason
+        if(buf.hasRemaining()) {
+            router.handleMessageData(buf, source);
+        }
+        return true;
+    }
+    
+    /**
+     * Receives one datagram into the buffer and flips it.
+     * 
+     * @return the host that sent it, or null if there was nothing to receive
+     */
+    private static InetAddress receiveDatagram(DatagramChannel ch, ByteBuffer buf) {
+        SocketAddress source = null;
+        try {
+            source = ch.receive(buf);
+        } catch(IOException ex) {
+            Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.SEVERE, 
+                    "Failed to receive message", ex);
+        }   
+
+        // source is null when receive got nothing
+        if(source == null) {
+            return null;
+        }
+        
+        buf.flip();
+        return ((InetSocketAddress)source).getAddress();
+    }
+    
+    /**
+     * Sends messages from the outgoing queue. The queue does the pacing, so 
+     * the writer only waits when no lane has both a message and a token.
+     */
+    private static class Writer implements Runnable {
+        private static final int BUF_SIZE = 255;
+        private final LFXInterfaceChannels channels;
+        private final LFXTcpConnections tcpConnections;
+        private final LFXSendQueue outgoingQueue;
+        private final AtomicBoolean running = new AtomicBoolean(true);    
+
+        /**
+         * @param tcpConnections null if TCP is not used
+         */
+        public Writer(LFXSendQueue outgoingQueue, LFXInterfaceChannels channels, LFXTcpConnections tcpConnections) {
+            this.channels = channels;
+            this.tcpConnections = tcpConnections;
+            this.outgoingQueue = outgoingQueue;
+        }
+        
+        public void close() {
+            running.set(false);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                // we don't want to stop before the queue is empty because
+                // then the stuff we asked for wont happen and the user
+                // will be confused - we've hopefully stopped the reader though
+                // so nothing new will end up on the queue                
+                while(running.get() || !outgoingQueue.isEmpty()) {
+                    //
+                    // Send outgoing messages
+                    //                    
+                    LFXSocketMessage msg = outgoingQueue.poll(1, TimeUnit.SECONDS);                    
+                    if(msg != null) {
+                        try {
+                            buf.clear();
+                            msg.getMessage().writeMessageData(buf);
+                            buf.flip();
+                            if(!sendOverTcp(msg, buf)) {
+                                buf.rewind();
+                                channels.getChannel(msg.getNetworkInterface()).send(buf, msg.getAddress());
+                            }
+                        } catch(Exception ex) {
+                            Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.SEVERE, 
+                                    "Failed to send message", ex);
+                        }
+                    }                    
+                }                
+            } catch(Exception ex) {
+                Logger.getLogger(Writer.class.getName()).log(Level.SEVERE, "Writer died unexpectadly");
+            }
+        }      
+        
+        private boolean sendOverTcp(LFXSocketMessage msg, ByteBuffer buf) {
+            return tcpConnections != null && tcpConnections.send(msg, buf);
+        }
+                
+    }
+    
+    /**
+     * Receives from a set of channels. When there is only one reader it 
+     * routes the messages itself, otherwise it only decodes them and passes
+     * them to the {@link RoutingStage}.
+     * 
+     * Every datagram is received into the same buffer, which is reused as 
+     * soon as the datagram has been decoded. Decoding copies what the 
+     * message needs out of the buffer, unless the payload is read through 
+     * a view on the routing thread.
+     */
+    private static class Reader implements Runnable {
+        private static final int BUF_SIZE = 255;
+        
+        // how many datagrams are received from a channel each time it is
+        // readable before the other channels get their turn
+        private static final int MAX_RECEIVE_BATCH = 16;
+
+        private final AtomicBoolean running = new AtomicBoolean(true);    
+
+        private final Selector selector;
+        private final LFXMessageRouter router;  
+        private final LFXInterfaceChannels channels;
+        private final BlockingQueue<LFXMessage> routingQueue;
+
+        /**
+         * @param routingQueue where to put decoded messages, null to route
+         *                     them on this thread
+         */
+        public Reader(LFXInterfaceChannels channels, LFXMessageRouter router, BlockingQueue<LFXMessage> routingQueue) throws IOException {            
+            this.router = router;
+            this.channels = channels;
+            this.routingQueue = routingQueue;
+            selector = Selector.open();
+        }
+
+        public void close() {                        
+            running.set(false);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.FINE, "Starting event loop");        
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                if(routingQueue == null) {
+                    router.open();
+                }
+                
+                long rescanInterval = LFXConstants.getInterfaceRescanInterval();
+                long nextRescan = 0;
+                while(running.get()) {
+                    //
+                    // Open and close channels as interfaces come and go
+                    //
+                    long now = System.currentTimeMillis();
+                    if(now >= nextRescan) {
+                        channels.update(selector);
+                        nextRescan = now + rescanInterval;
+                    }
+                    
+                    //
+                    // Check for new messages
+                    //
+                    int selected = 0;            
+                    try {
+                        selected = selector.select(Math.max(1, nextRescan - now));
+                    } catch(IOException ex) {
+                        Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.SEVERE, 
+                                "Failed to select channel", ex);
+                    } 
+                    
+                    if(selected > 0) {
+                        Set<SelectionKey> keys = selector.selectedKeys();
+                        for(SelectionKey key: keys) {
+                            if(key.isReadable()) {                            
+                                for(int i = 0; i < MAX_RECEIVE_BATCH; i++) {
+                                    buf.clear();
+                                    if(!receive((DatagramChannel)key.channel(), buf)) {
+                                        break;
+                                    }
+                                }
+                            }                        
+                        }
+                        keys.clear();
+                    }                    
+                }
+
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch(Exception ex) {
+                // not supposed to end up there
+                Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.SEVERE, 
+                        "Event Loop unexpectedly died", ex);
+            } finally {
+                if(routingQueue == null) {
+                    try {
+                        router.close();
+                    } catch(Exception ex) {
+                        Logger.getLogger(Reader.class.getName()).log(Level.SEVERE, 
+                                "Failed to close router", ex);
+                    }
+                }
+                
+                try {
+                    selector.close();
+                } catch(IOException ex) {
+                    Logger.getLogger(Reader.class.getName()).log(Level.SEVERE, 
+                            "Failed to close selector", ex);
+                }                
+            }
+            
+            Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.FINE, 
+                    "Stopping event loop");
+        }
+        
+        private boolean receive(DatagramChannel ch, ByteBuffer buf) throws InterruptedException {
+            if(routingQueue == null) {
+                return LFXUdpTransport.receive(ch, buf, router);
+            }
+            
+            InetAddress source = receiveDatagram(ch, buf);
+            if(source == null) {
+                return false;
+            }
+            if(buf.hasRemaining()) {
+                LFXMessage msg = router.decodeMessageData(buf, source);
+                if(msg != null) {
+                    routingQueue.put(msg);
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Routes the messages decoded by the readers, one at a time and in the
+     * order they were put on the queue. The kernel picks the channel of a 
+     * datagram from its source and destination, so everything a gateway 
+     * sends goes through the same reader and the messages for a device 
+     * reach the router in the order they were received. When closed it 
+     * routes what is left on the queue before it stops.
+     */
+    private static class RoutingStage implements Runnable {
+        private final LFXMessageRouter router;
+        private final BlockingQueue<LFXMessage> routingQueue;
+        private final AtomicBoolean running = new AtomicBoolean(true);    
+
+        public RoutingStage(LFXMessageRouter router, BlockingQueue<LFXMessage> routingQueue) {
+            this.router = router;
+            this.routingQueue = routingQueue;
+        }
+        
+        public void close() {
+            running.set(false);
+        }
+
+        @Override
+        public void run() {
+            try {
+                router.open();
+                // we don't want to stop before the queue is empty, the 
+                // readers have been stopped so nothing new ends up on it
+                while(running.get() || !routingQueue.isEmpty()) {
+                    LFXMessage msg = routingQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if(msg != null) {
+                        router.handleReceivedMessage(msg);
+                    }
+                }
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch(Exception ex) {
+                Logger.getLogger(LFXUdpTransport.class.getName()).log(Level.SEVERE, 
+                        "Router unexpectedly died", ex);
+            } finally {
+                try {
+                    router.close();
+                } catch(Exception ex) {
+                    Logger.getLogger(RoutingStage.class.getName()).log(Level.SEVERE, 
+                            "Failed to close router", ex);
+                }
+            }
+        }
+    }
+}
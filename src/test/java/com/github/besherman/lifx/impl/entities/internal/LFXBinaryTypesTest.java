@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.LFXInterfaceFirmware;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
+import java.math.BigInteger;
+import java.util.Calendar;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXBinaryTypesTest {
+    private static final long NANOSECOND_BUILD_TIME_THRESHOLD = 1200000000000000000L;
+    
+    @Test
+    public void buildTimeAboveThresholdIsNanoseconds() {
+        assertEquals(1400000000000L, buildTime(UInt64.fromMillis(1400000000000L).getValue()));
+        assertEquals(NANOSECOND_BUILD_TIME_THRESHOLD / 1000000 + 1, buildTime(NANOSECOND_BUILD_TIME_THRESHOLD + 1000000));
+    }
+    
+    @Test
+    public void buildTimeAboveLongMaxValueIsNanoseconds() {
+        assertEquals(Long.MAX_VALUE / 1000000, buildTime(Long.MAX_VALUE));
+        assertEquals(9223372036854L, buildTime(Long.MIN_VALUE));
+        assertEquals(18446744073709L, buildTime(-1));
+    }
+    
+    @Test
+    public void buildTimeAtThresholdIsPackedDate() {
+        assertFalse(buildTime(NANOSECOND_BUILD_TIME_THRESHOLD) == NANOSECOND_BUILD_TIME_THRESHOLD / 1000000);
+    }
+    
+    @Test
+    public void packedBuildDateIsRead() {
+        // seconds, minutes, hours, day, the month backwards and the year 
+        // since 2000, from the least significant byte
+        byte[] bytes = {30, 20, 10, 5, 'n', 'a', 'J', 14};
+        UInt64 build = new UInt64(bytes);
+        assertTrue(UInt64.compareUnsigned(build.getValue(), NANOSECOND_BUILD_TIME_THRESHOLD) < 0);
+        
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(LFXBinaryTypes.createFirmware(build, new UInt64(0), new UInt32(0)).getBuild());
+        assertEquals(2014, cal.get(Calendar.YEAR));
+        assertEquals(Calendar.JANUARY, cal.get(Calendar.MONTH));
+        assertEquals(5, cal.get(Calendar.DAY_OF_MONTH));
+        assertEquals(20, cal.get(Calendar.MINUTE));
+        assertEquals(30, cal.get(Calendar.SECOND));
+    }
+    
+    @Test
+    public void installTimeAndVersionAreRead() {
+        LFXInterfaceFirmware firmware = LFXBinaryTypes.createFirmware(new UInt64(0), new UInt64(-1), 
+                new UInt32(0x00010002L));
+        assertEquals(-1, firmware.getInstallValue());
+        assertEquals(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE), firmware.getInstall());
+        assertEquals(1, firmware.getMajorVersion());
+        assertEquals(2, firmware.getMinorVersion());
+    }
+    
+    private static long buildTime(long build) {
+        return LFXBinaryTypes.createFirmware(new UInt64(build), new UInt64(0), new UInt32(0)).getBuild().getTime();
+    }
+}
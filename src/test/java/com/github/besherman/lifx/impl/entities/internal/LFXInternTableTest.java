@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXInternTableTest {
+    private static final byte[] BYTES = {(byte)0xd0, 0x73, (byte)0xd5, 0x01, 0x02, 0x03};
+    
+    @Test
+    public void deviceIDsAreInterned() {
+        LFXDeviceID id = LFXDeviceID.valueOf(BYTES);
+        assertSame(id, LFXDeviceID.valueOf(BYTES.clone()));
+        assertSame(id, LFXDeviceID.valueOf(0xd073d5010203L));
+        assertSame(id, LFXDeviceID.valueOf(ByteBuffer.wrap(new byte[] {9, 9, 
+            (byte)0xd0, 0x73, (byte)0xd5, 0x01, 0x02, 0x03}), 2));
+        assertFalse(id == LFXDeviceID.valueOf(0xd073d5010204L));
+    }
+    
+    @Test
+    public void deviceIDKeepsItsBytes() {
+        LFXDeviceID id = LFXDeviceID.valueOf(BYTES);
+        assertEquals(0xd073d5010203L, id.toLong());
+        assertArrayEquals(BYTES, id.getDeviceDataValue());
+        assertEquals("D073D5010203", id.getStringRepresentation());
+        
+        // ids made with the constructor are equal to the interned one
+        LFXDeviceID made = new LFXDeviceID("d073d5010203");
+        assertEquals(id, made);
+        assertEquals(id.hashCode(), made.hashCode());
+    }
+    
+    @Test
+    public void valueIsCutTo48Bits() {
+        assertSame(LFXDeviceID.valueOf(0xd073d5010203L), LFXDeviceID.valueOf(0xffffd073d5010203L));
+        assertSame(LFXSiteID.valueOf(0x4c4946580001L), LFXSiteID.valueOf(0xffff4c4946580001L));
+    }
+    
+    @Test
+    public void siteIDsAreInterned() {
+        byte[] bytes = {'L', 'I', 'F', 'X', 0, 1};
+        LFXSiteID site = LFXSiteID.valueOf(bytes);
+        assertSame(site, LFXSiteID.valueOf(bytes.clone()));
+        assertSame(site, LFXSiteID.valueOf(0x4c4946580001L));
+        assertArrayEquals(bytes, site.getDataValue());
+        assertEquals(new LFXSiteID("4c4946580001"), site);
+        assertFalse(site.isZeroSite());
+        assertTrue(LFXSiteID.valueOf(0).isZeroSite());
+    }
+    
+    @Test
+    public void floodOfUnknownIDsDoesNotGrowFullTable() {
+        LFXInternTable<LFXDeviceID> table = new LFXInternTable<LFXDeviceID>(100) {
+            @Override
+            protected long valueOf(LFXDeviceID id) {
+                return id.toLong();
+            }
+
+            @Override
+            protected LFXDeviceID create(long value) {
+                return new LFXDeviceID(toBytes(value));
+            }
+        };
+        LFXDeviceID known = table.intern(0xd073d5010203L);
+        
+        // random targets from something on the network that is not a light
+        for(long i = 0; i < 10000; i++) {
+            LFXDeviceID id = table.intern(0x123456000000L + i);
+            assertEquals(0x123456000000L + i, id.toLong());
+        }
+        assertEquals(100, table.size());
+        
+        assertSame(known, table.intern(0xd073d5010203L));
+        LFXDeviceID late = table.intern(0xd073d5010204L);
+        assertEquals(late, table.intern(0xd073d5010204L));
+        assertEquals(100, table.size());
+    }
+    
+    private static byte[] toBytes(long value) {
+        byte[] bytes = new byte[6];
+        for(int i = 0; i < 6; i++) {
+            bytes[i] = (byte)(value >>> (40 - 8 * i));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.LxProtocolTypeBase;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXPayloadCodecTest {
+    private static final int HEADER_SIZE = 36;
+    
+    @Test
+    public void everyProtocolTypeHasACodec() {
+        for(Type type: Type.values()) {
+            Integer value = LxProtocol.typeValueMap.get(type);
+            LFXPayloadCodec codec = LFXPayloadCodec.forType(type);
+            if(value == null) {
+                assertNull(type.name(), codec);
+                continue;
+            }
+            assertNotNull(type.name(), codec);
+            assertEquals(type, codec.getType());
+            assertEquals(value.intValue(), codec.getTypeValue());
+            assertSame(codec, LFXPayloadCodec.forTypeValue(value));
+        }
+    }
+    
+    @Test
+    public void unknownTypeValueHasNoCodec() {
+        assertNull(LFXPayloadCodec.forTypeValue(-1));
+        assertNull(LFXPayloadCodec.forTypeValue(0xffff));
+    }
+    
+    @Test
+    public void emptyPayloadSurvivesRoundTrip() {
+        for(Type type: Type.values()) {
+            LFXPayloadCodec codec = LFXPayloadCodec.forType(type);
+            if(codec == null) {
+                continue;
+            }
+            byte[] data = new byte[HEADER_SIZE + codec.getPayloadSize()];
+            LxProtocolTypeBase payload = codec.decode(data, HEADER_SIZE);
+            assertNotNull(type.name(), payload);
+            
+            ByteBuffer out = ByteBuffer.allocate(data.length);
+            codec.encode(payload, out, HEADER_SIZE);
+            assertTrue(type.name(), Arrays.equals(data, out.array()));
+        }
+    }
+    
+    @Test
+    public void messageSurvivesRoundTrip() {
+        LFXMessage message = new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_LABEL, 
+                new LFXTarget(LFXDeviceID.valueOf(0xd073d5010203L)), new LxProtocolDevice.SetLabel("kitchen"));
+        LFXMessage decoded = new LFXMessage(message.getMessageDataRepresentation());
+        assertEquals(Type.LX_PROTOCOL_DEVICE_SET_LABEL, decoded.getType());
+        LxProtocolDevice.SetLabel payload = decoded.getPayload();
+        assertEquals("kitchen", payload.getLabel());
+    }
+    
+    @Test
+    public void requestsKnowTheirResponse() {
+        assertEquals(Type.LX_PROTOCOL_LIGHT_STATE, 
+                LFXPayloadCodec.forType(Type.LX_PROTOCOL_LIGHT_GET).getExpectedResponse());
+        assertEquals(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                LFXPayloadCodec.forType(Type.LX_PROTOCOL_DEVICE_GET_LABEL).getExpectedResponse());
+        assertTrue(LFXPayloadCodec.forType(Type.LX_PROTOCOL_DEVICE_STATE_LABEL).isResponse());
+        assertFalse(LFXPayloadCodec.forType(Type.LX_PROTOCOL_DEVICE_GET_LABEL).isResponse());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXTagMaskTest {
+    @Test
+    public void maskHasOneBitPerTag() {
+        assertEquals(1L, LFXTagMask.of(LFXTagID.TAG_01).toLong());
+        assertEquals(Long.MIN_VALUE, LFXTagMask.of(LFXTagID.TAG_64).toLong());
+        assertEquals(64, LFXTagMask.ALL.size());
+        assertTrue(LFXTagMask.NONE.isEmpty());
+    }
+    
+    @Test
+    public void withAndWithoutMakeNewMasks() {
+        LFXTagMask mask = LFXTagMask.NONE.with(LFXTagID.TAG_02).with(LFXTagID.TAG_64);
+        assertEquals(2, mask.size());
+        assertTrue(mask.contains(LFXTagID.TAG_02));
+        assertTrue(mask.contains(LFXTagID.TAG_64));
+        assertFalse(mask.contains(LFXTagID.TAG_01));
+        assertTrue(LFXTagMask.NONE.isEmpty());
+        
+        LFXTagMask less = mask.without(LFXTagID.TAG_64);
+        assertEquals(LFXTagMask.of(LFXTagID.TAG_02), less);
+        assertTrue(mask.intersects(less));
+        assertFalse(less.intersects(LFXTagMask.of(LFXTagID.TAG_64)));
+    }
+    
+    @Test
+    public void iteratesInTagOrder() {
+        LFXTagMask mask = LFXTagMask.of(EnumSet.of(LFXTagID.TAG_64, LFXTagID.TAG_03, LFXTagID.TAG_01));
+        Iterator<LFXTagID> it = mask.iterator();
+        assertEquals(LFXTagID.TAG_01, it.next());
+        assertEquals(LFXTagID.TAG_03, it.next());
+        assertEquals(LFXTagID.TAG_64, it.next());
+        assertFalse(it.hasNext());
+    }
+    
+    @Test
+    public void packAndUnpackAgreeWithMask() {
+        Random random = new Random(1);
+        for(int i = 0; i < 1000; i++) {
+            long bits = random.nextLong() & random.nextLong();
+            LFXTagMask mask = LFXTagMask.valueOf(bits);
+            EnumSet<LFXTagID> tags = LFXTagID.unpack(mask.toUInt64());
+            
+            assertEquals(Long.bitCount(bits), tags.size());
+            assertEquals(tags, mask.toSet());
+            assertEquals(mask, LFXTagMask.of(tags));
+            assertEquals(bits, LFXTagID.pack(tags).getSignedValue());
+            assertEquals(mask, LFXTagMask.valueOf(mask.toUInt64()));
+        }
+    }
+}
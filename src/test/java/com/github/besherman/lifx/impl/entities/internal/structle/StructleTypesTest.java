@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.entities.internal.structle;
+
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
+import java.math.BigInteger;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class StructleTypesTest {
+    private static final BigInteger TWO_TO_THE_64 = BigInteger.ONE.shiftLeft(64);
+    private static final BigInteger NANOS_PER_MILLI = BigInteger.valueOf(1000000);
+    
+    @Test
+    public void nanosToMillisIsUnsigned() {
+        assertEquals(0, UInt64.nanosToMillis(0));
+        assertEquals(0, UInt64.nanosToMillis(999999));
+        assertEquals(1, UInt64.nanosToMillis(1000000));
+        assertEquals(Long.MAX_VALUE / 1000000, UInt64.nanosToMillis(Long.MAX_VALUE));
+        assertEquals(9223372036854L, UInt64.nanosToMillis(Long.MIN_VALUE));
+        assertEquals(18446744073709L, UInt64.nanosToMillis(-1));
+        
+        Random random = new Random(1);
+        for(int i = 0; i < 10000; i++) {
+            long nanos = random.nextLong();
+            assertEquals(unsigned(nanos).divide(NANOS_PER_MILLI).longValue(), UInt64.nanosToMillis(nanos));
+        }
+    }
+    
+    @Test
+    public void compareUnsignedOrdersHighValuesLast() {
+        assertEquals(0, UInt64.compareUnsigned(-1, -1));
+        assertTrue(UInt64.compareUnsigned(0, 1) < 0);
+        assertTrue(UInt64.compareUnsigned(Long.MAX_VALUE, Long.MIN_VALUE) < 0);
+        assertTrue(UInt64.compareUnsigned(Long.MIN_VALUE, Long.MAX_VALUE) > 0);
+        assertTrue(UInt64.compareUnsigned(-1, 0) > 0);
+        assertTrue(UInt64.compareUnsigned(-1, Long.MIN_VALUE) > 0);
+        
+        Random random = new Random(1);
+        for(int i = 0; i < 10000; i++) {
+            long a = random.nextLong();
+            long b = random.nextLong();
+            assertEquals(unsigned(a).compareTo(unsigned(b)), Integer.signum(UInt64.compareUnsigned(a, b)));
+        }
+    }
+    
+    @Test
+    public void valueKeepsAll64Bits() {
+        for(long value: new long[] {0, 1, Long.MAX_VALUE, Long.MIN_VALUE, -1}) {
+            UInt64 uint = new UInt64(value);
+            assertEquals(value, uint.getValue());
+            assertEquals(unsigned(value), uint.getBigIntegerValue());
+            assertEquals(value, new UInt64(unsigned(value)).getValue());
+            assertEquals(UInt64.nanosToMillis(value), uint.getMillis());
+        }
+    }
+    
+    @Test
+    public void timeFieldsAreNanoseconds() {
+        long millis = 1400000000000L;
+        UInt64 time = UInt64.fromMillis(millis);
+        assertEquals(millis * 1000000, time.getValue());
+        assertEquals(millis, time.getMillis());
+    }
+    
+    private static BigInteger unsigned(long value) {
+        BigInteger big = BigInteger.valueOf(value);
+        return value < 0 ? big.add(TWO_TO_THE_64) : big;
+    }
+}
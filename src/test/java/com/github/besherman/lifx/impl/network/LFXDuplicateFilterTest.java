@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXDuplicateFilterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    @Test
+    public void copyWithinWindowIsDuplicate() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(200, 16);
+        assertFalse(filter.isDuplicate(1, 42, 0));
+        assertTrue(filter.isDuplicate(1, 42, 1 * MS));
+        assertTrue(filter.isDuplicate(1, 42, 199 * MS));
+    }
+    
+    @Test
+    public void windowStartsWhenFirstSeen() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(200, 16);
+        assertFalse(filter.isDuplicate(1, 42, 0));
+        assertTrue(filter.isDuplicate(1, 42, 150 * MS));
+        // the copy did not extend the window
+        assertFalse(filter.isDuplicate(1, 42, 200 * MS));
+        assertTrue(filter.isDuplicate(1, 42, 201 * MS));
+    }
+    
+    @Test
+    public void onlyLastMessageOfStreamIsRemembered() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(200, 16);
+        assertFalse(filter.isDuplicate(1, 42, 0));
+        assertFalse(filter.isDuplicate(1, 43, 1 * MS));
+        assertFalse(filter.isDuplicate(1, 42, 2 * MS));
+    }
+    
+    @Test
+    public void streamsAreKeptApart() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(200, 16);
+        assertFalse(filter.isDuplicate(1, 42, 0));
+        assertFalse(filter.isDuplicate(2, 43, 1 * MS));
+        assertTrue(filter.isDuplicate(1, 42, 2 * MS));
+        assertTrue(filter.isDuplicate(2, 43, 3 * MS));
+    }
+    
+    @Test
+    public void zeroHashIsNeverDuplicate() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(200, 16);
+        assertFalse(filter.isDuplicate(1, 0, 0));
+        assertFalse(filter.isDuplicate(1, 0, 1 * MS));
+    }
+    
+    @Test
+    public void zeroWindowTurnsFilterOff() {
+        LFXDuplicateFilter filter = new LFXDuplicateFilter(0, 16);
+        assertFalse(filter.isDuplicate(1, 42, 0));
+        assertFalse(filter.isDuplicate(1, 42, 0));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWindowIsRejected() {
+        new LFXDuplicateFilter(-1, 16);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTableIsRejected() {
+        new LFXDuplicateFilter(200, 0);
+    }
+}
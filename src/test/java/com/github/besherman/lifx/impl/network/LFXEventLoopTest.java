@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt8;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the event loop over loopback channels, with a socket standing in 
+ * for a gateway.
+ */
+public class LFXEventLoopTest {
+    private final LFXSiteID site = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 0});
+    private final LFXDeviceID gatewayID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 0});
+    private final Map<String, String> savedProperties = new HashMap<>();
+    
+    private DatagramSocket gateway;
+    private InetSocketAddress gatewayAddress;
+    private LFXNetworkStatistics statistics;
+    private LFXSendQueue queue;
+    private LFXRoutingTable routingTable;
+    private LFXMessageRouter router;
+    private LFXInterfaceChannels channels;
+    private LFXEventLoop loop;
+    private Thread loopThread;
+    
+    @Before
+    public void setUp() throws Exception {
+        gateway = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        gateway.setSoTimeout(2000);
+        gatewayAddress = (InetSocketAddress)gateway.getLocalSocketAddress();
+    }
+    
+    @After
+    public void tearDown() throws InterruptedException {
+        if(loop != null) {
+            loop.close();
+            loopThread.join(2000);
+            channels.close();
+        }
+        gateway.close();
+        for(Map.Entry<String, String> e: savedProperties.entrySet()) {
+            if(e.getValue() == null) {
+                System.clearProperty(e.getKey());
+            } else {
+                System.setProperty(e.getKey(), e.getValue());
+            }
+        }
+    }
+    
+    @Test
+    public void receivedMessagesAreRouted() throws Exception {
+        start();
+        byte[] pan = new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(gatewayID)), 
+                new LxProtocolDevice.StatePanGateway(null, new UInt8(1), new UInt32(gatewayAddress.getPort())))
+                .getMessageDataRepresentation();
+        gateway.send(new DatagramPacket(pan, pan.length, new InetSocketAddress("127.0.0.1", 56700)));
+        
+        long deadline = System.currentTimeMillis() + 2000;
+        while(!routingTable.getAllSites().contains(site) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(routingTable.getAllSites().contains(site));
+    }
+    
+    @Test
+    public void sendsArePacedAndInOrder() throws Exception {
+        start();
+        int count = 5;
+        for(int i = 0; i < count; i++) {
+            assertTrue(queue.offer(new LFXSocketMessage(setLabel(Integer.toString(i)), gatewayAddress, 
+                    LFXSocketMessage.HIGH_PRIORITY)));
+        }
+        
+        long first = 0;
+        long last = 0;
+        for(int i = 0; i < count; i++) {
+            LFXMessage received = receive();
+            last = System.nanoTime();
+            if(i == 0) {
+                first = last;
+            }
+            LxProtocolDevice.SetLabel payload = received.getPayload();
+            assertEquals(Integer.toString(i), payload.getLabel());
+        }
+        
+        // the first goes at once, the others wait for a token each
+        long interval = TimeUnit.SECONDS.toNanos(1) / (long)LFXConstants.getSendLaneRate();
+        assertTrue(last - first >= (count - 1) * interval - TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    
+    @Test
+    public void tasksRunOnTheLoopByDeadline() throws Exception {
+        start();
+        LFXTimerQueue timerQueue = router.createTimerQueue();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch done = new CountDownLatch(3);
+        for(final int delay: new int[] {60, 20, 40}) {
+            timerQueue.doLater(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(delay);
+                    threads.add(Thread.currentThread());
+                    done.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(20, 40, 60), order);
+        for(Thread thread: threads) {
+            assertSame(loopThread, thread);
+        }
+        timerQueue.close();
+    }
+    
+    @Test
+    public void failingTaskDoesNotStopTheLoop() throws Exception {
+        start();
+        Logger logger = Logger.getLogger(LFXEventLoop.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            LFXTimerQueue timerQueue = router.createTimerQueue();
+            final CountDownLatch repeated = new CountDownLatch(3);
+            Object key = timerQueue.doRepeatedly(new Runnable() {
+                @Override
+                public void run() {
+                    repeated.countDown();
+                    throw new IllegalStateException("task failed");
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            assertTrue(repeated.await(2, TimeUnit.SECONDS));
+            timerQueue.cancel(key);
+            timerQueue.close();
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+    
+    @Test
+    public void blockPolicyDropsOnTheLoopThread() throws Exception {
+        setProperty("outgoingQueueSize", "1");
+        setProperty("outgoingQueuePolicy", "BLOCK");
+        start();
+        
+        // the loop is the only thread that empties the queue, if it waited
+        // for room the task would never finish
+        LFXTimerQueue timerQueue = router.createTimerQueue();
+        final boolean[] added = new boolean[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        timerQueue.doLater(new Runnable() {
+            @Override
+            public void run() {
+                added[0] = queue.offer(new LFXSocketMessage(setLabel("0"), gatewayAddress, LFXSocketMessage.HIGH_PRIORITY));
+                added[1] = queue.offer(new LFXSocketMessage(setLabel("1"), gatewayAddress, LFXSocketMessage.HIGH_PRIORITY));
+                done.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        assertTrue("the loop thread must not wait for room", done.await(2, TimeUnit.SECONDS));
+        assertTrue(added[0]);
+        assertFalse(added[1]);
+        
+        LxProtocolDevice.SetLabel payload = receive().getPayload();
+        assertEquals("0", payload.getLabel());
+        timerQueue.close();
+    }
+    
+    private void start() throws Exception {
+        LFXNetworkSettings settings = new LFXNetworkSettings("127.0.0.1");
+        statistics = new LFXNetworkStatistics();
+        queue = new LFXSendQueue(statistics, Collections.<LFXSendQueueListener>emptyList());
+        routingTable = new LFXRoutingTable();
+        router = new LFXMessageRouter(settings, new LFXLightHandlerModel(), queue, statistics, 
+                routingTable, Collections.<LFXResponseTrackerListener>emptyList());
+        channels = new LFXInterfaceChannels(settings);
+        loop = new LFXEventLoop(router, queue, channels);
+        router.setEventLoop(loop);
+        loopThread = new Thread(loop, "LIFX Event Loop");
+        loopThread.start();
+    }
+    
+    /**
+     * Receives the next message sent to the gateway. The router's discovery
+     * broadcasts go to the loop's own port, not here.
+     */
+    private LFXMessage receive() throws Exception {
+        byte[] buf = new byte[255];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        gateway.receive(packet);
+        return new LFXMessage(Arrays.copyOf(buf, packet.getLength()));
+    }
+    
+    private static LFXMessage setLabel(String label) {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_LABEL, LFXTarget.getBroadcastTarget(), 
+                new LxProtocolDevice.SetLabel(label));
+    }
+    
+    private void setProperty(String name, String value) {
+        String key = "com.github.besherman.lifx." + name;
+        if(!savedProperties.containsKey(key)) {
+            savedProperties.put(key, System.getProperty(key));
+        }
+        System.setProperty(key, value);
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt16;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt32;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt8;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LFXMessageRouterTest {
+    private static final int TYPE_INDEX = 32;
+    
+    private final LFXSiteID site = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 0});
+    private final LFXDeviceID gatewayID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 0});
+    private final LFXDeviceID lightID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 1});
+    private InetAddress gateway;
+    
+    private LFXNetworkStatistics statistics;
+    private LFXSendQueue queue;
+    private LFXRoutingTable routingTable;
+    private LFXMessageRouter router;
+    private final List<LFXMessage> handled = Collections.synchronizedList(new ArrayList<LFXMessage>());
+    private final Map<String, String> savedProperties = new HashMap<>();
+    
+    @Before
+    public void setUp() throws Exception {
+        gateway = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+        statistics = new LFXNetworkStatistics();
+        queue = new LFXSendQueue(statistics, Collections.<LFXSendQueueListener>emptyList());
+        routingTable = new LFXRoutingTable();
+        
+        router = new LFXMessageRouter(new LFXNetworkSettings("255.255.255.255"), createHandlers(), queue, statistics, 
+                routingTable, Collections.<LFXResponseTrackerListener>emptyList());
+        router.open();
+        
+        LxProtocolDevice.StatePanGateway pan = new LxProtocolDevice.StatePanGateway(null, 
+                new UInt8(1), new UInt32(56700));
+        router.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(gatewayID)), pan).getMessageDataRepresentation()), gateway);
+        assertTrue(routingTable.getAllSites().contains(site));
+    }
+    
+    @After
+    public void tearDown() {
+        router.close();
+        for(Map.Entry<String, String> e: savedProperties.entrySet()) {
+            if(e.getValue() == null) {
+                System.clearProperty(e.getKey());
+            } else {
+                System.setProperty(e.getKey(), e.getValue());
+            }
+        }
+    }
+    
+    @Test
+    public void duplicateIsKeptFromHandlersOnly() throws InterruptedException {
+        byte[] label = new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                new LxProtocolDevice.StateLabel(null, "one")).getMessageDataRepresentation();
+        
+        router.handleMessageData(ByteBuffer.wrap(label), gateway);
+        assertEquals(1, handled.size());
+        assertTrue(routingTable.getLightsAtSite(site).contains(lightID));
+        
+        // ask for the label and let the copy of the previous answer be the 
+        // answer to it
+        assertTrue(router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL, new LFXTarget(lightID))));
+        assertNotNull(takeSent(Type.LX_PROTOCOL_DEVICE_GET_LABEL));
+        
+        router.handleMessageData(ByteBuffer.wrap(label), gateway);
+        assertEquals(1, handled.size());
+        assertEquals(1, statistics.getReceiveDropCount(LFXReceiveDropReason.DUPLICATE));
+        
+        LFXRttEstimator rtt = router.getRoundTripTimes().get(lightID);
+        assertNotNull("the duplicate must answer the request", rtt);
+        assertEquals(1, rtt.getSampleCount());
+    }
+    
+    @Test
+    public void differentMessageIsNotADuplicate() {
+        router.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                new LxProtocolDevice.StateLabel(null, "one")).getMessageDataRepresentation()), gateway);
+        router.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                new LxProtocolDevice.StateLabel(null, "two")).getMessageDataRepresentation()), gateway);
+        assertEquals(2, handled.size());
+        assertEquals(0, statistics.getReceiveDropCount(LFXReceiveDropReason.DUPLICATE));
+    }
+    
+    @Test
+    public void requestIsNotAResponse() {
+        router.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(lightID))).getMessageDataRepresentation()), gateway);
+        assertTrue(handled.isEmpty());
+        assertDropped(statistics, LFXReceiveDropReason.NOT_A_RESPONSE);
+    }
+    
+    @Test
+    public void shortOrUnknownMessageIsMalformed() {
+        router.handleMessageData(ByteBuffer.wrap(new byte[10]), gateway);
+        assertDropped(statistics, LFXReceiveDropReason.MALFORMED);
+        
+        byte[] data = stateLabel(lightID, "one");
+        data[TYPE_INDEX] = (byte)0xff;
+        data[TYPE_INDEX + 1] = (byte)0xff;
+        router.handleMessageData(ByteBuffer.wrap(data), gateway);
+        assertTrue(handled.isEmpty());
+        assertEquals(2, statistics.getReceiveDropCount(LFXReceiveDropReason.MALFORMED));
+    }
+    
+    @Test
+    public void messageFromOwnAddressIsDropped() throws Exception {
+        LFXNetworkSettings settings = new LFXNetworkSettings("255.255.255.255");
+        settings.getInterfaces();
+        InetAddress own = findOwnAddress();
+        Assume.assumeNotNull(own);
+        assertTrue(settings.isOwnAddress(own));
+        
+        router.handleMessageData(ByteBuffer.wrap(stateLabel(lightID, "one")), own);
+        assertTrue(handled.isEmpty());
+        assertFalse(routingTable.getLightsAtSite(site).contains(lightID));
+        assertDropped(statistics, LFXReceiveDropReason.OWN_ADDRESS);
+    }
+    
+    @Test
+    public void typeNoOneSubscribesToIsDroppedUnlessRequested() throws InterruptedException {
+        LFXNetworkStatistics subscribedStatistics = new LFXNetworkStatistics();
+        LFXRoutingTable subscribedTable = new LFXRoutingTable();
+        LFXSendQueue subscribedQueue = new LFXSendQueue(subscribedStatistics, 
+                Collections.<LFXSendQueueListener>emptyList());
+        LFXMessageRouter subscribedRouter = new LFXMessageRouter(new LFXNetworkSettings("255.255.255.255"), 
+                createHandlers(EnumSet.of(Type.LX_PROTOCOL_DEVICE_STATE_POWER)), subscribedQueue, 
+                subscribedStatistics, subscribedTable, Collections.<LFXResponseTrackerListener>emptyList());
+        subscribedRouter.open();
+        try {
+            subscribedRouter.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY, 
+                    new LFXBinaryPath(site, new LFXBinaryTargetID(gatewayID)), 
+                    new LxProtocolDevice.StatePanGateway(null, new UInt8(1), new UInt32(56700)))
+                    .getMessageDataRepresentation()), gateway);
+            subscribedRouter.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_POWER, 
+                    new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                    new LxProtocolDevice.StatePower(new UInt16(0))).getMessageDataRepresentation()), gateway);
+            assertEquals(1, handled.size());
+            assertTrue(subscribedTable.getLightsAtSite(site).contains(lightID));
+            
+            subscribedRouter.handleMessageData(ByteBuffer.wrap(stateLabel(lightID, "one")), gateway);
+            assertEquals(1, handled.size());
+            assertDropped(subscribedStatistics, LFXReceiveDropReason.NOT_SUBSCRIBED);
+            
+            // once asked for, the response is let through to the tracker
+            assertTrue(subscribedRouter.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL, 
+                    new LFXTarget(lightID))));
+            assertNotNull(takeSent(subscribedQueue, Type.LX_PROTOCOL_DEVICE_GET_LABEL));
+            subscribedRouter.handleMessageData(ByteBuffer.wrap(stateLabel(lightID, "two")), gateway);
+            assertEquals(1, subscribedStatistics.getReceiveDropCount(LFXReceiveDropReason.NOT_SUBSCRIBED));
+            LFXRttEstimator rtt = subscribedRouter.getRoundTripTimes().get(lightID);
+            assertNotNull("the response must reach the tracker", rtt);
+            assertEquals(1, rtt.getSampleCount());
+        } finally {
+            subscribedRouter.close();
+        }
+    }
+    
+    @Test
+    public void setPowerToTheSameLightIsCoalesced() throws InterruptedException {
+        addLight(lightID);
+        
+        assertTrue(router.sendMessage(setPower(lightID, 0xffff)));
+        assertTrue(router.sendMessage(setPower(lightID, 0)));
+        assertEquals(1, statistics.getReplacedCount());
+        
+        List<LFXMessage> sent = takeAllSent(Type.LX_PROTOCOL_DEVICE_SET_POWER);
+        assertEquals(1, sent.size());
+        assertEquals(0, ((LxProtocolDevice.SetPower)sent.get(0).getPayload()).getLevel().getValue());
+    }
+    
+    @Test
+    public void setPowerToDifferentLightsIsNotCoalesced() throws InterruptedException {
+        LFXDeviceID otherID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 2});
+        addLight(lightID);
+        addLight(otherID);
+        
+        assertTrue(router.sendMessage(setPower(lightID, 0xffff)));
+        assertTrue(router.sendMessage(setPower(otherID, 0xffff)));
+        assertEquals(0, statistics.getReplacedCount());
+        assertEquals(2, takeAllSent(Type.LX_PROTOCOL_DEVICE_SET_POWER).size());
+    }
+    
+    @Test
+    public void setLabelIsNotCoalesced() throws InterruptedException {
+        addLight(lightID);
+        
+        assertTrue(router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_LABEL, new LFXTarget(lightID), 
+                new LxProtocolDevice.SetLabel("one"))));
+        assertTrue(router.sendMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_LABEL, new LFXTarget(lightID), 
+                new LxProtocolDevice.SetLabel("two"))));
+        assertEquals(0, statistics.getReplacedCount());
+        assertEquals(2, takeAllSent(Type.LX_PROTOCOL_DEVICE_SET_LABEL).size());
+    }
+    
+    @Test
+    public void copiesOfOneSendAreNotCoalesced() throws InterruptedException {
+        addLight(lightID);
+        
+        assertTrue(router.sendMessage(setPower(lightID, 0xffff), 3));
+        assertEquals(0, statistics.getReplacedCount());
+        assertEquals(3, takeAllSent(Type.LX_PROTOCOL_DEVICE_SET_POWER).size());
+    }
+    
+    @Test
+    public void backgroundMessagesAreDroppedWhenQueueIsFullUnderThrow() throws InterruptedException {
+        setProperty("outgoingQueueSize", "1");
+        setProperty("outgoingQueuePolicy", "THROW");
+        LFXNetworkStatistics fullStatistics = new LFXNetworkStatistics();
+        LFXSendQueue fullQueue = new LFXSendQueue(fullStatistics, Collections.<LFXSendQueueListener>emptyList());
+        assertTrue(fullQueue.offer(new LFXSocketMessage(new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL), 
+                new InetSocketAddress(gateway, 56700), LFXSocketMessage.LOW_PRIORITY)));
+        
+        LFXRoutingTable fullTable = new LFXRoutingTable();
+        LFXMessageRouter fullRouter = new LFXMessageRouter(new LFXNetworkSettings("255.255.255.255"), 
+                createHandlers(), fullQueue, fullStatistics, fullTable, 
+                Collections.<LFXResponseTrackerListener>emptyList());
+        fullRouter.open();
+        try {
+            // the discovery at open and one second later, three broadcasts
+            // each, must all be dropped without stopping the timer
+            long deadline = System.currentTimeMillis() + 3000;
+            while(fullStatistics.getDroppedCount() < 6 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(fullStatistics.getDroppedCount() >= 6);
+            
+            // the lights asked for when a gateway is found, and the tags 
+            // asked for when a light is found, are dropped as well
+            long dropped = fullStatistics.getDroppedCount();
+            fullRouter.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_PAN_GATEWAY, 
+                    new LFXBinaryPath(site, new LFXBinaryTargetID(gatewayID)), 
+                    new LxProtocolDevice.StatePanGateway(null, new UInt8(1), new UInt32(56700)))
+                    .getMessageDataRepresentation()), gateway);
+            fullRouter.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                    new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                    new LxProtocolDevice.StateLabel(null, "one")).getMessageDataRepresentation()), gateway);
+            assertTrue(fullTable.getLightsAtSite(site).contains(lightID));
+            assertTrue(fullStatistics.getDroppedCount() >= dropped + 2);
+            
+            // while the sends of the user still throw
+            try {
+                fullRouter.sendMessage(setPower(lightID, 0));
+                fail("expected IllegalStateException");
+            } catch(IllegalStateException ex) {
+                // expected
+            }
+        } finally {
+            fullRouter.close();
+        }
+    }
+    
+    private LFXLightHandlerModel createHandlers() {
+        return createHandlers(null);
+    }
+    
+    /**
+     * Returns handlers that subscribe to the types, or to everything if 
+     * types is null, and record what they get.
+     */
+    private LFXLightHandlerModel createHandlers(final Set<Type> types) {
+        LFXLightHandlerModel handlers = new LFXLightHandlerModel();
+        handlers.addLightHandler(new LFXLightHandler() {
+            @Override
+            public void setRouter(LFXMessageRouter router) {
+            }
+
+            @Override
+            public void handleMessage(Set<LFXDeviceID> targets, LFXMessage message) {
+                handled.add(message);
+            }
+
+            @Override
+            public Set<Type> getSubscribedTypes() {
+                return types;
+            }
+
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return handlers;
+    }
+    
+    /**
+     * Checks that exactly one message has been dropped, for the reason.
+     */
+    private static void assertDropped(LFXNetworkStatistics statistics, LFXReceiveDropReason reason) {
+        for(LFXReceiveDropReason r: LFXReceiveDropReason.values()) {
+            assertEquals(r.name(), r == reason ? 1 : 0, statistics.getReceiveDropCount(r));
+        }
+    }
+    
+    private byte[] stateLabel(LFXDeviceID id, String label) {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, new LFXBinaryPath(site, new LFXBinaryTargetID(id)), 
+                new LxProtocolDevice.StateLabel(null, label)).getMessageDataRepresentation();
+    }
+    
+    /**
+     * Returns an address of an interface that is up and not a loopback, or
+     * null if there is none.
+     */
+    private static InetAddress findOwnAddress() throws SocketException {
+        for(NetworkInterface iface: Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if(iface.isUp() && !iface.isLoopback() && iface.getInetAddresses().hasMoreElements()) {
+                return iface.getInetAddresses().nextElement();
+            }
+        }
+        return null;
+    }
+    
+    private void addLight(LFXDeviceID id) {
+        router.handleMessageData(ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(id)), 
+                new LxProtocolDevice.StateLabel(null, id.toString())).getMessageDataRepresentation()), gateway);
+        assertTrue(routingTable.getLightsAtSite(site).contains(id));
+    }
+    
+    private static LFXMessage setPower(LFXDeviceID id, int level) {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_POWER, new LFXTarget(id), 
+                new LxProtocolDevice.SetPower(new UInt16(level)));
+    }
+    
+    /**
+     * Takes all messages from the outgoing queue, like the writer does, and
+     * returns the ones of the type. The router's own discovery messages may
+     * be added meanwhile, so the size of the queue can not be used.
+     */
+    private List<LFXMessage> takeAllSent(Type type) throws InterruptedException {
+        List<LFXMessage> sent = new ArrayList<>();
+        LFXSocketMessage sm;
+        while((sm = queue.poll(200, TimeUnit.MILLISECONDS)) != null) {
+            if(sm.getMessage().getType() == type) {
+                sent.add(sm.getMessage());
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * Takes messages from the outgoing queue, like the writer does, until 
+     * one of the type is found.
+     */
+    private LFXSocketMessage takeSent(Type type) throws InterruptedException {
+        return takeSent(queue, type);
+    }
+    
+    private static LFXSocketMessage takeSent(LFXSendQueue queue, Type type) throws InterruptedException {
+        LFXSocketMessage sm;
+        while((sm = queue.poll(1, TimeUnit.SECONDS)) != null) {
+            if(sm.getMessage().getType() == type) {
+                return sm;
+            }
+        }
+        return null;
+    }
+    
+    private void setProperty(String name, String value) {
+        String key = "com.github.besherman.lifx." + name;
+        if(!savedProperties.containsKey(key)) {
+            savedProperties.put(key, System.getProperty(key));
+        }
+        System.setProperty(key, value);
+    }
+}
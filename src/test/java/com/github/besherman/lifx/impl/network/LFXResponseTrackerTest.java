@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LFXResponseTrackerTest {
+    private final LFXSiteID site = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 0});
+    private final LFXDeviceID lightID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 1});
+    private final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 56700);
+    
+    private final Map<String, String> savedProperties = new HashMap<>();
+    private LFXNetworkStatistics statistics;
+    private LFXRoutingTable routingTable;
+    private LFXSendQueue outgoingQueue;
+    private LFXResponseTracker tracker;
+    private final BlockingQueue<LFXAbandonReason> abandoned = new LinkedBlockingQueue<>();
+    
+    // stands in for the writer
+    private volatile boolean running = true;
+    private final AtomicInteger written = new AtomicInteger();
+    private Thread writer;
+    
+    @Before
+    public void setUp() {
+        setProperty("responseTrackerInterval", "10");
+        setProperty("responseTrackerTimeout", "50");
+        setProperty("responseTrackerMinTimeout", "20");
+        setProperty("responseTrackerMaxTimeout", "200");
+        setProperty("responseTrackerMaxResends", "3");
+        
+        statistics = new LFXNetworkStatistics();
+        routingTable = new LFXRoutingTable();
+        tracker = new LFXResponseTracker(routingTable, statistics, Collections.<LFXResponseTrackerListener>singletonList(
+                new LFXResponseTrackerListener() {
+            @Override
+            public void requestAbandoned(LFXMessage request, LFXDeviceID device, Type expectedResponse, LFXAbandonReason reason) {
+                assertEquals(lightID, device);
+                assertEquals(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, expectedResponse);
+                abandoned.add(reason);
+            }
+        }));
+        outgoingQueue = new LFXSendQueue(statistics, Collections.<LFXSendQueueListener>emptyList());
+        tracker.setOutgoingQueue(outgoingQueue);
+    }
+    
+    @After
+    public void tearDown() throws InterruptedException {
+        running = false;
+        if(writer != null) {
+            writer.join();
+        }
+        tracker.close();
+        for(Map.Entry<String, String> e: savedProperties.entrySet()) {
+            if(e.getValue() == null) {
+                System.clearProperty(e.getKey());
+            } else {
+                System.setProperty(e.getKey(), e.getValue());
+            }
+        }
+    }
+    
+    @Test
+    public void responseToSingleSendIsSampled() {
+        open();
+        routingTable.updateTableWithLight(stateLabel());
+        
+        send(getLabel());
+        tracker.updateReponse(stateLabel());
+        
+        LFXRttEstimator rtt = tracker.getRoundTripTime(lightID);
+        assertNotNull(rtt);
+        assertEquals(1, rtt.getSampleCount());
+    }
+    
+    @Test
+    public void responseToReplacedRequestIsNotSampled() {
+        open();
+        routingTable.updateTableWithLight(stateLabel());
+        
+        // the response could answer either of them
+        send(getLabel());
+        send(getLabel());
+        tracker.updateReponse(stateLabel());
+        
+        assertNull(tracker.getRoundTripTime(lightID));
+    }
+    
+    @Test
+    public void givesUpAfterMaxResends() throws InterruptedException {
+        open();
+        routingTable.updateTableWithLight(stateLabel());
+        
+        send(getLabel());
+        assertEquals(LFXAbandonReason.NO_RESPONSE, abandoned.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, statistics.getResentCount() + statistics.getResendSkippedCount());
+        assertEquals(1, statistics.getAbandonedCount());
+        
+        // an answer that comes after that is not sampled
+        tracker.updateReponse(stateLabel());
+        assertNull(tracker.getRoundTripTime(lightID));
+    }
+    
+    @Test
+    public void resendsBeyondTheBudgetAreSkipped() throws InterruptedException {
+        setProperty("responseTrackerRetryBudget", "1");
+        open();
+        routingTable.updateTableWithLight(stateLabel());
+        
+        send(getLabel());
+        assertEquals(LFXAbandonReason.NO_RESPONSE, abandoned.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, statistics.getResentCount());
+        assertEquals(2, statistics.getResendSkippedCount());
+    }
+    
+    @Test
+    public void answeredRequestIsNotResent() throws InterruptedException {
+        open();
+        routingTable.updateTableWithLight(stateLabel());
+        
+        send(getLabel());
+        tracker.updateReponse(stateLabel());
+        assertNull(abandoned.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(0, statistics.getResentCount());
+    }
+    
+    @Test
+    public void requestStillInTheLaneIsNotResent() throws InterruptedException {
+        tracker.open(new LFXTimerQueue());
+        routingTable.updateTableWithLight(stateLabel());
+        
+        // nothing drains the lane, as if the message was held back behind 
+        // other messages for longer than all the resends would take
+        LFXMessage message = getLabel();
+        LFXSocketMessage sm = new LFXSocketMessage(message, address, LFXSocketMessage.LOW_PRIORITY);
+        assertTrue(outgoingQueue.offer(sm));
+        tracker.trackResponse(message, sm);
+        
+        assertNull(abandoned.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, outgoingQueue.size());
+        assertEquals(0, statistics.getResentCount() + statistics.getResendSkippedCount());
+        
+        // once it has been sent it is resent as usual
+        startWriter();
+        assertEquals(LFXAbandonReason.NO_RESPONSE, abandoned.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, statistics.getResentCount());
+        assertEquals(4, written.get());
+    }
+    
+    @Test
+    public void requestToLostLightIsAbandoned() throws InterruptedException {
+        open();
+        
+        // the routing table has never heard from the light
+        send(getLabel());
+        assertEquals(LFXAbandonReason.LIGHT_LOST, abandoned.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, statistics.getResentCount());
+    }
+    
+    private void open() {
+        tracker.open(new LFXTimerQueue());
+        startWriter();
+    }
+    
+    /**
+     * Starts taking the messages from the send queue, like the writer.
+     */
+    private void startWriter() {
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(running) {
+                        if(outgoingQueue.poll(10, TimeUnit.MILLISECONDS) != null) {
+                            written.incrementAndGet();
+                        }
+                    }
+                } catch(InterruptedException ex) {
+                    // stopped
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    private void send(LFXMessage message) {
+        LFXSocketMessage sm = new LFXSocketMessage(message, address, LFXSocketMessage.HIGH_PRIORITY);
+        sm.markSent(System.nanoTime());
+        tracker.trackResponse(message, sm);
+    }
+    
+    private LFXMessage getLabel() {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL, new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)));
+    }
+    
+    private LFXMessage stateLabel() {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                new LxProtocolDevice.StateLabel(null, "light"));
+    }
+    
+    private void setProperty(String name, String value) {
+        String key = "com.github.besherman.lifx." + name;
+        if(!savedProperties.containsKey(key)) {
+            savedProperties.put(key, System.getProperty(key));
+        }
+        System.setProperty(key, value);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTagMask;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import com.github.besherman.lifx.impl.entities.internal.structle.StructleTypes.UInt64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LFXRoutingTableTest {
+    // enough lights to fill a few chunks of a site
+    private static final int LIGHTS = 200;
+    
+    private final LFXSiteID site = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 1});
+    private final LFXSiteID otherSite = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 2});
+    private LFXRoutingTable table;
+    
+    @Before
+    public void setUp() {
+        table = new LFXRoutingTable(35000, 20000, Collections.<LFXRoutingTableListener>emptyList());
+    }
+    
+    @Test
+    public void lightsAreIndexedBySite() {
+        for(int i = 0; i < LIGHTS; i++) {
+            assertEquals(light(i), table.updateTableWithLight(label(site, i)));
+        }
+        assertNull(table.updateTableWithLight(label(site, 0)));
+        
+        assertEquals(LIGHTS, table.getLightsAtSite(site).size());
+        assertTrue(table.getLightsAtSite(otherSite).isEmpty());
+        assertEquals(site, table.getLightsSiteID(light(LIGHTS - 1)));
+    }
+    
+    @Test
+    public void lightMovesBetweenSites() {
+        table.updateTableWithLight(label(site, 1));
+        table.updateTableWithLight(label(site, 2));
+        table.updateTableWithLight(tags(site, 1, LFXTagMask.of(LFXTagID.TAG_01)));
+        
+        long version = table.getVersion();
+        table.updateTableWithLight(label(otherSite, 1));
+        assertTrue(table.getVersion() > version);
+        
+        assertEquals(Collections.singleton(light(2)), table.getLightsAtSite(site));
+        assertEquals(Collections.singleton(light(1)), table.getLightsAtSite(otherSite));
+        assertEquals(otherSite, table.getLightsSiteID(light(1)));
+        assertEquals(Collections.singleton(otherSite), table.getSiteIDsWhereLightHasTag(LFXTagID.TAG_01));
+    }
+    
+    @Test
+    public void lightsAreIndexedByTag() {
+        Set<LFXDeviceID> kitchen = new HashSet<>();
+        Set<LFXDeviceID> hall = new HashSet<>();
+        for(int i = 0; i < LIGHTS; i++) {
+            table.updateTableWithLight(label(site, i));
+            LFXTagMask tags = LFXTagMask.NONE;
+            if(i % 3 == 0) {
+                tags = tags.with(LFXTagID.TAG_01);
+                kitchen.add(light(i));
+            }
+            if(i % 5 == 0) {
+                tags = tags.with(LFXTagID.TAG_64);
+                hall.add(light(i));
+            }
+            table.updateTableWithLight(tags(site, i, tags));
+        }
+        
+        assertEquals(kitchen, table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_01)));
+        assertEquals(hall, table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_64)));
+        Set<LFXDeviceID> either = new HashSet<>(kitchen);
+        either.addAll(hall);
+        assertEquals(either, table.getLightsAtSiteWithTags(site, 
+                LFXTagMask.of(LFXTagID.TAG_01).with(LFXTagID.TAG_64)));
+        assertTrue(table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_02)).isEmpty());
+        assertEquals(Collections.singleton(site), table.getSiteIDsWhereLightHasTag(LFXTagID.TAG_64));
+        
+        // what was read before a change is not changed by it
+        Set<LFXDeviceID> before = table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_64));
+        for(int i = 0; i < LIGHTS; i += 5) {
+            table.updateTableWithLight(tags(site, i, i % 3 == 0 ? LFXTagMask.of(LFXTagID.TAG_01) : LFXTagMask.NONE));
+        }
+        assertEquals(hall, before);
+        assertTrue(table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_64)).isEmpty());
+        assertTrue(table.getSiteIDsWhereLightHasTag(LFXTagID.TAG_64).isEmpty());
+        assertEquals(kitchen, table.getLightsAtSiteWithTags(site, LFXTagMask.of(LFXTagID.TAG_01)));
+    }
+    
+    @Test
+    public void lostLightsAreRemovedWithoutNewMessages() throws InterruptedException {
+        final Set<LFXDeviceID> lost = Collections.synchronizedSet(new HashSet<LFXDeviceID>());
+        table = new LFXRoutingTable(100, 100, Collections.<LFXRoutingTableListener>singletonList(
+                new LFXRoutingTableListener() {
+            @Override
+            public void gatewayLost(LFXSiteID site) {
+            }
+
+            @Override
+            public void lightLost(LFXDeviceID device) {
+                lost.add(device);
+            }
+        }));
+        table.updateTableWithLight(label(site, 1));
+        assertTrue(table.isLightStillAlive(light(1)));
+        
+        // the router's timer does this every second
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(lost.isEmpty() && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(50);
+            table.removeLostEntries();
+        }
+        assertEquals(Collections.singleton(light(1)), lost);
+        assertFalse(table.isLightStillAlive(light(1)));
+        assertTrue(table.getLightsAtSite(site).isEmpty());
+        assertNull(table.getLightsSiteID(light(1)));
+    }
+    
+    private static LFXDeviceID light(int i) {
+        return LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, (byte)(i >> 8), (byte)i});
+    }
+    
+    private static LFXMessage label(LFXSiteID site, int i) {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(light(i))), 
+                new LxProtocolDevice.StateLabel(null, "light " + i));
+    }
+    
+    private static LFXMessage tags(LFXSiteID site, int i, LFXTagMask tags) {
+        return new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_TAGS, 
+                new LFXBinaryPath(site, new LFXBinaryTargetID(light(i))), 
+                new LxProtocolDevice.StateTags(null, new UInt64(tags.toLong())));
+    }
+}
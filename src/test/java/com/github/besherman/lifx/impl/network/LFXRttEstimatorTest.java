@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXRttEstimatorTest {
+    
+    @Test
+    public void initialTimeoutUntilFirstSample() {
+        LFXRttEstimator rtt = new LFXRttEstimator(500, 100, 5000, TimeUnit.MILLISECONDS);
+        assertEquals(0, rtt.getSampleCount());
+        assertEquals(500, rtt.getTimeout(TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void firstSampleSetsSmoothedAndDeviation() {
+        LFXRttEstimator rtt = new LFXRttEstimator(500, 10, 5000, TimeUnit.MILLISECONDS);
+        rtt.addSample(40, TimeUnit.MILLISECONDS);
+        assertEquals(1, rtt.getSampleCount());
+        assertEquals(40, rtt.getSmoothedRoundTripTime(TimeUnit.MILLISECONDS));
+        assertEquals(20, rtt.getRoundTripTimeDeviation(TimeUnit.MILLISECONDS));
+        // smoothed + 4 * deviation
+        assertEquals(120, rtt.getTimeout(TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void steadySamplesConvergeAndDeviationShrinks() {
+        LFXRttEstimator rtt = new LFXRttEstimator(500, 1, 5000, TimeUnit.MILLISECONDS);
+        rtt.addSample(200, TimeUnit.MILLISECONDS);
+        for(int i = 0; i < 100; i++) {
+            rtt.addSample(20, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(20, rtt.getSmoothedRoundTripTime(TimeUnit.MILLISECONDS));
+        assertTrue(rtt.getRoundTripTimeDeviation(TimeUnit.MILLISECONDS) <= 1);
+        assertTrue(rtt.getTimeout(TimeUnit.MILLISECONDS) < 30);
+    }
+    
+    @Test
+    public void sampleMovesAnEighthOfTheWay() {
+        LFXRttEstimator rtt = new LFXRttEstimator(500, 1, 5000, TimeUnit.MILLISECONDS);
+        rtt.addSample(80, TimeUnit.MILLISECONDS);
+        rtt.addSample(160, TimeUnit.MILLISECONDS);
+        assertEquals(90, rtt.getSmoothedRoundTripTime(TimeUnit.MILLISECONDS));
+        // 40 + (80 - 40) / 4
+        assertEquals(50, rtt.getRoundTripTimeDeviation(TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void timeoutIsClamped() {
+        LFXRttEstimator rtt = new LFXRttEstimator(500, 100, 1000, TimeUnit.MILLISECONDS);
+        rtt.addSample(1, TimeUnit.MILLISECONDS);
+        assertEquals(100, rtt.getTimeout(TimeUnit.MILLISECONDS));
+        
+        rtt = new LFXRttEstimator(500, 100, 1000, TimeUnit.MILLISECONDS);
+        rtt.addSample(2, TimeUnit.SECONDS);
+        assertEquals(1000, rtt.getTimeout(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LFXSendQueueTest {
+    private final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 56700);
+    private final Map<String, String> savedProperties = new HashMap<>();
+    private LFXNetworkStatistics statistics;
+    private LFXSendQueue queue;
+    
+    @Before
+    public void setUp() {
+        statistics = new LFXNetworkStatistics();
+        queue = new LFXSendQueue(statistics, Collections.<LFXSendQueueListener>emptyList());
+    }
+    
+    @After
+    public void tearDown() {
+        for(Map.Entry<String, String> e: savedProperties.entrySet()) {
+            if(e.getValue() == null) {
+                System.clearProperty(e.getKey());
+            } else {
+                System.setProperty(e.getKey(), e.getValue());
+            }
+        }
+    }
+    
+    @Test
+    public void copiesOfOneSendAreAllSent() throws InterruptedException {
+        LFXMessage message = setPower();
+        for(int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(new LFXSocketMessage(message, address, LFXSocketMessage.HIGH_PRIORITY, "power")));
+        }
+        assertEquals(3, queue.size());
+        
+        for(int i = 0; i < 3; i++) {
+            LFXSocketMessage sent = queue.poll(1, TimeUnit.SECONDS);
+            assertNotNull(sent);
+            assertSame(message, sent.getMessage());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, statistics.getReplacedCount());
+    }
+    
+    @Test
+    public void newerMessageReplacesWaitingOne() throws InterruptedException {
+        LFXMessage first = setPower();
+        LFXMessage second = setPower();
+        assertTrue(queue.offer(new LFXSocketMessage(first, address, LFXSocketMessage.HIGH_PRIORITY, "power")));
+        assertTrue(queue.offer(new LFXSocketMessage(second, address, LFXSocketMessage.HIGH_PRIORITY, "power")));
+        assertEquals(1, queue.size());
+        assertEquals(1, statistics.getReplacedCount());
+        
+        assertSame(second, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void streamOfCopiedSendsKeepsOneMessagePerCopy() throws InterruptedException {
+        LFXMessage last = null;
+        for(int i = 0; i < 10; i++) {
+            last = setPower();
+            LFXSocketMessage first = new LFXSocketMessage(last, address, LFXSocketMessage.HIGH_PRIORITY, "power");
+            assertTrue(queue.offer(first));
+            assertTrue(queue.offer(first.copy()));
+            assertEquals(2, queue.size());
+        }
+        assertEquals(18, statistics.getReplacedCount());
+        
+        // both copies of the last send are sent
+        assertSame(last, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertSame(last, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void copiesOfNewSendReplaceCopiesThatAreLeft() throws InterruptedException {
+        LFXSocketMessage first = new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY, "power");
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(first.copy()));
+        assertTrue(queue.offer(first.copy()));
+        assertNotNull(queue.poll(1, TimeUnit.SECONDS));
+        
+        // two copies are still waiting, the third copy gets a new place
+        LFXMessage newer = setPower();
+        LFXSocketMessage second = new LFXSocketMessage(newer, address, LFXSocketMessage.HIGH_PRIORITY, "power");
+        assertTrue(queue.offer(second));
+        assertTrue(queue.offer(second.copy()));
+        assertTrue(queue.offer(second.copy()));
+        assertEquals(3, queue.size());
+        
+        for(int i = 0; i < 3; i++) {
+            assertSame(newer, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        }
+    }
+    
+    @Test
+    public void messagesWithoutKeyAreNeverCoalesced() throws InterruptedException {
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertEquals(2, queue.size());
+        assertEquals(0, statistics.getReplacedCount());
+    }
+    
+    @Test
+    public void sentMessageIsNotReplaced() throws InterruptedException {
+        LFXMessage first = setPower();
+        LFXMessage second = setPower();
+        assertTrue(queue.offer(new LFXSocketMessage(first, address, LFXSocketMessage.HIGH_PRIORITY, "power")));
+        assertSame(first, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        
+        assertTrue(queue.offer(new LFXSocketMessage(second, address, LFXSocketMessage.HIGH_PRIORITY, "power")));
+        assertSame(second, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertEquals(0, statistics.getReplacedCount());
+    }
+    
+    @Test
+    public void resendOfWaitingMessageIsNotQueuedTwice() throws InterruptedException {
+        // resends have no coalesce key
+        LFXSocketMessage sm = new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY);
+        assertTrue(queue.offer(sm));
+        assertTrue(sm.isQueued());
+        assertTrue(queue.tryOffer(sm));
+        assertEquals(1, queue.size());
+        
+        assertSame(sm, queue.poll(1, TimeUnit.SECONDS));
+        assertFalse(sm.isQueued());
+        assertTrue(queue.tryOffer(sm));
+        assertEquals(1, queue.size());
+    }
+    
+    @Test
+    public void eachGatewayHasItsOwnLane() {
+        InetSocketAddress other = new InetSocketAddress("127.0.0.2", 56700);
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), other, LFXSocketMessage.HIGH_PRIORITY)));
+        
+        // one from each lane at once, then the first lane waits for a token
+        LFXSocketMessage first = queue.pollReady();
+        LFXSocketMessage second = queue.pollReady();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertFalse(first.getAddress().equals(second.getAddress()));
+        assertNull(queue.pollReady());
+        assertTrue(queue.nanosUntilReady() > 0);
+        assertEquals(1, queue.size());
+    }
+    
+    @Test
+    public void laneIsPaced() throws InterruptedException {
+        for(int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / (long)LFXConstants.getSendLaneRate();
+        long start = System.nanoTime();
+        for(int i = 0; i < 3; i++) {
+            assertNotNull(queue.poll(1, TimeUnit.SECONDS));
+        }
+        // the first one goes at once, the others wait for a token each
+        assertTrue(System.nanoTime() - start >= 2 * interval - TimeUnit.MILLISECONDS.toNanos(2));
+    }
+    
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        openQueue(2, LFXSendQueuePolicy.DROP_NEWEST);
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        assertFalse(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertEquals(2, queue.size());
+        assertEquals(1, statistics.getDroppedCount());
+    }
+    
+    @Test
+    public void dropOldestRemovesOldestLowPriority() throws InterruptedException {
+        openQueue(3, LFXSendQueuePolicy.DROP_OLDEST);
+        LFXMessage high = setPower();
+        LFXMessage oldest = setPower();
+        LFXMessage older = setPower();
+        LFXMessage newest = setPower();
+        assertTrue(queue.offer(new LFXSocketMessage(high, address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(oldest, address, LFXSocketMessage.LOW_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(older, address, LFXSocketMessage.LOW_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(newest, address, LFXSocketMessage.LOW_PRIORITY)));
+        assertEquals(3, queue.size());
+        assertEquals(1, statistics.getDroppedCount());
+        
+        assertSame(high, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertSame(older, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertSame(newest, queue.poll(1, TimeUnit.SECONDS).getMessage());
+    }
+    
+    @Test
+    public void dropOldestNeverRemovesHighPriority() {
+        openQueue(2, LFXSendQueuePolicy.DROP_OLDEST);
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.HIGH_PRIORITY)));
+        assertFalse(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        assertEquals(2, queue.size());
+        assertEquals(1, statistics.getDroppedCount());
+    }
+    
+    @Test
+    public void throwPolicyThrowsWhenFull() {
+        openQueue(1, LFXSendQueuePolicy.THROW);
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        try {
+            queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY));
+            fail("expected IllegalStateException");
+        } catch(IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(1, queue.size());
+        assertEquals(1, statistics.getDroppedCount());
+        
+        // resends are dropped instead
+        assertFalse(queue.tryOffer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+    }
+    
+    @Test
+    public void blockPolicyWaitsForRoom() throws InterruptedException {
+        openQueue(1, LFXSendQueuePolicy.BLOCK);
+        assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        
+        final LFXMessage waiting = setPower();
+        final AtomicBoolean added = new AtomicBoolean();
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                added.set(queue.offer(new LFXSocketMessage(waiting, address, LFXSocketMessage.LOW_PRIORITY)));
+            }
+        };
+        sender.start();
+        sender.join(100);
+        assertTrue("the sender must wait while the queue is full", sender.isAlive());
+        
+        assertNotNull(queue.poll(1, TimeUnit.SECONDS));
+        sender.join(1000);
+        assertFalse(sender.isAlive());
+        assertTrue(added.get());
+        assertSame(waiting, queue.poll(1, TimeUnit.SECONDS).getMessage());
+        assertEquals(0, statistics.getDroppedCount());
+    }
+    
+    @Test
+    public void watermarksAreReportedOncePerCrossing() throws InterruptedException {
+        setProperty("outgoingQueueHighWatermark", "4");
+        setProperty("outgoingQueueLowWatermark", "2");
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        List<LFXSendQueueListener> listeners = new ArrayList<>();
+        listeners.add(new LFXSendQueueListener() {
+            @Override
+            public void highWatermarkReached(int queueSize) {
+                events.add("high " + queueSize);
+            }
+
+            @Override
+            public void lowWatermarkReached(int queueSize) {
+                events.add("low " + queueSize);
+            }
+        });
+        openQueue(10, LFXSendQueuePolicy.DROP_NEWEST, listeners);
+        
+        for(int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(new LFXSocketMessage(setPower(), address, LFXSocketMessage.LOW_PRIORITY)));
+        }
+        assertEquals(Collections.singletonList("high 4"), events);
+        assertEquals(1, statistics.getHighWatermarkCount());
+        
+        for(int i = 0; i < 3; i++) {
+            assertNotNull(queue.poll(1, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("high 4", "low 2"), events);
+    }
+    
+    private void openQueue(int size, LFXSendQueuePolicy policy) {
+        openQueue(size, policy, Collections.<LFXSendQueueListener>emptyList());
+    }
+    
+    private void openQueue(int size, LFXSendQueuePolicy policy, List<LFXSendQueueListener> listeners) {
+        setProperty("outgoingQueueSize", Integer.toString(size));
+        setProperty("outgoingQueuePolicy", policy.name());
+        queue = new LFXSendQueue(statistics, listeners);
+    }
+    
+    private void setProperty(String name, String value) {
+        String key = "com.github.besherman.lifx." + name;
+        if(!savedProperties.containsKey(key)) {
+            savedProperties.put(key, System.getProperty(key));
+        }
+        System.setProperty(key, value);
+    }
+    
+    private static LFXMessage setPower() {
+        return new LFXMessage(LxProtocol.Type.LX_PROTOCOL_DEVICE_SET_POWER, LFXTarget.getBroadcastTarget());
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import com.github.besherman.lifx.LFXSendQueueListener;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryPath;
+import com.github.besherman.lifx.impl.entities.internal.LFXBinaryTargetID;
+import com.github.besherman.lifx.impl.entities.internal.LFXDeviceID;
+import com.github.besherman.lifx.impl.entities.internal.LFXMessage;
+import com.github.besherman.lifx.impl.entities.internal.LFXSiteID;
+import com.github.besherman.lifx.impl.entities.internal.LFXTarget;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocol.Type;
+import com.github.besherman.lifx.impl.entities.internal.structle.LxProtocolDevice;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link LFXTcpConnections} against a stand-in gateway on the loopback
+ * interface that answers every GET_LABEL with a STATE_LABEL.
+ */
+public class LFXTcpConnectionsTest {
+    private static final int MESSAGES = 50;
+    
+    private final LFXSiteID site = LFXSiteID.valueOf(new byte[] {'L', 'I', 'F', 'X', 0, 0});
+    private final LFXDeviceID lightID = LFXDeviceID.valueOf(new byte[] {1, 2, 3, 4, 5, 1});
+    
+    private String dropOwnPackets;
+    private ServerSocket server;
+    private InetSocketAddress address;
+    private final BlockingQueue<LFXMessage> routingQueue = new LinkedBlockingQueue<>();
+    private LFXTcpConnections connections;
+    
+    @Before
+    public void setUp() throws IOException {
+        // the stand-in gateway is on one of our own addresses
+        dropOwnPackets = System.setProperty("com.github.besherman.lifx.dropOwnPackets", "false");
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        
+        LFXNetworkStatistics statistics = new LFXNetworkStatistics();
+        LFXMessageRouter router = new LFXMessageRouter(new LFXNetworkSettings("255.255.255.255"), 
+                new LFXLightHandlerModel(), 
+                new LFXSendQueue(statistics, Collections.<LFXSendQueueListener>emptyList()), statistics);
+        connections = new LFXTcpConnections(router, routingQueue);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        connections.close();
+        server.close();
+        if(dropOwnPackets == null) {
+            System.clearProperty("com.github.besherman.lifx.dropOwnPackets");
+        } else {
+            System.setProperty("com.github.besherman.lifx.dropOwnPackets", dropOwnPackets);
+        }
+    }
+    
+    @Test
+    public void pipelinedMessagesAreFramedAndAnswered() throws Exception {
+        final Socket[] accepted = new Socket[1];
+        Thread gateway = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    accepted[0] = socket;
+                    answerAll(socket);
+                } catch(IOException ex) {
+                    // the test fails on the missing answers
+                }
+            }
+        });
+        gateway.setDaemon(true);
+        gateway.start();
+        
+        connect();
+        
+        // sent back to back without waiting for the answers
+        for(int i = 0; i < MESSAGES; i++) {
+            assertTrue(connections.send(address, getLabel()));
+        }
+        
+        for(int i = 0; i < MESSAGES; i++) {
+            LFXMessage answer = routingQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("missing answer " + i, answer);
+            assertEquals(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, answer.getType());
+            assertEquals("label " + i, ((LxProtocolDevice.StateLabel)answer.getPayload()).getLabel());
+        }
+        
+        // when the gateway drops the connection the messages must go over
+        // UDP instead
+        accepted[0].close();
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(connections.send(address, getLabel())) {
+            assertTrue("the dropped connection was still used", System.currentTimeMillis() < giveUp);
+            Thread.sleep(10);
+        }
+    }
+    
+    @Test
+    public void sendFallsBackToUdpWithoutConnection() throws Exception {
+        server.close();
+        assertFalse(connections.send(address, getLabel()));
+        Thread.sleep(200);
+        assertFalse(connections.send(address, getLabel()));
+    }
+    
+    @Test
+    public void copiesGoOverUdpWhileConnectionIsDown() throws Exception {
+        server.close();
+        
+        // the connection is opened lazily and then fails, all the time 
+        // the message must still be sent as many times as it was asked to
+        LFXSocketMessage[] copies = setLabelCopies(3);
+        int overUdp = 0;
+        for(LFXSocketMessage copy: copies) {
+            if(!connections.send(copy, encode(copy))) {
+                overUdp++;
+            }
+        }
+        assertEquals(3, overUdp);
+        
+        Thread.sleep(200);
+        overUdp = 0;
+        for(LFXSocketMessage copy: setLabelCopies(3)) {
+            if(!connections.send(copy, encode(copy))) {
+                overUdp++;
+            }
+        }
+        assertEquals(3, overUdp);
+    }
+    
+    @Test
+    public void copiesAreSkippedWhenFirstGoesOverTcp() throws Exception {
+        Thread gateway = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    answerAll(server.accept());
+                } catch(IOException ex) {
+                    // the test fails on the missing answers
+                }
+            }
+        });
+        gateway.setDaemon(true);
+        gateway.start();
+        
+        connect();
+        
+        LFXSocketMessage[] copies = setLabelCopies(3);
+        assertTrue(connections.send(copies[0], encode(copies[0])));
+        assertTrue(copies[0].isSentOverStream());
+        for(int i = 1; i < copies.length; i++) {
+            assertTrue(connections.send(copies[i], encode(copies[i])));
+            assertFalse(copies[i].isSentOverStream());
+        }
+    }
+    
+    /**
+     * Sends messages until the connection is open.
+     */
+    private void connect() throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(!connections.send(address, getLabel())) {
+            assertTrue("never connected", System.currentTimeMillis() < giveUp);
+            Thread.sleep(10);
+        }
+        
+        // the answer to the message that opened the connection
+        assertNotNull(routingQueue.poll(5, TimeUnit.SECONDS));
+        routingQueue.clear();
+    }
+    
+    /**
+     * Reads size prefixed messages and answers the GET_LABELs, the answers 
+     * to the messages that arrive together are written together.
+     */
+    private void answerAll(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        ByteArrayOutputStream answers = new ByteArrayOutputStream();
+        int answered = -1;
+        while(true) {
+            byte[] sizeBytes = new byte[2];
+            in.readFully(sizeBytes);
+            int size = (sizeBytes[0] & 0xff) | ((sizeBytes[1] & 0xff) << 8);
+            byte[] data = new byte[size];
+            data[0] = sizeBytes[0];
+            data[1] = sizeBytes[1];
+            in.readFully(data, 2, size - 2);
+            
+            LFXMessage request = new LFXMessage(data);
+            if(request.getType() == Type.LX_PROTOCOL_DEVICE_GET_LABEL) {
+                String label = answered < 0 ? "first" : "label " + answered;
+                answered++;
+                answers.write(new LFXMessage(Type.LX_PROTOCOL_DEVICE_STATE_LABEL, 
+                        new LFXBinaryPath(site, new LFXBinaryTargetID(lightID)), 
+                        new LxProtocolDevice.StateLabel(null, label)).getMessageDataRepresentation());
+            }
+            if(in.available() == 0) {
+                out.write(answers.toByteArray());
+                out.flush();
+                answers.reset();
+            }
+        }
+    }
+    
+    private LFXSocketMessage[] setLabelCopies(int count) {
+        LFXMessage message = new LFXMessage(Type.LX_PROTOCOL_DEVICE_SET_LABEL, new LFXTarget(lightID), 
+                new LxProtocolDevice.SetLabel("light"));
+        LFXSocketMessage[] copies = new LFXSocketMessage[count];
+        copies[0] = new LFXSocketMessage(message, new InetSocketAddress(InetAddress.getLoopbackAddress(), 56700), 
+                null, address, LFXSocketMessage.HIGH_PRIORITY, null);
+        for(int i = 1; i < count; i++) {
+            copies[i] = copies[0].copy();
+        }
+        return copies;
+    }
+    
+    private ByteBuffer encode(LFXSocketMessage message) {
+        return ByteBuffer.wrap(message.getMessage().getMessageDataRepresentation());
+    }
+    
+    private ByteBuffer getLabel() {
+        return ByteBuffer.wrap(new LFXMessage(Type.LX_PROTOCOL_DEVICE_GET_LABEL, 
+                new LFXTarget(lightID)).getMessageDataRepresentation());
+    }
+}
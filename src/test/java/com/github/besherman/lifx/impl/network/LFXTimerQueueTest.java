@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LFXTimerQueueTest {
+    private final Logger logger = Logger.getLogger(LFXTimerQueue.class.getName());
+    private Level level;
+    private LFXTimerQueue failing;
+    private LFXTimerQueue other;
+    
+    @Before
+    public void setUp() {
+        // the failing task is logged as SEVERE
+        level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        
+        LFXTimerQueue.SharedTimer timer = new LFXTimerQueue.SharedTimer();
+        failing = new LFXTimerQueue(timer);
+        other = new LFXTimerQueue(timer);
+    }
+    
+    @After
+    public void tearDown() {
+        failing.close();
+        other.close();
+        logger.setLevel(level);
+    }
+    
+    @Test
+    public void failingTaskDoesNotStopSharedTimer() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        failing.doLater(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("task failed");
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        other.doLater(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        
+        // and new tasks can still be scheduled
+        final CountDownLatch scheduled = new CountDownLatch(1);
+        failing.doLater(new Runnable() {
+            @Override
+            public void run() {
+                scheduled.countDown();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        assertTrue(scheduled.await(1, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void failingRepeatedTaskKeepsRunning() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(3);
+        failing.doRepeatedly(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+                throw new IllegalStateException("task failed");
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXTimingWheelTest {
+    private static final long TIMEOUT = 5000;
+    private static final long TICK = 1000;
+    
+    @Test
+    public void untouchedKeyExpiresWithinATick() {
+        LFXTimingWheel<String> wheel = new LFXTimingWheel<>(TIMEOUT, TICK, 8, 0);
+        assertTrue(wheel.touch("a", 0));
+        assertFalse(wheel.touch("a", 0));
+        
+        for(long now = 0; now <= TIMEOUT; now += 100) {
+            assertTrue(wheel.expire(now).isEmpty());
+        }
+        List<String> expired = Collections.emptyList();
+        long now = TIMEOUT;
+        while(expired.isEmpty()) {
+            now += 100;
+            expired = wheel.expire(now);
+        }
+        assertEquals(Arrays.asList("a"), expired);
+        assertTrue(now <= TIMEOUT + 2 * TICK);
+        assertFalse(wheel.contains("a"));
+        assertEquals(0, wheel.size());
+    }
+    
+    @Test
+    public void touchedKeyIsKept() {
+        LFXTimingWheel<String> wheel = new LFXTimingWheel<>(TIMEOUT, TICK, 8, 0);
+        wheel.touch("kept", 0);
+        wheel.touch("lost", 0);
+        for(long now = 0; now < 20000; now += 500) {
+            wheel.touch("kept", now);
+            List<String> expired = wheel.expire(now);
+            assertFalse(expired.contains("kept"));
+        }
+        assertTrue(wheel.contains("kept"));
+        assertFalse(wheel.contains("lost"));
+    }
+    
+    @Test
+    public void removedKeyDoesNotExpire() {
+        LFXTimingWheel<String> wheel = new LFXTimingWheel<>(TIMEOUT, TICK, 8, 0);
+        wheel.touch("a", 0);
+        assertTrue(wheel.remove("a"));
+        assertFalse(wheel.remove("a"));
+        assertTrue(wheel.expire(TIMEOUT * 3).isEmpty());
+        
+        // touching it again starts over
+        assertTrue(wheel.touch("a", TIMEOUT * 3));
+        assertTrue(wheel.expire(TIMEOUT * 3 + TICK).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.expire(TIMEOUT * 5));
+    }
+    
+    @Test
+    public void timeoutLongerThanATurn() {
+        // 5 seconds with 2 buckets of one second, the key goes around the
+        // wheel a few times
+        LFXTimingWheel<String> wheel = new LFXTimingWheel<>(TIMEOUT, TICK, 2, 0);
+        wheel.touch("a", 0);
+        for(long now = 0; now <= TIMEOUT; now += 100) {
+            assertTrue(wheel.expire(now).isEmpty());
+        }
+        assertEquals(Arrays.asList("a"), wheel.expire(TIMEOUT + 2 * TICK));
+    }
+    
+    @Test
+    public void longGapExpiresEverything() {
+        LFXTimingWheel<Integer> wheel = new LFXTimingWheel<>(TIMEOUT, TICK, 8, 0);
+        for(int i = 0; i < 100; i++) {
+            wheel.touch(i, i * 100);
+        }
+        List<Integer> expired = wheel.expire(TIMEOUT * 100);
+        assertEquals(100, expired.size());
+        assertEquals(100, new HashSet<>(expired).size());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Richard Löfberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.besherman.lifx.impl.network;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LFXTokenBucketTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    @Test
+    public void burstIsAvailableAtOnce() {
+        LFXTokenBucket bucket = new LFXTokenBucket(10, 3);
+        long now = System.nanoTime();
+        assertTrue(bucket.isFull(now));
+        assertTrue(bucket.tryTake(now));
+        assertTrue(bucket.tryTake(now));
+        assertTrue(bucket.tryTake(now));
+        assertFalse(bucket.tryTake(now));
+        assertFalse(bucket.isFull(now));
+    }
+    
+    @Test
+    public void tokensAreAddedAtTheRate() {
+        LFXTokenBucket bucket = new LFXTokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(now));
+        
+        long wait = bucket.nanosUntilAvailable(now);
+        assertTrue(wait > 99 * MILLIS && wait <= 100 * MILLIS);
+        assertFalse(bucket.tryTake(now + 50 * MILLIS));
+        assertEquals(0, bucket.nanosUntilAvailable(now + 100 * MILLIS));
+        assertTrue(bucket.tryTake(now + 100 * MILLIS));
+        assertFalse(bucket.tryTake(now + 100 * MILLIS));
+    }
+    
+    @Test
+    public void idleBucketHoldsNoMoreThanTheBurst() {
+        LFXTokenBucket bucket = new LFXTokenBucket(10, 2);
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        assertTrue(bucket.isFull(now));
+        assertTrue(bucket.tryTake(now));
+        assertTrue(bucket.tryTake(now));
+        assertFalse(bucket.tryTake(now));
+    }
+    
+    @Test
+    public void timeGoingBackwardsAddsNothing() {
+        LFXTokenBucket bucket = new LFXTokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryTake(now));
+        assertFalse(bucket.tryTake(now - TimeUnit.SECONDS.toNanos(1)));
+        assertFalse(bucket.tryTake(now));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new LFXTokenBucket(0, 1);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void burstMustBeAtLeastOne() {
+        new LFXTokenBucket(10, 0);
+    }
+}